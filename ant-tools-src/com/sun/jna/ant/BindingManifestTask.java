@@ -0,0 +1,127 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+
+package com.sun.jna.ant;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.Path;
+
+/**
+ * Generate binding manifests for direct-mapped classes, which allow
+ * <code>Native.register</code> to skip analyzing the native methods of the
+ * classes at runtime.
+ *
+ * <pre>
+ * &lt;taskdef name="BindingManifest" classname="com.sun.jna.ant.BindingManifestTask" classpath="..."/&gt;
+ * &lt;BindingManifest destdir="${classes}" classes="com.example.LibC$Direct"&gt;
+ *     &lt;classpath&gt;
+ *         &lt;pathelement location="${classes}"/&gt;
+ *         &lt;pathelement location="jna.jar"/&gt;
+ *     &lt;/classpath&gt;
+ * &lt;/BindingManifest&gt;
+ * </pre>
+ *
+ * <p>The class path must include JNA and the mapped classes; the classes
+ * are loaded but not initialized.</p>
+ */
+public class BindingManifestTask {
+
+    private File destdir;
+    private String classes;
+    private Path classpath;
+    private Project project;
+
+    public void setProject(Project proj) {
+        project = proj;
+    }
+
+    /**
+     * Directory the manifests are written to, usually the class output
+     * directory.
+     *
+     * @param destdir
+     */
+    public void setDestdir(File destdir) {
+        this.destdir = destdir;
+    }
+
+    /**
+     * Comma or whitespace separated names of the direct-mapped classes.
+     *
+     * @param classes
+     */
+    public void setClasses(String classes) {
+        this.classes = classes;
+    }
+
+    public Path createClasspath() {
+        if (classpath == null) {
+            classpath = new Path(project);
+        }
+        return classpath.createPath();
+    }
+
+    public void execute() throws Exception {
+        if (destdir == null || classes == null || classpath == null) {
+            throw new BuildException("destdir, classes and classpath are required");
+        }
+        List<String> args = new ArrayList<String>();
+        args.add(destdir.getAbsolutePath());
+        for (String name : classes.split("[,\\s]+")) {
+            if (!name.isEmpty()) {
+                args.add(name);
+            }
+        }
+        if (args.size() < 2) {
+            throw new BuildException("No classes given");
+        }
+        String[] elements = classpath.list();
+        URL[] urls = new URL[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            urls[i] = new File(elements[i]).toURI().toURL();
+        }
+        URLClassLoader loader = new URLClassLoader(urls, ClassLoader.getSystemClassLoader().getParent());
+        Thread thread = Thread.currentThread();
+        ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(loader);
+        try {
+            Class<?> generator = Class.forName("com.sun.jna.BindingManifest", true, loader);
+            Method main = generator.getDeclaredMethod("main", String[].class);
+            main.setAccessible(true);
+            main.invoke(null, (Object) args.toArray(new String[0]));
+        } catch (InvocationTargetException e) {
+            throw new BuildException("Failed to generate binding manifests", e.getCause());
+        } finally {
+            thread.setContextClassLoader(previous);
+            loader.close();
+        }
+    }
+}
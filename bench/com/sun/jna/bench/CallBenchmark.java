@@ -0,0 +1,100 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jna.Function;
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+
+/**
+ * Cost of a trivial native call (<code>int returnInt32Argument(int)</code>)
+ * through each of the calling styles.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CallBenchmark {
+
+    public interface TestLibrary extends Library {
+        int returnInt32Argument(int arg);
+    }
+
+    public static class DirectTestLibrary {
+        public static native int returnInt32Argument(int arg);
+        static {
+            Native.register(BenchmarkSupport.TESTLIB);
+        }
+    }
+
+    private TestLibrary library;
+    private Function function;
+    private Object[] args;
+    private int value;
+
+    @Setup
+    public void setup() {
+        library = Native.load(BenchmarkSupport.TESTLIB, TestLibrary.class);
+        function = NativeLibrary.getInstance(BenchmarkSupport.TESTLIB).getFunction("returnInt32Argument");
+        args = new Object[] { Integer.valueOf(42) };
+        value = 42;
+        // Force registration of the direct mapping
+        DirectTestLibrary.returnInt32Argument(0);
+    }
+
+    @Benchmark
+    public int interfaceMapped() {
+        return library.returnInt32Argument(value);
+    }
+
+    @Benchmark
+    public int directMapped() {
+        return DirectTestLibrary.returnInt32Argument(value);
+    }
+
+    @Benchmark
+    public int functionInvoke() {
+        return function.invokeInt(args);
+    }
+
+    @Benchmark
+    public Object functionInvokeObject() {
+        return function.invoke(Integer.class, args);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jna.Callback;
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+
+/**
+ * Cost of a native call which calls back into Java once
+ * (<code>callInt32Callback</code>), for interface and direct mapping.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CallbackBenchmark {
+
+    public interface Int32Callback extends Callback {
+        int callback(int arg, int arg2);
+    }
+
+    public interface TestLibrary extends Library {
+        int callInt32Callback(Int32Callback cb, int arg, int arg2);
+    }
+
+    public static class DirectTestLibrary {
+        public static native int callInt32Callback(Int32Callback cb, int arg, int arg2);
+        static {
+            Native.register(BenchmarkSupport.TESTLIB);
+        }
+    }
+
+    private TestLibrary library;
+    private Int32Callback callback;
+
+    @Setup
+    public void setup() {
+        library = Native.load(BenchmarkSupport.TESTLIB, TestLibrary.class);
+        callback = new Int32Callback() {
+            @Override
+            public int callback(int arg, int arg2) {
+                return arg + arg2;
+            }
+        };
+    }
+
+    @Benchmark
+    public int interfaceMapped() {
+        return library.callInt32Callback(callback, 1, 2);
+    }
+
+    @Benchmark
+    public int directMapped() {
+        return DirectTestLibrary.callInt32Callback(callback, 1, 2);
+    }
+}
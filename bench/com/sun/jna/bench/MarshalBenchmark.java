@@ -0,0 +1,124 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import com.sun.jna.Structure;
+
+/**
+ * Cost of converting <code>String</code>, <code>String[]</code> and
+ * {@link Structure} arguments, for interface and direct mapping.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MarshalBenchmark {
+
+    @Structure.FieldOrder({ "int8Field", "int16Field", "int32Field", "int64Field", "floatField", "doubleField" })
+    public static class TestStructure extends Structure {
+        public byte int8Field;
+        public short int16Field;
+        public int int32Field;
+        public long int64Field;
+        public float floatField;
+        public double doubleField;
+    }
+
+    public interface TestLibrary extends Library {
+        String returnStringArgument(String arg);
+        String returnStringArrayElement(String[] args, int which);
+        Pointer testStructurePointerArgument(TestStructure arg);
+    }
+
+    public static class DirectTestLibrary {
+        public static native String returnStringArgument(String arg);
+        public static native Pointer testStructurePointerArgument(TestStructure arg);
+        static {
+            Native.register(BenchmarkSupport.TESTLIB);
+        }
+    }
+
+    @Param({ "8", "256" })
+    public int length;
+
+    private TestLibrary library;
+    private String string;
+    private String[] strings;
+    private TestStructure structure;
+
+    @Setup
+    public void setup() {
+        library = Native.load(BenchmarkSupport.TESTLIB, TestLibrary.class);
+        StringBuilder sb = new StringBuilder();
+        for (int i=0;i < length;i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        string = sb.toString();
+        strings = new String[] { string, string, string, string };
+        structure = new TestStructure();
+    }
+
+    @Benchmark
+    public String stringArgument() {
+        return library.returnStringArgument(string);
+    }
+
+    @Benchmark
+    public String stringArgumentDirect() {
+        return DirectTestLibrary.returnStringArgument(string);
+    }
+
+    @Benchmark
+    public String stringArrayArgument() {
+        return library.returnStringArrayElement(strings, 3);
+    }
+
+    @Benchmark
+    public Pointer structureArgument() {
+        return library.testStructurePointerArgument(structure);
+    }
+
+    @Benchmark
+    public Pointer structureArgumentDirect() {
+        return DirectTestLibrary.testStructurePointerArgument(structure);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna.bench;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+/**
+ * Cost of element-wise and bulk reads from native memory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PointerBenchmark {
+
+    @Param({ "64", "4096", "65536" })
+    public int size;
+
+    private Memory memory;
+    private Pointer pointer;
+    private byte[] bytes;
+    private int[] ints;
+
+    @Setup
+    public void setup() {
+        memory = new Memory(size);
+        for (int i=0;i < size;i++) {
+            memory.setByte(i, (byte) i);
+        }
+        // Plain pointer to the same memory, without bounds checks
+        pointer = new Pointer(Pointer.nativeValue(memory));
+        bytes = new byte[size];
+        ints = new int[size / 4];
+    }
+
+    @Benchmark
+    public int getInt() {
+        int sum = 0;
+        for (int i=0;i < size;i+=4) {
+            sum += memory.getInt(i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public byte[] readBytes() {
+        memory.read(0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    @Benchmark
+    public byte[] readBytesUnchecked() {
+        pointer.read(0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    @Benchmark
+    public int[] readInts() {
+        memory.read(0, ints, 0, ints.length);
+        return ints;
+    }
+
+    @Benchmark
+    public byte[] getByteArray() {
+        return memory.getByteArray(0, size);
+    }
+
+    @Benchmark
+    public ByteBuffer getByteBuffer() {
+        return memory.getByteBuffer(0, size);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna.bench;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+
+/**
+ * Cost of registering a direct mapped class, with all symbols resolved
+ * up front versus bound on first call
+ * ({@link Library#OPTION_LAZY_REGISTRATION}).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RegistrationBenchmark {
+
+    public static class TestLibrary {
+        public static native int returnInt32Zero();
+        public static native int returnInt32Magic();
+        public static native int returnInt32Argument(int arg);
+        public static native long returnInt64Zero();
+        public static native long returnInt64Magic();
+        public static native long returnInt64Argument(long arg);
+        public static native float returnFloatZero();
+        public static native float returnFloatMagic();
+        public static native float returnFloatArgument(float arg);
+        public static native double returnDoubleZero();
+        public static native double returnDoubleMagic();
+        public static native double returnDoubleArgument(double arg);
+        public static native boolean returnBooleanArgument(boolean arg);
+        public static native String returnStringArgument(String arg);
+        public static native void setLastError(int err);
+    }
+
+    private NativeLibrary eager;
+    private NativeLibrary lazy;
+
+    @Setup
+    public void setup() {
+        eager = NativeLibrary.getInstance(BenchmarkSupport.TESTLIB);
+        lazy = NativeLibrary.getInstance(BenchmarkSupport.TESTLIB,
+                                         Collections.singletonMap(Library.OPTION_LAZY_REGISTRATION, Boolean.TRUE));
+    }
+
+    @TearDown
+    public void tearDown() {
+        Native.unregister(TestLibrary.class);
+    }
+
+    @Benchmark
+    public void eager() {
+        Native.register(TestLibrary.class, eager);
+        Native.unregister(TestLibrary.class);
+    }
+
+    @Benchmark
+    public void lazy() {
+        Native.register(TestLibrary.class, lazy);
+        Native.unregister(TestLibrary.class);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jna.Structure;
+
+/**
+ * Cost of {@link Structure#read()} and {@link Structure#write()} by number
+ * of fields.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StructureBenchmark {
+
+    @Structure.FieldOrder({ "f0" })
+    public static class Fields1 extends Structure {
+        public int f0;
+    }
+
+    @Structure.FieldOrder({ "f0", "f1", "f2", "f3", "f4", "f5", "f6", "f7" })
+    public static class Fields8 extends Structure {
+        public int f0, f1, f2, f3, f4, f5, f6, f7;
+    }
+
+    @Structure.FieldOrder({ "f0", "f1", "f2", "f3", "f4", "f5", "f6", "f7",
+                            "f8", "f9", "f10", "f11", "f12", "f13", "f14", "f15",
+                            "f16", "f17", "f18", "f19", "f20", "f21", "f22", "f23",
+                            "f24", "f25", "f26", "f27", "f28", "f29", "f30", "f31" })
+    public static class Fields32 extends Structure {
+        public int f0, f1, f2, f3, f4, f5, f6, f7;
+        public int f8, f9, f10, f11, f12, f13, f14, f15;
+        public int f16, f17, f18, f19, f20, f21, f22, f23;
+        public int f24, f25, f26, f27, f28, f29, f30, f31;
+    }
+
+    @Param({ "1", "8", "32" })
+    public int fields;
+
+    private Structure structure;
+
+    @Setup
+    public void setup() {
+        switch (fields) {
+        case 1: structure = new Fields1(); break;
+        case 8: structure = new Fields8(); break;
+        case 32: structure = new Fields32(); break;
+        default: throw new IllegalArgumentException("Unsupported field count: " + fields);
+        }
+    }
+
+    @Benchmark
+    public Structure read() {
+        structure.read();
+        return structure;
+    }
+
+    @Benchmark
+    public Structure write() {
+        structure.write();
+        return structure;
+    }
+
+    @Benchmark
+    public Object readField() {
+        return structure.readField("f0");
+    }
+}
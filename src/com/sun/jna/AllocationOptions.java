@@ -0,0 +1,131 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+/**
+ * Options controlling how {@link Memory#Memory(long, AllocationOptions)}
+ * obtains native memory, for large, long-lived allocations where alignment,
+ * TLB coverage or NUMA locality matter.
+ * <p>
+ * Huge pages and NUMA binding are only available on Linux.  Options which
+ * can not be honored on the running system are ignored (a message is
+ * logged at level <code>FINE</code>), so the same options may be used on
+ * every platform; the resulting memory is always usable.</p>
+ * <pre>
+ *     Memory table = new Memory(1L &lt;&lt; 32, new AllocationOptions()
+ *         .transparentHugePages(true)
+ *         .numaNode(1));
+ * </pre>
+ */
+public final class AllocationOptions {
+
+    private long alignment;
+    private boolean transparentHugePages;
+    private boolean hugeTLB;
+    private int numaNode = -1;
+
+    /**
+     * Align the start of the memory to the given boundary, using
+     * <code>posix_memalign</code> where available.
+     *
+     * @param alignment a power of two
+     * @return this object
+     */
+    public AllocationOptions alignment(long alignment) {
+        if (alignment <= 0 || (alignment & (alignment - 1)) != 0) {
+            throw new IllegalArgumentException("Alignment must be a positive power of two: " + alignment);
+        }
+        this.alignment = alignment;
+        return this;
+    }
+
+    /**
+     * Ask the kernel to back the memory with transparent huge pages
+     * (<code>madvise(MADV_HUGEPAGE)</code>).  The memory is aligned to the
+     * huge page size so that it can be fully covered.
+     *
+     * @param enable whether to request transparent huge pages
+     * @return this object
+     */
+    public AllocationOptions transparentHugePages(boolean enable) {
+        this.transparentHugePages = enable;
+        return this;
+    }
+
+    /**
+     * Map the memory from the reserved huge page pool
+     * (<code>MAP_HUGETLB</code>).  The size is rounded up to a multiple of
+     * the huge page size.  If no huge pages are available, regular pages
+     * are mapped instead, with transparent huge page advice.
+     *
+     * @param enable whether to use explicit huge pages
+     * @return this object
+     */
+    public AllocationOptions hugeTLB(boolean enable) {
+        this.hugeTLB = enable;
+        return this;
+    }
+
+    /**
+     * Bind the memory to the given NUMA node (<code>mbind(MPOL_BIND)</code>),
+     * so that its pages are allocated there when first touched.
+     *
+     * @param node NUMA node number, or -1 for the default policy
+     * @return this object
+     */
+    public AllocationOptions numaNode(int node) {
+        if (node < -1) {
+            throw new IllegalArgumentException("Invalid NUMA node: " + node);
+        }
+        this.numaNode = node;
+        return this;
+    }
+
+    /** @return the requested alignment, or 0 for the default */
+    public long getAlignment() {
+        return alignment;
+    }
+
+    /** @return whether transparent huge pages are requested */
+    public boolean isTransparentHugePages() {
+        return transparentHugePages;
+    }
+
+    /** @return whether explicit huge pages are requested */
+    public boolean isHugeTLB() {
+        return hugeTLB;
+    }
+
+    /** @return the requested NUMA node, or -1 */
+    public int getNumaNode() {
+        return numaNode;
+    }
+
+    @Override
+    public String toString() {
+        return "AllocationOptions[alignment=" + alignment
+            + ", transparentHugePages=" + transparentHugePages
+            + ", hugeTLB=" + hugeTLB
+            + ", numaNode=" + numaNode + "]";
+    }
+}
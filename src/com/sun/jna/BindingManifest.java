@@ -0,0 +1,399 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Precomputed conversion information for the native methods of a
+ * direct-mapped class, generated at build time so that
+ * {@link Native#register(Class, NativeLibrary)} does not need to analyze
+ * each method's parameter and return types.
+ * <p>
+ * A manifest is a resource named after the class with the suffix
+ * <code>.jnabind</code>, in the same package (e.g.
+ * <code>com/example/LibC$Direct.jnabind</code>).  Manifests are created
+ * with the <code>main</code> method of this class or the
+ * <code>com.sun.jna.ant.BindingManifestTask</code> Ant task, and describe
+ * the default mapping only: they are ignored if the library has a
+ * {@link Library#OPTION_TYPE_MAPPER} or allows objects, if they were
+ * created by a different version of JNA, and for any method whose
+ * signature does not match.  Each entry also records a fingerprint of the
+ * method's parameter, return and exception types, including their
+ * superclasses and interfaces, and of its parameter annotations, so that
+ * an entry is ignored if e.g. an argument type was changed to extend
+ * {@link IntegerType} after the manifest was generated.</p>
+ */
+final class BindingManifest {
+
+    private static final Logger LOG = Logger.getLogger(BindingManifest.class.getName());
+
+    static final String SUFFIX = ".jnabind";
+
+    private static final int MAGIC = 0x4A4E4142;
+    private static final int FORMAT = 2;
+
+    private static final int FLAG_THROW_LAST_ERROR = 1;
+
+    /** Type code for the declared parameter or return type. */
+    private static final char DECLARED = 'T';
+    /** Type codes of the classes in {@link #TYPES}. */
+    private static final String CODES = "VZBCSIJFDzbcsijfdPUW";
+    private static final Class<?>[] TYPES = {
+        void.class, boolean.class, byte.class, char.class, short.class,
+        int.class, long.class, float.class, double.class,
+        Boolean.class, Byte.class, Character.class, Short.class,
+        Integer.class, Long.class, Float.class, Double.class,
+        Pointer.class, String.class, WString.class,
+    };
+
+    private static final class Entry {
+        final long fingerprint;
+        final int flags;
+        final int rcvt;
+        final char rtype;
+        final char closureRtype;
+        final int[] cvt;
+        final char[] atypes;
+        final char[] closureAtypes;
+        Entry(long fingerprint, int flags, int rcvt, char rtype, char closureRtype, int[] cvt, char[] atypes, char[] closureAtypes) {
+            this.fingerprint = fingerprint;
+            this.flags = flags;
+            this.rcvt = rcvt;
+            this.rtype = rtype;
+            this.closureRtype = closureRtype;
+            this.cvt = cvt;
+            this.atypes = atypes;
+            this.closureAtypes = closureAtypes;
+        }
+    }
+
+    /** Entries keyed by method name and JNI signature. */
+    private final Map<String, Entry> entries;
+
+    private BindingManifest(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /** @return the resource name of the manifest of the given class,
+     * relative to the class.
+     */
+    static String getResourceName(Class<?> cls) {
+        String name = cls.getName();
+        return name.substring(name.lastIndexOf('.') + 1) + SUFFIX;
+    }
+
+    /** @return the manifest of the given class, or <code>null</code> if
+     * there is none or it can not be used.
+     */
+    static BindingManifest load(Class<?> cls) {
+        InputStream is = cls.getResourceAsStream(getResourceName(cls));
+        if (is == null) {
+            return null;
+        }
+        try {
+            return read(cls, is);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Unable to read binding manifest for " + cls, e);
+            return null;
+        }
+    }
+
+    /** Read a manifest from the given stream, which is closed.
+     * @return the manifest, or <code>null</code> if it can not be used
+     */
+    static BindingManifest read(Class<?> cls, InputStream is) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(is))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                LOG.log(Level.WARNING, "Ignoring invalid binding manifest for {0}", cls);
+                return null;
+            }
+            String version = in.readUTF();
+            if (!Native.VERSION.equals(version)) {
+                LOG.log(Level.FINE, "Ignoring binding manifest for {0} created by JNA {1}",
+                        new Object[] { cls, version });
+                return null;
+            }
+            int count = in.readInt();
+            Map<String, Entry> entries = new HashMap<>(count * 2);
+            for (int i=0;i < count;i++) {
+                String key = in.readUTF();
+                long fingerprint = in.readLong();
+                int flags = in.readUnsignedByte();
+                int rcvt = in.readInt();
+                char rtype = in.readChar();
+                char closureRtype = in.readChar();
+                int nargs = in.readUnsignedByte();
+                int[] cvt = new int[nargs];
+                char[] atypes = new char[nargs];
+                char[] closureAtypes = new char[nargs];
+                for (int t=0;t < nargs;t++) {
+                    cvt[t] = in.readInt();
+                    atypes[t] = in.readChar();
+                    closureAtypes[t] = in.readChar();
+                }
+                entries.put(key, new Entry(fingerprint, flags, rcvt, rtype, closureRtype, cvt, atypes, closureAtypes));
+            }
+            return new BindingManifest(entries);
+        }
+    }
+
+    /** @return the precomputed binding of the given method, or
+     * <code>null</code> if the manifest has no matching entry.
+     */
+    Native.MethodBinding getBinding(Method method) {
+        String signature = Native.getSignature(method);
+        Entry e = entries.get(method.getName() + signature);
+        if (e == null) {
+            return null;
+        }
+        if (e.fingerprint != fingerprint(method)) {
+            LOG.log(Level.FINE, "Ignoring outdated binding manifest entry for {0}", method);
+            return null;
+        }
+        Class<?>[] ptypes = method.getParameterTypes();
+        if (ptypes.length != e.cvt.length) {
+            return null;
+        }
+        Class<?>[] atypes = new Class<?>[ptypes.length];
+        Class<?>[] closureAtypes = new Class<?>[ptypes.length];
+        ToNativeConverter[] toNative = new ToNativeConverter[ptypes.length];
+        Critical.Direction[] directions = CriticalArgs.getDeclaredDirections(method);
+        for (int t=0;t < ptypes.length;t++) {
+            atypes[t] = decode(e.atypes[t], ptypes[t]);
+            closureAtypes[t] = decode(e.closureAtypes[t], ptypes[t]);
+            if (e.cvt[t] == Native.CVT_TYPE_MAPPER) {
+                // Only used without a type mapper for input-only structures
+                // and arrays converted in Java
+                toNative[t] = Native.getDirectConverter(method.getDeclaringClass(), ptypes[t],
+                                                        t < directions.length ? directions[t] : null);
+                if (toNative[t] == null) {
+                    return null;
+                }
+            }
+        }
+        Class<?> rclass = method.getReturnType();
+        return new Native.MethodBinding(signature, e.cvt.clone(), atypes, closureAtypes, toNative,
+                                        e.rcvt, decode(e.rtype, rclass), decode(e.closureRtype, rclass),
+                                        null, (e.flags & FLAG_THROW_LAST_ERROR) != 0);
+    }
+
+    /** Write the manifest of the native methods of the given class.
+     * @return the number of methods described
+     */
+    static int write(Class<?> cls, OutputStream os) throws IOException {
+        Map<String, Native.MethodBinding> bindings = new HashMap<>();
+        Map<String, Method> methods = new HashMap<>();
+        for (Method m : cls.getDeclaredMethods()) {
+            if ((m.getModifiers() & Modifier.NATIVE) == 0) {
+                continue;
+            }
+            try {
+                Native.MethodBinding binding = Native.getBinding(cls, m, null, false);
+                bindings.put(m.getName() + binding.signature, binding);
+                methods.put(m.getName() + binding.signature, m);
+            } catch (IllegalArgumentException e) {
+                // Reported when the class is registered
+                LOG.log(Level.WARNING, "Skipping " + m + ": " + e.getMessage());
+            }
+        }
+        Map<String, Entry> entries = new HashMap<>();
+        for (Map.Entry<String, Native.MethodBinding> me : bindings.entrySet()) {
+            Entry e = encode(methods.get(me.getKey()), me.getValue());
+            if (e != null) {
+                entries.put(me.getKey(), e);
+            }
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeUTF(Native.VERSION);
+        out.writeInt(entries.size());
+        for (Map.Entry<String, Entry> me : entries.entrySet()) {
+            Entry e = me.getValue();
+            out.writeUTF(me.getKey());
+            out.writeLong(e.fingerprint);
+            out.writeByte(e.flags);
+            out.writeInt(e.rcvt);
+            out.writeChar(e.rtype);
+            out.writeChar(e.closureRtype);
+            out.writeByte(e.cvt.length);
+            for (int t=0;t < e.cvt.length;t++) {
+                out.writeInt(e.cvt[t]);
+                out.writeChar(e.atypes[t]);
+                out.writeChar(e.closureAtypes[t]);
+            }
+        }
+        out.flush();
+        return entries.size();
+    }
+
+    /** @return the manifest entry for the given binding, or
+     * <code>null</code> if it uses types which can not be encoded.
+     */
+    private static Entry encode(Method method, Native.MethodBinding binding) {
+        Class<?>[] ptypes = method.getParameterTypes();
+        if (ptypes.length > 255) {
+            return null;
+        }
+        char[] atypes = new char[ptypes.length];
+        char[] closureAtypes = new char[ptypes.length];
+        for (int t=0;t < ptypes.length;t++) {
+            atypes[t] = encode(binding.atypes[t], ptypes[t]);
+            closureAtypes[t] = encode(binding.closureAtypes[t], ptypes[t]);
+            if (atypes[t] == 0 || closureAtypes[t] == 0) {
+                return null;
+            }
+        }
+        Class<?> rclass = method.getReturnType();
+        char rtype = encode(binding.rtype, rclass);
+        char closureRtype = encode(binding.closureRtype, rclass);
+        if (rtype == 0 || closureRtype == 0) {
+            return null;
+        }
+        return new Entry(fingerprint(method), binding.throwLastError ? FLAG_THROW_LAST_ERROR : 0,
+                         binding.rcvt, rtype, closureRtype, binding.cvt, atypes, closureAtypes);
+    }
+
+    /** @return a hash of everything besides the signature that the binding
+     * of the given method depends on: the hierarchies of its parameter,
+     * return and exception types, and its parameter annotations.
+     */
+    static long fingerprint(Method method) {
+        StringBuilder sb = new StringBuilder();
+        for (Class<?> type : method.getParameterTypes()) {
+            describe(sb, type);
+        }
+        sb.append(')');
+        describe(sb, method.getReturnType());
+        for (Class<?> type : method.getExceptionTypes()) {
+            describe(sb, type);
+        }
+        for (Annotation[] annotations : method.getParameterAnnotations()) {
+            sb.append('@');
+            for (Annotation a : annotations) {
+                sb.append(a.annotationType().getName()).append(',');
+            }
+        }
+        for (Critical.Direction d : CriticalArgs.getDeclaredDirections(method)) {
+            sb.append(d).append(',');
+        }
+        // 64-bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int i=0;i < sb.length();i++) {
+            hash ^= sb.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /** Append the name of the given type and its superclasses and
+     * interfaces. */
+    static void describe(StringBuilder sb, Class<?> type) {
+        while (type.isArray()) {
+            sb.append('[');
+            type = type.getComponentType();
+        }
+        for (Class<?> cls = type; cls != null; cls = cls.getSuperclass()) {
+            sb.append(cls.getName()).append('<');
+            describeInterfaces(sb, cls);
+            sb.append('>');
+        }
+        sb.append(';');
+    }
+
+    private static void describeInterfaces(StringBuilder sb, Class<?> cls) {
+        for (Class<?> iface : cls.getInterfaces()) {
+            sb.append(iface.getName()).append('<');
+            describeInterfaces(sb, iface);
+            sb.append('>');
+        }
+    }
+
+    private static char encode(Class<?> type, Class<?> declared) {
+        for (int i=0;i < TYPES.length;i++) {
+            if (TYPES[i] == type) {
+                return CODES.charAt(i);
+            }
+        }
+        return type == declared ? DECLARED : 0;
+    }
+
+    private static Class<?> decode(char code, Class<?> declared) {
+        if (code == DECLARED) {
+            return declared;
+        }
+        int index = CODES.indexOf(code);
+        if (index == -1) {
+            throw new IllegalStateException("Invalid type code '" + code + "' in binding manifest");
+        }
+        return TYPES[index];
+    }
+
+    /**
+     * Generate binding manifests.  Classes are loaded from the class path
+     * without being initialized.
+     * <p>Usage: <code>BindingManifest &lt;output directory&gt;
+     * &lt;class name&gt;...</code></p>
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: " + BindingManifest.class.getName() + " <output directory> <class name>...");
+            System.exit(1);
+        }
+        File dir = new File(args[0]);
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) {
+            loader = BindingManifest.class.getClassLoader();
+        }
+        for (int i=1;i < args.length;i++) {
+            Class<?> cls = Class.forName(args[i], false, loader);
+            String pkg = cls.getPackage() != null ? cls.getPackage().getName() : "";
+            File pkgDir = pkg.isEmpty() ? dir : new File(dir, pkg.replace('.', File.separatorChar));
+            pkgDir.mkdirs();
+            File file = new File(pkgDir, getResourceName(cls));
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            int count = write(cls, bos);
+            try (OutputStream os = new FileOutputStream(file)) {
+                bos.writeTo(os);
+            }
+            System.out.println("Wrote " + count + " methods of " + cls.getName() + " to " + file);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bulk operations on native memory which are delegated to the C library's
+ * <code>mem*</code> routines, so that each runs as a single native call
+ * using the platform's optimized implementation.
+ *
+ * @see Pointer#copyTo(long, Pointer, long, long)
+ * @see Pointer#compare(long, Pointer, long, long)
+ * @see Pointer#indexOf(long, long, byte[])
+ * @see Pointer#fill(long, long, byte[])
+ */
+final class BulkMemory {
+
+    private static final Logger LOG = Logger.getLogger(BulkMemory.class.getName());
+
+    /** Chunk size used when searching without <code>memmem</code>. */
+    private static final int SEARCH_CHUNK = 8192;
+
+    private BulkMemory() { }
+
+    /** Functions are bound on first use only.  They are direct mapped, so
+     * that a call neither allocates an argument array nor is recorded by
+     * {@link CallMetrics}; pointers and sizes are passed as integers of
+     * the native pointer size.
+     */
+    private static final class Functions {
+        static final boolean LP64 = Native.POINTER_SIZE == 8 && Native.SIZE_T_SIZE == 8;
+        static final boolean MEMMEM;
+        static {
+            NativeLibrary lib = NativeLibrary.getInstance(Platform.C_LIBRARY_NAME);
+            Native.register(LP64 ? LibC64.class : LibC32.class, lib);
+            boolean memmem = false;
+            try {
+                Native.register(LP64 ? MemMem64.class : MemMem32.class, lib);
+                memmem = true;
+            } catch (UnsatisfiedLinkError e) {
+                LOG.log(Level.FINE, "memmem not available, pattern search falls back to Java: {0}", e.getMessage());
+            }
+            MEMMEM = memmem;
+        }
+    }
+
+    private static final class LibC64 {
+        static native long memmove(long dst, long src, long length);
+        static native int memcmp(long a, long b, long length);
+    }
+
+    private static final class LibC32 {
+        static native int memmove(int dst, int src, int length);
+        static native int memcmp(int a, int b, int length);
+    }
+
+    private static final class MemMem64 {
+        static native long memmem(long address, long length, byte[] pattern, long patternLength);
+    }
+
+    private static final class MemMem32 {
+        static native int memmem(int address, int length, byte[] pattern, int patternLength);
+    }
+
+    /** Copy <code>length</code> bytes from <code>src</code> to
+     * <code>dst</code>; the regions may overlap.
+     */
+    static void move(long dst, long src, long length) {
+        if (length <= 0 || dst == src) {
+            return;
+        }
+        if (Functions.LP64) {
+            LibC64.memmove(dst, src, length);
+        } else {
+            LibC32.memmove((int) dst, (int) src, (int) length);
+        }
+    }
+
+    /** @return negative, zero or positive according to whether the first
+     * differing byte (compared as unsigned) is smaller in <code>a</code>
+     * than in <code>b</code>.
+     */
+    static int compare(long a, long b, long length) {
+        if (length <= 0 || a == b) {
+            return 0;
+        }
+        int result = Functions.LP64
+            ? LibC64.memcmp(a, b, length)
+            : LibC32.memcmp((int) a, (int) b, (int) length);
+        return Integer.signum(result);
+    }
+
+    /** @return the offset of <code>pattern</code> within the
+     * <code>length</code> bytes starting at <code>address</code>, or -1.
+     */
+    static long indexOf(long address, long length, byte[] pattern) {
+        if (pattern.length == 0) {
+            return 0;
+        }
+        if (length < pattern.length) {
+            return -1;
+        }
+        if (Functions.MEMMEM) {
+            long match = Functions.LP64
+                ? MemMem64.memmem(address, length, pattern, pattern.length)
+                : MemMem32.memmem((int) address, (int) length, pattern, pattern.length) & 0xFFFFFFFFL;
+            return match == 0 ? -1 : match - address;
+        }
+        // Read overlapping chunks so that matches spanning a chunk boundary
+        // are found
+        Pointer base = new Pointer(address);
+        int overlap = pattern.length - 1;
+        byte[] buf = new byte[Math.max(SEARCH_CHUNK, pattern.length * 2)];
+        for (long start = 0; start + overlap < length; start += buf.length - overlap) {
+            int count = (int) Math.min(buf.length, length - start);
+            base.read(start, buf, 0, count);
+            int index = indexOf(buf, count, pattern);
+            if (index >= 0) {
+                return start + index;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] buf, int count, byte[] pattern) {
+        outer:
+        for (int i=0;i <= count - pattern.length;i++) {
+            for (int j=0;j < pattern.length;j++) {
+                if (buf[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /** Fill <code>length</code> bytes at <code>address</code> with repeated
+     * copies of <code>pattern</code>, doubling the filled region with each
+     * copy so that only a logarithmic number of native calls is made.
+     */
+    static void fill(long address, long length, byte[] pattern) {
+        if (length <= 0) {
+            return;
+        }
+        Pointer p = new Pointer(address);
+        if (pattern.length == 1) {
+            p.setMemory(0, length, pattern[0]);
+            return;
+        }
+        p.write(0, pattern, 0, (int) Math.min(pattern.length, length));
+        long filled = pattern.length;
+        while (filled < length) {
+            long count = Math.min(filled, length - filled);
+            move(address + filled, address, count);
+            filled += count;
+        }
+    }
+}
@@ -0,0 +1,586 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Opt-in per-function call metrics for calls made through {@link Function}
+ * (which includes all {@link Library} interface mappings, but not direct
+ * mapping).
+ * <p>
+ * When enabled, every call is counted along with any exception it throws.
+ * One call in {@link #getSampleInterval() sampleInterval} (chosen at random)
+ * is additionally timed: time spent in the native function, time spent
+ * marshalling arguments and results (argument conversion plus post-call
+ * synchronization of structures, arrays and buffers) and the number of bytes
+ * marshalled.  Sampled calls are also reported to any registered
+ * {@link Listener}.  When disabled, the cost is a single volatile read per
+ * call.</p>
+ * <p>
+ * Metrics may be enabled with the system property <code>jna.metrics</code>,
+ * set to <code>true</code> or to a sample interval, and exported over JMX
+ * with <code>jna.metrics.jmx=true</code> or {@link #registerMBean()}.</p>
+ */
+public final class CallMetrics {
+
+    private static final Logger LOG = Logger.getLogger(CallMetrics.class.getName());
+
+    /** Object name of the MBean registered by {@link #registerMBean()}. */
+    public static final String MBEAN_NAME = "com.sun.jna:type=CallMetrics";
+
+    /** Receives the details of each sampled call. */
+    public interface Listener {
+        /** Invoked on the calling thread after a sampled call completes.
+         * Implementations should be fast and must not throw.
+         * @param event details of the call
+         */
+        void callCompleted(CallEvent event);
+    }
+
+    /** Details of a single sampled call. */
+    public static final class CallEvent {
+        private final Function function;
+        private final Method method;
+        private final long nativeNanos;
+        private final long marshalNanos;
+        private final long bytes;
+        private final Throwable exception;
+
+        CallEvent(Function function, Method method, long nativeNanos, long marshalNanos, long bytes, Throwable exception) {
+            this.function = function;
+            this.method = method;
+            this.nativeNanos = nativeNanos;
+            this.marshalNanos = marshalNanos;
+            this.bytes = bytes;
+            this.exception = exception;
+        }
+
+        /** @return the native function called. */
+        public Function getFunction() {
+            return function;
+        }
+
+        /** @return the Java method mapped to the function, or
+         * <code>null</code> if the function was invoked directly.
+         */
+        public Method getMethod() {
+            return method;
+        }
+
+        /** @return time spent in native code, in nanoseconds. */
+        public long getNativeNanos() {
+            return nativeNanos;
+        }
+
+        /** @return time spent converting arguments and results, in
+         * nanoseconds.
+         */
+        public long getMarshalNanos() {
+            return marshalNanos;
+        }
+
+        /** @return the number of bytes of argument data marshalled. */
+        public long getBytesMarshalled() {
+            return bytes;
+        }
+
+        /** @return the exception thrown by the call, if any. */
+        public Throwable getException() {
+            return exception;
+        }
+    }
+
+    /** Snapshot of the metrics of a single native function.  Timing
+     * figures cover sampled calls only.
+     */
+    public static final class FunctionStatistics {
+        private final String name;
+        private final long callCount;
+        private final long sampledCount;
+        private final long totalNativeNanos;
+        private final long p99NativeNanos;
+        private final long totalMarshalNanos;
+        private final long bytesMarshalled;
+        private final long exceptionCount;
+        private final long lastErrorCount;
+
+        FunctionStatistics(String name, long callCount, long sampledCount, long totalNativeNanos,
+                           long p99NativeNanos, long totalMarshalNanos, long bytesMarshalled,
+                           long exceptionCount, long lastErrorCount) {
+            this.name = name;
+            this.callCount = callCount;
+            this.sampledCount = sampledCount;
+            this.totalNativeNanos = totalNativeNanos;
+            this.p99NativeNanos = p99NativeNanos;
+            this.totalMarshalNanos = totalMarshalNanos;
+            this.bytesMarshalled = bytesMarshalled;
+            this.exceptionCount = exceptionCount;
+            this.lastErrorCount = lastErrorCount;
+        }
+
+        /** @return the function name, qualified by its library name. */
+        public String getName() {
+            return name;
+        }
+
+        /** @return the number of calls. */
+        public long getCallCount() {
+            return callCount;
+        }
+
+        /** @return the number of sampled (timed) calls. */
+        public long getSampledCount() {
+            return sampledCount;
+        }
+
+        /** @return the total native time of sampled calls, in nanoseconds. */
+        public long getTotalNativeNanos() {
+            return totalNativeNanos;
+        }
+
+        /** @return the approximate 99th percentile native time of sampled
+         * calls, in nanoseconds (within 25%).
+         */
+        public long getP99NativeNanos() {
+            return p99NativeNanos;
+        }
+
+        /** @return the total marshalling time of sampled calls, in
+         * nanoseconds.
+         */
+        public long getTotalMarshalNanos() {
+            return totalMarshalNanos;
+        }
+
+        /** @return the total bytes marshalled by sampled calls. */
+        public long getBytesMarshalled() {
+            return bytesMarshalled;
+        }
+
+        /** @return the number of calls which threw an exception. */
+        public long getExceptionCount() {
+            return exceptionCount;
+        }
+
+        /** @return the number of calls which threw {@link LastErrorException}. */
+        public long getLastErrorCount() {
+            return lastErrorCount;
+        }
+
+        @Override
+        public String toString() {
+            return name + "[calls=" + callCount + ",sampled=" + sampledCount
+                + ",nativeNanos=" + totalNativeNanos + ",p99NativeNanos=" + p99NativeNanos
+                + ",marshalNanos=" + totalMarshalNanos + ",bytes=" + bytesMarshalled
+                + ",exceptions=" + exceptionCount + ",lastErrors=" + lastErrorCount + "]";
+        }
+    }
+
+    /** Accumulated metrics of a single function. */
+    static final class Stats {
+        // Log-linear histogram: four sub-buckets per power of two
+        private static final int SUB_BUCKET_BITS = 2;
+        private static final int BUCKETS = 64 << SUB_BUCKET_BITS;
+
+        final String name;
+        final LongAdder calls = new LongAdder();
+        final LongAdder sampled = new LongAdder();
+        final LongAdder nativeNanos = new LongAdder();
+        final LongAdder marshalNanos = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder exceptions = new LongAdder();
+        final LongAdder lastErrors = new LongAdder();
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        Stats(String name) {
+            this.name = name;
+        }
+
+        static int bucket(long nanos) {
+            if (nanos < (1 << SUB_BUCKET_BITS)) {
+                return (int) Math.max(nanos, 0);
+            }
+            int msb = 63 - Long.numberOfLeadingZeros(nanos);
+            int sub = (int) (nanos >>> (msb - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+            return ((msb - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + sub;
+        }
+
+        /** Upper bound of the values falling into the given bucket. */
+        static long bucketLimit(int bucket) {
+            if (bucket < (1 << SUB_BUCKET_BITS)) {
+                return bucket;
+            }
+            int msb = (bucket >> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+            long sub = bucket & ((1 << SUB_BUCKET_BITS) - 1);
+            long base = 1L << msb;
+            return base + ((sub + 1) << (msb - SUB_BUCKET_BITS)) - 1;
+        }
+
+        long percentile(double p) {
+            long total = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i=0;i < BUCKETS;i++) {
+                counts[i] = histogram.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long threshold = (long) Math.ceil(total * p);
+            long seen = 0;
+            for (int i=0;i < BUCKETS;i++) {
+                seen += counts[i];
+                if (seen >= threshold) {
+                    return bucketLimit(i);
+                }
+            }
+            return bucketLimit(BUCKETS - 1);
+        }
+
+        FunctionStatistics snapshot() {
+            return new FunctionStatistics(name, calls.sum(), sampled.sum(), nativeNanos.sum(),
+                                          percentile(0.99), marshalNanos.sum(), bytes.sum(),
+                                          exceptions.sum(), lastErrors.sum());
+        }
+
+        void reset() {
+            calls.reset();
+            sampled.reset();
+            nativeNanos.reset();
+            marshalNanos.reset();
+            bytes.reset();
+            exceptions.reset();
+            lastErrors.reset();
+            for (int i=0;i < BUCKETS;i++) {
+                histogram.set(i, 0);
+            }
+        }
+    }
+
+    /** Tracks a single call in progress.  Timestamps are only taken for
+     * sampled calls.
+     */
+    static final class Sample {
+        private final Stats stats;
+        private final Function function;
+        private final Method method;
+        private final boolean timed;
+        private long start;
+        private long nativeStart;
+        private long nativeEnd;
+        private long bytes;
+
+        Sample(Stats stats, Function function, Method method, boolean timed) {
+            this.stats = stats;
+            this.function = function;
+            this.method = method;
+            this.timed = timed;
+            if (timed) {
+                start = System.nanoTime();
+            }
+        }
+
+        /** Arguments have been converted and the native call is about to
+         * be made.
+         */
+        void beforeNative(Object[] args) {
+            if (timed) {
+                bytes = countBytes(args);
+                nativeStart = System.nanoTime();
+            }
+        }
+
+        /** The native call has returned. */
+        void afterNative() {
+            if (timed) {
+                nativeEnd = System.nanoTime();
+            }
+        }
+
+        /** The call has completed, normally or with the given exception. */
+        void end(Throwable exception) {
+            stats.calls.increment();
+            if (exception != null) {
+                stats.exceptions.increment();
+                if (exception instanceof LastErrorException) {
+                    stats.lastErrors.increment();
+                }
+            }
+            if (!timed) {
+                return;
+            }
+            long end = System.nanoTime();
+            if (nativeStart == 0) {
+                // Failed during argument conversion
+                nativeStart = nativeEnd = end;
+            } else if (nativeEnd == 0) {
+                nativeEnd = end;
+            }
+            long nativeNanos = nativeEnd - nativeStart;
+            long marshalNanos = (nativeStart - start) + (end - nativeEnd);
+            stats.sampled.increment();
+            stats.nativeNanos.add(nativeNanos);
+            stats.marshalNanos.add(marshalNanos);
+            stats.bytes.add(bytes);
+            stats.histogram.incrementAndGet(Stats.bucket(nativeNanos));
+            if (!listeners.isEmpty()) {
+                CallEvent event = new CallEvent(function, method, nativeNanos, marshalNanos, bytes, exception);
+                for (Listener l : listeners) {
+                    try {
+                        l.callCompleted(event);
+                    } catch (RuntimeException e) {
+                        LOG.log(Level.WARNING, "Exception in call metrics listener", e);
+                    }
+                }
+            }
+        }
+    }
+
+    private static volatile boolean enabled;
+    private static volatile int sampleInterval = 1;
+    private static final Map<String, Stats> statistics = new ConcurrentHashMap<>();
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    static {
+        String value = System.getProperty("jna.metrics");
+        if (value != null && !"false".equalsIgnoreCase(value)) {
+            if (!"true".equalsIgnoreCase(value)) {
+                try {
+                    setSampleInterval(Integer.parseInt(value));
+                } catch (IllegalArgumentException e) {
+                    LOG.log(Level.WARNING, "Invalid value for jna.metrics: {0}", value);
+                }
+            }
+            enabled = true;
+        }
+        if (Boolean.getBoolean("jna.metrics.jmx")) {
+            registerMBean();
+        }
+    }
+
+    private CallMetrics() { }
+
+    /** @return whether metrics are being collected. */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Turn metrics collection on or off.
+     * @param enable whether to collect metrics
+     */
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    /** @return one in this many calls is timed. */
+    public static int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /** Time one in every <code>interval</code> calls, chosen at random.  Use
+     * one to time every call.
+     * @param interval the sample interval
+     */
+    public static void setSampleInterval(int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Sample interval must be positive: " + interval);
+        }
+        sampleInterval = interval;
+    }
+
+    /** @param listener notified of each sampled call */
+    public static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /** @param listener listener to remove */
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /** @return a snapshot of the metrics of all functions called so far,
+     * ordered by name.
+     */
+    public static List<FunctionStatistics> getStatistics() {
+        List<FunctionStatistics> result = new ArrayList<>();
+        for (Stats s : statistics.values()) {
+            result.add(s.snapshot());
+        }
+        Collections.sort(result, (a, b) -> a.getName().compareTo(b.getName()));
+        return result;
+    }
+
+    /** @param function a native function
+     * @return a snapshot of the metrics of the given function, or
+     * <code>null</code> if it has not been called with metrics enabled.
+     */
+    public static FunctionStatistics getStatistics(Function function) {
+        Stats s = statistics.get(getName(function));
+        return s != null ? s.snapshot() : null;
+    }
+
+    /** Reset all metrics to zero. */
+    public static void reset() {
+        for (Stats s : statistics.values()) {
+            s.reset();
+        }
+    }
+
+    /**
+     * Register {@link CallMetricsMXBean} with the platform MBean server
+     * under {@link #MBEAN_NAME}.
+     * @return whether the MBean is registered
+     */
+    public static synchronized boolean registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MXBeanImpl(), name);
+            }
+            return true;
+        } catch (Exception | LinkageError e) {
+            // java.management may be absent from the module graph
+            LOG.log(Level.WARNING, "Unable to register call metrics MBean", e);
+            return false;
+        }
+    }
+
+    /** Called by {@link Function} at the start of each call.
+     * @return a sample to track the call, or <code>null</code> if metrics
+     * are disabled.
+     */
+    static Sample begin(Function function, Method method) {
+        if (!enabled) {
+            return null;
+        }
+        Stats stats = function.metrics;
+        if (stats == null) {
+            stats = statistics.computeIfAbsent(getName(function), Stats::new);
+            function.metrics = stats;
+        }
+        int interval = sampleInterval;
+        boolean timed = interval == 1 || ThreadLocalRandom.current().nextInt(interval) == 0;
+        return new Sample(stats, function, method, timed);
+    }
+
+    private static String getName(Function function) {
+        NativeLibrary library = function.library;
+        return library != null ? library.getName() + "." + function.getName() : function.getName();
+    }
+
+    /** Estimate the size of the native data passed for converted arguments. */
+    static long countBytes(Object[] args) {
+        long bytes = 0;
+        for (Object arg : args) {
+            if (arg == null) {
+                continue;
+            }
+            Class<?> cls = arg.getClass();
+            if (arg instanceof NativeString) {
+                arg = ((NativeString) arg).getPointer();
+            }
+            if (arg instanceof Memory) {
+                bytes += ((Memory) arg).size();
+            } else if (arg instanceof Pointer) {
+                bytes += Native.POINTER_SIZE;
+            } else if (arg instanceof Structure) {
+                bytes += ((Structure) arg).size();
+            } else if (cls.isArray() && cls.getComponentType().isPrimitive()) {
+                bytes += (long) Array.getLength(arg) * Native.getNativeSize(cls.getComponentType());
+            } else if (arg instanceof Buffer) {
+                bytes += ((Buffer) arg).remaining() * bufferElementSize((Buffer) arg);
+            } else if (cls == Integer.class || cls == Long.class || cls == Short.class
+                       || cls == Byte.class || cls == Float.class || cls == Double.class
+                       || cls == Boolean.class || cls == Character.class) {
+                bytes += Native.getNativeSize(cls);
+            }
+        }
+        return bytes;
+    }
+
+    private static int bufferElementSize(Buffer b) {
+        if (b instanceof ByteBuffer) {
+            return 1;
+        } else if (b instanceof ShortBuffer || b instanceof CharBuffer) {
+            return 2;
+        } else if (b instanceof IntBuffer || b instanceof FloatBuffer) {
+            return 4;
+        }
+        return 8;
+    }
+
+    private static final class MXBeanImpl implements CallMetricsMXBean {
+        @Override
+        public boolean isEnabled() {
+            return CallMetrics.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean enable) {
+            CallMetrics.setEnabled(enable);
+        }
+
+        @Override
+        public int getSampleInterval() {
+            return CallMetrics.getSampleInterval();
+        }
+
+        @Override
+        public void setSampleInterval(int interval) {
+            CallMetrics.setSampleInterval(interval);
+        }
+
+        @Override
+        public List<FunctionStatistics> getFunctionStatistics() {
+            return CallMetrics.getStatistics();
+        }
+
+        @Override
+        public void reset() {
+            CallMetrics.reset();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.util.List;
+
+/**
+ * Management interface for {@link CallMetrics}, registered by
+ * {@link CallMetrics#registerMBean()}.
+ */
+public interface CallMetricsMXBean {
+    /** @return whether metrics are being collected. */
+    boolean isEnabled();
+    /** @param enable whether to collect metrics */
+    void setEnabled(boolean enable);
+    /** @return one in this many calls is timed. */
+    int getSampleInterval();
+    /** @param interval time one in this many calls */
+    void setSampleInterval(int interval);
+    /** @return metrics of all functions called so far. */
+    List<CallMetrics.FunctionStatistics> getFunctionStatistics();
+    /** Reset all metrics to zero. */
+    void reset();
+}
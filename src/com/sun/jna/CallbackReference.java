@@ -42,6 +42,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.Collections;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -239,6 +240,14 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
         Class<?>[] nativeParamTypes;
         Class<?> returnType;
 
+        // Callbacks dispatched onto virtual threads must use the
+        // conventional mapping
+        boolean virtual = VirtualThreadSupport.isSupported()
+            && Boolean.TRUE.equals(Native.getLibraryOptions(callback.getClass()).get(Library.OPTION_VIRTUAL_THREAD_CALLBACKS));
+        if (virtual) {
+            direct = false;
+        }
+
         // Check whether direct mapping may be used, or whether
         // we need to fall back to conventional mapping
         boolean ppc = Platform.isPPC();
@@ -286,7 +295,7 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
                 proxy = (CallbackProxy)callback;
             }
             else {
-                proxy = new DefaultCallbackProxy(getCallbackMethod(callback), mapper, encoding);
+                proxy = new DefaultCallbackProxy(getCallbackMethod(callback), mapper, encoding, virtual);
             }
             nativeParamTypes = proxy.getParameterTypes();
             returnType = proxy.getReturnType();
@@ -527,9 +536,14 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
         private ToNativeConverter toNative;
         private final FromNativeConverter[] fromNative;
         private final String encoding;
+        private final boolean virtual;
         public DefaultCallbackProxy(Method callbackMethod, TypeMapper mapper, String encoding) {
+            this(callbackMethod, mapper, encoding, false);
+        }
+        public DefaultCallbackProxy(Method callbackMethod, TypeMapper mapper, String encoding, boolean virtual) {
             this.callbackMethod = callbackMethod;
             this.encoding = encoding;
+            this.virtual = virtual;
             Class<?>[] argTypes = callbackMethod.getParameterTypes();
             Class<?> returnType = callbackMethod.getReturnType();
             fromNative = new FromNativeConverter[argTypes.length];
@@ -608,8 +622,16 @@ public class CallbackReference extends WeakReference<Callback> implements Closea
          * This method <em>must not</em> throw exceptions.
          */
         @Override
-        public Object callback(Object[] args) {
+        public Object callback(final Object[] args) {
             try {
+                if (virtual) {
+                    return VirtualThreadSupport.callOnVirtualThread(new Callable<Object>() {
+                        @Override
+                        public Object call() {
+                            return invokeCallback(args);
+                        }
+                    });
+                }
                 return invokeCallback(args);
             }
             catch (Throwable t) {
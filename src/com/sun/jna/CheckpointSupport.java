@@ -0,0 +1,351 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Support for checkpoint/restore runtimes (CRaC) and for warming up JNA
+ * state at startup, e.g. in combination with an AppCDS archive.
+ * <p>
+ * {@link #beforeCheckpoint()} closes every open native library and
+ * unregisters direct-mapped classes; {@link #afterRestore()} reopens the
+ * libraries, updates the address of every {@link Function} looked up so far
+ * and registers the direct-mapped classes again.  Java-side state such as
+ * structure layouts, library options and the {@link Function} instances
+ * themselves is kept.  No native calls may be made in between; calls to
+ * functions of a closed library throw {@link UnsatisfiedLinkError}.  A
+ * library which cannot be reopened stays closed, and a function no longer
+ * found in its reopened library throws {@link UnsatisfiedLinkError} when
+ * called.  Callbacks and type information allocated in native memory are
+ * left in place.  Use {@link #register()}
+ * to have these called by the CRaC runtime.</p>
+ * <p>
+ * A snapshot written with {@link #writeSnapshot} records the libraries and
+ * functions looked up, the library interfaces and direct-mapped classes in
+ * use and the structure classes whose layout has been computed.
+ * {@link #restoreSnapshot} repeats that work, opening each library and
+ * looking up its functions in bulk, so that a new process reaches its first
+ * native call without doing it on demand.</p>
+ */
+public final class CheckpointSupport {
+
+    private static final Logger LOG = Logger.getLogger(CheckpointSupport.class.getName());
+
+    static final int MAGIC = 0x4A4E4153;
+    static final int FORMAT = 1;
+
+    private static final String[] CRAC_PACKAGES = { "org.crac", "jdk.crac" };
+
+    private static final byte STRING = 'S';
+    private static final byte INTEGER = 'I';
+    private static final byte BOOLEAN = 'Z';
+    private static final byte CLASSLOADER = 'L';
+
+    private static final byte INITIALIZE = 'I';
+    private static final byte STRUCTURE = 'S';
+
+    /** Registered CRaC resource; the runtime only keeps weak references. */
+    private static Object resource;
+    private static Map<Class<?>, NativeLibrary> suspendedClasses;
+
+    private CheckpointSupport() { }
+
+    /**
+     * Register {@link #beforeCheckpoint()} and {@link #afterRestore()} with
+     * the CRaC runtime, using either the <code>org.crac</code> API or the
+     * JDK's <code>jdk.crac</code> API, whichever is available.
+     * @return whether a CRaC runtime was found
+     */
+    public static synchronized boolean register() {
+        if (resource != null) {
+            return true;
+        }
+        for (String pkg : CRAC_PACKAGES) {
+            try {
+                Class<?> resourceClass = Class.forName(pkg + ".Resource");
+                Class<?> contextClass = Class.forName(pkg + ".Context");
+                Object context = Class.forName(pkg + ".Core").getMethod("getGlobalContext").invoke(null);
+                Object r = Proxy.newProxyInstance(resourceClass.getClassLoader(), new Class<?>[] { resourceClass }, new ResourceHandler());
+                contextClass.getMethod("register", resourceClass).invoke(context, r);
+                resource = r;
+                return true;
+            } catch (ClassNotFoundException e) {
+                // try the next API
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOG.log(Level.FINE, "Unable to register with " + pkg, e);
+            }
+        }
+        return false;
+    }
+
+    private static final class ResourceHandler implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "beforeCheckpoint":
+                    beforeCheckpoint();
+                    return null;
+                case "afterRestore":
+                    afterRestore();
+                    return null;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "JNA checkpoint resource";
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        }
+    }
+
+    /**
+     * Close all native libraries ahead of a checkpoint.  Direct-mapped
+     * classes are unregistered and registered again by
+     * {@link #afterRestore()}.
+     */
+    public static synchronized void beforeCheckpoint() {
+        Map<Class<?>, NativeLibrary> classes = Native.getRegisteredLibraries();
+        for (Class<?> cls : classes.keySet()) {
+            Native.unregister(cls);
+        }
+        if (suspendedClasses != null) {
+            classes.putAll(suspendedClasses);
+        }
+        suspendedClasses = classes;
+        NativeLibrary.suspendAll();
+    }
+
+    /**
+     * Reopen the native libraries closed by {@link #beforeCheckpoint()} and
+     * re-establish direct mappings.  Libraries and classes which can no
+     * longer be restored are logged and skipped.
+     */
+    public static synchronized void afterRestore() {
+        NativeLibrary.resumeAll();
+        if (suspendedClasses != null) {
+            for (Map.Entry<Class<?>, NativeLibrary> e : suspendedClasses.entrySet()) {
+                try {
+                    Native.register(e.getKey(), e.getValue());
+                } catch (UnsatisfiedLinkError ex) {
+                    LOG.log(Level.WARNING, "Unable to register {0} again: {1}", new Object[] { e.getKey().getName(), ex.getMessage() });
+                }
+            }
+            suspendedClasses = null;
+        }
+    }
+
+    /**
+     * Write a snapshot of the JNA state built up so far.  Libraries whose
+     * options cannot be written (e.g. a custom {@link TypeMapper}) are
+     * omitted; they are still warmed up indirectly by initializing the
+     * classes which use them.
+     * @param os stream to write to; not closed
+     * @throws IOException if an error occurs writing the snapshot
+     */
+    public static void writeSnapshot(OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeUTF(Native.VERSION);
+
+        List<NativeLibrary> libs = new ArrayList<>();
+        for (NativeLibrary lib : NativeLibrary.getInstances()) {
+            if (isWritable(lib.getOptions())) {
+                libs.add(lib);
+            }
+        }
+        out.writeInt(libs.size());
+        for (NativeLibrary lib : libs) {
+            File file = lib.getFile();
+            out.writeUTF(file != null ? lib.getName() : Platform.C_LIBRARY_NAME);
+            out.writeUTF(file != null ? file.getAbsolutePath() : Platform.C_LIBRARY_NAME);
+            Map<String, ?> options = lib.getOptions();
+            out.writeInt(options.size());
+            for (Map.Entry<String, ?> e : options.entrySet()) {
+                out.writeUTF(e.getKey());
+                Object value = e.getValue();
+                if (value instanceof String) {
+                    out.writeByte(STRING);
+                    out.writeUTF((String) value);
+                } else if (value instanceof Integer) {
+                    out.writeByte(INTEGER);
+                    out.writeInt((Integer) value);
+                } else if (value instanceof Boolean) {
+                    out.writeByte(BOOLEAN);
+                    out.writeBoolean((Boolean) value);
+                } else {
+                    out.writeByte(CLASSLOADER);
+                }
+            }
+            Map<String, Integer> functions = lib.getFunctionNames();
+            out.writeInt(functions.size());
+            for (Map.Entry<String, Integer> e : functions.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue());
+            }
+        }
+
+        Map<String, Byte> classes = new LinkedHashMap<>();
+        Structure.layoutInfoLock.readLock().lock();
+        try {
+            for (Class<?> cls : Structure.layoutInfo.keySet()) {
+                classes.put(cls.getName(), STRUCTURE);
+            }
+        } finally {
+            Structure.layoutInfoLock.readLock().unlock();
+        }
+        for (Class<?> cls : Native.getLibraryInterfaces()) {
+            classes.put(cls.getName(), INITIALIZE);
+        }
+        for (Class<?> cls : Native.getRegisteredLibraries().keySet()) {
+            classes.put(cls.getName(), INITIALIZE);
+        }
+        out.writeInt(classes.size());
+        for (Map.Entry<String, Byte> e : classes.entrySet()) {
+            out.writeByte(e.getValue());
+            out.writeUTF(e.getKey());
+        }
+        out.flush();
+    }
+
+    private static boolean isWritable(Map<String, ?> options) {
+        for (Object value : options.values()) {
+            if (!(value instanceof String || value instanceof Integer
+                  || value instanceof Boolean || value instanceof ClassLoader)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Restore the state recorded by {@link #writeSnapshot}: open the
+     * recorded libraries and look up their functions, then initialize the
+     * recorded library interfaces and direct-mapped classes and compute the
+     * recorded structure layouts.  Entries which can no longer be restored
+     * are skipped.
+     * @param is stream to read from; not closed
+     * @param loader class loader used to load the recorded classes, and
+     * passed as {@link Library#OPTION_CLASSLOADER} where one was recorded
+     * @return <code>false</code> if the snapshot was written by a different
+     * version of JNA and has been ignored
+     * @throws IOException if the snapshot cannot be read
+     */
+    public static boolean restoreSnapshot(InputStream is, ClassLoader loader) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a JNA snapshot");
+        }
+        if (in.readInt() != FORMAT || !Native.VERSION.equals(in.readUTF())) {
+            return false;
+        }
+
+        for (int count=in.readInt();count > 0;count--) {
+            String name = in.readUTF();
+            String path = in.readUTF();
+            Map<String, Object> options = new HashMap<>();
+            for (int n=in.readInt();n > 0;n--) {
+                String key = in.readUTF();
+                byte type = in.readByte();
+                switch (type) {
+                    case STRING: options.put(key, in.readUTF()); break;
+                    case INTEGER: options.put(key, in.readInt()); break;
+                    case BOOLEAN: options.put(key, in.readBoolean()); break;
+                    case CLASSLOADER: options.put(key, loader); break;
+                    default: throw new IOException("Invalid option type " + type);
+                }
+            }
+            int n = in.readInt();
+            String[] names = new String[n];
+            int[] flags = new int[n];
+            for (int i=0;i < n;i++) {
+                names[i] = in.readUTF();
+                flags[i] = in.readInt();
+            }
+            try {
+                NativeLibrary lib;
+                try {
+                    // Prefer the name the library was loaded with, so that
+                    // later lookups by that name find this instance
+                    lib = NativeLibrary.getInstance(name, options);
+                } catch (UnsatisfiedLinkError e) {
+                    lib = NativeLibrary.getInstance(path, options);
+                }
+                try {
+                    lib.getFunctions(names, flags);
+                } catch (UnsatisfiedLinkError e) {
+                    // Look up whatever is still available
+                    for (int i=0;i < n;i++) {
+                        try {
+                            lib.getFunction(names[i], flags[i]);
+                        } catch (UnsatisfiedLinkError e2) {
+                            LOG.log(Level.FINE, "Function {0} no longer found: {1}", new Object[] { names[i], e2.getMessage() });
+                        }
+                    }
+                }
+            } catch (UnsatisfiedLinkError e) {
+                LOG.log(Level.FINE, "Library {0} no longer found: {1}", new Object[] { path, e.getMessage() });
+            }
+        }
+
+        List<Class<?>> structures = new ArrayList<>();
+        for (int count=in.readInt();count > 0;count--) {
+            byte kind = in.readByte();
+            String name = in.readUTF();
+            try {
+                Class<?> cls = Class.forName(name, kind == INITIALIZE, loader);
+                if (kind == STRUCTURE && Structure.class.isAssignableFrom(cls)) {
+                    structures.add(cls);
+                }
+            } catch (ClassNotFoundException | LinkageError e) {
+                LOG.log(Level.FINE, "Unable to restore " + name, e);
+            }
+        }
+        for (Class<?> cls : structures) {
+            try {
+                Structure.newInstance(cls.asSubclass(Structure.class)).size();
+            } catch (RuntimeException | LinkageError e) {
+                LOG.log(Level.FINE, "Unable to compute layout of " + cls.getName(), e);
+            }
+        }
+        return true;
+    }
+}
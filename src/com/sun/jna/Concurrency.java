@@ -0,0 +1,328 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Annotations for fine-grained control of concurrent calls into a native
+ * library, as a more selective alternative to
+ * {@link Native#synchronizedLibrary}.
+ * <p>
+ * Methods of a {@link Library} interface may be assigned to named groups,
+ * which are shared by all interfaces mapped onto the same
+ * {@link NativeLibrary}:</p>
+ * <ul>
+ * <li>{@link Exclusive}: at most one call in the group runs at a time</li>
+ * <li>{@link Read} / {@link Write}: any number of readers, or one writer
+ * (calls annotated {@link Exclusive} count as writers)</li>
+ * <li>{@link Permits}: at most {@link Permits#max()} calls in the group run
+ * at a time</li>
+ * <li>{@link LockFree}: no restriction</li>
+ * </ul>
+ * An annotation on the mapped interface applies to every method that does
+ * not carry its own, including methods inherited from super-interfaces; an
+ * annotation on a super-interface applies to its own methods if the mapped
+ * interface has none.  For example:
+ * <pre><code>
+ * &#64;Concurrency.Exclusive("state")
+ * public interface MyLibrary extends Library {
+ *     void init();                         // exclusive "state"
+ *     &#64;Concurrency.Read("state")
+ *     int query(int key);                  // shared "state"
+ *     &#64;Concurrency.Permits(value="io", max=4)
+ *     int transfer(Pointer buf, int len);
+ *     &#64;Concurrency.LockFree
+ *     int version();
+ * }
+ * </code></pre>
+ * Locks are acquired uninterruptibly around the native call and are
+ * reentrant, except for {@link Permits}.  A call holding a group as a
+ * reader (e.g. from a callback) can not call a writer of the same group,
+ * since read locks can not be upgraded; such a call throws
+ * {@link IllegalStateException} instead of deadlocking.  Contention for each group may be
+ * inspected with {@link #getStatistics(NativeLibrary)}.  These annotations
+ * apply to interface mapping only, not to direct mapping.
+ */
+public final class Concurrency {
+
+    /** Calls in the named group are mutually exclusive. */
+    @Documented
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.METHOD, ElementType.TYPE})
+    public @interface Exclusive {
+        String value();
+    }
+
+    /** Calls may run concurrently with other readers of the named group,
+     * but not with writers.
+     */
+    @Documented
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.METHOD, ElementType.TYPE})
+    public @interface Read {
+        String value();
+    }
+
+    /** Calls are exclusive with respect to all other calls in the named
+     * group.  Equivalent to {@link Exclusive}.
+     */
+    @Documented
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.METHOD, ElementType.TYPE})
+    public @interface Write {
+        String value();
+    }
+
+    /** At most {@link #max()} calls in the named group run at a time. */
+    @Documented
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.METHOD, ElementType.TYPE})
+    public @interface Permits {
+        String value();
+        int max();
+    }
+
+    /** Calls are not restricted, even if the interface is annotated. */
+    @Documented
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    public @interface LockFree {
+    }
+
+    /** Snapshot of the contention metrics of a single group. */
+    public static final class Statistics {
+        private final String name;
+        private final long acquisitions;
+        private final long contended;
+        private final long waitNanos;
+
+        Statistics(String name, long acquisitions, long contended, long waitNanos) {
+            this.name = name;
+            this.acquisitions = acquisitions;
+            this.contended = contended;
+            this.waitNanos = waitNanos;
+        }
+
+        /** @return the group name. */
+        public String getName() {
+            return name;
+        }
+
+        /** @return the number of calls which entered the group. */
+        public long getAcquisitions() {
+            return acquisitions;
+        }
+
+        /** @return the number of calls which had to wait to enter the group. */
+        public long getContendedAcquisitions() {
+            return contended;
+        }
+
+        /** @return the total time in nanoseconds calls spent waiting. */
+        public long getWaitNanos() {
+            return waitNanos;
+        }
+
+        @Override
+        public String toString() {
+            return name + "[acquisitions=" + acquisitions + ",contended=" + contended
+                + ",waitNanos=" + waitNanos + "]";
+        }
+    }
+
+    /** A named group, holding either a read/write lock or a semaphore. */
+    static final class Group {
+        final String name;
+        final ReentrantReadWriteLock rwLock;
+        final Semaphore permits;
+        final int maxPermits;
+        final LongAdder acquisitions = new LongAdder();
+        final LongAdder contended = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+
+        Group(String name, int maxPermits) {
+            this.name = name;
+            this.maxPermits = maxPermits;
+            if (maxPermits > 0) {
+                this.permits = new Semaphore(maxPermits);
+                this.rwLock = null;
+            } else {
+                this.permits = null;
+                this.rwLock = new ReentrantReadWriteLock();
+            }
+        }
+
+        Statistics getStatistics() {
+            return new Statistics(name, acquisitions.sum(), contended.sum(), waitNanos.sum());
+        }
+    }
+
+    /** Acquires and releases a group around a native call. */
+    static final class Guard {
+        private final Group group;
+        private final Lock lock;
+
+        Guard(Group group, Lock lock) {
+            this.group = group;
+            this.lock = lock;
+        }
+
+        void enter() {
+            if (lock != null && lock == group.rwLock.writeLock()
+                && group.rwLock.getReadHoldCount() > 0 && !group.rwLock.isWriteLockedByCurrentThread()) {
+                throw new IllegalStateException("Can not enter concurrency group \"" + group.name
+                                                + "\" as a writer while holding it as a reader");
+            }
+            group.acquisitions.increment();
+            if (lock != null ? lock.tryLock() : group.permits.tryAcquire()) {
+                return;
+            }
+            group.contended.increment();
+            long start = System.nanoTime();
+            if (lock != null) {
+                lock.lock();
+            } else {
+                group.permits.acquireUninterruptibly();
+            }
+            group.waitNanos.add(System.nanoTime() - start);
+        }
+
+        void exit() {
+            if (lock != null) {
+                lock.unlock();
+            } else {
+                group.permits.release();
+            }
+        }
+    }
+
+    private Concurrency() { }
+
+    /**
+     * Returns the contention metrics of all groups defined for the given
+     * library so far, ordered by group name.
+     * @param library the native library
+     * @return map of group name to statistics
+     */
+    public static Map<String, Statistics> getStatistics(NativeLibrary library) {
+        Map<String, Statistics> stats = new TreeMap<>();
+        for (Group group : library.getConcurrencyGroups().values()) {
+            stats.put(group.name, group.getStatistics());
+        }
+        return Collections.unmodifiableMap(stats);
+    }
+
+    /**
+     * Returns the guard to apply to calls of the given method, or
+     * <code>null</code> if calls are unrestricted.
+     * @param library the library the method is mapped to
+     * @param interfaceClass the mapped interface, whose annotations apply
+     * to methods inherited from super-interfaces
+     * @param method the method
+     * @throws IllegalArgumentException if the annotations conflict with
+     * each other or with an existing group of the same name.
+     */
+    static Guard getGuard(NativeLibrary library, Class<?> interfaceClass, Method method) {
+        if (method.isAnnotationPresent(LockFree.class)) {
+            if (countAnnotations(method.getAnnotation(Exclusive.class), method.getAnnotation(Read.class),
+                                 method.getAnnotation(Write.class), method.getAnnotation(Permits.class)) > 0) {
+                throw new IllegalArgumentException("Method " + method + " is both lock-free and locked");
+            }
+            return null;
+        }
+        Guard guard = getGuard(library, method,
+                               method.getAnnotation(Exclusive.class), method.getAnnotation(Read.class),
+                               method.getAnnotation(Write.class), method.getAnnotation(Permits.class));
+        if (guard != null) {
+            return guard;
+        }
+        guard = getGuard(library, method, interfaceClass);
+        Class<?> cls = method.getDeclaringClass();
+        if (guard == null && cls != interfaceClass) {
+            guard = getGuard(library, method, cls);
+        }
+        return guard;
+    }
+
+    private static Guard getGuard(NativeLibrary library, Method method, Class<?> cls) {
+        return getGuard(library, method,
+                        cls.getAnnotation(Exclusive.class), cls.getAnnotation(Read.class),
+                        cls.getAnnotation(Write.class), cls.getAnnotation(Permits.class));
+    }
+
+    private static Guard getGuard(NativeLibrary library, Method method,
+                                  Exclusive exclusive, Read read, Write write, Permits permits) {
+        int count = countAnnotations(exclusive, read, write, permits);
+        if (count == 0) {
+            return null;
+        }
+        if (count > 1) {
+            throw new IllegalArgumentException("Method " + method + " has conflicting concurrency annotations");
+        }
+        if (permits != null) {
+            if (permits.max() < 1) {
+                throw new IllegalArgumentException("Permits for " + method + " must be positive: " + permits.max());
+            }
+            return new Guard(getGroup(library, permits.value(), permits.max()), null);
+        }
+        if (read != null) {
+            Group group = getGroup(library, read.value(), 0);
+            return new Guard(group, group.rwLock.readLock());
+        }
+        Group group = getGroup(library, exclusive != null ? exclusive.value() : write.value(), 0);
+        return new Guard(group, group.rwLock.writeLock());
+    }
+
+    private static int countAnnotations(Object... annotations) {
+        int count = 0;
+        for (Object a : annotations) {
+            if (a != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Group getGroup(NativeLibrary library, String name, int maxPermits) {
+        Group group = library.getConcurrencyGroups().computeIfAbsent(name, (n) -> new Group(n, maxPermits));
+        if (group.maxPermits != maxPermits) {
+            throw new IllegalArgumentException("Concurrency group \"" + name + "\" of " + library
+                                               + " is already defined "
+                                               + (group.maxPermits > 0 ? "with " + group.maxPermits + " permits" : "as a lock"));
+        }
+        return group;
+    }
+}
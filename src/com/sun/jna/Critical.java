@@ -0,0 +1,79 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks primitive array parameters of a {@link Library} interface method for
+ * transfer in one direction only.  By default a primitive array argument is
+ * copied to native memory before the call and copied back afterwards; for
+ * large arrays passed to e.g. compression or checksum functions, one of the
+ * two copies is wasted.  With this annotation an {@link Direction#IN IN}
+ * array is copied to native memory but not back, and an
+ * {@link Direction#OUT OUT} array is only copied back.  Native memory for
+ * the transfer is taken from a small pool of buffers shared by all threads,
+ * which are reused from call to call.
+ * <p>
+ * The annotation may be placed on a parameter, or on the method to apply to
+ * all of its <code>byte[]</code>, <code>short[]</code>, <code>int[]</code>,
+ * <code>long[]</code>, <code>float[]</code> and <code>double[]</code>
+ * parameters.  Other parameters are unaffected.</p>
+ * <p>
+ * Restrictions:</p>
+ * <ul>
+ * <li>The native function must not keep the pointer after it returns; the
+ * memory is reused by later calls.</li>
+ * <li>Native changes to an {@link Direction#IN IN} array are lost; the
+ * native function must treat it as <code>const</code>.</li>
+ * <li>The initial contents of the native memory for an
+ * {@link Direction#OUT OUT} array are undefined; the native function must
+ * write every element the caller will read, since all elements are copied
+ * back.</li>
+ * <li>Only applies to methods invoked through a {@link Library} interface
+ * proxy; direct mapped methods ({@link Native#register}) are not
+ * affected.</li>
+ * </ul>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.PARAMETER})
+public @interface Critical {
+
+    /** Direction of data transfer for an array argument. */
+    enum Direction {
+        /** Copied to native memory before the call only. */
+        IN,
+        /** Copied from native memory after the call only. */
+        OUT,
+        /** Copied in both directions. */
+        INOUT
+    }
+
+    /** @return the direction of transfer */
+    Direction value() default Direction.INOUT;
+}
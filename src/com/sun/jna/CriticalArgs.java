@@ -0,0 +1,268 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transfers primitive array arguments annotated with {@link Critical} (or
+ * {@link In}/{@link Out}) through pooled native buffers, in one
+ * direction only, and tracks the declared direction of other parameters.
+ *
+ * @see Function
+ */
+final class CriticalArgs {
+
+    /** Largest buffer kept for reuse; larger transfers use memory which is
+     * freed after the call. */
+    private static final long MAX_RETAINED = Long.getLong("jna.critical.retain", 16L * 1024 * 1024);
+
+    /** Number of buffers kept for reuse, shared by all threads so that
+     * memory is not retained by each (possibly virtual) thread. */
+    private static final int MAX_POOLED = Integer.getInteger("jna.critical.pool", Runtime.getRuntime().availableProcessors());
+
+    private static final Critical.Direction[] NONE = new Critical.Direction[0];
+
+    private static final Map<Method, Critical.Direction[]> directions = new ConcurrentHashMap<>();
+    private static final Map<Method, Critical.Direction[]> declaredDirections = new ConcurrentHashMap<>();
+
+    private static final Deque<Memory> pool = new ConcurrentLinkedDeque<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private CriticalArgs() { }
+
+    /** Native memory holding the critical arguments of one call. */
+    static final class Frame {
+        private final Critical.Direction[] directions;
+        private final boolean reuse;
+        private final Memory memory;
+        private long offset;
+
+        Frame(Critical.Direction[] directions, boolean reuse, Memory memory) {
+            this.directions = directions;
+            this.reuse = reuse;
+            this.memory = memory;
+        }
+
+        /** @return the argument to pass in place of <code>arg</code> */
+        Object convert(int index, Object arg) {
+            if (index >= directions.length || directions[index] == null || arg == null) {
+                return arg;
+            }
+            long size = sizeOf(arg);
+            if (size < 0) {
+                return arg;
+            }
+            ArrayTransfer transfer = new ArrayTransfer(memory.peer + offset, arg, directions[index]);
+            offset += align(size);
+            return transfer;
+        }
+
+        /** Release the memory once the call has completed. */
+        void end() {
+            if (reuse && pooled.incrementAndGet() <= MAX_POOLED) {
+                pool.offerFirst(memory);
+            } else {
+                if (reuse) {
+                    pooled.decrementAndGet();
+                }
+                memory.close();
+            }
+        }
+    }
+
+    /** Pointer to the native copy of an array argument, which is read back
+     * after the call if required.
+     */
+    private static final class ArrayTransfer extends Pointer implements Function.PostCallRead {
+        private final Object array;
+        private final Critical.Direction direction;
+
+        ArrayTransfer(long peer, Object array, Critical.Direction direction) {
+            super(peer);
+            this.array = array;
+            this.direction = direction;
+            if (direction != Critical.Direction.OUT) {
+                copy(true);
+            }
+        }
+
+        @Override
+        public void read() {
+            if (direction != Critical.Direction.IN) {
+                copy(false);
+            }
+        }
+
+        private void copy(boolean toNative) {
+            if (array instanceof byte[]) {
+                byte[] a = (byte[]) array;
+                if (toNative) write(0, a, 0, a.length); else read(0, a, 0, a.length);
+            } else if (array instanceof short[]) {
+                short[] a = (short[]) array;
+                if (toNative) write(0, a, 0, a.length); else read(0, a, 0, a.length);
+            } else if (array instanceof int[]) {
+                int[] a = (int[]) array;
+                if (toNative) write(0, a, 0, a.length); else read(0, a, 0, a.length);
+            } else if (array instanceof long[]) {
+                long[] a = (long[]) array;
+                if (toNative) write(0, a, 0, a.length); else read(0, a, 0, a.length);
+            } else if (array instanceof float[]) {
+                float[] a = (float[]) array;
+                if (toNative) write(0, a, 0, a.length); else read(0, a, 0, a.length);
+            } else {
+                double[] a = (double[]) array;
+                if (toNative) write(0, a, 0, a.length); else read(0, a, 0, a.length);
+            }
+        }
+    }
+
+    /** @return the transfer directions of the primitive array parameters
+     * of the given method which are passed through native memory managed
+     * here, or an empty array if there are none.  Array parameters marked
+     * {@link In} or {@link Out} are included.
+     */
+    static Critical.Direction[] getDirections(Method method) {
+        Critical.Direction[] result = directions.get(method);
+        if (result == null) {
+            result = NONE;
+            Critical methodLevel = method.getAnnotation(Critical.class);
+            Critical.Direction[] declared = getDeclaredDirections(method);
+            Annotation[][] annotations = method.getParameterAnnotations();
+            Class<?>[] types = method.getParameterTypes();
+            Critical.Direction[] found = new Critical.Direction[types.length];
+            for (int i=0;i < types.length;i++) {
+                if (!isSupported(types[i])) {
+                    continue;
+                }
+                found[i] = methodLevel != null ? methodLevel.value() : null;
+                if (i < declared.length && declared[i] != null && declared[i] != Critical.Direction.INOUT) {
+                    found[i] = declared[i];
+                }
+                for (Annotation a : annotations[i]) {
+                    if (a instanceof Critical) {
+                        found[i] = ((Critical) a).value();
+                    }
+                }
+                if (found[i] != null) {
+                    result = found;
+                }
+            }
+            directions.put(method, result);
+        }
+        return result;
+    }
+
+    /** @return the directions declared with {@link In}, {@link Out} or
+     * {@link InOut} on the parameters of the given method, or an empty
+     * array if there are none.
+     */
+    static Critical.Direction[] getDeclaredDirections(Method method) {
+        Critical.Direction[] result = declaredDirections.get(method);
+        if (result == null) {
+            result = NONE;
+            Annotation[][] annotations = method.getParameterAnnotations();
+            Critical.Direction[] found = new Critical.Direction[annotations.length];
+            for (int i=0;i < annotations.length;i++) {
+                for (Annotation a : annotations[i]) {
+                    if (a instanceof In) {
+                        found[i] = Critical.Direction.IN;
+                    } else if (a instanceof Out) {
+                        found[i] = Critical.Direction.OUT;
+                    } else if (a instanceof InOut) {
+                        found[i] = Critical.Direction.INOUT;
+                    }
+                }
+                if (found[i] != null) {
+                    result = found;
+                }
+            }
+            declaredDirections.put(method, result);
+        }
+        return result;
+    }
+
+    /** Prepare native memory for the critical arguments of a call.
+     * @return a frame for the call, or <code>null</code> if the method has
+     * no critical arguments.
+     */
+    static Frame begin(Method method, Object[] args) {
+        Critical.Direction[] dirs = getDirections(method);
+        if (dirs.length == 0 || args == null) {
+            return null;
+        }
+        long total = 0;
+        for (int i=0;i < dirs.length && i < args.length;i++) {
+            if (dirs[i] != null && args[i] != null) {
+                long size = sizeOf(args[i]);
+                if (size > 0) {
+                    total += align(size);
+                }
+            }
+        }
+        if (total == 0) {
+            total = 1;
+        }
+        if (total > MAX_RETAINED) {
+            return new Frame(dirs, false, new Memory(total));
+        }
+        Memory memory = pool.pollFirst();
+        if (memory != null) {
+            pooled.decrementAndGet();
+            if (memory.size() < total) {
+                memory.close();
+                memory = null;
+            }
+        }
+        if (memory == null) {
+            memory = new Memory(Math.max(total, Math.min(4096, MAX_RETAINED)));
+        }
+        return new Frame(dirs, true, memory);
+    }
+
+    private static boolean isSupported(Class<?> type) {
+        return type == byte[].class || type == short[].class || type == int[].class
+            || type == long[].class || type == float[].class || type == double[].class;
+    }
+
+    /** @return the number of bytes of a supported array, or -1 */
+    private static long sizeOf(Object arg) {
+        if (arg instanceof byte[]) return ((byte[]) arg).length;
+        if (arg instanceof short[]) return ((short[]) arg).length * 2L;
+        if (arg instanceof int[]) return ((int[]) arg).length * 4L;
+        if (arg instanceof long[]) return ((long[]) arg).length * 8L;
+        if (arg instanceof float[]) return ((float[]) arg).length * 4L;
+        if (arg instanceof double[]) return ((double[]) arg).length * 8L;
+        return -1;
+    }
+
+    private static long align(long size) {
+        return (size + 15) & ~15L;
+    }
+}
@@ -0,0 +1,495 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.Reference;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Calls a {@link Library} interface method through a generated,
+ * direct-mapped stub (see {@link Library#OPTION_DIRECT_DISPATCH}).
+ * <p>
+ * For each supported method a class with a single <code>static native</code>
+ * method is defined, whose parameters and result are primitive only, and
+ * registered with the method's function as with
+ * {@link Native#register(Class, NativeLibrary)}.  {@link NativeMapped}
+ * (including {@link IntegerType} and {@link PointerType}) and
+ * {@link TypeMapper} conversions are resolved once and applied in Java
+ * around the stub call, rather than by the generic argument conversion of
+ * {@link Function#invoke(Method, Class[], Class, Object[], Map)} or by calls
+ * from native code back into the VM.</p>
+ * <p>
+ * Methods with arguments or results other than primitives, {@link Pointer}s
+ * and types converted to either are not supported; {@link #create} returns
+ * <code>null</code> for them and the call goes through {@link Function}.</p>
+ */
+final class DirectWrapper {
+
+    private static final Logger LOG = Logger.getLogger(DirectWrapper.class.getName());
+
+    private static final String STUB_PACKAGE = "com/sun/jna/stub/";
+    private static final AtomicInteger STUB_COUNT = new AtomicInteger();
+    /** <code>Reference.reachabilityFence</code>, if available (Java 9+). */
+    private static final MethodHandle REACHABILITY_FENCE = lookupReachabilityFence();
+    private static volatile Object fenceSink;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int ACC_NATIVE = 0x0100;
+
+    private static MethodHandle lookupReachabilityFence() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Reference.class, "reachabilityFence",
+                                                           MethodType.methodType(void.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /** Defines a single stub class. */
+    private static final class StubLoader extends ClassLoader {
+        StubLoader(ClassLoader parent) {
+            super(parent);
+        }
+        Class<?> define(String name, byte[] b) {
+            return defineClass(name, b, 0, b.length);
+        }
+    }
+
+    /** A stub class registered with one function address. */
+    private static final class Stub {
+        final MethodHandle handle;
+        final long peer;
+        // Library version of the address, if reloadable
+        final int version;
+
+        Stub(Method method, long peer, int version) throws IllegalAccessException {
+            this.handle = MethodHandles.publicLookup().unreflect(method)
+                .asSpreader(Object[].class, method.getParameterTypes().length)
+                .asType(MethodType.methodType(Object.class, Object[].class));
+            this.peer = peer;
+            this.version = version;
+        }
+    }
+
+    private final Function function;
+    private final Method method;
+    private final Class<?> returnType;
+    private volatile Stub stub;
+    private final ToNativeConverter[] toNative;
+    private final Class<?>[] nativeTypes;
+    private final Class<?>[] stubTypes;
+    private final FromNativeConverter fromNative;
+    private final Class<?> nativeReturnType;
+    private final Class<?> stubReturnType;
+
+    private DirectWrapper(Function function, Method method, Class<?> returnType, Stub stub,
+                          ToNativeConverter[] toNative, Class<?>[] nativeTypes, Class<?>[] stubTypes,
+                          FromNativeConverter fromNative, Class<?> nativeReturnType, Class<?> stubReturnType) {
+        this.function = function;
+        this.method = method;
+        this.returnType = returnType;
+        this.stub = stub;
+        this.toNative = toNative;
+        this.nativeTypes = nativeTypes;
+        this.stubTypes = stubTypes;
+        this.fromNative = fromNative;
+        this.nativeReturnType = nativeReturnType;
+        this.stubReturnType = stubReturnType;
+    }
+
+    /** Create a wrapper calling the given function for the given method.
+     * @param function function bound to the method
+     * @param method interface method
+     * @param returnType Java result type of the native call
+     * @param options library options
+     * @return the wrapper, or <code>null</code> if the method can not be
+     * called through a direct stub.
+     */
+    static DirectWrapper create(Function function, Method method, Class<?> returnType, Map<String, ?> options) {
+        if (Function.isVarArgs(method)) {
+            return null;
+        }
+        TypeMapper mapper = (TypeMapper) options.get(Library.OPTION_TYPE_MAPPER);
+        Class<?>[] ptypes = method.getParameterTypes();
+        ToNativeConverter[] toNative = new ToNativeConverter[ptypes.length];
+        Class<?>[] nativeTypes = new Class<?>[ptypes.length];
+        Class<?>[] stubTypes = new Class<?>[ptypes.length];
+        for (int i=0;i < ptypes.length;i++) {
+            Class<?> type = ptypes[i].isPrimitive() ? box(ptypes[i]) : ptypes[i];
+            if (NativeMapped.class.isAssignableFrom(type)) {
+                toNative[i] = NativeMappedConverter.getInstance(type);
+            } else if (mapper != null) {
+                toNative[i] = mapper.getToNativeConverter(type);
+            }
+            if (toNative[i] == null && !ptypes[i].isPrimitive()
+                && !Pointer.class.isAssignableFrom(type)) {
+                return null;
+            }
+            nativeTypes[i] = toNative[i] != null ? toNative[i].nativeType() : type;
+            stubTypes[i] = getStubType(nativeTypes[i]);
+            if (stubTypes[i] == null) {
+                return null;
+            }
+        }
+
+        FromNativeConverter fromNative = null;
+        Class<?> nativeReturnType = returnType;
+        if (returnType != void.class) {
+            Class<?> type = returnType.isPrimitive() ? box(returnType) : returnType;
+            if (NativeMapped.class.isAssignableFrom(type)) {
+                fromNative = NativeMappedConverter.getInstance(type);
+            } else if (mapper != null) {
+                fromNative = mapper.getFromNativeConverter(type);
+            }
+            if (fromNative == null && !returnType.isPrimitive() && type != Pointer.class) {
+                return null;
+            }
+            if (fromNative != null) {
+                nativeReturnType = fromNative.nativeType();
+            }
+        }
+        // Pointer results are never returned as subclasses
+        Class<?> stubReturnType = getStubType(nativeReturnType);
+        if (stubReturnType == null
+            || (Pointer.class.isAssignableFrom(nativeReturnType) && nativeReturnType != Pointer.class)) {
+            return null;
+        }
+
+        try {
+            NativeLibrary.Target target = function.target;
+            Stub stub = target != null
+                ? createStub(function, method, stubTypes, stubReturnType, target.peer, target.version.number)
+                : createStub(function, method, stubTypes, stubReturnType, function.peer, 0);
+            return new DirectWrapper(function, method, returnType, stub, toNative, nativeTypes,
+                                     stubTypes, fromNative, nativeReturnType, stubReturnType);
+        } catch (LinkageError | ReflectiveOperationException | IOException e) {
+            LOG.log(Level.FINE, "Unable to generate a direct stub for " + method, e);
+            return null;
+        }
+    }
+
+    /** Invoke the function with the given (unconverted) arguments. */
+    Object invoke(Object[] inArgs) {
+        if (function.library == null || !function.library.isReloadable()) {
+            // The address changes if the library is reopened after a checkpoint
+            long peer = function.peer;
+            function.checkCallable(peer);
+            Stub s = stub;
+            if (s.peer != peer) {
+                s = getStub(peer, 0);
+            }
+            return invoke(s, inArgs);
+        }
+        NativeLibrary.Target target = function.library.enter(function);
+        try {
+            function.checkCallable(target.peer);
+            Stub s = stub;
+            if (s.peer != target.peer) {
+                s = getStub(target.peer, target.version.number);
+            }
+            return invoke(s, inArgs);
+        } finally {
+            target.version.exit();
+        }
+    }
+
+    /** @return a stub for the given address after the function has been
+     * re-pointed to another version of its library, or the library has been
+     * reopened.  Each stub stays registered with a single address, so that a
+     * call never runs code of a version other than the one it is counted
+     * against.
+     */
+    private synchronized Stub getStub(long peer, int version) {
+        Stub s = stub;
+        if (s.peer == peer) {
+            return s;
+        }
+        try {
+            Stub created = createStub(function, method, stubTypes, stubReturnType, peer, version);
+            if (created.version >= s.version) {
+                stub = created;
+            }
+            return created;
+        } catch (IOException | ReflectiveOperationException e) {
+            throw new UnsatisfiedLinkError("Unable to generate a direct stub for " + method + ": " + e);
+        }
+    }
+
+    private Object invoke(Stub stub, Object[] inArgs) {
+        CallMetrics.Sample sample = CallMetrics.begin(function, method);
+        if (sample == null) {
+            return invoke(stub, inArgs, null);
+        }
+        Object result;
+        try {
+            result = invoke(stub, inArgs, sample);
+        } catch (RuntimeException | Error e) {
+            sample.end(e);
+            throw e;
+        }
+        sample.end(null);
+        return result;
+    }
+
+    private Object invoke(Stub stub, Object[] inArgs, CallMetrics.Sample sample) {
+        Object[] args = inArgs != null ? Arrays.copyOf(inArgs, inArgs.length) : new Object[0];
+        // Converted arguments (e.g. Memory) are passed to the stub as bare
+        // addresses, so they must be kept reachable until the call returns
+        Object[] converted = new Object[args.length];
+        for (int i=0;i < args.length;i++) {
+            Object arg = args[i];
+            if (arg != null && toNative[i] != null) {
+                arg = toNative[i].toNative(arg, new MethodParameterContext(function, args, i, method));
+            }
+            converted[i] = arg;
+            args[i] = toStub(arg, nativeTypes[i], stubTypes[i]);
+        }
+        if (sample != null) {
+            sample.beforeNative(args);
+        }
+        Object result;
+        try {
+            result = stub.handle.invokeExact(args);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        } finally {
+            reachabilityFence(converted);
+            reachabilityFence(inArgs);
+        }
+        if (sample != null) {
+            sample.afterNative();
+        }
+        if (stubReturnType == void.class) {
+            return null;
+        }
+        result = fromStub(result, nativeReturnType);
+        if (fromNative != null) {
+            result = fromNative.fromNative(result, new MethodResultContext(returnType, function, inArgs, method));
+        }
+        return result;
+    }
+
+    /** Keep the given object strongly reachable up to this point. */
+    private static void reachabilityFence(Object o) {
+        if (REACHABILITY_FENCE != null) {
+            try {
+                REACHABILITY_FENCE.invokeExact(o);
+                return;
+            } catch (Throwable t) {
+                // fall through
+            }
+        }
+        // A volatile store can't be elided, so o stays live until here
+        fenceSink = o;
+        fenceSink = null;
+    }
+
+    /** Lower a Java value of the given native type to the stub's type. */
+    private static Object toStub(Object value, Class<?> nativeType, Class<?> stubType) {
+        if (value == null) {
+            return stubType == long.class ? Long.valueOf(0) : box(0, stubType);
+        }
+        if (Pointer.class.isAssignableFrom(nativeType)) {
+            long peer = Pointer.nativeValue((Pointer) value);
+            return stubType == long.class ? Long.valueOf(peer) : Integer.valueOf((int) peer);
+        }
+        if (value instanceof Boolean) {
+            return Integer.valueOf(Boolean.TRUE.equals(value) ? 1 : 0);
+        }
+        if (stubType == long.class) {
+            return Long.valueOf(((Number) value).longValue());
+        }
+        return box(((Number) value).doubleValue(), stubType);
+    }
+
+    private static Object box(double value, Class<?> stubType) {
+        if (stubType == int.class) {
+            return Integer.valueOf((int) value);
+        } else if (stubType == short.class) {
+            return Short.valueOf((short) value);
+        } else if (stubType == byte.class) {
+            return Byte.valueOf((byte) value);
+        } else if (stubType == float.class) {
+            return Float.valueOf((float) value);
+        }
+        return Double.valueOf(value);
+    }
+
+    /** Raise the stub's result to a Java value of the given native type. */
+    private static Object fromStub(Object value, Class<?> nativeType) {
+        if (nativeType == Pointer.class) {
+            long peer = value instanceof Integer
+                ? ((Integer) value).longValue() & 0xFFFFFFFFL : ((Long) value).longValue();
+            return peer == 0 ? null : new Pointer(peer);
+        }
+        if (nativeType == boolean.class || nativeType == Boolean.class) {
+            return Boolean.valueOf(((Integer) value).intValue() != 0);
+        }
+        return value;
+    }
+
+    private static Class<?> box(Class<?> cls) {
+        if (cls == boolean.class) return Boolean.class;
+        if (cls == byte.class) return Byte.class;
+        if (cls == short.class) return Short.class;
+        if (cls == char.class) return Character.class;
+        if (cls == int.class) return Integer.class;
+        if (cls == long.class) return Long.class;
+        if (cls == float.class) return Float.class;
+        if (cls == double.class) return Double.class;
+        return cls;
+    }
+
+    /** @return the primitive type passed to the stub for the given native
+     * type, or <code>null</code> if it is not supported.
+     */
+    private static Class<?> getStubType(Class<?> nativeType) {
+        if (nativeType == void.class) {
+            return void.class;
+        }
+        if (Pointer.class.isAssignableFrom(nativeType)) {
+            return Native.POINTER_SIZE == 8 ? long.class : int.class;
+        }
+        Class<?> type = box(nativeType);
+        if (type == Boolean.class || type == Integer.class) {
+            return int.class;
+        } else if (type == Byte.class) {
+            return byte.class;
+        } else if (type == Short.class) {
+            return short.class;
+        } else if (type == Long.class) {
+            return long.class;
+        } else if (type == Float.class) {
+            return float.class;
+        } else if (type == Double.class) {
+            return double.class;
+        }
+        // char maps to jchar here but to wchar_t through Function
+        return null;
+    }
+
+    /** Define a stub class for the given method and register it with the
+     * given function address.
+     */
+    private static Stub createStub(Function function, Method method, Class<?>[] stubTypes, Class<?> stubReturnType,
+                                   long peer, int version)
+        throws IOException, ReflectiveOperationException {
+        Method stubMethod = defineStub(method, stubTypes, stubReturnType);
+        Native.registerStub(stubMethod.getDeclaringClass(), stubMethod, function, peer);
+        return new Stub(stubMethod, peer, version);
+    }
+
+    /** Define a stub class for the given method, returning its native
+     * method.
+     */
+    private static Method defineStub(Method method, Class<?>[] stubTypes, Class<?> stubReturnType)
+        throws IOException, ReflectiveOperationException {
+        String className = STUB_PACKAGE + "Stub" + STUB_COUNT.incrementAndGet();
+        MethodType type = MethodType.methodType(stubReturnType, stubTypes);
+        boolean throwLastError = false;
+        for (Class<?> e : method.getExceptionTypes()) {
+            if (LastErrorException.class.isAssignableFrom(e)) {
+                throwLastError = true;
+            }
+        }
+        byte[] b = generate(className, method.getName(), type.toMethodDescriptorString(), throwLastError);
+        Class<?> cls = new StubLoader(DirectWrapper.class.getClassLoader()).define(className.replace('/', '.'), b);
+        return cls.getMethod(method.getName(), stubTypes);
+    }
+
+    /** Generate a class file declaring a single
+     * <code>public static native</code> method.  Native methods have no
+     * code, so only the constant pool and the method's signature (and
+     * declared {@link LastErrorException}, which tells
+     * {@link Native#register} to check <code>errno</code>) are required.
+     */
+    static byte[] generate(String className, String methodName, String descriptor, boolean throwLastError)
+        throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(52);
+        // Constant pool; entries are numbered from one
+        out.writeShort(throwLastError ? 10 : 7);
+        writeUtf8(out, className);                      // 1
+        writeClass(out, 1);                             // 2
+        writeUtf8(out, "java/lang/Object");             // 3
+        writeClass(out, 3);                             // 4
+        writeUtf8(out, methodName);                     // 5
+        writeUtf8(out, descriptor);                     // 6
+        if (throwLastError) {
+            writeUtf8(out, "Exceptions");               // 7
+            writeUtf8(out, LastErrorException.class.getName().replace('.', '/')); // 8
+            writeClass(out, 8);                         // 9
+        }
+        out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.writeShort(2);
+        out.writeShort(4);
+        out.writeShort(0);  // interfaces
+        out.writeShort(0);  // fields
+        out.writeShort(1);  // methods
+        out.writeShort(ACC_PUBLIC | ACC_STATIC | ACC_NATIVE);
+        out.writeShort(5);
+        out.writeShort(6);
+        if (throwLastError) {
+            out.writeShort(1);
+            out.writeShort(7);
+            out.writeInt(4);
+            out.writeShort(1);
+            out.writeShort(9);
+        } else {
+            out.writeShort(0);
+        }
+        out.writeShort(0);  // class attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeUtf8(DataOutputStream out, String s) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(s);
+    }
+
+    private static void writeClass(DataOutputStream out, int nameIndex) throws IOException {
+        out.writeByte(7);
+        out.writeShort(nameIndex);
+    }
+}
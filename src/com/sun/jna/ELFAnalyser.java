@@ -31,6 +31,11 @@ import java.math.BigInteger;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -43,6 +48,10 @@ import java.util.Map;
  * Analyse an ELF file for platform specific attributes.
  *
  * <p>Primary use-case: Detect whether the java binary is arm hardfloat or softfloat.</p>
+ *
+ * <p>{@link #analyseDynamic} reads the dynamic symbol table, dependencies and
+ * symbol versions of a shared library from a memory mapping of the file
+ * (see {@link DynamicInfo}).</p>
  */
 class ELFAnalyser {
     /**
@@ -75,12 +84,55 @@ class ELFAnalyser {
      */
     private static final int SHN_XINDEX = 0xffff;
 
+    private static final int SHT_DYNAMIC = 6;
+    private static final int SHT_DYNSYM = 11;
+    private static final int SHT_GNU_HASH = 0x6ffffff6;
+    private static final int SHT_GNU_VERDEF = 0x6ffffffd;
+    private static final int SHT_GNU_VERNEED = 0x6ffffffe;
+    private static final int SHT_GNU_VERSYM = 0x6fffffff;
+
+    private static final int DT_NULL = 0;
+    private static final int DT_NEEDED = 1;
+    private static final int DT_SONAME = 14;
+
+    private static final int STB_GLOBAL = 1;
+    private static final int STB_WEAK = 2;
+    private static final int STB_GNU_UNIQUE = 10;
+    private static final int STT_SECTION = 3;
+    private static final int STT_FILE = 4;
+    private static final int STV_DEFAULT = 0;
+    private static final int STV_PROTECTED = 3;
+
+    /** Symbol version index mask and "hidden" (non-default version) flag. */
+    private static final int VERSYM_VERSION = 0x7fff;
+    private static final int VERSYM_HIDDEN = 0x8000;
+
     public static ELFAnalyser analyse(String filename) throws IOException {
         ELFAnalyser res = new ELFAnalyser(filename);
         res.runDetection();
         return res;
     }
 
+    /**
+     * Read the dynamic section of the given shared library.
+     *
+     * @param filename path of the library
+     * @return the library's exported symbols and dependencies
+     * @throws IOException if the file cannot be read or is not an ELF file
+     * with a dynamic symbol table
+     */
+    public static DynamicInfo analyseDynamic(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(filename + " is too large");
+            }
+            // The mapping remains valid after the channel is closed
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new DynamicInfo(filename, data);
+        }
+    }
+
     private final String filename;
     private boolean ELF = false;
     private boolean _64Bit = false;
@@ -241,10 +293,31 @@ class ELFAnalyser {
         }
     }
 
+    /** Source of regions of an ELF file. */
+    interface Reader {
+        /** @return a buffer holding <code>length</code> bytes of the file,
+         * starting at <code>offset</code>, in the file's byte order.
+         */
+        ByteBuffer read(long offset, int length) throws IOException;
+    }
+
     static class ELFSectionHeaders {
         private final List<ELFSectionHeaderEntry> entries = new ArrayList<>();
 
-        public ELFSectionHeaders(boolean _64bit, boolean bigEndian, ByteBuffer headerData, RandomAccessFile raf) throws IOException {
+        public ELFSectionHeaders(boolean _64bit, final boolean bigEndian, ByteBuffer headerData, final RandomAccessFile raf) throws IOException {
+            this(_64bit, headerData, new Reader() {
+                @Override
+                public ByteBuffer read(long offset, int length) throws IOException {
+                    ByteBuffer buffer = ByteBuffer.allocate(length);
+                    buffer.order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+                    raf.getChannel().read(buffer, offset);
+                    buffer.rewind();
+                    return buffer;
+                }
+            });
+        }
+
+        public ELFSectionHeaders(boolean _64bit, ByteBuffer headerData, Reader reader) throws IOException {
             long shoff;
             int shentsize;
             int shnum;
@@ -262,8 +335,7 @@ class ELFAnalyser {
                 shstrndx = headerData.getShort(0x32);
             }
 
-            ByteBuffer sectionBuffer = ByteBuffer.allocate(shentsize);
-            raf.getChannel().read(sectionBuffer, shoff);
+            ByteBuffer sectionBuffer = reader.read(shoff, shentsize);
             ELFSectionHeaderEntry section0 = new ELFSectionHeaderEntry(_64bit, sectionBuffer);
 
             if (shnum == 0 && shoff != 0) {
@@ -284,9 +356,7 @@ class ELFAnalyser {
                 return;
             }
 
-            ByteBuffer data = ByteBuffer.allocate(tableLength);
-            data.order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
-            raf.getChannel().read(data, shoff);
+            ByteBuffer data = reader.read(shoff, tableLength);
 
             for(int i = 0; i < shnum; i++) {
                 data.position(i * shentsize);
@@ -297,10 +367,7 @@ class ELFAnalyser {
             }
 
             ELFSectionHeaderEntry stringTable = entries.get(shstrndx);
-            ByteBuffer stringBuffer = ByteBuffer.allocate((int) stringTable.getSize());
-            stringBuffer.order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
-            raf.getChannel().read(stringBuffer, stringTable.getOffset());
-            stringBuffer.rewind();
+            ByteBuffer stringBuffer = reader.read(stringTable.getOffset(), (int) stringTable.getSize());
 
             ByteArrayOutputStream baos = new ByteArrayOutputStream(20);
             for (ELFSectionHeaderEntry eshe : entries) {
@@ -335,6 +402,8 @@ class ELFAnalyser {
         private final long offset;
         private final long size;
         private final int link;
+        private final int info;
+        private final long entrySize;
 
         public ELFSectionHeaderEntry(boolean _64bit, ByteBuffer sectionHeaderData) {
             this.nameOffset = sectionHeaderData.getInt(0);
@@ -344,6 +413,8 @@ class ELFAnalyser {
             this.offset = _64bit ? sectionHeaderData.getLong(24) : sectionHeaderData.getInt(16);
             this.size = _64bit ? sectionHeaderData.getLong(32) : sectionHeaderData.getInt(20);
             this.link = sectionHeaderData.getInt(_64bit ? 40 : 24);
+            this.info = sectionHeaderData.getInt(_64bit ? 44 : 28);
+            this.entrySize = _64bit ? sectionHeaderData.getLong(56) : sectionHeaderData.getInt(36);
         }
 
         public String getName() {
@@ -382,6 +453,14 @@ class ELFAnalyser {
             return link;
         }
 
+        public int getInfo() {
+            return info;
+        }
+
+        public long getEntrySize() {
+            return entrySize;
+        }
+
         @Override
         public String toString() {
             return String.format("ELFSectionHeaderEntry{"
@@ -405,6 +484,494 @@ class ELFAnalyser {
         }
     }
 
+    /**
+     * Dynamic linking information of a shared library: its soname,
+     * dependencies and exported symbols.  All data is read from a read-only
+     * mapping of the file; symbol names are only decoded when a symbol is
+     * returned, and {@link #lookup} uses the GNU hash table if the library
+     * has one, so checking for the presence of a symbol neither loads the
+     * library nor calls <code>dlsym</code>.  The tables are validated when
+     * the file is read, so that a truncated or corrupt file is reported as
+     * an {@link IOException} rather than failing on a later lookup.
+     */
+    static class DynamicInfo {
+        private final String filename;
+        private final ByteBuffer file;
+        private final ByteOrder order;
+        private final boolean _64Bit;
+        private final boolean bigEndian;
+        private final boolean arm;
+        private String soname;
+        private final List<String> needed = new ArrayList<>();
+        private final Map<Integer, String> versionNames = new HashMap<>();
+        private ByteBuffer symbols;
+        private ByteBuffer strings;
+        private ByteBuffer versions;
+        private ByteBuffer gnuHash;
+        private int bucketCount;
+        private int symbolOffset;
+        private int bloomSize;
+        private int bloomShift;
+        private int buckets;
+        private int chain;
+        private int symbolSize;
+        private int symbolCount;
+        private List<ELFSymbol> exported;
+
+        DynamicInfo(String filename, ByteBuffer file) throws IOException {
+            this.filename = filename;
+            this.file = file;
+            byte[] magic = new byte[ELF_MAGIC.length];
+            if (file.capacity() < 52) {
+                throw new IOException(filename + " is not an ELF file");
+            }
+            for (int i = 0; i < magic.length; i++) {
+                magic[i] = file.get(i);
+            }
+            if (!Arrays.equals(magic, ELF_MAGIC)) {
+                throw new IOException(filename + " is not an ELF file");
+            }
+            _64Bit = file.get(4) == EI_CLASS_64BIT;
+            bigEndian = file.get(5) == EI_DATA_BIG_ENDIAN;
+            order = bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+            ByteBuffer header = slice(0, _64Bit ? 64 : 52);
+            arm = header.get(0x12) == E_MACHINE_ARM;
+            try {
+                readTables(header);
+            } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+                throw new IOException("Malformed ELF file " + filename, e);
+            }
+        }
+
+        private void readTables(ByteBuffer header) throws IOException {
+            List<ELFSectionHeaderEntry> sections = new ELFSectionHeaders(_64Bit, header, new Reader() {
+                @Override
+                public ByteBuffer read(long offset, int length) throws IOException {
+                    return slice(offset, length);
+                }
+            }).getEntries();
+
+            ELFSectionHeaderEntry dynsym = null;
+            for (ELFSectionHeaderEntry section : sections) {
+                switch (section.getType()) {
+                case SHT_DYNSYM:
+                    dynsym = section;
+                    break;
+                case SHT_GNU_VERSYM:
+                    versions = slice(section);
+                    break;
+                case SHT_GNU_HASH:
+                    gnuHash = slice(section);
+                    break;
+                case SHT_GNU_VERDEF:
+                    readVersionDefinitions(section, slice(sections.get(section.getLink())));
+                    break;
+                case SHT_GNU_VERNEED:
+                    readVersionRequirements(section, slice(sections.get(section.getLink())));
+                    break;
+                case SHT_DYNAMIC:
+                    readDynamicSection(section, slice(sections.get(section.getLink())));
+                    break;
+                default:
+                    break;
+                }
+            }
+            if (dynsym == null) {
+                throw new IOException(filename + " has no dynamic symbol table");
+            }
+            symbols = slice(dynsym);
+            strings = slice(sections.get(dynsym.getLink()));
+            int minSize = _64Bit ? 24 : 16;
+            symbolSize = dynsym.getEntrySize() > 0 ? (int) Math.min(dynsym.getEntrySize(), Integer.MAX_VALUE) : minSize;
+            if (symbolSize < minSize) {
+                throw new IOException("Invalid symbol size " + symbolSize + " in " + filename);
+            }
+            symbolCount = symbols.capacity() / symbolSize;
+            if (gnuHash != null) {
+                readGnuHashHeader();
+            }
+        }
+
+        /** Check that the hash table's bloom filter, buckets and chains lie
+         * within the section, so that lookups stay within bounds.
+         */
+        private void readGnuHashHeader() throws IOException {
+            checkRange(gnuHash, 0, 16);
+            bucketCount = gnuHash.getInt(0);
+            symbolOffset = gnuHash.getInt(4);
+            bloomSize = gnuHash.getInt(8);
+            bloomShift = gnuHash.getInt(12);
+            long bucketsStart = 16 + (bloomSize & 0xFFFFFFFFL) * (_64Bit ? 8 : 4);
+            long chainStart = bucketsStart + (bucketCount & 0xFFFFFFFFL) * 4;
+            if (chainStart > gnuHash.capacity() || symbolOffset < 0 || symbolOffset > symbolCount) {
+                throw new IOException("Malformed GNU hash table in " + filename);
+            }
+            buckets = (int) bucketsStart;
+            chain = (int) chainStart;
+        }
+
+        private void checkRange(ByteBuffer buffer, int offset, int length) throws IOException {
+            if (offset < 0 || offset > buffer.capacity() - length) {
+                throw new IOException("Truncated ELF file " + filename);
+            }
+        }
+
+        private ByteBuffer slice(ELFSectionHeaderEntry section) throws IOException {
+            return slice(section.getOffset(), (int) section.getSize());
+        }
+
+        private ByteBuffer slice(long offset, int length) throws IOException {
+            if (offset < 0 || length < 0 || offset + length > file.capacity()) {
+                throw new IOException("Truncated ELF file " + filename);
+            }
+            ByteBuffer buffer = file.duplicate();
+            ((Buffer) buffer).position((int) offset);
+            ((Buffer) buffer).limit((int) offset + length);
+            buffer = buffer.slice();
+            buffer.order(order);
+            return buffer;
+        }
+
+        /** Verdef entries map a version index to its name. */
+        private void readVersionDefinitions(ELFSectionHeaderEntry section, ByteBuffer names) throws IOException {
+            ByteBuffer verdef = slice(section);
+            int offset = 0;
+            for (int i = 0; i < section.getInfo(); i++) {
+                checkRange(verdef, offset, 20);
+                int index = verdef.getShort(offset + 4) & VERSYM_VERSION;
+                int aux = offset + verdef.getInt(offset + 12);
+                checkRange(verdef, aux, 8);
+                versionNames.put(index, readName(names, verdef.getInt(aux)));
+                int next = verdef.getInt(offset + 16);
+                if (next == 0) {
+                    break;
+                }
+                offset += next;
+            }
+        }
+
+        /** Vernaux entries map the version index of an imported symbol to its name. */
+        private void readVersionRequirements(ELFSectionHeaderEntry section, ByteBuffer names) throws IOException {
+            ByteBuffer verneed = slice(section);
+            int offset = 0;
+            for (int i = 0; i < section.getInfo(); i++) {
+                checkRange(verneed, offset, 16);
+                int count = verneed.getShort(offset + 2) & 0xFFFF;
+                int aux = offset + verneed.getInt(offset + 8);
+                for (int j = 0; j < count; j++) {
+                    checkRange(verneed, aux, 16);
+                    int index = verneed.getShort(aux + 6) & VERSYM_VERSION;
+                    versionNames.put(index, readName(names, verneed.getInt(aux + 8)));
+                    int next = verneed.getInt(aux + 12);
+                    if (next == 0) {
+                        break;
+                    }
+                    aux += next;
+                }
+                int next = verneed.getInt(offset + 12);
+                if (next == 0) {
+                    break;
+                }
+                offset += next;
+            }
+        }
+
+        private void readDynamicSection(ELFSectionHeaderEntry section, ByteBuffer names) throws IOException {
+            ByteBuffer dynamic = slice(section);
+            int entrySize = _64Bit ? 16 : 8;
+            for (int offset = 0; offset + entrySize <= dynamic.capacity(); offset += entrySize) {
+                long tag = _64Bit ? dynamic.getLong(offset) : dynamic.getInt(offset);
+                int value = (int) (_64Bit ? dynamic.getLong(offset + 8) : dynamic.getInt(offset + 4));
+                if (tag == DT_NULL) {
+                    break;
+                } else if (tag == DT_NEEDED) {
+                    needed.add(readName(names, value));
+                } else if (tag == DT_SONAME) {
+                    soname = readName(names, value);
+                }
+            }
+        }
+
+        private String readName(ByteBuffer names, int offset) throws IOException {
+            String name = readString(names, offset);
+            if (name == null) {
+                throw new IOException("Invalid string offset " + offset + " in " + filename);
+            }
+            return name;
+        }
+
+        /** @return the string at the given offset, or <code>null</code> if
+         * the offset is outside the buffer.
+         */
+        private static String readString(ByteBuffer buffer, int offset) {
+            if (offset < 0 || offset >= buffer.limit()) {
+                return null;
+            }
+            int end = offset;
+            while (end < buffer.limit() && buffer.get(end) != 0) {
+                end++;
+            }
+            byte[] data = new byte[end - offset];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = buffer.get(offset + i);
+            }
+            return new String(data, StandardCharsets.UTF_8);
+        }
+
+        /** @return the path of the analysed file */
+        public String getFilename() {
+            return filename;
+        }
+
+        /** @return the library's DT_SONAME, or <code>null</code> if it has none */
+        public String getSoname() {
+            return soname;
+        }
+
+        /** @return the DT_NEEDED entries of the library, in link order */
+        public List<String> getNeeded() {
+            return Collections.unmodifiableList(needed);
+        }
+
+        public boolean is64Bit() {
+            return _64Bit;
+        }
+
+        public boolean isBigEndian() {
+            return bigEndian;
+        }
+
+        public boolean isArm() {
+            return arm;
+        }
+
+        /**
+         * @return all symbols defined and exported by the library, in symbol
+         * table order.  A symbol defined in several versions is listed once
+         * per version.
+         */
+        public synchronized List<ELFSymbol> getSymbols() {
+            if (exported == null) {
+                List<ELFSymbol> result = new ArrayList<>();
+                for (int i = 0; i < symbolCount; i++) {
+                    if (isExported(i)) {
+                        ELFSymbol symbol = getSymbol(i);
+                        if (symbol != null) {
+                            result.add(symbol);
+                        }
+                    }
+                }
+                exported = Collections.unmodifiableList(result);
+            }
+            return exported;
+        }
+
+        /**
+         * Look up an exported symbol by name.
+         *
+         * @param name symbol name, without version suffix
+         * @return the default version of the symbol, a non-default version if
+         * there is no default one, or <code>null</code> if the library does
+         * not export the symbol
+         */
+        public ELFSymbol lookup(String name) {
+            byte[] key = name.getBytes(StandardCharsets.UTF_8);
+            if (gnuHash == null) {
+                ELFSymbol hidden = null;
+                for (int i = 0; i < symbolCount; i++) {
+                    if (nameEquals(i, key) && isExported(i)) {
+                        if (!isHidden(i)) {
+                            return getSymbol(i);
+                        }
+                        if (hidden == null) {
+                            hidden = getSymbol(i);
+                        }
+                    }
+                }
+                return hidden;
+            }
+
+            if (bucketCount == 0 || bloomSize == 0) {
+                return null;
+            }
+            int bits = _64Bit ? 64 : 32;
+            int hash = gnuHash(key);
+
+            // Bloom filter: both bits must be set for the symbol to be present
+            int word = Integer.remainderUnsigned(hash >>> (_64Bit ? 6 : 5), bloomSize);
+            long bloom = _64Bit
+                ? gnuHash.getLong(16 + word * 8)
+                : gnuHash.getInt(16 + word * 4) & 0xFFFFFFFFL;
+            long mask = (1L << (hash & (bits - 1))) | (1L << ((hash >>> bloomShift) & (bits - 1)));
+            if ((bloom & mask) != mask) {
+                return null;
+            }
+
+            int index = gnuHash.getInt(buckets + 4 * Integer.remainderUnsigned(hash, bucketCount));
+            if (index == 0) {
+                return null;
+            }
+            ELFSymbol hidden = null;
+            for (;; index++) {
+                // A chain running off the table ends the lookup
+                if (index < symbolOffset || index >= symbolCount
+                    || chain + 4L * (index - symbolOffset) + 4 > gnuHash.capacity()) {
+                    return hidden;
+                }
+                int chainHash = gnuHash.getInt(chain + 4 * (index - symbolOffset));
+                if ((hash | 1) == (chainHash | 1) && nameEquals(index, key) && isExported(index)) {
+                    if (!isHidden(index)) {
+                        return getSymbol(index);
+                    }
+                    if (hidden == null) {
+                        hidden = getSymbol(index);
+                    }
+                }
+                if ((chainHash & 1) != 0) {
+                    return hidden;
+                }
+            }
+        }
+
+        /** @return whether the library exports a symbol of the given name */
+        public boolean hasSymbol(String name) {
+            return lookup(name) != null;
+        }
+
+        private static int gnuHash(byte[] name) {
+            int h = 5381;
+            for (byte b : name) {
+                h = h * 33 + (b & 0xFF);
+            }
+            return h;
+        }
+
+        private boolean nameEquals(int index, byte[] key) {
+            int offset = symbols.getInt(index * symbolSize);
+            if (offset < 0 || offset + key.length >= strings.limit()) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (strings.get(offset + i) != key[i]) {
+                    return false;
+                }
+            }
+            return strings.get(offset + key.length) == 0;
+        }
+
+        private int getInfo(int index) {
+            return symbols.get(index * symbolSize + (_64Bit ? 4 : 12)) & 0xFF;
+        }
+
+        private int getOther(int index) {
+            return symbols.get(index * symbolSize + (_64Bit ? 5 : 13)) & 0xFF;
+        }
+
+        private int getSectionIndex(int index) {
+            return symbols.getShort(index * symbolSize + (_64Bit ? 6 : 14)) & 0xFFFF;
+        }
+
+        private int getVersionIndex(int index) {
+            return versions != null && index * 2 + 2 <= versions.capacity()
+                ? versions.getShort(index * 2) & 0xFFFF : 0;
+        }
+
+        private boolean isHidden(int index) {
+            return (getVersionIndex(index) & VERSYM_HIDDEN) != 0;
+        }
+
+        private boolean isExported(int index) {
+            int info = getInfo(index);
+            int bind = info >> 4;
+            int type = info & 0xF;
+            int visibility = getOther(index) & 0x3;
+            return getSectionIndex(index) != SHN_UNDEF
+                && (bind == STB_GLOBAL || bind == STB_WEAK || bind == STB_GNU_UNIQUE)
+                && type != STT_SECTION && type != STT_FILE
+                && (visibility == STV_DEFAULT || visibility == STV_PROTECTED);
+        }
+
+        /** @return the symbol, or <code>null</code> if its name is invalid */
+        private ELFSymbol getSymbol(int index) {
+            int base = index * symbolSize;
+            long value = _64Bit ? symbols.getLong(base + 8) : symbols.getInt(base + 4) & 0xFFFFFFFFL;
+            long size = _64Bit ? symbols.getLong(base + 16) : symbols.getInt(base + 8) & 0xFFFFFFFFL;
+            int version = getVersionIndex(index);
+            // Indices 0 and 1 denote local and global (unversioned) symbols
+            String versionName = (version & VERSYM_VERSION) > 1 ? versionNames.get(version & VERSYM_VERSION) : null;
+            String name = readString(strings, symbols.getInt(base));
+            if (name == null) {
+                return null;
+            }
+            return new ELFSymbol(name, versionName,
+                                 (version & VERSYM_HIDDEN) != 0, getInfo(index) & 0xF, value, size);
+        }
+    }
+
+    /** An exported symbol of a shared library. */
+    static class ELFSymbol {
+        /** Symbol type of functions */
+        public static final int STT_FUNC = 2;
+        /** Symbol type of data objects */
+        public static final int STT_OBJECT = 1;
+
+        private final String name;
+        private final String version;
+        private final boolean hidden;
+        private final int type;
+        private final long value;
+        private final long size;
+
+        ELFSymbol(String name, String version, boolean hidden, int type, long value, long size) {
+            this.name = name;
+            this.version = version;
+            this.hidden = hidden;
+            this.type = type;
+            this.value = value;
+            this.size = size;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** @return the symbol version, or <code>null</code> if the symbol is unversioned */
+        public String getVersion() {
+            return version;
+        }
+
+        /**
+         * @return true if this is not the default version of the symbol, i.e.
+         * it is only used by binaries linked against that specific version
+         */
+        public boolean isHidden() {
+            return hidden;
+        }
+
+        /** @return the ELF symbol type (<code>STT_*</code>) */
+        public int getType() {
+            return type;
+        }
+
+        public boolean isFunction() {
+            return type == STT_FUNC;
+        }
+
+        /** @return the symbol value, i.e. its address relative to the load base */
+        public long getValue() {
+            return value;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return version == null ? name : name + (hidden ? "@" : "@@") + version;
+        }
+    }
+
     static class ArmAeabiAttributesTag {
 
         public enum ParameterType {
@@ -81,7 +81,7 @@ public class Function extends Pointer {
     public static final int USE_VARARGS = 0xFF;
     /** Offset of USE_VARARGS in call flags */
     @java.lang.annotation.Native
-    private static final int USE_VARARGS_SHIFT = 7;
+    static final int USE_VARARGS_SHIFT = 7;
 
     static final Integer INTEGER_TRUE = Integer.valueOf(-1);
     static final Integer INTEGER_FALSE = Integer.valueOf(0);
@@ -206,8 +206,12 @@ public class Function extends Pointer {
 
     // Keep a reference to the NativeLibrary so it does not get garbage
     // collected until the function is
-    private NativeLibrary library;
+    NativeLibrary library;
     private final String functionName;
+    // Cached by CallMetrics
+    CallMetrics.Stats metrics;
+    // Address and library version to call, if the library is reloadable
+    volatile NativeLibrary.Target target;
     final String encoding;
     final int callFlags;
     final Map<String, ?> options;
@@ -254,6 +258,21 @@ public class Function extends Pointer {
                                            + functionName + "': "
                                            + e.getMessage());
         }
+        this.target = library.getTarget(peer);
+    }
+
+    /** Create a new <code>Function</code> for a symbol of the given library
+     * whose address has already been resolved.
+     */
+    Function(NativeLibrary library, String functionName, long peer, int callFlags, String encoding) {
+        checkCallingConvention(callFlags & MASK_CC);
+        this.library = library;
+        this.functionName = functionName;
+        this.callFlags = callFlags;
+        this.options = library.getOptions();
+        this.encoding = encoding != null ? encoding : Native.getDefaultStringEncoding();
+        this.peer = peer;
+        this.target = library.getTarget(peer);
     }
 
     /**
@@ -324,6 +343,34 @@ public class Function extends Pointer {
      * the method has to be in the options under key {@link Function#OPTION_INVOKING_METHOD}.
      */
     Object invoke(Method invokingMethod, Class<?>[] paramTypes, Class<?> returnType, Object[] inArgs, Map<String, ?> options) {
+        CallMetrics.Sample sample = CallMetrics.begin(this, invokingMethod);
+        if (sample == null) {
+            return invoke(invokingMethod, paramTypes, returnType, inArgs, options, null);
+        }
+        Object result;
+        try {
+            result = invoke(invokingMethod, paramTypes, returnType, inArgs, options, sample);
+        } catch (RuntimeException | Error e) {
+            sample.end(e);
+            throw e;
+        }
+        sample.end(null);
+        return result;
+    }
+
+    private Object invoke(Method invokingMethod, Class<?>[] paramTypes, Class<?> returnType, Object[] inArgs, Map<String, ?> options, CallMetrics.Sample sample) {
+        CriticalArgs.Frame critical = invokingMethod != null ? CriticalArgs.begin(invokingMethod, inArgs) : null;
+        if (critical == null) {
+            return invoke(invokingMethod, paramTypes, returnType, inArgs, options, sample, null);
+        }
+        try {
+            return invoke(invokingMethod, paramTypes, returnType, inArgs, options, sample, critical);
+        } finally {
+            critical.end();
+        }
+    }
+
+    private Object invoke(Method invokingMethod, Class<?>[] paramTypes, Class<?> returnType, Object[] inArgs, Map<String, ?> options, CallMetrics.Sample sample, CriticalArgs.Frame critical) {
         // Clone the argument array to obtain a scratch space for modified
         // types/values
         Object[] args = { };
@@ -339,13 +386,19 @@ public class Function extends Pointer {
         boolean allowObjects = Boolean.TRUE.equals(options.get(Library.OPTION_ALLOW_OBJECTS));
         boolean isVarArgs = args.length > 0 && invokingMethod != null ? isVarArgs(invokingMethod) : false;
         int fixedArgs = args.length > 0 && invokingMethod != null ? fixedArgs(invokingMethod) : 0;
+        Critical.Direction[] dirs = invokingMethod != null
+            ? CriticalArgs.getDeclaredDirections(invokingMethod) : null;
         for (int i=0; i < args.length; i++) {
             Class<?> paramType = invokingMethod != null
                 ? (isVarArgs && i >= paramTypes.length-1
                    ? paramTypes[paramTypes.length-1].getComponentType()
                    : paramTypes[i])
                 : null;
-            args[i] = convertArgument(args, i, invokingMethod, mapper, allowObjects, paramType);
+            if (critical != null) {
+                args[i] = critical.convert(i, args[i]);
+            }
+            Critical.Direction dir = dirs != null && i < dirs.length ? dirs[i] : null;
+            args[i] = convertArgument(args, i, invokingMethod, mapper, allowObjects, paramType, dir);
         }
 
         Class<?> nativeReturnType = returnType;
@@ -361,7 +414,13 @@ public class Function extends Pointer {
             }
         }
 
+        if (sample != null) {
+            sample.beforeNative(args);
+        }
         Object result = invoke(args, nativeReturnType, allowObjects, fixedArgs);
+        if (sample != null) {
+            sample.afterNative();
+        }
         // Convert the result to a custom value/type if appropriate
         if (resultConverter != null) {
             FromNativeContext context;
@@ -379,6 +438,8 @@ public class Function extends Pointer {
                 Object inArg = inArgs[i];
                 if (inArg == null)
                     continue;
+                if (dirs != null && i < dirs.length && dirs[i] == Critical.Direction.IN)
+                    continue;
                 if (inArg instanceof Structure) {
                     if (!(inArg instanceof Structure.ByValue)) {
                         ((Structure)inArg).autoRead();
@@ -412,45 +473,73 @@ public class Function extends Pointer {
 
     /* @see NativeLibrary#NativeLibrary(String,String,long,Map) implementation */
     Object invoke(Object[] args, Class<?> returnType, boolean allowObjects, int fixedArgs) {
+        if (library == null || !library.isReloadable()) {
+            return invokeNative(peer, args, returnType, allowObjects, fixedArgs);
+        }
+        // Call the address of the library version the call is counted
+        // against, which may differ from peer during a reload
+        NativeLibrary.Target target = library.enter(this);
+        try {
+            return invokeNative(target.peer, args, returnType, allowObjects, fixedArgs);
+        } finally {
+            target.version.exit();
+        }
+    }
+
+    /** Throw if the given address of this function may not be called,
+     * because its library is closed for a checkpoint or the function was
+     * no longer found when the library was reopened.
+     */
+    void checkCallable(long address) {
+        if (library != null && library.isSuspended()) {
+            throw new UnsatisfiedLinkError("Library '" + library.getName() + "' is closed for a checkpoint");
+        }
+        if (address == 0) {
+            throw new UnsatisfiedLinkError("Function '" + getName() + "' is no longer available in " + library);
+        }
+    }
+
+    private Object invokeNative(long address, Object[] args, Class<?> returnType, boolean allowObjects, int fixedArgs) {
+        checkCallable(address);
         Object result = null;
         int callFlags = this.callFlags | ((fixedArgs & USE_VARARGS) << USE_VARARGS_SHIFT);
         if (returnType == null || returnType==void.class || returnType==Void.class) {
-            Native.invokeVoid(this, this.peer, callFlags, args);
+            Native.invokeVoid(this, address, callFlags, args);
             result = null;
         } else if (returnType==boolean.class || returnType==Boolean.class) {
-            result = valueOf(Native.invokeInt(this, this.peer, callFlags, args) != 0);
+            result = valueOf(Native.invokeInt(this, address, callFlags, args) != 0);
         } else if (returnType==byte.class || returnType==Byte.class) {
-            result = Byte.valueOf((byte)Native.invokeInt(this, this.peer, callFlags, args));
+            result = Byte.valueOf((byte)Native.invokeInt(this, address, callFlags, args));
         } else if (returnType==short.class || returnType==Short.class) {
-            result = Short.valueOf((short)Native.invokeInt(this, this.peer, callFlags, args));
+            result = Short.valueOf((short)Native.invokeInt(this, address, callFlags, args));
         } else if (returnType==char.class || returnType==Character.class) {
-            result = Character.valueOf((char)Native.invokeInt(this, this.peer, callFlags, args));
+            result = Character.valueOf((char)Native.invokeInt(this, address, callFlags, args));
         } else if (returnType==int.class || returnType==Integer.class) {
-            result = Integer.valueOf(Native.invokeInt(this, this.peer, callFlags, args));
+            result = Integer.valueOf(Native.invokeInt(this, address, callFlags, args));
         } else if (returnType==long.class || returnType==Long.class) {
-            result = Long.valueOf(Native.invokeLong(this, this.peer, callFlags, args));
+            result = Long.valueOf(Native.invokeLong(this, address, callFlags, args));
         } else if (returnType==float.class || returnType==Float.class) {
-            result = Float.valueOf(Native.invokeFloat(this, this.peer, callFlags, args));
+            result = Float.valueOf(Native.invokeFloat(this, address, callFlags, args));
         } else if (returnType==double.class || returnType==Double.class) {
-            result = Double.valueOf(Native.invokeDouble(this, this.peer, callFlags, args));
+            result = Double.valueOf(Native.invokeDouble(this, address, callFlags, args));
         } else if (returnType==String.class) {
-            result = invokeString(callFlags, args, false);
+            result = invokeString(address, callFlags, args, false);
         } else if (returnType==WString.class) {
-            String s = invokeString(callFlags, args, true);
+            String s = invokeString(address, callFlags, args, true);
             if (s != null) {
                 result = new WString(s);
             }
         } else if (Pointer.class.isAssignableFrom(returnType)) {
-            return invokePointer(callFlags, args);
+            return invokePointer(address, callFlags, args);
         } else if (Structure.class.isAssignableFrom(returnType)) {
             if (Structure.ByValue.class.isAssignableFrom(returnType)) {
                 Structure s =
-                    Native.invokeStructure(this, this.peer, callFlags, args,
+                    Native.invokeStructure(this, address, callFlags, args,
                                            Structure.newInstance((Class<? extends Structure>)returnType));
                 s.autoRead();
                 result = s;
             } else {
-                result = invokePointer(callFlags, args);
+                result = invokePointer(address, callFlags, args);
                 if (result != null) {
                     Structure s = Structure.newInstance((Class<? extends Structure>)returnType, (Pointer)result);
                     s.conditionalAutoRead();
@@ -458,17 +547,17 @@ public class Function extends Pointer {
                 }
             }
         } else if (Callback.class.isAssignableFrom(returnType)) {
-            result = invokePointer(callFlags, args);
+            result = invokePointer(address, callFlags, args);
             if (result != null) {
                 result = CallbackReference.getCallback(returnType, (Pointer)result);
             }
         } else if (returnType==String[].class) {
-            Pointer p = invokePointer(callFlags, args);
+            Pointer p = invokePointer(address, callFlags, args);
             if (p != null) {
                 result = p.getStringArray(0, encoding);
             }
         } else if (returnType==WString[].class) {
-            Pointer p = invokePointer(callFlags, args);
+            Pointer p = invokePointer(address, callFlags, args);
             if (p != null) {
                 String[] arr = p.getWideStringArray(0);
                 WString[] warr = new WString[arr.length];
@@ -478,12 +567,12 @@ public class Function extends Pointer {
                 result = warr;
             }
         } else if (returnType==Pointer[].class) {
-            Pointer p = invokePointer(callFlags, args);
+            Pointer p = invokePointer(address, callFlags, args);
             if (p != null) {
                 result = p.getPointerArray(0);
             }
         } else if (allowObjects) {
-            result = Native.invokeObject(this, this.peer, callFlags, args);
+            result = Native.invokeObject(this, address, callFlags, args);
             if (result != null
                 && !returnType.isAssignableFrom(result.getClass())) {
                 throw new ClassCastException("Return type " + returnType
@@ -496,14 +585,16 @@ public class Function extends Pointer {
         return result;
     }
 
-    private Pointer invokePointer(int callFlags, Object[] args) {
-        long ptr = Native.invokePointer(this, this.peer, callFlags, args);
+    private Pointer invokePointer(long address, int callFlags, Object[] args) {
+        long ptr = Native.invokePointer(this, address, callFlags, args);
         return ptr == 0 ? null : new Pointer(ptr);
     }
 
     private Object convertArgument(Object[] args, int index,
                                    Method invokingMethod, TypeMapper mapper,
-                                   boolean allowObjects, Class<?> expectedType) {
+                                   boolean allowObjects, Class<?> expectedType,
+                                   Critical.Direction dir) {
+        boolean write = dir != Critical.Direction.OUT;
         Object arg = args[index];
         if (arg != null) {
             Class<?> type = arg.getClass();
@@ -532,7 +623,9 @@ public class Function extends Pointer {
         // Convert Structures to native pointers
         if (arg instanceof Structure) {
             Structure struct = (Structure)arg;
-            struct.autoWrite();
+            if (write) {
+                struct.autoWrite();
+            }
             if (struct instanceof Structure.ByValue) {
                 // Double-check against the method signature, if available
                 Class<?> ptype = struct.getClass();
@@ -577,9 +670,9 @@ public class Function extends Pointer {
         } else if (WString[].class == argClass) {
             return new StringArray((WString[])arg);
         } else if (Pointer[].class == argClass) {
-            return new PointerArray((Pointer[])arg);
+            return new PointerArray((Pointer[])arg, write);
         } else if (NativeMapped[].class.isAssignableFrom(argClass)) {
-            return new NativeMappedArray((NativeMapped[])arg);
+            return new NativeMappedArray((NativeMapped[])arg, write);
         } else if (Structure[].class.isAssignableFrom(argClass)) {
             // If the signature is Structure[], disallow
             // Structure.ByReference[] and Structure.ByReference elements
@@ -605,19 +698,23 @@ public class Function extends Pointer {
                 }
             }
             if (byRef) {
-                Structure.autoWrite(ss);
+                if (write) {
+                    Structure.autoWrite(ss);
+                }
                 Pointer[] pointers = new Pointer[ss.length + 1];
                 for (int i=0;i < ss.length;i++) {
                     pointers[i] = ss[i] != null ? ss[i].getPointer() : null;
                 }
-                return new PointerArray(pointers);
+                return new PointerArray(pointers, true);
             } else if (ss.length == 0) {
                 throw new IllegalArgumentException("Structure array must have non-zero length");
             } else if (ss[0] == null) {
                 Structure.newInstance((Class<? extends Structure>) type).toArray(ss);
                 return ss[0].getPointer();
             } else {
-                Structure.autoWrite(ss);
+                if (write) {
+                    Structure.autoWrite(ss);
+                }
                 return ss[0].getPointer();
             }
         } else if (argClass.isArray()){
@@ -659,8 +756,8 @@ public class Function extends Pointer {
      *
      * @return The value returned by the target native function, as a String
      */
-    private String invokeString(int callFlags, Object[] args, boolean wide) {
-        Pointer ptr = invokePointer(callFlags, args);
+    private String invokeString(long address, int callFlags, Object[] args, boolean wide) {
+        Pointer ptr = invokePointer(address, callFlags, args);
         String s = null;
         if (ptr != null) {
             if (wide) {
@@ -809,10 +906,14 @@ public class Function extends Pointer {
 
     private static class NativeMappedArray extends Memory implements PostCallRead {
         private final NativeMapped[] original;
-        public NativeMappedArray(NativeMapped[] arg) {
+        public NativeMappedArray(NativeMapped[] arg, boolean write) {
             super(Native.getNativeSize(arg.getClass(), arg));
             this.original = arg;
-            setValue(0, original, original.getClass());
+            if (write) {
+                setValue(0, original, original.getClass());
+            } else {
+                clear();
+            }
         }
         @Override
         public void read() {
@@ -822,13 +923,17 @@ public class Function extends Pointer {
 
     private static class PointerArray extends Memory implements PostCallRead {
         private final Pointer[] original;
-        public PointerArray(Pointer[] arg) {
+        public PointerArray(Pointer[] arg, boolean write) {
             super(Native.POINTER_SIZE * (arg.length+1));
             this.original = arg;
-            for (int i=0;i < arg.length;i++) {
-                setPointer(i*Native.POINTER_SIZE, arg[i]);
+            if (write) {
+                for (int i=0;i < arg.length;i++) {
+                    setPointer(i*Native.POINTER_SIZE, arg[i]);
+                }
+                setPointer(Native.POINTER_SIZE*arg.length, null);
+            } else {
+                clear();
             }
-            setPointer(Native.POINTER_SIZE*arg.length, null);
         }
         @Override
         public void read() {
@@ -0,0 +1,49 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a parameter which the native function only reads (e.g. a
+ * <code>const</code> pointer), so that nothing is read back from native
+ * memory after the call.  This skips {@link Structure#autoRead()} of a
+ * {@link Structure} or <code>Structure[]</code> argument, the update of a
+ * <code>Pointer[]</code> or <code>NativeMapped[]</code> argument, and the
+ * copy back of a primitive array argument (see {@link Critical}).
+ * <p>
+ * Honored by {@link Library} interface mappings.  Direct mapped methods
+ * ({@link Native#register}) honor it for {@link Structure} parameters.</p>
+ *
+ * @see Out
+ * @see InOut
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface In {
+}
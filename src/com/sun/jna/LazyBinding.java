@@ -0,0 +1,226 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Placeholder for a direct-mapped method registered with
+ * {@link Library#OPTION_LAZY_REGISTRATION}.  The method is initially
+ * registered against a callback stub with the same native signature; on the
+ * first call the stub looks up the real function, registers the method
+ * against it and forwards the call.  Subsequent calls go directly to the
+ * native function.
+ * <p>
+ * Creating a stub costs more than looking up a symbol, so the methods of a
+ * library share one stub per native signature.  A shared stub identifies
+ * the method being called from the native method frame of its caller,
+ * which is only done once per method.</p>
+ * <p>
+ * Arguments reach the stub after the usual direct conversion (strings,
+ * structures, arrays and mapped types have already been converted to their
+ * native form), so the stub only handles primitives and pointers.</p>
+ */
+final class LazyBinding {
+
+    private final Class<?> cls;
+    private final Method method;
+    private final Native.MethodBinding binding;
+    private final NativeLibrary library;
+    private final Class<?>[] parameterTypes;
+    private final Class<?> returnType;
+    private volatile Function function;
+    /** Stub used by this method only, if it could not share one. */
+    private Stub dedicated;
+
+    LazyBinding(Class<?> cls, Method method, Native.MethodBinding binding, NativeLibrary library) {
+        this.cls = cls;
+        this.method = method;
+        this.binding = binding;
+        this.library = library;
+        this.parameterTypes = new Class<?>[binding.atypes.length];
+        for (int i=0;i < parameterTypes.length;i++) {
+            parameterTypes[i] = getStubType(binding.atypes[i]);
+        }
+        this.returnType = getStubType(binding.rtype);
+    }
+
+    /** @return whether a method with the given binding can be registered
+     * lazily against the given library.
+     */
+    static boolean isSupported(NativeLibrary library, Native.MethodBinding binding) {
+        // The last error would be overwritten by the stub, and callbacks
+        // only use the default calling convention
+        if (binding.throwLastError
+            || library.getCallFlags() != Function.C_CONVENTION) {
+            return false;
+        }
+        for (Class<?> type : binding.atypes) {
+            if (getStubType(type) == null) {
+                return false;
+            }
+        }
+        return getStubType(binding.rtype) != null;
+    }
+
+    /** @return the type seen by the stub for the given native type, or
+     * <code>null</code> if it cannot be passed through a callback
+     * unchanged.
+     */
+    private static Class<?> getStubType(Class<?> type) {
+        if (type == void.class || type == Void.class) {
+            return void.class;
+        }
+        if (type == char.class || type == Character.class
+            || Structure.ByValue.class.isAssignableFrom(type)) {
+            return null;
+        }
+        if (type.isPrimitive()) {
+            return type;
+        }
+        if (type == Boolean.class) return boolean.class;
+        if (type == Byte.class) return byte.class;
+        if (type == Short.class) return short.class;
+        if (type == Integer.class) return int.class;
+        if (type == Long.class) return long.class;
+        if (type == Float.class) return float.class;
+        if (type == Double.class) return double.class;
+        return Pointer.class;
+    }
+
+    /** @return the address of the native stub. */
+    long getStubAddress() {
+        String key = Arrays.toString(parameterTypes) + returnType;
+        Stub stub = library.getLazyStubs().computeIfAbsent(key, (k) -> new Stub(parameterTypes, returnType, null));
+        if (!stub.add(this)) {
+            // Another method with the same class and name uses the shared
+            // stub, e.g. an overload or a class of another class loader
+            stub = dedicated = new Stub(parameterTypes, returnType, this);
+        }
+        return stub.getAddress();
+    }
+
+    Class<?> getDeclaringClass() {
+        return cls;
+    }
+
+    Method getMethod() {
+        return method;
+    }
+
+    Native.MethodBinding getBinding() {
+        return binding;
+    }
+
+    private Function resolve() {
+        Function f = function;
+        if (f == null) {
+            synchronized (this) {
+                f = function;
+                if (f == null) {
+                    f = library.getFunction(method.getName(), method);
+                    Native.rebind(this, f);
+                    function = f;
+                }
+            }
+        }
+        return f;
+    }
+
+    Object invoke(Object[] args) {
+        return resolve().invoke(returnType, args, Collections.<String, Object>emptyMap());
+    }
+
+    /** Native stub forwarding calls to lazily bound methods with the same
+     * native signature.
+     */
+    static final class Stub implements CallbackProxy {
+        private final Class<?>[] parameterTypes;
+        private final Class<?> returnType;
+        /** Method the stub is dedicated to, or <code>null</code> if shared. */
+        private final LazyBinding binding;
+        /** Methods sharing the stub, by class and method name. */
+        private final Map<String, Reference<LazyBinding>> bindings = new ConcurrentHashMap<>();
+
+        Stub(Class<?>[] parameterTypes, Class<?> returnType, LazyBinding binding) {
+            this.parameterTypes = parameterTypes;
+            this.returnType = returnType;
+            this.binding = binding;
+        }
+
+        long getAddress() {
+            return CallbackReference.getFunctionPointer(this).peer;
+        }
+
+        /** Share this stub with the given method.
+         * @return whether the method can be identified by its class and
+         * method name among the methods sharing the stub.
+         */
+        synchronized boolean add(LazyBinding b) {
+            String key = b.getDeclaringClass().getName() + "." + b.getMethod().getName();
+            Reference<LazyBinding> ref = bindings.get(key);
+            LazyBinding existing = ref != null ? ref.get() : null;
+            if (existing != null && !existing.getMethod().equals(b.getMethod())) {
+                return false;
+            }
+            // Registering the class again replaces the previous binding
+            bindings.put(key, new WeakReference<>(b));
+            return true;
+        }
+
+        /** @return the method whose native frame called this stub */
+        private LazyBinding find() {
+            for (StackTraceElement e : new Throwable().getStackTrace()) {
+                if (e.isNativeMethod()) {
+                    Reference<LazyBinding> ref = bindings.get(e.getClassName() + "." + e.getMethodName());
+                    LazyBinding b = ref != null ? ref.get() : null;
+                    if (b != null) {
+                        return b;
+                    }
+                }
+            }
+            throw new IllegalStateException("Lazily bound method not found on the stack");
+        }
+
+        @Override
+        public Object callback(Object[] args) {
+            return (binding != null ? binding : find()).invoke(args);
+        }
+
+        @Override
+        public Class<?>[] getParameterTypes() {
+            return parameterTypes.clone();
+        }
+
+        @Override
+        public Class<?> getReturnType() {
+            return returnType;
+        }
+    }
+}
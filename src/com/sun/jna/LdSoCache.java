@@ -0,0 +1,304 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads the library directories known to the Linux dynamic linker directly
+ * from <code>/etc/ld.so.cache</code> and <code>/etc/ld.so.conf</code>,
+ * instead of running <code>ldconfig -p</code>.  Both the old
+ * (<code>ld.so-1.7.0</code>) and new (<code>glibc-ld.so.cache1.1</code>)
+ * cache formats are supported, as well as caches containing both.  The
+ * result is computed once, on first use.
+ */
+final class LdSoCache {
+
+    private static final Logger LOG = Logger.getLogger(LdSoCache.class.getName());
+
+    static final Path CACHE = Paths.get("/etc/ld.so.cache");
+    static final Path CONF = Paths.get("/etc/ld.so.conf");
+
+    static final String MAGIC_OLD = "ld.so-1.7.0";
+    static final String MAGIC_NEW = "glibc-ld.so.cache";
+    static final String VERSION_NEW = "1.1";
+
+    /** Old format header: magic (padded to 12 bytes) and entry count. */
+    static final int HEADER_OLD = 16;
+    /** Old format entry: flags, key and value offsets. */
+    static final int ENTRY_OLD = 12;
+    /** New format header: magic, version, entry count, string table
+     * length, flags, extension offset and reserved words.
+     */
+    static final int HEADER_NEW = 48;
+    /** New format entry: flags, key, value, OS version and hwcap mask. */
+    static final int ENTRY_NEW = 24;
+
+    /** Offset of the byte order flag in the new format header. */
+    private static final int NEW_FLAGS = 28;
+    private static final int ENDIAN_LITTLE = 2;
+    private static final int ENDIAN_BIG = 3;
+
+    /** Limit on nested <code>include</code> directives. */
+    private static final int MAX_INCLUDE_DEPTH = 16;
+
+    /** A library entry in the cache. */
+    static final class Entry {
+        final int flags;
+        final String name;
+        final String path;
+        Entry(int flags, String name, String path) {
+            this.flags = flags;
+            this.name = name;
+            this.path = path;
+        }
+        @Override
+        public String toString() {
+            return name + " => " + path;
+        }
+    }
+
+    private static final class Holder {
+        static final List<String> DIRECTORIES = Collections.unmodifiableList(load());
+    }
+
+    private LdSoCache() { }
+
+    /** @return the directories containing libraries listed in the linker
+     * cache, in cache order, followed by any configured directories that
+     * are not in the cache (e.g. when <code>ldconfig</code> has not been
+     * run since they were added).
+     */
+    static List<String> getDirectories() {
+        return Holder.DIRECTORIES;
+    }
+
+    private static List<String> load() {
+        long start = System.nanoTime();
+        Set<String> dirs = new LinkedHashSet<>();
+        try {
+            for (Entry e : parse(ByteBuffer.wrap(Files.readAllBytes(CACHE)))) {
+                int slash = e.path.lastIndexOf('/');
+                if (slash > 0) {
+                    dirs.add(e.path.substring(0, slash));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.FINE, "Unable to read " + CACHE, e);
+        }
+        dirs.addAll(parseConf(CONF));
+        LOG.log(Level.FINE, "Read linker search path in {0}us: {1}",
+                new Object[] { (System.nanoTime() - start) / 1000, dirs });
+        return new ArrayList<>(dirs);
+    }
+
+    /** Parse the contents of a linker cache file.
+     * @throws IllegalArgumentException if the data is not a valid cache
+     */
+    static List<Entry> parse(ByteBuffer buf) {
+        buf.order(ByteOrder.nativeOrder());
+        if (startsWith(buf, 0, MAGIC_NEW + VERSION_NEW)) {
+            return parseNew(buf, 0);
+        }
+        if (!startsWith(buf, 0, MAGIC_OLD)) {
+            throw new IllegalArgumentException("Unrecognized linker cache format");
+        }
+        int count = buf.getInt(12);
+        long end = HEADER_OLD + (long) count * ENTRY_OLD;
+        if (count < 0 || end > buf.limit()) {
+            throw new IllegalArgumentException("Truncated linker cache");
+        }
+        // Newer glibc versions append a new format cache (aligned to 8
+        // bytes) after the old entries; prefer it when present
+        int newStart = (int) ((end + 7) & ~7L);
+        if (startsWith(buf, newStart, MAGIC_NEW + VERSION_NEW)) {
+            return parseNew(buf, newStart);
+        }
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i=0;i < count;i++) {
+            int off = HEADER_OLD + i * ENTRY_OLD;
+            entries.add(new Entry(buf.getInt(off),
+                                  getString(buf, (int) end, buf.getInt(off + 4)),
+                                  getString(buf, (int) end, buf.getInt(off + 8))));
+        }
+        return entries;
+    }
+
+    private static List<Entry> parseNew(ByteBuffer buf, int base) {
+        int endian = buf.get(base + NEW_FLAGS) & 0xFF;
+        if (endian == ENDIAN_LITTLE) {
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (endian == ENDIAN_BIG) {
+            buf.order(ByteOrder.BIG_ENDIAN);
+        }
+        int count = buf.getInt(base + 20);
+        long end = base + HEADER_NEW + (long) count * ENTRY_NEW;
+        if (count < 0 || end > buf.limit()) {
+            throw new IllegalArgumentException("Truncated linker cache");
+        }
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i=0;i < count;i++) {
+            int off = base + HEADER_NEW + i * ENTRY_NEW;
+            entries.add(new Entry(buf.getInt(off),
+                                  getString(buf, base, buf.getInt(off + 4)),
+                                  getString(buf, base, buf.getInt(off + 8))));
+        }
+        return entries;
+    }
+
+    private static boolean startsWith(ByteBuffer buf, int offset, String magic) {
+        if (offset < 0 || offset + magic.length() > buf.limit()) {
+            return false;
+        }
+        for (int i=0;i < magic.length();i++) {
+            if (buf.get(offset + i) != magic.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String getString(ByteBuffer buf, int base, int offset) {
+        long start = (long) base + (offset & 0xFFFFFFFFL);
+        if (start >= buf.limit()) {
+            throw new IllegalArgumentException("Invalid string offset " + offset);
+        }
+        int end = (int) start;
+        while (end < buf.limit() && buf.get(end) != 0) {
+            end++;
+        }
+        byte[] bytes = new byte[end - (int) start];
+        for (int i=0;i < bytes.length;i++) {
+            bytes[i] = buf.get((int) start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** @return the directories listed in the given linker configuration
+     * file, following <code>include</code> directives.  Missing or
+     * unreadable files yield no directories.
+     */
+    static List<String> parseConf(Path conf) {
+        Set<String> dirs = new LinkedHashSet<>();
+        parseConf(conf, dirs, new HashSet<Path>(), 0);
+        return new ArrayList<>(dirs);
+    }
+
+    private static void parseConf(Path conf, Set<String> dirs, Set<Path> seen, int depth) {
+        if (depth > MAX_INCLUDE_DEPTH || !seen.add(conf.toAbsolutePath().normalize())) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(conf, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int hash = line.indexOf('#');
+                if (hash != -1) {
+                    line = line.substring(0, hash);
+                }
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (line.startsWith("include") && line.length() > 7
+                    && Character.isWhitespace(line.charAt(7))) {
+                    for (String pattern : line.substring(8).trim().split("\\s+")) {
+                        for (Path included : glob(conf, pattern)) {
+                            parseConf(included, dirs, seen, depth + 1);
+                        }
+                    }
+                } else if (line.startsWith("hwcap") && line.length() > 5
+                           && Character.isWhitespace(line.charAt(5))) {
+                    // Obsolete hardware capability directives
+                    continue;
+                } else {
+                    for (String dir : line.split("[\\s:,]+")) {
+                        // Strip the legacy "dir=type" suffix
+                        int eq = dir.indexOf('=');
+                        if (eq != -1) {
+                            dir = dir.substring(0, eq);
+                        }
+                        while (dir.length() > 1 && dir.endsWith("/")) {
+                            dir = dir.substring(0, dir.length() - 1);
+                        }
+                        if (dir.startsWith("/")) {
+                            dirs.add(dir);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Unable to read " + conf, e);
+        }
+    }
+
+    /** Expand an include pattern; wildcards are only supported in the
+     * last path component, as written by distributions.
+     */
+    private static List<Path> glob(Path conf, String pattern) {
+        Path path = Paths.get(pattern);
+        if (!path.isAbsolute()) {
+            Path parent = conf.toAbsolutePath().getParent();
+            path = parent != null ? parent.resolve(pattern) : path;
+        }
+        Path dir = path.getParent();
+        String name = path.getFileName() != null ? path.getFileName().toString() : "";
+        List<Path> result = new ArrayList<>();
+        if (dir == null) {
+            return result;
+        }
+        if (name.indexOf('*') == -1 && name.indexOf('?') == -1 && name.indexOf('[') == -1) {
+            if (Files.isRegularFile(path)) {
+                result.add(path);
+            }
+            return result;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, name)) {
+            for (Path p : stream) {
+                if (Files.isRegularFile(p)) {
+                    result.add(p);
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Unable to list " + dir, e);
+        }
+        // ldconfig processes matches in sorted order
+        Collections.sort(result);
+        return result;
+    }
+}
@@ -25,10 +25,19 @@ package com.sun.jna;
 import com.sun.jna.internal.ReflectionUtils;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /** Derive from this interface for all native library definitions.
  *
@@ -119,6 +128,97 @@ public interface Library {
      */
     String OPTION_SYMBOL_PROVIDER = "symbol-provider";
 
+    /** <p>Option key identifying methods which may block for a long time in
+     * native code.  The value is either {@link Boolean#TRUE} (all methods of
+     * the library) or a {@link java.util.Collection} of Java method names.</p>
+     * When such a method is called from a virtual thread, the native call is
+     * made on a platform thread instead, so that the virtual thread does not
+     * pin its carrier (see {@link VirtualThreadSupport}).  Note that
+     * {@link Native#getLastError()} is not meaningful after an offloaded
+     * call; declare {@link LastErrorException} instead.
+     */
+    String OPTION_BLOCKING_METHODS = "blocking-methods";
+    /** Option key for the {@link java.util.concurrent.Executor} used to run
+     * blocking calls (see {@link #OPTION_BLOCKING_METHODS}).  The executor
+     * must run tasks on platform threads.  If not provided, a shared pool of
+     * daemon threads is used.
+     */
+    String OPTION_BLOCKING_EXECUTOR = "blocking-executor";
+    /** Option key for a boolean flag to dispatch callbacks defined within
+     * the library onto a virtual thread when invoked from native code (see
+     * {@link VirtualThreadSupport}).  Such callbacks always use the
+     * non-direct callback path.  Has no effect if the VM does not support
+     * virtual threads.
+     */
+    String OPTION_VIRTUAL_THREAD_CALLBACKS = "virtual-thread-callbacks";
+    /** <p>Option key for the {@link java.util.concurrent.Executor} used to
+     * run asynchronous library methods.  A method is asynchronous if it is
+     * declared to return {@link java.util.concurrent.CompletableFuture},
+     * {@link java.util.concurrent.CompletionStage} or
+     * {@link java.util.concurrent.Future}; the type argument gives the
+     * native return type, e.g. <code>CompletableFuture&lt;Integer&gt;</code>
+     * for a native <code>int</code> and <code>CompletableFuture&lt;Void&gt;</code>
+     * for <code>void</code>.</p>
+     * If not provided, a shared pool of daemon threads is used.
+     */
+    String OPTION_ASYNC_EXECUTOR = "async-executor";
+    /** <p>Option key for the maximum number of asynchronous calls
+     * ({@link Integer}) which may run concurrently against the native
+     * library.  Additional calls are queued without blocking the caller.</p>
+     * A value of one runs asynchronous calls one at a time in submission
+     * order, which keeps a library that is not thread-safe safe without the
+     * callers contending on {@link Native#synchronizedLibrary}.
+     */
+    String OPTION_ASYNC_MAX_CONCURRENCY = "async-max-concurrency";
+    /** <p>Option key for a boolean flag to defer symbol lookup of direct
+     * mapped methods until they are first called (see
+     * {@link Native#register(Class, NativeLibrary)}).  Startup then depends
+     * on the number of methods actually used rather than the size of the
+     * mapping.</p>
+     * Only methods whose symbol is listed in the library's dynamic symbol
+     * table (on ELF platforms, with the default {@link SymbolProvider}) are
+     * deferred, so that a missing symbol still fails registration with an
+     * {@link UnsatisfiedLinkError}.  Other methods, and methods which
+     * declare {@link LastErrorException}, use structures by value or
+     * <code>char</code>, or use a calling convention other than the default,
+     * are always bound at registration.
+     */
+    String OPTION_LAZY_REGISTRATION = "lazy-registration";
+    /** <p>Option key for a boolean flag to verify, when the library is
+     * loaded, that a symbol exists for every method of the library
+     * interface (or, with {@link Native#register(Class, NativeLibrary)},
+     * every native method of the class).  A missing symbol then fails the
+     * load with an {@link UnsatisfiedLinkError} naming all missing symbols
+     * instead of failing on first call.</p>
+     * On ELF platforms the symbols are checked against the library's
+     * dynamic symbol table without looking each one up, and libraries built
+     * for a different ABI than the VM's are logged as warnings.
+     */
+    String OPTION_VALIDATE_SYMBOLS = "validate-symbols";
+    /** <p>Option key for a boolean flag to call methods through generated
+     * direct-mapped stubs.  For each method whose arguments and result are
+     * primitives, {@link Pointer}s, or types converted to either by
+     * {@link NativeMapped} or the {@link #OPTION_TYPE_MAPPER type mapper},
+     * the conversions are resolved when the method is first called and
+     * applied in Java around a <code>static native</code> method taking
+     * and returning primitives only, registered as with
+     * {@link Native#register(Class, NativeLibrary)}.  This avoids the
+     * per-call argument inspection of {@link Function} as well as calls
+     * from native code back into the VM to convert values.</p>
+     * Other methods are called as usual.  Type mapper converters are looked
+     * up by the declared parameter type rather than the argument's class.
+     */
+    String OPTION_DIRECT_DISPATCH = "direct-dispatch";
+    /** <p>Option key for a boolean flag to allow a new version of the
+     * library to be loaded with {@link NativeLibrary#reload()} while it is
+     * in use.  Existing {@link Function}s, proxies and direct-mapped
+     * classes are switched over to the new version; the previous version
+     * is closed once the calls in progress on it have returned.</p>
+     * Each call through a {@link Function} or proxy of a reloadable library
+     * is counted, which adds a small overhead.
+     */
+    String OPTION_RELOADABLE = "reloadable";
+
     static class Handler implements InvocationHandler {
 
         static final Method OBJECT_TOSTRING;
@@ -147,6 +247,12 @@ public interface Library {
             final Object methodHandle;
             final Map<String, ?> options;
             final Class<?>[] parameterTypes;
+            final boolean blocking;
+            final Executor blockingExecutor;
+            final Class<?> returnType;
+            final Executor asyncExecutor;
+            final Concurrency.Guard guard;
+            final DirectWrapper wrapper;
 
             FunctionInfo(Object mh) {
                 this.handler = null;
@@ -155,15 +261,49 @@ public interface Library {
                 this.options = null;
                 this.parameterTypes = null;
                 this.methodHandle = mh;
+                this.blocking = false;
+                this.blockingExecutor = null;
+                this.returnType = null;
+                this.asyncExecutor = null;
+                this.guard = null;
+                this.wrapper = null;
             }
 
-            FunctionInfo(InvocationHandler handler, Function function, Class<?>[] parameterTypes, boolean isVarArgs, Map<String, ?> options) {
+            FunctionInfo(InvocationHandler handler, Function function, Class<?>[] parameterTypes, boolean isVarArgs, Map<String, ?> options, boolean blocking, Class<?> returnType, Executor asyncExecutor, Concurrency.Guard guard, DirectWrapper wrapper) {
                 this.handler = handler;
                 this.function = function;
                 this.isVarArgs = isVarArgs;
                 this.options = options;
                 this.parameterTypes = parameterTypes;
                 this.methodHandle = null;
+                this.blocking = blocking;
+                this.blockingExecutor = blocking ? VirtualThreadSupport.getExecutor(options) : null;
+                this.returnType = returnType;
+                this.asyncExecutor = asyncExecutor;
+                this.guard = guard;
+                this.wrapper = wrapper;
+            }
+
+            /** Invoke the native function, holding the method's concurrency
+             * group (if any) for the duration of the call.
+             */
+            Object invokeFunction(Method method, Object[] inArgs) {
+                if (guard == null) {
+                    return invokeNative(method, inArgs);
+                }
+                guard.enter();
+                try {
+                    return invokeNative(method, inArgs);
+                } finally {
+                    guard.exit();
+                }
+            }
+
+            private Object invokeNative(Method method, Object[] inArgs) {
+                if (wrapper != null) {
+                    return wrapper.invoke(inArgs);
+                }
+                return function.invoke(method, parameterTypes, returnType, inArgs, options);
             }
         }
 
@@ -196,6 +336,20 @@ public interface Library {
             }
             this.nativeLibrary = NativeLibrary.getInstance(libname, this.options);
             invocationMapper = (InvocationMapper)this.options.get(OPTION_INVOCATION_MAPPER);
+            if (Boolean.TRUE.equals(this.options.get(OPTION_VALIDATE_SYMBOLS))) {
+                List<Method> methods = new ArrayList<>();
+                for (Method method : interfaceClass.getMethods()) {
+                    if (ReflectionUtils.isDefault(method) || Modifier.isStatic(method.getModifiers())) {
+                        continue;
+                    }
+                    if (invocationMapper != null
+                        && invocationMapper.getInvocationHandler(nativeLibrary, method) != null) {
+                        continue;
+                    }
+                    methods.add(method);
+                }
+                nativeLibrary.validateSymbols(methods);
+            }
         }
 
         public NativeLibrary getNativeLibrary() {
@@ -243,14 +397,29 @@ public interface Library {
                             Function function = null;
                             Class<?>[] parameterTypes = null;
                             Map<String, Object> options = null;
+                            Class<?> returnType = null;
+                            Executor asyncExecutor = null;
+                            Concurrency.Guard guard = null;
+                            DirectWrapper wrapper = null;
                             if (handler == null) {
                                 // Find the function to invoke
                                 function = nativeLibrary.getFunction(method.getName(), method);
                                 parameterTypes = method.getParameterTypes();
                                 options = new HashMap<>(this.options);
                                 options.put(Function.OPTION_INVOKING_METHOD, method);
+                                returnType = method.getReturnType();
+                                if (isAsync(method)) {
+                                    returnType = getAsyncResultType(method);
+                                    asyncExecutor = nativeLibrary.getAsyncExecutor();
+                                }
+                                guard = Concurrency.getGuard(nativeLibrary, interfaceClass, method);
+                                if (Boolean.TRUE.equals(options.get(OPTION_DIRECT_DISPATCH))) {
+                                    wrapper = DirectWrapper.create(function, method, returnType, options);
+                                }
                             }
-                            f = new FunctionInfo(handler, function, parameterTypes, isVarArgs, options);
+                            boolean blocking = handler == null && asyncExecutor == null
+                                && VirtualThreadSupport.isBlocking(method, options);
+                            f = new FunctionInfo(handler, function, parameterTypes, isVarArgs, options, blocking, returnType, asyncExecutor, guard, wrapper);
                         } else {
                             f = new FunctionInfo(ReflectionUtils.getMethodHandle(method));
                         }
@@ -267,8 +436,94 @@ public interface Library {
                 if (f.handler != null) {
                     return f.handler.invoke(proxy, method, inArgs);
                 }
-                return f.function.invoke(method, f.parameterTypes, method.getReturnType(), inArgs, f.options);
+                if (f.asyncExecutor != null) {
+                    return invokeAsync(f, method, inArgs);
+                }
+                if (f.blocking && VirtualThreadSupport.isVirtual(Thread.currentThread())) {
+                    final FunctionInfo fi = f;
+                    final Method m = method;
+                    final Object[] args = inArgs;
+                    return VirtualThreadSupport.offload(fi.blockingExecutor, new Callable<Object>() {
+                        @Override
+                        public Object call() {
+                            return fi.invokeFunction(m, args);
+                        }
+                    });
+                }
+                VirtualThreadSupport.recordInlineCall();
+                return f.invokeFunction(method, inArgs);
+            }
+        }
+
+        /** Run the native call on the library's asynchronous executor,
+         * completing the returned future with its result.
+         */
+        private static CompletableFuture<Object> invokeAsync(final FunctionInfo f, final Method method, final Object[] inArgs) {
+            final CompletableFuture<Object> future = new CompletableFuture<>();
+            try {
+                f.asyncExecutor.execute(new AsyncCall(f, method, inArgs, future));
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+
+        /** An asynchronous call, which fails its future if it is rejected
+         * after having been queued by a {@link LimitedExecutor}.
+         */
+        private static final class AsyncCall implements LimitedExecutor.Task {
+            private final FunctionInfo f;
+            private final Method method;
+            private final Object[] inArgs;
+            private final CompletableFuture<Object> future;
+
+            AsyncCall(FunctionInfo f, Method method, Object[] inArgs, CompletableFuture<Object> future) {
+                this.f = f;
+                this.method = method;
+                this.inArgs = inArgs;
+                this.future = future;
+            }
+
+            @Override
+            public void run() {
+                if (future.isCancelled()) {
+                    return;
+                }
+                try {
+                    future.complete(f.invokeFunction(method, inArgs));
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            }
+
+            @Override
+            public void rejected(RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        /** Whether the method is asynchronous, i.e. returns a future. */
+        static boolean isAsync(Method method) {
+            Class<?> cls = method.getReturnType();
+            return cls != Object.class && cls.isAssignableFrom(CompletableFuture.class);
+        }
+
+        /** Return the native return type of an asynchronous method, taken
+         * from the type argument of its declared future type.
+         */
+        static Class<?> getAsyncResultType(Method method) {
+            Type type = method.getGenericReturnType();
+            if (type instanceof ParameterizedType) {
+                Type arg = ((ParameterizedType) type).getActualTypeArguments()[0];
+                if (arg instanceof ParameterizedType) {
+                    arg = ((ParameterizedType) arg).getRawType();
+                }
+                if (arg instanceof Class) {
+                    return (Class<?>) arg;
+                }
             }
+            throw new IllegalArgumentException("Asynchronous method " + method
+                                               + " must declare a concrete result type");
         }
     }
 }
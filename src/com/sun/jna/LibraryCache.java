@@ -0,0 +1,194 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shared cache of native libraries extracted from the class path, keyed by
+ * a hash of their content.  A library is written once and reused by every
+ * JVM which extracts the same resource, instead of creating a new temporary
+ * copy on each start.  Cached files are written to a temporary file and
+ * atomically renamed into place, so that concurrent extractions do not
+ * observe partially written files, and are verified against their hash
+ * before reuse.
+ * <p>
+ * The cache lives in the <code>cache</code> subdirectory of
+ * {@link Native#getTempDir()}.  It is not used if that directory falls back
+ * to the shared system temporary directory, or if the system property
+ * <code>jna.nocache=true</code> is set.</p>
+ */
+final class LibraryCache {
+
+    private static final Logger LOG = Logger.getLogger(LibraryCache.class.getName());
+
+    static final String CACHE_DIR = "cache";
+
+    /** Hex digits of the content hash used to name cache entries. */
+    private static final int KEY_LENGTH = 32;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private LibraryCache() { }
+
+    /** @return whether extracted libraries are to be cached. */
+    static boolean isEnabled() {
+        return !Boolean.getBoolean("jna.nocache");
+    }
+
+    /** @return the cache directory, or <code>null</code> if no private
+     * directory is available.
+     */
+    static File getCacheDir() throws IOException {
+        File tmp = Native.getTempDir();
+        if (System.getProperty("jna.tmpdir") == null
+            && tmp.getAbsoluteFile().equals(new File(System.getProperty("java.io.tmpdir")).getAbsoluteFile())) {
+            return null;
+        }
+        return new File(tmp, CACHE_DIR);
+    }
+
+    /** @return whether the given file is a cache entry.  Cache entries are
+     * shared and must not be deleted after use.
+     */
+    static boolean isCached(File file) {
+        try {
+            File dir = getCacheDir();
+            File parent = file.getAbsoluteFile().getParentFile();
+            return dir != null && parent != null
+                && dir.getAbsoluteFile().equals(parent.getParentFile());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Find or create the cache entry for the given resource.
+     * @param url location of the library resource
+     * @param name file name of the library
+     * @return the cached file, or <code>null</code> if the cache is not
+     * available
+     */
+    static File extract(URL url, String name, Level level) throws IOException {
+        File root = getCacheDir();
+        if (root == null) {
+            return null;
+        }
+        try {
+            new File(new File(root, "0"), name).toPath();
+        } catch (InvalidPathException e) {
+            // Not representable in the file system encoding
+            return null;
+        }
+        String key;
+        try (InputStream is = url.openStream()) {
+            if (is == null) {
+                throw new IOException("Can't obtain InputStream for " + url);
+            }
+            MessageDigest digest = newDigest();
+            byte[] buf = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = is.read(buf)) > 0) {
+                digest.update(buf, 0, count);
+            }
+            key = toHex(digest.digest());
+        }
+
+        File dir = new File(root, key);
+        File lib = new File(dir, name);
+        if (lib.isFile() && key.equals(hash(lib))) {
+            LOG.log(level, "Using cached library {0}", lib.getAbsolutePath());
+            return lib;
+        }
+
+        dir.mkdirs();
+        Path tmp = Files.createTempFile(dir.toPath(), Native.JNA_TMPLIB_PREFIX, ".tmp");
+        try {
+            LOG.log(level, "Extracting library to {0}", lib.getAbsolutePath());
+            MessageDigest digest = newDigest();
+            try (InputStream is = new DigestInputStream(url.openStream(), digest)) {
+                Files.copy(is, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (!key.equals(toHex(digest.digest()))) {
+                throw new IOException("Resource " + url + " changed during extraction");
+            }
+            try {
+                Files.move(tmp, lib.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // Another process may have won the race, and the target may
+                // be in use (e.g. on windows); accept a valid entry
+                if (!lib.isFile() || !key.equals(hash(lib))) {
+                    throw e;
+                }
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return lib;
+    }
+
+    /** @return the cache key of the given file's content. */
+    static String hash(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(8192);
+            while (channel.read(buf) != -1) {
+                buf.flip();
+                digest.update(buf);
+                buf.clear();
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(KEY_LENGTH);
+        for (int i=0;i < bytes.length && sb.length() < KEY_LENGTH;i++) {
+            sb.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(bytes[i] & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
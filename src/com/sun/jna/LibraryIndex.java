@@ -0,0 +1,121 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the shared libraries found on a search path, used to resolve a
+ * library name to a file without trying each directory in turn.
+ * <p>
+ * The listing of each directory is cached and refreshed when the directory's
+ * modification time changes.  {@link NativeLibrary} uses an exact match for
+ * the mapped name (<code>libfoo.so</code>) to load a library with a single
+ * <code>dlopen</code>, which resolves to the same file as loading by name
+ * would.  Versioned names (<code>libfoo.so.N</code>) are only considered in
+ * its fallback search, once loading by name has failed.  A miss is not
+ * conclusive; callers fall back to the regular search.</p>
+ */
+final class LibraryIndex {
+
+    private static final Map<String, Listing> listings = new ConcurrentHashMap<>();
+
+    private static final class Listing {
+        final long modified;
+        final Set<String> names;
+
+        Listing(long modified, Set<String> names) {
+            this.modified = modified;
+            this.names = names;
+        }
+    }
+
+    private LibraryIndex() { }
+
+    /** @return whether the index is used on this platform. */
+    static boolean isSupported() {
+        return (Platform.isLinux() && !Platform.isAndroid()) || Platform.isFreeBSD();
+    }
+
+    /** @return the directories searched by the dynamic linker ahead of
+     * the system paths (<code>LD_LIBRARY_PATH</code>).
+     */
+    static List<String> getEnvironmentPath() {
+        String value = System.getenv("LD_LIBRARY_PATH");
+        if (value == null || value.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<String> paths = new ArrayList<>();
+        for (String path : value.split(File.pathSeparator)) {
+            if (!path.isEmpty()) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Find the mapped name of the given library on the given search path.
+     * @param libName undecorated or mapped library name
+     * @param searchPath directories to search, in order
+     * @return the absolute path of the first exact match, or
+     * <code>null</code> if none is found in the index
+     */
+    static String find(String libName, Collection<String> searchPath) {
+        String name = NativeLibrary.mapSharedLibraryName(libName);
+        for (String path : searchPath) {
+            File dir = new File(path);
+            if (list(dir).contains(name)) {
+                return new File(dir, name).getAbsolutePath();
+            }
+        }
+        return null;
+    }
+
+    private static Set<String> list(File dir) {
+        String key = dir.getPath();
+        long modified = dir.lastModified();
+        Listing listing = listings.get(key);
+        if (listing == null || listing.modified != modified) {
+            String[] files = modified != 0 ? dir.list() : null;
+            listing = new Listing(modified, files != null
+                                  ? new HashSet<>(Arrays.asList(files))
+                                  : new HashSet<String>());
+            listings.put(key, listing);
+        }
+        return listing.names;
+    }
+
+    /** Discard all cached directory listings. */
+    static void clear() {
+        listings.clear();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link Executor} which forwards tasks to a delegate executor while
+ * running at most a fixed number of them at a time.  Excess tasks are queued
+ * without blocking the submitting thread.  With a limit of one, tasks run
+ * strictly one after the other in submission order.
+ * <p>
+ * A task may be handed to the delegate on another thread than the one which
+ * submitted it, so the delegate rejecting it can not always be reported to
+ * the submitter.  Such a task is told through {@link Task#rejected} if it
+ * implements {@link Task}, or is otherwise kept at the head of the queue and
+ * retried when another task finishes or is submitted.</p>
+ */
+final class LimitedExecutor implements Executor {
+
+    /** A task which handles its own rejection by the delegate. */
+    interface Task extends Runnable {
+        /** Called instead of {@link #run} if the delegate rejected the
+         * task after it had been queued.
+         * @param e the exception thrown by the delegate
+         */
+        void rejected(RuntimeException e);
+    }
+
+    private final Executor delegate;
+    private final int maxConcurrency;
+    private final Deque<Runnable> queue = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger running = new AtomicInteger();
+
+    LimitedExecutor(Executor delegate, int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("Maximum concurrency must be positive: " + maxConcurrency);
+        }
+        this.delegate = delegate;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /** @return the number of tasks waiting for a free slot. */
+    int getQueuedCount() {
+        return queue.size();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException("command");
+        }
+        queue.add(command);
+        drain(command);
+    }
+
+    /** Hand queued tasks to the delegate while there are free slots.  If
+     * the delegate rejects the given task, the exception is thrown to the
+     * caller, which submitted it.
+     */
+    private void drain(Runnable submitted) {
+        while (!queue.isEmpty()) {
+            int n = running.get();
+            if (n >= maxConcurrency) {
+                // A running task will pick up the queue when it finishes
+                return;
+            }
+            if (!running.compareAndSet(n, n + 1)) {
+                continue;
+            }
+            final Runnable task = queue.poll();
+            if (task == null) {
+                // Lost the race for the last task; re-check in case another
+                // submitter backed off while we held the slot
+                running.decrementAndGet();
+                continue;
+            }
+            try {
+                delegate.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        running.decrementAndGet();
+                        drain(null);
+                    }
+                });
+            } catch (RuntimeException e) {
+                running.decrementAndGet();
+                if (task == submitted) {
+                    throw e;
+                }
+                if (task instanceof Task) {
+                    ((Task) task).rejected(e);
+                    continue;
+                }
+                queue.addFirst(task);
+                return;
+            } catch (Error e) {
+                running.decrementAndGet();
+                if (task != submitted) {
+                    queue.addFirst(task);
+                }
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import com.sun.jna.internal.Cleaner;
+
+/**
+ * A region of a file mapped into memory with <code>mmap</code>.  All of the
+ * {@link Pointer} accessors (bounds-checked as for {@link Memory}),
+ * {@link Structure#useMemory(Pointer)} and
+ * {@link #getByteBuffer(long, long)} operate directly on the mapped pages,
+ * so large binary files may be parsed without copying.
+ * <p>
+ * The mapping is released with <code>munmap</code> on {@link #close()}, or
+ * once the object is no longer reachable.  Writes to a
+ * {@link Mode#READ_ONLY} mapping through this object (or views obtained from
+ * it) throw {@link UnsupportedOperationException}, and its buffers are
+ * read-only; writing through a raw address is still an access violation, just
+ * as it would be in native code.</p>
+ * <p>
+ * Mapping is available on POSIX platforms; on Windows the constructors throw
+ * {@link UnsupportedOperationException}.</p>
+ */
+public class MappedMemory extends Memory {
+
+    /** Access to the mapped file. */
+    public enum Mode {
+        /** Pages may only be read. */
+        READ_ONLY,
+        /** Changes are written through to the file; the file is extended if
+         * the mapped region extends past its end. */
+        READ_WRITE,
+        /** Copy-on-write; changes are never written to the file. */
+        PRIVATE
+    }
+
+    /** Hints for {@link #advise(long, long, Advice)}. */
+    public enum Advice {
+        /** No special treatment. */
+        NORMAL(0),
+        /** Expect page references in random order. */
+        RANDOM(1),
+        /** Expect page references in sequential order. */
+        SEQUENTIAL(2),
+        /** Expect access in the near future; start reading ahead. */
+        WILLNEED(3),
+        /** Do not expect access in the near future. */
+        DONTNEED(4),
+        /** Back the region with transparent huge pages (Linux only). */
+        HUGEPAGE(14);
+
+        private final int value;
+
+        Advice(int value) {
+            this.value = value;
+        }
+    }
+
+    private static final int PROT_READ = 0x1;
+    private static final int PROT_WRITE = 0x2;
+    private static final int MAP_SHARED = 0x1;
+    private static final int MAP_PRIVATE = 0x2;
+    private static final int O_RDONLY = 0x0;
+    private static final int O_RDWR = 0x2;
+    private static final int MS_ASYNC = 0x1;
+    private static final int MS_SYNC = Platform.isMac() ? 0x10
+        : Platform.isFreeBSD() || Platform.iskFreeBSD() || Platform.isDragonFlyBSD() ? 0x0
+        : Platform.isOpenBSD() ? 0x2
+        : 0x4;
+    private static final int MREMAP_MAYMOVE = 0x1;
+    private static final long MAP_FAILED = -1L;
+
+    /** C library functions, resolved on first use. */
+    private static final class LibC {
+        static final Function OPEN = Function.getFunction(Platform.C_LIBRARY_NAME, "open");
+        static final Function CLOSE = Function.getFunction(Platform.C_LIBRARY_NAME, "close");
+        static final Function MMAP = Function.getFunction(Platform.C_LIBRARY_NAME, "mmap");
+        static final Function MUNMAP = Function.getFunction(Platform.C_LIBRARY_NAME, "munmap");
+        static final Function MSYNC = Function.getFunction(Platform.C_LIBRARY_NAME, "msync");
+        static final Function MADVISE = Function.getFunction(Platform.C_LIBRARY_NAME, "madvise");
+        static final Function MREMAP = Platform.isLinux() ? Function.getFunction(Platform.C_LIBRARY_NAME, "mremap") : null;
+        static final long PAGE_SIZE;
+        static {
+            long pageSize = 4096;
+            try {
+                pageSize = Function.getFunction(Platform.C_LIBRARY_NAME, "getpagesize").invokeInt(new Object[0]);
+            } catch (UnsatisfiedLinkError e) {
+                // keep the default
+            }
+            PAGE_SIZE = pageSize;
+        }
+    }
+
+    private final File file;
+    private final Mode mode;
+    private final long offset;
+    /** Distance of {@link #peer} from the page-aligned start of the mapping. */
+    private final long pageOffset;
+    private final Unmapper unmapper;
+    private final Cleaner.Cleanable cleanable;
+
+    /**
+     * Map the whole of the given file.
+     *
+     * @param file file to map
+     * @param mode access mode
+     * @throws IOException if the file can not be opened or mapped
+     */
+    public MappedMemory(File file, Mode mode) throws IOException {
+        this(file, mode, 0, file.length());
+    }
+
+    /**
+     * Map <code>size</code> bytes of the given file starting at
+     * <code>offset</code>, which need not be page-aligned.  When mapping
+     * {@link Mode#READ_WRITE}, the file is extended as needed to cover the
+     * region; other modes may not map past the end of the file, since
+     * accessing such pages crashes the VM.
+     *
+     * @param file file to map
+     * @param mode access mode
+     * @param offset offset within the file of the first mapped byte
+     * @param size number of bytes to map
+     * @throws IOException if the file can not be opened or mapped
+     * @throws IllegalArgumentException if the region extends past the end
+     * of the file and the mode is not {@link Mode#READ_WRITE}
+     */
+    public MappedMemory(File file, Mode mode, long offset, long size) throws IOException {
+        if (Platform.isWindows()) {
+            throw new UnsupportedOperationException("Memory-mapped files are not supported on this platform");
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid file offset: " + offset);
+        }
+        if (size <= 0) {
+            throw new IllegalArgumentException("Mapping size must be greater than zero");
+        }
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        this.file = file;
+        this.mode = mode;
+        this.offset = offset;
+        checkFileLength(offset + size);
+        this.pageOffset = offset % LibC.PAGE_SIZE;
+        long length = pageOffset + size;
+        long base = map(length);
+        this.size = size;
+        this.peer = base + pageOffset;
+        this.unmapper = new Unmapper(base, length);
+        this.cleanable = Cleaner.getCleaner().register(this, unmapper);
+    }
+
+    /** @return the mapped file */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the access mode of the mapping */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /** @return the offset within the file of the first mapped byte */
+    public long getFileOffset() {
+        return offset;
+    }
+
+    /** Map <code>length</code> bytes of the file from the page containing
+     * {@link #offset}.
+     */
+    private long map(long length) throws IOException {
+        if (mode == Mode.READ_WRITE) {
+            ensureFileLength(offset + length - pageOffset);
+        }
+        int fd = LibC.OPEN.invokeInt(new Object[] {
+            file.getPath(), mode == Mode.READ_WRITE ? O_RDWR : O_RDONLY
+        });
+        if (fd == -1) {
+            throw error("open " + file);
+        }
+        try {
+            int prot = mode == Mode.READ_ONLY ? PROT_READ : PROT_READ | PROT_WRITE;
+            int flags = mode == Mode.PRIVATE ? MAP_PRIVATE : MAP_SHARED;
+            long alignedOffset = offset - pageOffset;
+            if (Native.LONG_SIZE == 4 && alignedOffset > Integer.MAX_VALUE) {
+                throw new IOException("File offset " + offset + " not addressable on this platform");
+            }
+            Pointer base = (Pointer) LibC.MMAP.invoke(Pointer.class, new Object[] {
+                null, sizeT(length), prot, flags, fd,
+                Native.LONG_SIZE == 8 ? (Object) alignedOffset : (Object) (int) alignedOffset
+            });
+            if (base == null || Pointer.nativeValue(base) == MAP_FAILED) {
+                throw error("mmap " + file);
+            }
+            MemoryMap.changed();
+            return Pointer.nativeValue(base);
+        } finally {
+            // The mapping remains valid once the descriptor is closed
+            LibC.CLOSE.invokeInt(new Object[] { fd });
+        }
+    }
+
+    /** Pages past the end of the file raise SIGBUS when accessed, so only
+     * mappings which extend the file may go past it.
+     */
+    private void checkFileLength(long end) {
+        if (mode != Mode.READ_WRITE && (end < 0 || end > file.length())) {
+            throw new IllegalArgumentException("Region ends at " + end + ", past the end of " + file
+                                               + " (" + file.length() + " bytes)");
+        }
+    }
+
+    private void ensureFileLength(long length) throws IOException {
+        if (file.length() < length) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                if (raf.length() < length) {
+                    raf.setLength(length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Change the size of the mapping, mapping more (or less) of the file.
+     * The mapping may move to a different address, so any previously
+     * obtained views ({@link #share(long)}, {@link #getByteBuffer(long, long)}
+     * or structures using this memory) must not be used afterwards.
+     *
+     * @param newSize new number of bytes to map
+     * @throws IOException if the mapping can not be changed, in which case
+     * the existing mapping remains valid.
+     * @throws IllegalArgumentException if the region would extend past the
+     * end of the file and the mode is not {@link Mode#READ_WRITE}
+     */
+    public synchronized void remap(long newSize) throws IOException {
+        if (!valid()) {
+            throw new IllegalStateException("Mapping has been closed");
+        }
+        if (newSize <= 0) {
+            throw new IllegalArgumentException("Mapping size must be greater than zero");
+        }
+        checkFileLength(offset + newSize);
+        long length = pageOffset + newSize;
+        long base;
+        if (LibC.MREMAP != null) {
+            if (mode == Mode.READ_WRITE) {
+                ensureFileLength(offset + newSize);
+            }
+            Pointer p = (Pointer) LibC.MREMAP.invoke(Pointer.class, new Object[] {
+                new Pointer(unmapper.base), sizeT(unmapper.length), sizeT(length), MREMAP_MAYMOVE
+            });
+            if (p == null || Pointer.nativeValue(p) == MAP_FAILED) {
+                throw error("mremap " + file);
+            }
+            MemoryMap.changed();
+            base = Pointer.nativeValue(p);
+        } else {
+            base = map(length);
+            unmap(unmapper.base, unmapper.length);
+        }
+        unmapper.update(base, length);
+        discardByteBuffers();
+        this.peer = base + pageOffset;
+        this.size = newSize;
+    }
+
+    /**
+     * Flush changes within the given region to the file (<code>msync</code>).
+     *
+     * @param off offset of the region from the start of this memory
+     * @param length length of the region
+     * @param async whether to schedule the write and return immediately
+     * @throws IOException if the pages can not be synchronized
+     */
+    public synchronized void sync(long off, long length, boolean async) throws IOException {
+        boundsCheck(off, length);
+        long start = alignDown(peer + off);
+        int result = LibC.MSYNC.invokeInt(new Object[] {
+            new Pointer(start), sizeT(peer + off + length - start), async ? MS_ASYNC : MS_SYNC
+        });
+        if (result != 0) {
+            throw error("msync " + file);
+        }
+    }
+
+    /**
+     * Flush all changes to the file and wait for the write to complete.
+     *
+     * @throws IOException if the pages can not be synchronized
+     */
+    public void sync() throws IOException {
+        sync(0, size, false);
+    }
+
+    /**
+     * Give the kernel a hint (<code>madvise</code>) about how the given
+     * region will be used.
+     *
+     * @param off offset of the region from the start of this memory
+     * @param length length of the region
+     * @param advice expected usage
+     * @return whether the hint was accepted
+     */
+    public synchronized boolean advise(long off, long length, Advice advice) {
+        boundsCheck(off, length);
+        if (advice == Advice.HUGEPAGE && !Platform.isLinux()) {
+            return false;
+        }
+        long start = alignDown(peer + off);
+        return LibC.MADVISE.invokeInt(new Object[] {
+            new Pointer(start), sizeT(peer + off + length - start), advice.value
+        }) == 0;
+    }
+
+    /**
+     * Give the kernel a hint about how the whole mapping will be used.
+     *
+     * @param advice expected usage
+     * @return whether the hint was accepted
+     */
+    public boolean advise(Advice advice) {
+        return advise(0, size, advice);
+    }
+
+    /** Unmap the file. */
+    @Override
+    public synchronized void close() {
+        super.close();
+        cleanable.clean();
+    }
+
+    /** Rejects all writes to a {@link Mode#READ_ONLY} mapping. */
+    @Override
+    void writeCheck(long off, long sz) {
+        if (mode == Mode.READ_ONLY) {
+            throw new UnsupportedOperationException("Mapping is read-only: " + this);
+        }
+        super.writeCheck(off, sz);
+    }
+
+    @Override
+    public void setMemory(long offset, long length, byte value) {
+        writeCheck(offset, length);
+        super.setMemory(offset, length, value);
+    }
+
+    /** @return a buffer which is read-only if the mapping is */
+    @Override
+    public ByteBuffer getByteBuffer(long offset, long length) {
+        ByteBuffer b = super.getByteBuffer(offset, length);
+        return mode == Mode.READ_ONLY ? b.asReadOnlyBuffer().order(b.order()) : b;
+    }
+
+    /** @return buffers which are read-only if the mapping is */
+    @Override
+    public ByteBuffer[] getByteBuffers(long offset, long length, int count) {
+        ByteBuffer[] views = super.getByteBuffers(offset, length, count);
+        if (mode == Mode.READ_ONLY) {
+            for (int i=0;i < views.length;i++) {
+                views[i] = views[i].asReadOnlyBuffer().order(views[i].order());
+            }
+        }
+        return views;
+    }
+
+    @Override
+    public String toString() {
+        return "mapped@0x" + Long.toHexString(peer) + " (" + size + " bytes of " + file + " at " + offset + ", " + mode + ")";
+    }
+
+    private static long alignDown(long address) {
+        return address - (address % LibC.PAGE_SIZE);
+    }
+
+    private static Object sizeT(long value) {
+        return Native.SIZE_T_SIZE == 8 ? (Object) value : (Object) (int) value;
+    }
+
+    private static IOException error(String operation) {
+        int errno = Native.getLastError();
+        return new IOException(operation + " failed", new LastErrorException(errno));
+    }
+
+    private static void unmap(long base, long length) {
+        LibC.MUNMAP.invokeInt(new Object[] { new Pointer(base), sizeT(length) });
+    }
+
+    private static final class Unmapper implements Runnable {
+        private long base;
+        private long length;
+
+        Unmapper(long base, long length) {
+            this.base = base;
+            this.length = length;
+        }
+
+        synchronized void update(long base, long length) {
+            this.base = base;
+            this.length = length;
+        }
+
+        @Override
+        public synchronized void run() {
+            if (base != 0) {
+                try {
+                    unmap(base, length);
+                } finally {
+                    base = 0;
+                }
+            }
+        }
+    }
+}
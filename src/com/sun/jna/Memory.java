@@ -26,6 +26,7 @@ import java.io.Closeable;
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
@@ -98,6 +99,11 @@ public class Memory extends Pointer implements Closeable {
         protected void boundsCheck(long off, long sz) {
             Memory.this.boundsCheck(this.peer - Memory.this.peer + off, sz);
         }
+        /** Pass write check to parent. */
+        @Override
+        void writeCheck(long off, long sz) {
+            Memory.this.writeCheck(this.peer - Memory.this.peer + off, sz);
+        }
         @Override
         public String toString() {
             return super.toString() + " (shared from " + Memory.this.toString() + ")";
@@ -114,12 +120,50 @@ public class Memory extends Pointer implements Closeable {
         if (size <= 0) {
             throw new IllegalArgumentException("Allocation size must be greater than zero");
         }
+        MemoryDiagnostics.reserve(size);
         peer = malloc(size);
-        if (peer == 0)
+        if (peer == 0) {
+            MemoryDiagnostics.unreserve(size);
             throw new OutOfMemoryError("Cannot allocate " + size + " bytes");
+        }
 
+        MemoryDiagnostics.allocated(peer, size);
+        MemoryMap.changed();
         allocatedMemory.put(peer, new WeakReference<>(this));
-        cleanable = Cleaner.getCleaner().register(this, new MemoryDisposer(peer));
+        cleanable = Cleaner.getCleaner().register(this, new MemoryDisposer(peer, size, null));
+    }
+
+    /**
+     * Allocate native memory according to the given options, for example
+     * aligned, backed by huge pages or bound to a NUMA node.
+     *
+     * @param size number of <em>bytes</em> of space to allocate
+     * @param options how to obtain the memory
+     * @see AllocationOptions
+     */
+    public Memory(long size, AllocationOptions options) {
+        this.size = size;
+        if (size <= 0) {
+            throw new IllegalArgumentException("Allocation size must be greater than zero");
+        }
+        MemoryDiagnostics.reserve(size);
+        NativeAllocator.Block block = null;
+        try {
+            block = NativeAllocator.allocate(size, options);
+        } finally {
+            if (block == null) {
+                MemoryDiagnostics.unreserve(size);
+            }
+        }
+        if (block == null) {
+            throw new OutOfMemoryError("Cannot allocate " + size + " bytes with " + options);
+        }
+        peer = block.address;
+
+        MemoryDiagnostics.allocated(peer, size);
+        MemoryMap.changed();
+        allocatedMemory.put(peer, new WeakReference<>(this));
+        cleanable = Cleaner.getCleaner().register(this, new MemoryDisposer(peer, size, block));
     }
 
     protected Memory() {
@@ -185,6 +229,7 @@ public class Memory extends Pointer implements Closeable {
     @Override
     public void close() {
         peer = 0;
+        discardByteBuffers();
         if (cleanable != null) {
             cleanable.clean();
         }
@@ -225,6 +270,62 @@ public class Memory extends Pointer implements Closeable {
         }
     }
 
+    /**
+     * Check that a write won't go outside the malloc'ed space, or to memory
+     * which may not be written.
+     */
+    void writeCheck(long off, long sz) {
+        boundsCheck(off, sz);
+    }
+
+    //////////////////////////////////////////////////////////////////////////
+    // Bulk operations
+    //////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Bounds-checked copy, a la <code>Pointer.copyTo</code>.
+     *
+     * @see Pointer#copyTo(long,Pointer,long,long)
+     */
+    @Override
+    public void copyTo(long offset, Pointer dest, long destOffset, long length) {
+        boundsCheck(offset, length);
+        super.copyTo(offset, dest, destOffset, length);
+    }
+
+    /**
+     * Bounds-checked comparison, a la <code>Pointer.compare</code>.
+     *
+     * @see Pointer#compare(long,Pointer,long,long)
+     */
+    @Override
+    public int compare(long offset, Pointer other, long otherOffset, long length) {
+        boundsCheck(offset, length);
+        return super.compare(offset, other, otherOffset, length);
+    }
+
+    /**
+     * Bounds-checked search, a la <code>Pointer.indexOf</code>.
+     *
+     * @see Pointer#indexOf(long,long,byte[])
+     */
+    @Override
+    public long indexOf(long offset, long length, byte[] pattern) {
+        boundsCheck(offset, length);
+        return super.indexOf(offset, length, pattern);
+    }
+
+    /**
+     * Bounds-checked fill, a la <code>Pointer.fill</code>.
+     *
+     * @see Pointer#fill(long,long,byte[])
+     */
+    @Override
+    public void fill(long offset, long length, byte[] pattern) {
+        writeCheck(offset, length);
+        super.fill(offset, length, pattern);
+    }
+
     //////////////////////////////////////////////////////////////////////////
     // Raw read methods
     //////////////////////////////////////////////////////////////////////////
@@ -355,7 +456,7 @@ public class Memory extends Pointer implements Closeable {
      */
     @Override
     public void write(long bOff, byte[] buf, int index, int length) {
-        boundsCheck(bOff, length * 1L);
+        writeCheck(bOff, length * 1L);
         super.write(bOff, buf, index, length);
     }
 
@@ -369,7 +470,7 @@ public class Memory extends Pointer implements Closeable {
      */
     @Override
     public void write(long bOff, short[] buf, int index, int length) {
-        boundsCheck(bOff, length * 2L);
+        writeCheck(bOff, length * 2L);
         super.write(bOff, buf, index, length);
     }
 
@@ -383,7 +484,7 @@ public class Memory extends Pointer implements Closeable {
      */
     @Override
     public void write(long bOff, char[] buf, int index, int length) {
-        boundsCheck(bOff, length * Native.WCHAR_SIZE);
+        writeCheck(bOff, length * Native.WCHAR_SIZE);
         super.write(bOff, buf, index, length);
     }
 
@@ -397,7 +498,7 @@ public class Memory extends Pointer implements Closeable {
      */
     @Override
     public void write(long bOff, int[] buf, int index, int length) {
-        boundsCheck(bOff, length * 4L);
+        writeCheck(bOff, length * 4L);
         super.write(bOff, buf, index, length);
     }
 
@@ -411,7 +512,7 @@ public class Memory extends Pointer implements Closeable {
      */
     @Override
     public void write(long bOff, long[] buf, int index, int length) {
-        boundsCheck(bOff, length * 8L);
+        writeCheck(bOff, length * 8L);
         super.write(bOff, buf, index, length);
     }
 
@@ -425,7 +526,7 @@ public class Memory extends Pointer implements Closeable {
      */
     @Override
     public void write(long bOff, float[] buf, int index, int length) {
-        boundsCheck(bOff, length * 4L);
+        writeCheck(bOff, length * 4L);
         super.write(bOff, buf, index, length);
     }
 
@@ -439,7 +540,7 @@ public class Memory extends Pointer implements Closeable {
      */
     @Override
     public void write(long bOff, double[] buf, int index, int length) {
-        boundsCheck(bOff, length * 8L);
+        writeCheck(bOff, length * 8L);
         super.write(bOff, buf, index, length);
     }
 
@@ -453,7 +554,7 @@ public class Memory extends Pointer implements Closeable {
      */
     @Override
     public void write(long bOff, Pointer[] buf, int index, int length) {
-        boundsCheck(bOff, length * Native.POINTER_SIZE);
+        writeCheck(bOff, length * Native.POINTER_SIZE);
         super.write(bOff, buf, index, length);
     }
 
@@ -580,6 +681,11 @@ public class Memory extends Pointer implements Closeable {
      * references to it (it'd be nice if we could attach our own reference to
      * the ByteBuffer, but the VM generates the object so we have no control
      * over it).
+     * <p>
+     * Where the VM's direct buffers keep a reference to the buffer they were
+     * sliced from, only a single buffer spanning this memory is tracked, and
+     * the returned buffers are slices of it.  This avoids a native call and
+     * any shared bookkeeping on each invocation.
      *
      * @param offset byte offset from pointer to start the buffer
      * @param length Length of ByteBuffer
@@ -588,6 +694,10 @@ public class Memory extends Pointer implements Closeable {
     @Override
     public ByteBuffer getByteBuffer(long offset, long length) {
         boundsCheck(offset, length);
+        ByteBuffer whole = getWholeByteBuffer();
+        if (whole != null && offset + length <= whole.capacity()) {
+            return slice(whole, (int) offset, (int) length);
+        }
         ByteBuffer b = super.getByteBuffer(offset, length);
         // Ensure this Memory object will not be GC'd (and its memory freed)
         // if the Buffer is still extant.
@@ -595,6 +705,84 @@ public class Memory extends Pointer implements Closeable {
         return b;
     }
 
+    /**
+     * Get <code>count</code> consecutive ByteBuffers of <code>length</code>
+     * bytes each, starting at <code>offset</code>.  This is an inexpensive
+     * way to split memory into many small views; each view keeps this memory
+     * from being GC'd just like one returned by
+     * {@link #getByteBuffer(long, long)}.
+     *
+     * @param offset byte offset from pointer to start the first buffer
+     * @param length length of each ByteBuffer
+     * @param count number of ByteBuffers
+     * @return direct ByteBuffers in native byte order
+     */
+    public ByteBuffer[] getByteBuffers(long offset, long length, int count) {
+        if (length < 0 || count < 0) {
+            throw new IllegalArgumentException("Invalid view length " + length + " or count " + count);
+        }
+        boundsCheck(offset, length * count);
+        ByteBuffer[] views = new ByteBuffer[count];
+        ByteBuffer whole = getWholeByteBuffer();
+        if (whole != null && offset + length * count <= whole.capacity()) {
+            for (int i=0;i < count;i++) {
+                views[i] = slice(whole, (int) (offset + length * i), (int) length);
+            }
+        } else {
+            ByteBuffer b = getByteBuffer(offset, length * count);
+            for (int i=0;i < count;i++) {
+                views[i] = slice(b, (int) (length * i), (int) length);
+            }
+        }
+        return views;
+    }
+
+    /** Direct buffers spanning the full memory, if slicing is safe. */
+    private volatile Reference<ByteBuffer> wholeByteBuffer;
+
+    /** Return a tracked buffer spanning this memory (up to 2GB), or
+     * <code>null</code> if slices of it cannot be relied upon to keep it
+     * reachable.
+     */
+    private ByteBuffer getWholeByteBuffer() {
+        if (!SLICES_REFERENCE_PARENT || !valid()) {
+            return null;
+        }
+        Reference<ByteBuffer> ref = wholeByteBuffer;
+        ByteBuffer whole = ref != null ? ref.get() : null;
+        if (whole == null) {
+            // Concurrent initialization is harmless; each buffer is tracked
+            whole = super.getByteBuffer(0, Math.min(size, Integer.MAX_VALUE));
+            buffers.put(whole, this);
+            // Must not be a strong reference, or the buffer would keep
+            // itself alive through the holder's reference to this memory
+            wholeByteBuffer = new WeakReference<>(whole);
+        }
+        return whole;
+    }
+
+    /** Stop handing out slices of the cached buffer, e.g. because the
+     * memory's address has changed.  Buffers already returned are not
+     * affected.
+     */
+    void discardByteBuffers() {
+        wholeByteBuffer = null;
+    }
+
+    private static ByteBuffer slice(ByteBuffer whole, int offset, int length) {
+        ByteBuffer b = whole.duplicate();
+        b.limit(offset + length);
+        b.position(offset);
+        return b.slice().order(ByteOrder.nativeOrder());
+    }
+
+    /** Whether a slice of a direct buffer holds a reference to the buffer
+     * it was created from, as in the OpenJDK class library.  Android instead
+     * shares the underlying memory reference, so there each buffer has to
+     * be tracked individually.
+     */
+    private static final boolean SLICES_REFERENCE_PARENT = !Platform.isAndroid();
+
     @Override
     public String getString(long offset, String encoding) {
         // NOTE: we only make sure the start of the string is within bounds
@@ -623,7 +811,7 @@ public class Memory extends Pointer implements Closeable {
      */
     @Override
     public void setByte(long offset, byte value) {
-        boundsCheck(offset, 1);
+        writeCheck(offset, 1);
         super.setByte(offset, value);
     }
 
@@ -637,7 +825,7 @@ public class Memory extends Pointer implements Closeable {
      */
     @Override
     public void setChar(long offset, char value) {
-        boundsCheck(offset, Native.WCHAR_SIZE);
+        writeCheck(offset, Native.WCHAR_SIZE);
         super.setChar(offset, value);
     }
 
@@ -651,7 +839,7 @@ public class Memory extends Pointer implements Closeable {
      */
     @Override
     public void setShort(long offset, short value) {
-        boundsCheck(offset, 2);
+        writeCheck(offset, 2);
         super.setShort(offset, value);
     }
 
@@ -665,7 +853,7 @@ public class Memory extends Pointer implements Closeable {
      */
     @Override
     public void setInt(long offset, int value) {
-        boundsCheck(offset, 4);
+        writeCheck(offset, 4);
         super.setInt(offset, value);
     }
 
@@ -679,7 +867,7 @@ public class Memory extends Pointer implements Closeable {
      */
     @Override
     public void setLong(long offset, long value) {
-        boundsCheck(offset, 8);
+        writeCheck(offset, 8);
         super.setLong(offset, value);
     }
 
@@ -693,7 +881,7 @@ public class Memory extends Pointer implements Closeable {
      */
     @Override
     public void setFloat(long offset, float value) {
-        boundsCheck(offset, 4);
+        writeCheck(offset, 4);
         super.setFloat(offset, value);
     }
 
@@ -707,7 +895,7 @@ public class Memory extends Pointer implements Closeable {
      */
     @Override
     public void setDouble(long offset, double value) {
-        boundsCheck(offset, 8);
+        writeCheck(offset, 8);
         super.setDouble(offset, value);
     }
 
@@ -721,19 +909,19 @@ public class Memory extends Pointer implements Closeable {
      */
     @Override
     public void setPointer(long offset, Pointer value) {
-        boundsCheck(offset, Native.POINTER_SIZE);
+        writeCheck(offset, Native.POINTER_SIZE);
         super.setPointer(offset, value);
     }
 
     @Override
     public void setString(long offset, String value, String encoding) {
-        boundsCheck(offset, Native.getBytes(value, encoding).length + 1L);
+        writeCheck(offset, Native.getBytes(value, encoding).length + 1L);
         super.setString(offset, value, encoding);
     }
 
     @Override
     public void setWideString(long offset, String value) {
-        boundsCheck(offset, (value.length() + 1L) * Native.WCHAR_SIZE);
+        writeCheck(offset, (value.length() + 1L) * Native.WCHAR_SIZE);
         super.setWideString(offset, value);
     }
 
@@ -783,15 +971,29 @@ public class Memory extends Pointer implements Closeable {
     private static final class MemoryDisposer implements Runnable {
 
         private long peer;
+        private final long size;
+        private final NativeAllocator.Block block;
 
-        public MemoryDisposer(long peer) {
+        MemoryDisposer(long peer, long size, NativeAllocator.Block block) {
             this.peer = peer;
+            this.size = size;
+            this.block = block;
         }
 
         @Override
         public synchronized void run() {
+            if (peer != 0) {
+                // Before freeing, as the address may be reused immediately
+                MemoryDiagnostics.freed(peer, size);
+            }
             try {
-                free(peer);
+                if (block != null) {
+                    if (peer != 0) {
+                        block.release();
+                    }
+                } else {
+                    free(peer);
+                }
             } finally {
                 allocatedMemory.remove(peer);
                 peer = 0;
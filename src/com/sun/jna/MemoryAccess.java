@@ -0,0 +1,274 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Optional pure-Java backend for the primitive accessors of {@link Pointer}
+ * and {@link Memory}.
+ * <p>
+ * Each accessor normally costs a JNI transition.  If the system property
+ * <code>jna.memaccess</code> is set to <code>unsafe</code>, accesses are
+ * instead made through the VM's raw memory intrinsics
+ * (<code>sun.misc.Unsafe</code>), which the JIT compiles to plain loads and
+ * stores.  If the running VM does not provide them, or the platform does
+ * not support unaligned access, the JNI implementation is used.</p>
+ * <p>
+ * {@link Memory} bounds checks are performed as before.  Faults cannot be
+ * trapped on the fast path, so it is never used when protected mode was
+ * requested with <code>jna.protected</code>, and is bypassed while
+ * {@link Native#setProtected(boolean) protected mode} is enabled at
+ * runtime.</p>
+ */
+final class MemoryAccess {
+
+    private static final Logger LOG = Logger.getLogger(MemoryAccess.class.getName());
+
+    /** Whether the fast path is available. */
+    static final boolean ENABLED;
+
+    /** Whether protected mode is in effect, see {@link #isEnabled()}. */
+    private static volatile boolean protectedMode;
+
+    private static final MethodHandle GET_BYTE;
+    private static final MethodHandle GET_SHORT;
+    private static final MethodHandle GET_INT;
+    private static final MethodHandle GET_LONG;
+    private static final MethodHandle GET_FLOAT;
+    private static final MethodHandle GET_DOUBLE;
+    private static final MethodHandle GET_ADDRESS;
+    private static final MethodHandle PUT_BYTE;
+    private static final MethodHandle PUT_SHORT;
+    private static final MethodHandle PUT_INT;
+    private static final MethodHandle PUT_LONG;
+    private static final MethodHandle PUT_FLOAT;
+    private static final MethodHandle PUT_DOUBLE;
+    private static final MethodHandle PUT_ADDRESS;
+
+    static {
+        MethodHandle[] handles = null;
+        String mode = System.getProperty("jna.memaccess", "jni");
+        if ("unsafe".equals(mode)) {
+            if (Boolean.getBoolean("jna.protected")) {
+                LOG.log(Level.INFO, "jna.memaccess=unsafe ignored in protected mode");
+            } else if (!Platform.isIntel() && !(Platform.isARM() && Platform.is64Bit())) {
+                // Accessors may be used at any alignment
+                LOG.log(Level.INFO, "jna.memaccess=unsafe requires unaligned access support");
+            } else {
+                handles = lookupUnsafe();
+            }
+        } else if (!"jni".equals(mode)) {
+            LOG.log(Level.WARNING, "Unrecognized value for jna.memaccess: {0}", mode);
+        }
+        ENABLED = handles != null;
+        if (handles == null) {
+            handles = new MethodHandle[14];
+        }
+        GET_BYTE = handles[0];
+        GET_SHORT = handles[1];
+        GET_INT = handles[2];
+        GET_LONG = handles[3];
+        GET_FLOAT = handles[4];
+        GET_DOUBLE = handles[5];
+        GET_ADDRESS = handles[6];
+        PUT_BYTE = handles[7];
+        PUT_SHORT = handles[8];
+        PUT_INT = handles[9];
+        PUT_LONG = handles[10];
+        PUT_FLOAT = handles[11];
+        PUT_DOUBLE = handles[12];
+        PUT_ADDRESS = handles[13];
+    }
+
+    private static MethodHandle[] lookupUnsafe() {
+        try {
+            Class<?> cls = Class.forName("sun.misc.Unsafe");
+            Field f = cls.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            Object unsafe = f.get(null);
+            int addressSize = (Integer) cls.getMethod("addressSize").invoke(unsafe);
+            if (addressSize != Native.POINTER_SIZE) {
+                LOG.log(Level.INFO, "Address size mismatch, using JNI memory access");
+                return null;
+            }
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            Class<?>[] types = { byte.class, short.class, int.class, long.class, float.class, double.class };
+            String[] names = { "Byte", "Short", "Int", "Long", "Float", "Double" };
+            MethodHandle[] handles = new MethodHandle[14];
+            for (int i=0;i < types.length;i++) {
+                handles[i] = lookup.unreflect(cls.getMethod("get" + names[i], long.class)).bindTo(unsafe);
+                handles[i + 7] = lookup.unreflect(cls.getMethod("put" + names[i], long.class, types[i])).bindTo(unsafe);
+            }
+            handles[6] = lookup.unreflect(cls.getMethod("getAddress", long.class)).bindTo(unsafe);
+            handles[13] = lookup.unreflect(cls.getMethod("putAddress", long.class, long.class)).bindTo(unsafe);
+            LOG.log(Level.FINE, "Using Unsafe memory access");
+            return handles;
+        } catch (Exception | LinkageError e) {
+            LOG.log(Level.INFO, "Unsafe memory access not available, using JNI", e);
+            return null;
+        }
+    }
+
+    private MemoryAccess() { }
+
+    /** @return whether accesses should use the fast path, which is not the
+     * case while protected mode is enabled.
+     */
+    static boolean isEnabled() {
+        return ENABLED && !protectedMode;
+    }
+
+    /** Called by {@link Native#setProtected(boolean)}. */
+    static void setProtected(boolean enable) {
+        protectedMode = enable;
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new UndeclaredThrowableException(t);
+    }
+
+    static byte getByte(long addr) {
+        try {
+            return (byte) GET_BYTE.invokeExact(addr);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static short getShort(long addr) {
+        try {
+            return (short) GET_SHORT.invokeExact(addr);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int getInt(long addr) {
+        try {
+            return (int) GET_INT.invokeExact(addr);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static long getLong(long addr) {
+        try {
+            return (long) GET_LONG.invokeExact(addr);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static float getFloat(long addr) {
+        try {
+            return (float) GET_FLOAT.invokeExact(addr);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static double getDouble(long addr) {
+        try {
+            return (double) GET_DOUBLE.invokeExact(addr);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static long getAddress(long addr) {
+        try {
+            return (long) GET_ADDRESS.invokeExact(addr);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void setByte(long addr, byte value) {
+        try {
+            PUT_BYTE.invokeExact(addr, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void setShort(long addr, short value) {
+        try {
+            PUT_SHORT.invokeExact(addr, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void setInt(long addr, int value) {
+        try {
+            PUT_INT.invokeExact(addr, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void setLong(long addr, long value) {
+        try {
+            PUT_LONG.invokeExact(addr, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void setFloat(long addr, float value) {
+        try {
+            PUT_FLOAT.invokeExact(addr, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void setDouble(long addr, double value) {
+        try {
+            PUT_DOUBLE.invokeExact(addr, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void setAddress(long addr, long value) {
+        try {
+            PUT_ADDRESS.invokeExact(addr, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+}
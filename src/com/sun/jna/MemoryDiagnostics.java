@@ -0,0 +1,437 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.jna.internal.Cleaner;
+
+/**
+ * Accounting of native memory allocated by {@link Memory}, for diagnosing
+ * native memory growth and leaks.
+ * <p>
+ * Reports the current and peak number of bytes allocated, and the number of
+ * allocations by size.  Allocation sites may be sampled (see
+ * {@link #setSampleInterval(int)}), to find allocations which survive many
+ * GC cycles without being freed.</p>
+ * <p>
+ * A soft limit (see {@link #setSoftLimit(long)}) makes native memory
+ * pressure behave like heap pressure, as it does for direct buffers: each
+ * allocation atomically reserves its size against the limit, and when the
+ * limit would be exceeded, a GC is requested and memory of unreachable
+ * {@link Memory} objects is freed before the allocation is allowed to fail
+ * with {@link OutOfMemoryError}.</p>
+ * <p>
+ * The following system properties are read at startup:</p>
+ * <ul>
+ * <li><code>jna.memory.softLimit</code>: soft limit in bytes</li>
+ * <li><code>jna.memory.softLimitWait</code>: maximum time in milliseconds
+ * an allocation waits for memory to be freed when at the soft limit</li>
+ * <li><code>jna.memory.sampleInterval</code>: capture the allocation site of
+ * every Nth allocation</li>
+ * </ul>
+ */
+public final class MemoryDiagnostics {
+
+    private static final Logger LOG = Logger.getLogger(MemoryDiagnostics.class.getName());
+
+    /** Number of size buckets; bucket <code>i</code> counts allocations of
+     * <code>[2<sup>i</sup>, 2<sup>i+1</sup>)</code> bytes. */
+    public static final int BUCKETS = 64;
+
+    /** Number of consecutive 1ms waits without any memory being freed
+     * after which a reservation gives up. */
+    private static final int MAX_IDLE_WAITS = 16;
+    /** Maximum time to wait for a requested GC to process references. */
+    private static final long GC_TIMEOUT = 1000;
+    /** Default of the maximum time to wait at the soft limit. */
+    private static final long DEFAULT_SOFT_LIMIT_WAIT = 2000;
+
+    private static final AtomicLong currentBytes = new AtomicLong();
+    private static final AtomicLong peakBytes = new AtomicLong();
+    private static final LongAdder allocations = new LongAdder();
+    private static final LongAdder frees = new LongAdder();
+    private static final LongAdder limitCollections = new LongAdder();
+    private static final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private static final Map<Long, AllocationSite> sites = new ConcurrentHashMap<>();
+    private static final AtomicLong sampleCounter = new AtomicLong();
+
+    private static volatile long softLimit = Long.getLong("jna.memory.softLimit", 0);
+    private static volatile long softLimitWait = Long.getLong("jna.memory.softLimitWait", DEFAULT_SOFT_LIMIT_WAIT);
+    private static volatile int sampleInterval = Integer.getInteger("jna.memory.sampleInterval", 0);
+
+    private MemoryDiagnostics() { }
+
+    /** The captured origin of a sampled allocation. */
+    public static final class AllocationSite {
+        private final long size;
+        private final long gcCount;
+        private final long timestamp;
+        private final StackTraceElement[] stackTrace;
+
+        AllocationSite(long size, long gcCount, StackTraceElement[] stackTrace) {
+            this.size = size;
+            this.gcCount = gcCount;
+            this.timestamp = System.currentTimeMillis();
+            this.stackTrace = stackTrace;
+        }
+
+        /** @return size of the allocation in bytes */
+        public long getSize() {
+            return size;
+        }
+
+        /** @return the number of GC cycles completed since the allocation */
+        public long getGcCycles() {
+            return Math.max(0, gcCount() - gcCount);
+        }
+
+        /** @return the time of the allocation in milliseconds since the epoch */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /** @return the stack of the allocating thread */
+        public StackTraceElement[] getStackTrace() {
+            return stackTrace.clone();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(size).append(" bytes, live for ").append(getGcCycles()).append(" GC cycles");
+            for (StackTraceElement e : stackTrace) {
+                sb.append(System.lineSeparator()).append("\tat ").append(e);
+            }
+            return sb.toString();
+        }
+    }
+
+    /** @return the number of bytes currently allocated */
+    public static long getCurrentBytes() {
+        return currentBytes.get();
+    }
+
+    /** @return the highest number of bytes allocated at any one time since
+     * startup or the last call to {@link #resetPeak()} */
+    public static long getPeakBytes() {
+        return peakBytes.get();
+    }
+
+    /** Reset the peak to the current number of bytes allocated. */
+    public static void resetPeak() {
+        peakBytes.set(currentBytes.get());
+    }
+
+    /** @return the total number of allocations */
+    public static long getAllocationCount() {
+        return allocations.sum();
+    }
+
+    /** @return the total number of allocations freed */
+    public static long getFreeCount() {
+        return frees.sum();
+    }
+
+    /** @return the number of allocations in each size bucket; element
+     * <code>i</code> counts allocations of
+     * <code>[2<sup>i</sup>, 2<sup>i+1</sup>)</code> bytes. */
+    public static long[] getSizeHistogram() {
+        long[] counts = new long[BUCKETS];
+        for (int i=0;i < BUCKETS;i++) {
+            counts[i] = buckets.get(i);
+        }
+        return counts;
+    }
+
+    /** @return the soft limit in bytes, or 0 if there is none */
+    public static long getSoftLimit() {
+        return softLimit;
+    }
+
+    /**
+     * Set a soft limit on the number of bytes allocated, which may also be
+     * set with the system property <code>jna.memory.softLimit</code>.  An
+     * allocation which would exceed it first triggers GC and waits for
+     * unreachable memory to be released, and fails if that does not free
+     * enough.
+     *
+     * @param limit limit in bytes, or 0 for none
+     */
+    public static void setSoftLimit(long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Invalid limit: " + limit);
+        }
+        softLimit = limit;
+    }
+
+    /** @return the maximum time in milliseconds an allocation waits for
+     * memory to be freed when at the soft limit
+     */
+    public static long getSoftLimitWait() {
+        return softLimitWait;
+    }
+
+    /**
+     * Set the maximum time an allocation at the soft limit waits for
+     * unreachable memory to be freed before failing, which may also be set
+     * with the system property <code>jna.memory.softLimitWait</code>.  The
+     * default is 2000ms.  The time spent inside <code>System.gc()</code>
+     * itself is not bounded by this, so with a collector which performs
+     * explicit GCs stop-the-world an allocation may block for up to two
+     * full collections in addition.
+     *
+     * @param millis maximum wait in milliseconds, or 0 to only free memory
+     * of already collected objects without requesting a GC
+     */
+    public static void setSoftLimitWait(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Invalid wait: " + millis);
+        }
+        softLimitWait = millis;
+    }
+
+    /** @return the number of times reaching the soft limit requested a GC */
+    public static long getLimitCollectionCount() {
+        return limitCollections.sum();
+    }
+
+    /** @return the allocation site sampling interval, or 0 if disabled */
+    public static int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * Capture the allocation site (stack trace) of every Nth allocation.
+     * Capturing a stack trace is expensive, so use a large interval in
+     * production.
+     *
+     * @param interval sampling interval, 1 to capture every allocation or 0
+     * to disable sampling
+     */
+    public static void setSampleInterval(int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("Invalid interval: " + interval);
+        }
+        sampleInterval = interval;
+        if (interval == 0) {
+            sites.clear();
+        }
+    }
+
+    /**
+     * Get the sampled allocations which are still allocated after at least
+     * the given number of GC cycles, largest first.  These are candidates
+     * for leaks.
+     *
+     * @param minGcCycles minimum number of completed GC cycles
+     * @return sampled allocation sites
+     */
+    public static List<AllocationSite> getLiveAllocationSites(int minGcCycles) {
+        List<AllocationSite> result = new ArrayList<>();
+        for (AllocationSite site : sites.values()) {
+            if (site.getGcCycles() >= minGcCycles) {
+                result.add(site);
+            }
+        }
+        Collections.sort(result, (a, b) -> Long.compare(b.size, a.size));
+        return result;
+    }
+
+    /**
+     * Called before native memory is allocated, to reserve <code>size</code>
+     * bytes against the soft limit.  Works like the reservation of direct
+     * buffer memory: if the limit would be exceeded, memory held by
+     * unreachable {@link Memory} objects is freed, first by running pending
+     * cleanups, then by requesting a GC and waiting until it has processed
+     * references.  The reservation is retried for as long as memory keeps
+     * being freed, whether by this thread or by others; it fails once a
+     * second GC has been requested and no memory has been freed for
+     * several consecutive waits, or when the wait set with
+     * {@link #setSoftLimitWait(long)} has elapsed, whichever comes first.
+     *
+     * @throws OutOfMemoryError if the memory can not be reserved
+     */
+    static void reserve(long size) {
+        if (tryReserve(size)) {
+            return;
+        }
+        // Free memory of objects which have already been collected
+        if (Cleaner.getCleaner().drain() > 0 && tryReserve(size)) {
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(softLimitWait);
+        boolean interrupted = false;
+        try {
+            wait:
+            for (int gc=0;gc < 2;gc++) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    break;
+                }
+                // The second GC picks up memory dropped by other threads
+                // in the meantime
+                limitCollections.increment();
+                interrupted |= collect(Math.min(remaining, GC_TIMEOUT));
+                long lastFrees = frees.sum();
+                int idle = 0;
+                while (idle <= MAX_IDLE_WAITS) {
+                    int cleaned = Cleaner.getCleaner().drain();
+                    Memory.purge();
+                    if (tryReserve(size)) {
+                        return;
+                    }
+                    if (System.nanoTime() - deadline >= 0) {
+                        break wait;
+                    }
+                    long f = frees.sum();
+                    if (cleaned > 0 || f != lastFrees) {
+                        lastFrees = f;
+                        idle = 0;
+                        continue;
+                    }
+                    // The cleaner thread may be freeing memory
+                    idle++;
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            throw new OutOfMemoryError("Cannot allocate " + size + " bytes: " + currentBytes.get()
+                                       + " bytes of native memory in use, soft limit is " + softLimit);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Request a GC and wait until references cleared by it have been
+     * enqueued, detected by a reference to an otherwise unreachable object.
+     * @param timeout maximum time to wait in milliseconds, positive
+     * @return whether the thread was interrupted while waiting
+     */
+    private static boolean collect(long timeout) {
+        ReferenceQueue<Object> queue = new ReferenceQueue<>();
+        WeakReference<Object> sentinel = new WeakReference<>(new Object(), queue);
+        System.gc();
+        try {
+            // Comparing also keeps the sentinel reference itself reachable
+            if (queue.remove(timeout) != sentinel) {
+                LOG.log(Level.FINE, "References not processed within {0}ms of requesting GC", timeout);
+            }
+        } catch (InterruptedException e) {
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean tryReserve(long size) {
+        long limit = softLimit;
+        while (true) {
+            long current = currentBytes.get();
+            if (limit != 0 && current + size > limit) {
+                return false;
+            }
+            if (currentBytes.compareAndSet(current, current + size)) {
+                long peak;
+                while (current + size > (peak = peakBytes.get()) && !peakBytes.compareAndSet(peak, current + size)) {
+                    // retry
+                }
+                return true;
+            }
+        }
+    }
+
+    /** Release a reservation, when allocation failed or memory was freed. */
+    static void unreserve(long size) {
+        currentBytes.addAndGet(-size);
+    }
+
+    /** Called after reserved native memory has been allocated at
+     * <code>peer</code>.
+     */
+    static void allocated(long peer, long size) {
+        allocations.increment();
+        buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(size));
+        int interval = sampleInterval;
+        if (interval > 0 && sampleCounter.incrementAndGet() % interval == 0) {
+            StackTraceElement[] stack = new Throwable().getStackTrace();
+            // Skip frames within Memory and this class
+            int skip = 0;
+            while (skip < stack.length - 1
+                   && (stack[skip].getClassName().equals(MemoryDiagnostics.class.getName())
+                       || stack[skip].getClassName().equals(Memory.class.getName()))) {
+                skip++;
+            }
+            StackTraceElement[] site = new StackTraceElement[stack.length - skip];
+            System.arraycopy(stack, skip, site, 0, site.length);
+            sites.put(peer, new AllocationSite(size, gcCount(), site));
+        }
+    }
+
+    /** Called after the native memory at <code>peer</code> has been freed. */
+    static void freed(long peer, long size) {
+        unreserve(size);
+        frees.increment();
+        if (!sites.isEmpty()) {
+            sites.remove(peer);
+        }
+    }
+
+    private static boolean gcCountAvailable = true;
+
+    /** @return the total number of collections performed by all collectors */
+    static long gcCount() {
+        if (gcCountAvailable) {
+            try {
+                long count = 0;
+                for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                    count += Math.max(0, gc.getCollectionCount());
+                }
+                return count;
+            } catch (LinkageError e) {
+                // java.management may be absent from the module graph
+                LOG.log(Level.FINE, "GC counts not available", e);
+                gcCountAvailable = false;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Snapshot of the address ranges mapped into this process, read from
+ * <code>/proc/self/maps</code>, used to validate untrusted pointers before
+ * they are accessed.  Snapshots are immutable, so lookups do not lock.
+ * When a lookup fails the snapshot is re-read, since the range may have been
+ * mapped after it was taken, but only if memory has been allocated through
+ * JNA since then (see {@link #changed()}) or the snapshot is older than
+ * {@link #MAX_AGE}; repeated lookups of invalid pointers thus do not parse
+ * the maps each time.  Concurrent refreshes are coalesced.
+ *
+ * @see SafeView
+ */
+final class MemoryMap {
+
+    private static final Logger LOG = Logger.getLogger(MemoryMap.class.getName());
+
+    private static final Path MAPS = Paths.get("/proc/self/maps");
+
+    static final boolean SUPPORTED = (Platform.isLinux() || Platform.isAndroid()) && Files.isReadable(MAPS);
+
+    /** Age in nanoseconds after which a failed lookup re-reads the maps
+     * even if nothing was allocated through JNA, to pick up mappings made
+     * by native code.
+     */
+    static final long MAX_AGE = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final Object REFRESH_LOCK = new Object();
+
+    private static volatile MemoryMap current;
+
+    private final long[] starts;
+    private final long[] ends;
+    private final boolean[] readable;
+    private final boolean[] writable;
+    private final long timestamp = System.nanoTime();
+    /** Set when memory may have been mapped after this snapshot was read. */
+    private volatile boolean stale;
+
+    private MemoryMap(long[] starts, long[] ends, boolean[] readable, boolean[] writable) {
+        this.starts = starts;
+        this.ends = ends;
+        this.readable = readable;
+        this.writable = writable;
+    }
+
+    /** Note that memory was allocated, which may have added mappings not
+     * present in the current snapshot.
+     */
+    static void changed() {
+        MemoryMap map = current;
+        if (map != null && !map.stale) {
+            map.stale = true;
+        }
+    }
+
+    private boolean isFresh() {
+        return !stale && System.nanoTime() - timestamp < MAX_AGE;
+    }
+
+    /** @return whether all of <code>[address, address+size)</code> is mapped
+     * with the required access.
+     */
+    static boolean isAccessible(long address, long size, boolean write) {
+        if (!SUPPORTED) {
+            throw new UnsupportedOperationException("Memory map is not available on this platform");
+        }
+        MemoryMap map = current;
+        if (map != null && map.covers(address, size, write)) {
+            return true;
+        }
+        map = refresh(map);
+        return map != null && map.covers(address, size, write);
+    }
+
+    /** Re-read the maps unless the given snapshot is still fresh, or another
+     * thread has already replaced it.
+     */
+    private static MemoryMap refresh(MemoryMap seen) {
+        if (seen != null && seen.isFresh()) {
+            return seen;
+        }
+        synchronized (REFRESH_LOCK) {
+            MemoryMap map = current;
+            if (map != seen && map != null && map.isFresh()) {
+                return map;
+            }
+            return read();
+        }
+    }
+
+    private boolean covers(long address, long size, boolean write) {
+        if (address <= 0 || size < 0 || address + size < address) {
+            return false;
+        }
+        long end = address + Math.max(size, 1);
+        int i = Arrays.binarySearch(starts, address);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        // Walk adjacent mappings which together cover the range
+        for (long next = address; i >= 0 && i < starts.length && starts[i] <= next; i++) {
+            if (!readable[i] || (write && !writable[i])) {
+                return false;
+            }
+            if (ends[i] >= end) {
+                return true;
+            }
+            next = ends[i];
+        }
+        return false;
+    }
+
+    private static MemoryMap read() {
+        int capacity = 256;
+        long[] starts = new long[capacity];
+        long[] ends = new long[capacity];
+        boolean[] readable = new boolean[capacity];
+        boolean[] writable = new boolean[capacity];
+        int count = 0;
+        try (BufferedReader r = Files.newBufferedReader(MAPS, StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                int dash = line.indexOf('-');
+                int space = line.indexOf(' ', dash);
+                if (dash < 0 || space < 0 || space + 2 >= line.length()) {
+                    continue;
+                }
+                if (count == capacity) {
+                    capacity *= 2;
+                    starts = Arrays.copyOf(starts, capacity);
+                    ends = Arrays.copyOf(ends, capacity);
+                    readable = Arrays.copyOf(readable, capacity);
+                    writable = Arrays.copyOf(writable, capacity);
+                }
+                long start = Long.parseUnsignedLong(line.substring(0, dash), 16);
+                if (start < 0) {
+                    // Kernel addresses, e.g. [vsyscall], are never valid
+                    continue;
+                }
+                starts[count] = start;
+                ends[count] = Long.parseUnsignedLong(line.substring(dash + 1, space), 16);
+                readable[count] = line.charAt(space + 1) == 'r';
+                writable[count] = line.charAt(space + 2) == 'w';
+                count++;
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.FINE, "Could not read " + MAPS, e);
+            return null;
+        }
+        MemoryMap map = new MemoryMap(Arrays.copyOf(starts, count), Arrays.copyOf(ends, count),
+                                      Arrays.copyOf(readable, count), Arrays.copyOf(writable, count));
+        current = map;
+        return map;
+    }
+}
@@ -56,10 +56,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.sun.jna.Callback.UncaughtExceptionHandler;
 import com.sun.jna.Structure.FFIType;
@@ -83,7 +85,9 @@ import java.util.logging.Logger;
  * path using {@link System#loadLibrary}, unless <code>jna.nosys=true</code>.
  * If not found, the appropriate library will be extracted from the class path
  * (into a temporary directory if found within a jar file) and loaded from
- * there, unless <code>jna.noclasspath=true</code>.  If your system has
+ * there, unless <code>jna.noclasspath=true</code>.  Extracted libraries are
+ * kept in a cache directory keyed by their content and shared by all JVMs
+ * of the same user, unless <code>jna.nocache=true</code>.  If your system has
  * additional security constraints regarding execution or load of files
  * (SELinux, for example), you should  probably install the native library in
  * an accessible location and configure  your system accordingly, rather than
@@ -322,9 +326,21 @@ public final class Native implements Version {
      * In short, set the environment variable <code>LD_PRELOAD</code> to the
      * path to <code>libjsig.so</code> in your JRE lib directory
      * (usually ${java.home}/lib/${os.arch}/libjsig.so) before launching your
-     * Java application.
+     * Java application.<p>
+     * To guard against invalid pointers in production code, particularly
+     * with multiple threads, validate them with {@link SafeView} instead.
      */
-    public static synchronized native void setProtected(boolean enable);
+    public static synchronized void setProtected(boolean enable) {
+        setProtected((byte) (enable ? 1 : 0));
+        // Faults can only be trapped on the JNI accessors
+        MemoryAccess.setProtected(isProtected());
+    }
+
+    /** Native implementation of {@link #setProtected(boolean)}, which binds
+     * to the same entry point; the parameter type only differs so that the
+     * public method can track the setting.
+     */
+    private static native void setProtected(byte enable);
 
     /** Returns whether protection is enabled.  Check the result of this method
      * after calling {@link #setProtected setProtected(true)} to determine
@@ -1038,7 +1054,19 @@ public final class Native implements Version {
 
             LOG.log(DEBUG_JNA_LOAD_LEVEL, "Trying {0}", lib.getAbsolutePath());
             System.setProperty("jnidispatch.path", lib.getAbsolutePath());
-            System.load(lib.getAbsolutePath());
+            try {
+                System.load(lib.getAbsolutePath());
+            } catch (UnsatisfiedLinkError e) {
+                if (!LibraryCache.isCached(lib)) {
+                    throw e;
+                }
+                // The VM only allows one class loader to load a given file;
+                // another copy of JNA may be using the cached library
+                LOG.log(DEBUG_JNA_LOAD_LEVEL, "Cached library not loadable, using a private copy: {0}", e.getMessage());
+                lib = extractFromResourcePath(libName, Native.class.getClassLoader(), false);
+                System.setProperty("jnidispatch.path", lib.getAbsolutePath());
+                System.load(lib.getAbsolutePath());
+            }
             jnidispatchPath = lib.getAbsolutePath();
             LOG.log(DEBUG_JNA_LOAD_LEVEL, "Found jnidispatch at {0}", jnidispatchPath);
 
@@ -1058,7 +1086,7 @@ public final class Native implements Version {
 
     /** Identify temporary files unpacked from classpath jar files. */
     static boolean isUnpacked(File file) {
-        return file.getName().startsWith(JNA_TMPLIB_PREFIX);
+        return file.getName().startsWith(JNA_TMPLIB_PREFIX) && !LibraryCache.isCached(file);
     }
 
     /** Attempt to extract a native library from the current resource path,
@@ -1089,6 +1117,10 @@ public final class Native implements Version {
      * @throws IOException if resource not found
      */
     public static File extractFromResourcePath(String name, ClassLoader loader) throws IOException {
+        return extractFromResourcePath(name, loader, LibraryCache.isEnabled());
+    }
+
+    private static File extractFromResourcePath(String name, ClassLoader loader, boolean cache) throws IOException {
 
         final Level DEBUG = (DEBUG_LOAD
             || (DEBUG_JNA_LOAD && name.contains("jnidispatch"))) ? Level.INFO : Level.FINE;
@@ -1156,36 +1188,47 @@ public final class Native implements Version {
             }
         }
         else if (!Boolean.getBoolean("jna.nounpack")) {
-            InputStream is = url.openStream();
-            if (is == null) {
-                throw new IOException("Can't obtain InputStream for " + resourcePath);
+            if (cache) {
+                String fileName = resourcePath.substring(resourcePath.lastIndexOf('/') + 1);
+                try {
+                    lib = LibraryCache.extract(url, fileName, DEBUG);
+                }
+                catch(IOException e) {
+                    LOG.log(DEBUG, "Unable to use library cache: " + e.getMessage(), e);
+                }
             }
+            if (lib == null) {
+                InputStream is = url.openStream();
+                if (is == null) {
+                    throw new IOException("Can't obtain InputStream for " + resourcePath);
+                }
 
-            FileOutputStream fos = null;
-            try {
-                // Suffix is required on windows, or library fails to load
-                // Let Java pick the suffix, except on windows, to avoid
-                // problems with Web Start.
-                File dir = getTempDir();
-                lib = File.createTempFile(JNA_TMPLIB_PREFIX, Platform.isWindows()?".dll":null, dir);
-                if (!Boolean.getBoolean("jnidispatch.preserve")) {
-                    lib.deleteOnExit();
+                FileOutputStream fos = null;
+                try {
+                    // Suffix is required on windows, or library fails to load
+                    // Let Java pick the suffix, except on windows, to avoid
+                    // problems with Web Start.
+                    File dir = getTempDir();
+                    lib = File.createTempFile(JNA_TMPLIB_PREFIX, Platform.isWindows()?".dll":null, dir);
+                    if (!Boolean.getBoolean("jnidispatch.preserve")) {
+                        lib.deleteOnExit();
+                    }
+                    LOG.log(DEBUG, "Extracting library to {0}", lib.getAbsolutePath());
+                    fos = new FileOutputStream(lib);
+                    int count;
+                    byte[] buf = new byte[64 * 1024];
+                    while ((count = is.read(buf, 0, buf.length)) > 0) {
+                        fos.write(buf, 0, count);
+                    }
                 }
-                LOG.log(DEBUG, "Extracting library to {0}", lib.getAbsolutePath());
-                fos = new FileOutputStream(lib);
-                int count;
-                byte[] buf = new byte[1024];
-                while ((count = is.read(buf, 0, buf.length)) > 0) {
-                    fos.write(buf, 0, count);
+                catch(IOException e) {
+                    throw new IOException("Failed to create temporary file for " + name + " library: " + e.getMessage());
                 }
-            }
-            catch(IOException e) {
-                throw new IOException("Failed to create temporary file for " + name + " library: " + e.getMessage());
-            }
-            finally {
-                try { is.close(); } catch(IOException e) { }
-                if (fos != null) {
-                    try { fos.close(); } catch(IOException e) { }
+                finally {
+                    try { is.close(); } catch(IOException e) { }
+                    if (fos != null) {
+                        try { fos.close(); } catch(IOException e) { }
+                    }
                 }
             }
         }
@@ -1228,6 +1271,12 @@ public final class Native implements Version {
      * native library may still be sensitive to being called from different
      * threads.
      * <p>
+     * Callers which can work with futures may instead declare methods
+     * returning {@link java.util.concurrent.CompletableFuture} and set
+     * {@link Library#OPTION_ASYNC_MAX_CONCURRENCY} to one, which serializes
+     * calls without blocking the calling threads.  Where only some functions
+     * must not run concurrently, see {@link Concurrency}.
+     * <p>
      * @param  library the library to be "wrapped" in a synchronized library.
      * @return a synchronized view of the specified library.
      */
@@ -1550,6 +1599,7 @@ public final class Native implements Version {
 
     private static final Map<Class<?>, long[]> registeredClasses = new WeakHashMap<>();
     private static final Map<Class<?>, NativeLibrary> registeredLibraries = new WeakHashMap<>();
+    private static final Map<Class<?>, List<LazyBinding>> lazyBindings = new WeakHashMap<>();
 
     private static void unregisterAll() {
         synchronized(registeredClasses) {
@@ -1558,6 +1608,7 @@ public final class Native implements Version {
             }
 
             registeredClasses.clear();
+            lazyBindings.clear();
         }
     }
 
@@ -1580,10 +1631,33 @@ public final class Native implements Version {
                 unregister(cls, handles);
                 registeredClasses.remove(cls);
                 registeredLibraries.remove(cls);
+                lazyBindings.remove(cls);
             }
         }
     }
 
+    /** @return the currently registered direct-mapped classes and the
+     * libraries they are bound to.
+     */
+    static Map<Class<?>, NativeLibrary> getRegisteredLibraries() {
+        synchronized(registeredClasses) {
+            return new LinkedHashMap<>(registeredLibraries);
+        }
+    }
+
+    /** @return the {@link Library} interfaces loaded so far. */
+    static List<Class<?>> getLibraryInterfaces() {
+        List<Class<?>> interfaces = new ArrayList<>();
+        synchronized(libraries) {
+            for (Class<?> cls : libraries.keySet()) {
+                if (cls.isInterface()) {
+                    interfaces.add(cls);
+                }
+            }
+        }
+        return interfaces;
+    }
+
     /**
      * @param cls The type {@link Class}
      * @return whether the given class's native components are registered.
@@ -1660,7 +1734,7 @@ public final class Native implements Version {
     private static final int CVT_WSTRING = 20;
     private static final int CVT_INTEGER_TYPE = 21;
     private static final int CVT_POINTER_TYPE = 22;
-    private static final int CVT_TYPE_MAPPER = 23;
+    static final int CVT_TYPE_MAPPER = 23;
     private static final int CVT_TYPE_MAPPER_STRING = 24;
     private static final int CVT_TYPE_MAPPER_WSTRING = 25;
     private static final int CVT_OBJECT = 26;
@@ -1774,6 +1848,13 @@ public final class Native implements Version {
     /** When called from a class static initializer, maps all native methods
      * found within that class to native libraries via the JNA raw calling
      * interface.
+     * <p>
+     * <code>String[]</code> and <code>WString[]</code> arguments, as well
+     * as arrays of {@link Pointer}, {@link Structure} and {@link NativeMapped}
+     * marked {@link In}, are converted to native memory by a built-in
+     * {@link ToNativeConverter}, which the native dispatch code calls for
+     * each such argument; native changes to them are not read back.  Varargs can not be
+     * mapped directly.</p>
      * @param cls Class with native methods to register
      * @param lib library to which functions should be bound
      */
@@ -1786,6 +1867,7 @@ public final class Native implements Version {
         Map<String, ?> options = lib.getOptions();
         TypeMapper mapper = (TypeMapper) options.get(Library.OPTION_TYPE_MAPPER);
         boolean allowObjects = Boolean.TRUE.equals(options.get(Library.OPTION_ALLOW_OBJECTS));
+        boolean lazy = Boolean.TRUE.equals(options.get(Library.OPTION_LAZY_REGISTRATION));
         options = cacheOptions(cls, options, null);
 
         for (Method m : methods) {
@@ -1794,130 +1876,305 @@ public final class Native implements Version {
             }
         }
 
-        long[] handles = new long[mlist.size()];
-        for (int i=0;i < handles.length;i++) {
+        // Precomputed conversions only apply to the default mapping
+        BindingManifest manifest = mapper == null && !allowObjects
+            ? BindingManifest.load(cls) : null;
+
+        // Only methods whose symbol is known to exist are bound lazily, so
+        // that a missing symbol still fails registration
+        ELFAnalyser.DynamicInfo symbols = lazy ? lib.getSymbolTable() : null;
+        MethodBinding[] bindings = new MethodBinding[mlist.size()];
+        List<Method> resolve = new ArrayList<>();
+        for (int i=0;i < bindings.length;i++) {
             Method method = mlist.get(i);
-            String sig = "(";
-            Class<?> rclass = method.getReturnType();
-            long rtype, closure_rtype;
-            Class<?>[] ptypes = method.getParameterTypes();
-            long[] atypes = new long[ptypes.length];
-            long[] closure_atypes = new long[ptypes.length];
-            int[] cvt = new int[ptypes.length];
-            ToNativeConverter[] toNative = new ToNativeConverter[ptypes.length];
-            FromNativeConverter fromNative = null;
-            int rcvt = getConversion(rclass, mapper, allowObjects);
-            boolean throwLastError = false;
-            switch (rcvt) {
-                case CVT_UNSUPPORTED:
-                    throw new IllegalArgumentException(rclass + " is not a supported return type (in method " + method.getName() + " in " + cls + ")");
-                case CVT_TYPE_MAPPER:
-                case CVT_TYPE_MAPPER_STRING:
-                case CVT_TYPE_MAPPER_WSTRING:
-                    fromNative = mapper.getFromNativeConverter(rclass);
-                    // FFIType.get() always looks up the native type for any given
-                    // class, so if we actually have conversion into a Java
-                    // object, make sure we use the proper type information
-                    closure_rtype = FFIType.get(rclass.isPrimitive() ? rclass : Pointer.class).getPointer().peer;
-                    rtype = FFIType.get(fromNative.nativeType()).getPointer().peer;
-                    break;
-                case CVT_NATIVE_MAPPED:
-                case CVT_NATIVE_MAPPED_STRING:
-                case CVT_NATIVE_MAPPED_WSTRING:
-                case CVT_INTEGER_TYPE:
-                case CVT_POINTER_TYPE:
-                    closure_rtype = FFIType.get(Pointer.class).getPointer().peer;
-                    rtype = FFIType.get(NativeMappedConverter.getInstance(rclass).nativeType()).getPointer().peer;
-                    break;
-                case CVT_STRUCTURE:
-                case CVT_OBJECT:
-                    closure_rtype = rtype = FFIType.get(Pointer.class).getPointer().peer;
-                    break;
-                case CVT_STRUCTURE_BYVAL:
-                    closure_rtype = FFIType.get(Pointer.class).getPointer().peer;
-                    rtype = FFIType.get(rclass).getPointer().peer;
-                    break;
-                default:
-                    closure_rtype = rtype = FFIType.get(rclass).getPointer().peer;
+            MethodBinding binding = manifest != null ? manifest.getBinding(method) : null;
+            if (binding == null) {
+                binding = getBinding(cls, method, mapper, allowObjects);
+            }
+            bindings[i] = binding;
+            if (!lazy || !LazyBinding.isSupported(lib, binding)
+                || !lib.isDefined(symbols, method)) {
+                resolve.add(method);
             }
+        }
 
-            for (int t=0;t < ptypes.length;t++) {
-                Class<?> type = ptypes[t];
-                sig += getSignature(type);
-                int conversionType = getConversion(type, mapper, allowObjects);
-                cvt[t] = conversionType;
-                if (conversionType == CVT_UNSUPPORTED) {
-                    throw new IllegalArgumentException(type + " is not a supported argument type (in method " + method.getName() + " in " + cls + ")");
-                }
-                if ((conversionType == CVT_NATIVE_MAPPED)
-                    || (conversionType == CVT_NATIVE_MAPPED_STRING)
-                    || (conversionType == CVT_NATIVE_MAPPED_WSTRING)
-                    || (conversionType == CVT_INTEGER_TYPE)) {
-                    type = NativeMappedConverter.getInstance(type).nativeType();
-                } else if ((conversionType == CVT_TYPE_MAPPER)
-                        || (conversionType == CVT_TYPE_MAPPER_STRING)
-                        || (conversionType == CVT_TYPE_MAPPER_WSTRING)) {
-                    toNative[t] = mapper.getToNativeConverter(type);
-                }
+        if (Boolean.TRUE.equals(options.get(Library.OPTION_VALIDATE_SYMBOLS))) {
+            lib.validateSymbols(mlist);
+        }
 
-                // Determine the type that will be passed to the native
-                // function, as well as the type to be passed
-                // from Java initially
-                switch(conversionType) {
-                    case CVT_STRUCTURE_BYVAL:
-                    case CVT_INTEGER_TYPE:
-                    case CVT_POINTER_TYPE:
-                    case CVT_NATIVE_MAPPED:
-                    case CVT_NATIVE_MAPPED_STRING:
-                    case CVT_NATIVE_MAPPED_WSTRING:
-                        atypes[t] = FFIType.get(type).getPointer().peer;
-                        closure_atypes[t] = FFIType.get(Pointer.class).getPointer().peer;
-                        break;
-                    case CVT_TYPE_MAPPER:
-                    case CVT_TYPE_MAPPER_STRING:
-                    case CVT_TYPE_MAPPER_WSTRING:
-                        closure_atypes[t] = FFIType.get(type.isPrimitive() ? type : Pointer.class).getPointer().peer;
-                        atypes[t] = FFIType.get(toNative[t].nativeType()).getPointer().peer;
-                        break;
-                    case CVT_DEFAULT:
-                        closure_atypes[t] = atypes[t] = FFIType.get(type).getPointer().peer;
-                        break;
-                    default:
-                        closure_atypes[t] = atypes[t] = FFIType.get(Pointer.class).getPointer().peer;
-                }
+        // Look up all eagerly bound symbols at once
+        Function[] functions = lib.getFunctions(resolve.toArray(new Method[0]));
+        long[] handles = new long[bindings.length];
+        List<LazyBinding> stubs = new ArrayList<>();
+        for (int i=0, r=0;i < handles.length;i++) {
+            Method method = mlist.get(i);
+            if (r < functions.length && resolve.get(r) == method) {
+                Function f = functions[r++];
+                handles[i] = registerMethod(cls, method, bindings[i], f.peer, f.getCallingConvention(), f.encoding);
+            } else {
+                LazyBinding stub = new LazyBinding(cls, method, bindings[i], lib);
+                handles[i] = registerMethod(cls, method, bindings[i], stub.getStubAddress(), Function.C_CONVENTION, lib.getEncoding());
+                stubs.add(stub);
             }
-            sig += ")";
-            sig += getSignature(rclass);
-
-            Class<?>[] etypes = method.getExceptionTypes();
-            for (int e=0;e < etypes.length;e++) {
-                if (LastErrorException.class.isAssignableFrom(etypes[e])) {
-                    throwLastError = true;
-                    break;
-                }
+        }
+        synchronized(registeredClasses) {
+            registeredClasses.put(cls, handles);
+            registeredLibraries.put(cls, lib);
+            if (stubs.isEmpty()) {
+                lazyBindings.remove(cls);
+            } else {
+                lazyBindings.put(cls, stubs);
             }
+        }
+    }
 
-            Function f = lib.getFunction(method.getName(), method);
-            try {
-                handles[i] = registerMethod(cls, method.getName(),
-                                            sig, cvt,
-                                            closure_atypes, atypes, rcvt,
-                                            closure_rtype, rtype,
-                                            method,
-                                            f.peer, f.getCallingConvention(),
-                                            throwLastError,
-                                            toNative, fromNative,
-                                            f.encoding);
-            } catch(NoSuchMethodError e) {
-                throw new UnsatisfiedLinkError("No method " + method.getName() + " with signature " + sig + " in " + cls);
+    private static long registerMethod(Class<?> cls, Method method, MethodBinding binding,
+                                       long fptr, int callingConvention, String encoding) {
+        int nargs = binding.cvt.length;
+        long[] atypes = new long[nargs];
+        long[] closure_atypes = new long[nargs];
+        for (int t=0;t < nargs;t++) {
+            atypes[t] = FFIType.get(binding.atypes[t]).getPointer().peer;
+            closure_atypes[t] = FFIType.get(binding.closureAtypes[t]).getPointer().peer;
+        }
+        long rtype = FFIType.get(binding.rtype).getPointer().peer;
+        long closure_rtype = FFIType.get(binding.closureRtype).getPointer().peer;
+        try {
+            return registerMethod(cls, method.getName(),
+                                  binding.signature, binding.cvt,
+                                  closure_atypes, atypes, binding.rcvt,
+                                  closure_rtype, rtype,
+                                  method,
+                                  fptr, callingConvention,
+                                  binding.throwLastError,
+                                  binding.toNative, binding.fromNative,
+                                  encoding);
+        } catch(NoSuchMethodError e) {
+            throw new UnsatisfiedLinkError("No method " + method.getName() + " with signature " + binding.signature + " in " + cls);
+        }
+    }
+
+    /** Register the native method of a stub class generated by
+     * {@link DirectWrapper} with the given function.  The class is not
+     * associated with the function's library, since the method need not
+     * be named after the symbol.
+     */
+    static void registerStub(Class<?> cls, Method method, Function f, long fptr) {
+        MethodBinding binding = getBinding(cls, method, null, false);
+        long handle = registerMethod(cls, method, binding, fptr, f.getCallingConvention(), f.encoding);
+        synchronized(registeredClasses) {
+            long[] handles = registeredClasses.get(cls);
+            handles = handles != null ? Arrays.copyOf(handles, handles.length + 1) : new long[1];
+            handles[handles.length - 1] = handle;
+            registeredClasses.put(cls, handles);
+        }
+    }
+
+    /** Register the direct-mapped classes bound to the given library again,
+     * after a new version of it has been loaded.  The native data of the
+     * previous registration is kept until the class is unregistered, since
+     * calls through it may still be in progress.
+     */
+    static void reregister(NativeLibrary lib) {
+        synchronized(registeredClasses) {
+            for (Class<?> cls : new ArrayList<>(registeredLibraries.keySet())) {
+                if (registeredLibraries.get(cls) != lib) {
+                    continue;
+                }
+                long[] previous = registeredClasses.get(cls);
+                register(cls, lib);
+                long[] handles = registeredClasses.get(cls);
+                long[] all = Arrays.copyOf(previous, previous.length + handles.length);
+                System.arraycopy(handles, 0, all, previous.length, handles.length);
+                registeredClasses.put(cls, all);
             }
         }
+    }
+
+    /** Replace the stub registered for a lazily bound method with the
+     * resolved function.  Has no effect if the class has been unregistered
+     * in the meantime.
+     */
+    static void rebind(LazyBinding stub, Function f) {
+        Class<?> cls = stub.getDeclaringClass();
         synchronized(registeredClasses) {
+            List<LazyBinding> stubs = lazyBindings.get(cls);
+            long[] handles = registeredClasses.get(cls);
+            if (stubs == null || !stubs.contains(stub) || handles == null) {
+                return;
+            }
+            long handle = registerMethod(cls, stub.getMethod(), stub.getBinding(), f.peer, f.getCallingConvention(), f.encoding);
+            handles = Arrays.copyOf(handles, handles.length + 1);
+            handles[handles.length - 1] = handle;
             registeredClasses.put(cls, handles);
-            registeredLibraries.put(cls, lib);
         }
     }
 
+    /** Conversion information for a direct-mapped method, independent of
+     * the function it is bound to.  The argument and return types are the
+     * classes from which the native ({@link FFIType}) types are derived.
+     */
+    static final class MethodBinding {
+        final String signature;
+        final int[] cvt;
+        final Class<?>[] atypes;
+        final Class<?>[] closureAtypes;
+        final ToNativeConverter[] toNative;
+        final int rcvt;
+        final Class<?> rtype;
+        final Class<?> closureRtype;
+        final FromNativeConverter fromNative;
+        final boolean throwLastError;
+
+        MethodBinding(String signature, int[] cvt, Class<?>[] atypes, Class<?>[] closureAtypes,
+                      ToNativeConverter[] toNative, int rcvt, Class<?> rtype, Class<?> closureRtype,
+                      FromNativeConverter fromNative, boolean throwLastError) {
+            this.signature = signature;
+            this.cvt = cvt;
+            this.atypes = atypes;
+            this.closureAtypes = closureAtypes;
+            this.toNative = toNative;
+            this.rcvt = rcvt;
+            this.rtype = rtype;
+            this.closureRtype = closureRtype;
+            this.fromNative = fromNative;
+            this.throwLastError = throwLastError;
+        }
+    }
+
+    /** @return the JNI signature of the given method. */
+    static String getSignature(Method method) {
+        StringBuilder sig = new StringBuilder("(");
+        for (Class<?> type : method.getParameterTypes()) {
+            sig.append(getSignature(type));
+        }
+        sig.append(")");
+        sig.append(getSignature(method.getReturnType()));
+        return sig.toString();
+    }
+
+    /** Compute the conversions used to register the given native method. */
+    static MethodBinding getBinding(Class<?> cls, Method method, TypeMapper mapper, boolean allowObjects) {
+        Class<?> rclass = method.getReturnType();
+        Class<?> rtype, closure_rtype;
+        Class<?>[] ptypes = method.getParameterTypes();
+        Class<?>[] atypes = new Class<?>[ptypes.length];
+        Class<?>[] closure_atypes = new Class<?>[ptypes.length];
+        int[] cvt = new int[ptypes.length];
+        ToNativeConverter[] toNative = new ToNativeConverter[ptypes.length];
+        FromNativeConverter fromNative = null;
+        int rcvt = getConversion(rclass, mapper, allowObjects);
+        boolean throwLastError = false;
+        switch (rcvt) {
+            case CVT_UNSUPPORTED:
+                throw new IllegalArgumentException(rclass + " is not a supported return type (in method " + method.getName() + " in " + cls + ")");
+            case CVT_TYPE_MAPPER:
+            case CVT_TYPE_MAPPER_STRING:
+            case CVT_TYPE_MAPPER_WSTRING:
+                fromNative = mapper.getFromNativeConverter(rclass);
+                // FFIType.get() always looks up the native type for any given
+                // class, so if we actually have conversion into a Java
+                // object, make sure we use the proper type information
+                closure_rtype = rclass.isPrimitive() ? rclass : Pointer.class;
+                rtype = fromNative.nativeType();
+                break;
+            case CVT_NATIVE_MAPPED:
+            case CVT_NATIVE_MAPPED_STRING:
+            case CVT_NATIVE_MAPPED_WSTRING:
+            case CVT_INTEGER_TYPE:
+            case CVT_POINTER_TYPE:
+                closure_rtype = Pointer.class;
+                rtype = NativeMappedConverter.getInstance(rclass).nativeType();
+                break;
+            case CVT_STRUCTURE:
+            case CVT_OBJECT:
+                closure_rtype = rtype = Pointer.class;
+                break;
+            case CVT_STRUCTURE_BYVAL:
+                closure_rtype = Pointer.class;
+                rtype = rclass;
+                break;
+            default:
+                closure_rtype = rtype = rclass;
+        }
+
+        Critical.Direction[] inDirs = CriticalArgs.getDeclaredDirections(method);
+        for (int t=0;t < ptypes.length;t++) {
+            Class<?> type = ptypes[t];
+            int conversionType = getConversion(type, mapper, allowObjects);
+            cvt[t] = conversionType;
+            Critical.Direction direction = t < inDirs.length ? inDirs[t] : null;
+            if (conversionType == CVT_UNSUPPORTED && type.isArray()
+                && (toNative[t] = getDirectConverter(cls, type, direction)) != null) {
+                // Arrays are converted to native memory in Java
+                cvt[t] = conversionType = CVT_TYPE_MAPPER;
+            }
+            if (conversionType == CVT_UNSUPPORTED) {
+                String reason = "";
+                if (method.isVarArgs() && t == ptypes.length - 1) {
+                    reason = "; varargs can not be mapped directly, since the native argument types depend on the values passed";
+                } else if (type.isArray()) {
+                    reason = "; arrays of " + type.getComponentType().getName()
+                        + " must be marked @In to be mapped directly, since they are not read back after the call";
+                }
+                throw new IllegalArgumentException(type + " is not a supported argument type (in method " + method.getName() + " in " + cls + ")" + reason);
+            }
+            if ((conversionType == CVT_NATIVE_MAPPED)
+                || (conversionType == CVT_NATIVE_MAPPED_STRING)
+                || (conversionType == CVT_NATIVE_MAPPED_WSTRING)
+                || (conversionType == CVT_INTEGER_TYPE)) {
+                type = NativeMappedConverter.getInstance(type).nativeType();
+            } else if (toNative[t] == null
+                       && ((conversionType == CVT_TYPE_MAPPER)
+                           || (conversionType == CVT_TYPE_MAPPER_STRING)
+                           || (conversionType == CVT_TYPE_MAPPER_WSTRING))) {
+                toNative[t] = mapper.getToNativeConverter(type);
+            }
+            if (conversionType == CVT_STRUCTURE && direction == Critical.Direction.IN) {
+                // Input-only structures are written from Java and
+                // never read back after the call
+                cvt[t] = conversionType = CVT_TYPE_MAPPER;
+                toNative[t] = IN_STRUCTURE_CONVERTER;
+            }
+
+            // Determine the type that will be passed to the native
+            // function, as well as the type to be passed
+            // from Java initially
+            switch(conversionType) {
+                case CVT_STRUCTURE_BYVAL:
+                case CVT_INTEGER_TYPE:
+                case CVT_POINTER_TYPE:
+                case CVT_NATIVE_MAPPED:
+                case CVT_NATIVE_MAPPED_STRING:
+                case CVT_NATIVE_MAPPED_WSTRING:
+                    atypes[t] = type;
+                    closure_atypes[t] = Pointer.class;
+                    break;
+                case CVT_TYPE_MAPPER:
+                case CVT_TYPE_MAPPER_STRING:
+                case CVT_TYPE_MAPPER_WSTRING:
+                    closure_atypes[t] = type.isPrimitive() ? type : Pointer.class;
+                    atypes[t] = toNative[t].nativeType();
+                    break;
+                case CVT_DEFAULT:
+                    closure_atypes[t] = atypes[t] = type;
+                    break;
+                default:
+                    closure_atypes[t] = atypes[t] = Pointer.class;
+            }
+        }
+
+        Class<?>[] etypes = method.getExceptionTypes();
+        for (int e=0;e < etypes.length;e++) {
+            if (LastErrorException.class.isAssignableFrom(etypes[e])) {
+                throwLastError = true;
+                break;
+            }
+        }
+        return new MethodBinding(getSignature(method), cvt, atypes, closure_atypes, toNative,
+                                 rcvt, rtype, closure_rtype, fromNative, throwLastError);
+    }
+
     /**
      * Get the {@link NativeLibrary} instance that is wrapped by the given
      * {@link Library} interface instance.
@@ -2023,6 +2280,141 @@ public final class Native implements Version {
     private static Class<?> nativeType(Class<?> cls) {
         return NativeMappedConverter.getInstance(cls).nativeType();
     }
+    /** Passes a {@link Structure} marked {@link In} by reference, writing
+     * its fields before the call but skipping the read afterwards.
+     */
+    static final ToNativeConverter IN_STRUCTURE_CONVERTER = new ToNativeConverter() {
+        @Override
+        public Object toNative(Object value, ToNativeContext context) {
+            if (value == null) {
+                return null;
+            }
+            Structure s = (Structure) value;
+            s.autoWrite();
+            return s.getPointer();
+        }
+        @Override
+        public Class<?> nativeType() {
+            return Pointer.class;
+        }
+    };
+
+    /** Passes an array of objects which direct dispatch can not convert
+     * itself as a pointer to native memory holding the converted elements,
+     * as with interface mapping.  The conversion is invoked by the native
+     * dispatch code for each such argument, as for any other
+     * {@link ToNativeConverter}.  Since nothing is read back after a direct
+     * call, arrays other than strings must be marked {@link In}.
+     */
+    static final class ArrayConverter implements ToNativeConverter {
+        private final Class<?> componentType;
+        private final String encoding;
+
+        ArrayConverter(Class<?> componentType, String encoding) {
+            this.componentType = componentType;
+            this.encoding = encoding;
+        }
+
+        @Override
+        public Object toNative(Object value, ToNativeContext context) {
+            if (value == null) {
+                return null;
+            }
+            if (componentType == String.class) {
+                return new StringArray((String[]) value, encoding);
+            }
+            if (componentType == WString.class) {
+                return new StringArray((WString[]) value);
+            }
+            if (Structure.class.isAssignableFrom(componentType)) {
+                Structure[] ss = (Structure[]) value;
+                if (Structure.ByReference.class.isAssignableFrom(componentType)) {
+                    Pointer[] pointers = new Pointer[ss.length];
+                    for (int i=0;i < ss.length;i++) {
+                        if (ss[i] != null) {
+                            ss[i].autoWrite();
+                            pointers[i] = ss[i].getPointer();
+                        }
+                    }
+                    return toPointerArray(pointers);
+                }
+                if (ss.length == 0) {
+                    throw new IllegalArgumentException("Structure array must have non-zero length");
+                }
+                if (ss[0] == null) {
+                    Structure.newInstance(componentType.asSubclass(Structure.class)).toArray(ss);
+                }
+                Structure.autoWrite(ss);
+                return ss[0].getPointer();
+            }
+            if (componentType == Pointer.class) {
+                return toPointerArray((Pointer[]) value);
+            }
+            NativeMapped[] array = (NativeMapped[]) value;
+            if (array.length == 0) {
+                return null;
+            }
+            Memory m = new Memory(getNativeSize(array.getClass(), array));
+            m.setValue(0, array, array.getClass());
+            return m;
+        }
+
+        /** NULL-terminated, as with interface mapping. */
+        private static Pointer toPointerArray(Pointer[] pointers) {
+            Memory m = new Memory(POINTER_SIZE * (pointers.length + 1));
+            for (int i=0;i < pointers.length;i++) {
+                m.setPointer(i * POINTER_SIZE, pointers[i]);
+            }
+            m.setPointer(pointers.length * POINTER_SIZE, null);
+            return m;
+        }
+
+        @Override
+        public Class<?> nativeType() {
+            return Pointer.class;
+        }
+    }
+
+    /** Array converters by component type and string encoding.  Native
+     * registrations only hold weak references to their converters, so these
+     * must be kept reachable here for as long as the component type exists.
+     */
+    private static final ClassValue<Map<String, ArrayConverter>> arrayConverters = new ClassValue<Map<String, ArrayConverter>>() {
+        @Override
+        protected Map<String, ArrayConverter> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private static ArrayConverter getArrayConverter(final Class<?> componentType, final String encoding) {
+        return arrayConverters.get(componentType).computeIfAbsent(encoding != null ? encoding : "",
+                                                                  k -> new ArrayConverter(componentType, encoding));
+    }
+
+    /** @return the converter used by direct mapping for a parameter of the
+     * given type which has no direct conversion, or <code>null</code> if the
+     * type can not be mapped directly.
+     */
+    static ToNativeConverter getDirectConverter(Class<?> cls, Class<?> type, Critical.Direction direction) {
+        boolean in = direction == Critical.Direction.IN;
+        if (Structure.class.isAssignableFrom(type) && !Structure.ByValue.class.isAssignableFrom(type)) {
+            return in ? IN_STRUCTURE_CONVERTER : null;
+        }
+        if (!type.isArray()) {
+            return null;
+        }
+        Class<?> componentType = type.getComponentType();
+        if (componentType == String.class || componentType == WString.class) {
+            return getArrayConverter(componentType, getStringEncoding(cls));
+        }
+        if (in && (componentType == Pointer.class
+                   || Structure.class.isAssignableFrom(componentType)
+                   || NativeMapped.class.isAssignableFrom(componentType))) {
+            return getArrayConverter(componentType, null);
+        }
+        return null;
+    }
+
     // Called from native code
     private static Object toNative(ToNativeConverter cvt, Object o) {
         // NOTE: technically should be either CallbackResultContext or
@@ -2302,7 +2694,7 @@ public final class Native implements Version {
     static native double getDouble(Pointer pointer, long baseaddr, long offset);
 
     static Pointer getPointer(long addr) {
-        long peer = _getPointer(addr);
+        long peer = MemoryAccess.isEnabled() ? MemoryAccess.getAddress(addr) : _getPointer(addr);
         return peer == 0 ? null : new Pointer(peer);
     }
 
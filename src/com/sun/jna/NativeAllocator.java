@@ -0,0 +1,294 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implements {@link AllocationOptions} for {@link Memory}.  Memory is
+ * obtained with <code>malloc</code>/<code>posix_memalign</code>, or with an
+ * anonymous <code>mmap</code> when huge pages or NUMA binding are requested,
+ * and released accordingly.
+ */
+final class NativeAllocator {
+
+    private static final Logger LOG = Logger.getLogger(NativeAllocator.class.getName());
+
+    private static final int PROT_READ_WRITE = 0x3;
+    private static final int MAP_PRIVATE = 0x2;
+    private static final int MAP_ANONYMOUS = 0x20;
+    private static final int MAP_HUGETLB = 0x40000;
+    private static final int MADV_HUGEPAGE = 14;
+    private static final int MPOL_BIND = 2;
+    private static final long MAP_FAILED = -1L;
+    private static final long DEFAULT_HUGE_PAGE_SIZE = 2L * 1024 * 1024;
+
+    /** Whether the Linux mmap flags above are valid for this architecture. */
+    private static final boolean LINUX_MMAP = Platform.isLinux() && !Platform.isMIPS();
+
+    private NativeAllocator() { }
+
+    /** An allocated block of memory. */
+    static final class Block {
+        /** Address of usable memory. */
+        final long address;
+        /** Address to release. */
+        final long base;
+        /** Mapped length, or 0 if the block is to be released with free. */
+        final long mappedLength;
+
+        Block(long address, long base, long mappedLength) {
+            this.address = address;
+            this.base = base;
+            this.mappedLength = mappedLength;
+        }
+
+        void release() {
+            if (mappedLength != 0) {
+                Mmap.MUNMAP.invokeInt(new Object[] { new Pointer(base), sizeT(mappedLength) });
+            } else {
+                Memory.free(base);
+            }
+        }
+    }
+
+    /* C library functions are grouped by the feature which needs them and
+     * resolved on first use of that feature only. */
+
+    /** Aligned heap allocation. */
+    private static final class PosixMemalign {
+        static final Function POSIX_MEMALIGN = Function.getFunction(Platform.C_LIBRARY_NAME, "posix_memalign");
+    }
+
+    /** Anonymous mappings. */
+    private static final class Mmap {
+        static final Function MMAP = Function.getFunction(Platform.C_LIBRARY_NAME, "mmap");
+        static final Function MUNMAP = Function.getFunction(Platform.C_LIBRARY_NAME, "munmap");
+    }
+
+    /** Transparent huge page advice. */
+    private static final class Madvise {
+        static final Function MADVISE = Function.getFunction(Platform.C_LIBRARY_NAME, "madvise");
+    }
+
+    /** NUMA binding, see {@link #bind}. */
+    private static final class Mbind {
+        // long syscall(long number, ...)
+        static final Function SYSCALL = Function.getFunction(Platform.C_LIBRARY_NAME, "syscall",
+            Function.C_CONVENTION | ((1 & Function.USE_VARARGS) << Function.USE_VARARGS_SHIFT));
+    }
+
+    /** Regular and huge page sizes. */
+    private static final class PageSizes {
+        static final long PAGE_SIZE = Function.getFunction(Platform.C_LIBRARY_NAME, "getpagesize").invokeInt(new Object[0]);
+        static final long HUGE_PAGE_SIZE = hugePageSize();
+    }
+
+    /** Allocate <code>size</code> bytes according to the given options.
+     * @return the allocated block, or <code>null</code> if the memory is
+     * not available.
+     */
+    static Block allocate(long size, AllocationOptions options) {
+        boolean linux = LINUX_MMAP && !Platform.isAndroid();
+        if (!linux && (options.isHugeTLB() || options.isTransparentHugePages() || options.getNumaNode() >= 0)) {
+            LOG.log(Level.FINE, "Huge pages and NUMA binding not supported on this platform, ignoring {0}", options);
+        }
+        if (linux && (options.isHugeTLB() || options.getNumaNode() >= 0)) {
+            return map(size, options);
+        }
+        long alignment = options.getAlignment();
+        if (linux && options.isTransparentHugePages()) {
+            alignment = Math.max(alignment, PageSizes.HUGE_PAGE_SIZE);
+        }
+        Block block = alignment > Native.POINTER_SIZE ? allocateAligned(size, alignment) : allocatePlain(size);
+        if (block != null && linux && options.isTransparentHugePages()) {
+            adviseHugePages(block.address, size);
+        }
+        return block;
+    }
+
+    private static Block allocatePlain(long size) {
+        long p = Memory.malloc(size);
+        return p == 0 ? null : new Block(p, p, 0);
+    }
+
+    private static Block allocateAligned(long size, long alignment) {
+        if (!Platform.isWindows() && !Platform.isWindowsCE()) {
+            Object out = Native.POINTER_SIZE == 8 ? new long[1] : new int[1];
+            int result = PosixMemalign.POSIX_MEMALIGN.invokeInt(new Object[] { out, sizeT(alignment), sizeT(size) });
+            if (result != 0) {
+                return null;
+            }
+            long p = Native.POINTER_SIZE == 8 ? ((long[]) out)[0] : ((int[]) out)[0] & 0xFFFFFFFFL;
+            return new Block(p, p, 0);
+        }
+        // No posix_memalign; over-allocate and align within the block
+        long base = Memory.malloc(size + alignment - 1);
+        if (base == 0) {
+            return null;
+        }
+        return new Block((base + alignment - 1) & ~(alignment - 1), base, 0);
+    }
+
+    /** Map anonymous memory, using the huge page pool if requested and
+     * binding to a NUMA node if requested.
+     */
+    private static Block map(long size, AllocationOptions options) {
+        long alignment = Math.max(options.getAlignment(), PageSizes.PAGE_SIZE);
+        long length = 0;
+        long base = MAP_FAILED;
+        if (options.isHugeTLB()) {
+            length = roundUp(size, Math.max(alignment, PageSizes.HUGE_PAGE_SIZE));
+            base = mmap(length, MAP_PRIVATE | MAP_ANONYMOUS | MAP_HUGETLB);
+            if (base == MAP_FAILED) {
+                LOG.log(Level.FINE, "No huge pages available (errno {0}), using regular pages", Native.getLastError());
+            }
+        }
+        if (base == MAP_FAILED) {
+            length = roundUp(size, PageSizes.PAGE_SIZE);
+            if (alignment > PageSizes.PAGE_SIZE) {
+                // Over-map and release the unaligned head and tail
+                long over = mmap(length + alignment, MAP_PRIVATE | MAP_ANONYMOUS);
+                if (over == MAP_FAILED) {
+                    return null;
+                }
+                base = roundUp(over, alignment);
+                unmap(over, base - over);
+                unmap(base + length, over + alignment - base);
+            } else {
+                base = mmap(length, MAP_PRIVATE | MAP_ANONYMOUS);
+                if (base == MAP_FAILED) {
+                    return null;
+                }
+            }
+            if (options.isHugeTLB() || options.isTransparentHugePages()) {
+                adviseHugePages(base, length);
+            }
+        }
+        if (options.getNumaNode() >= 0) {
+            bind(base, length, options.getNumaNode());
+        }
+        return new Block(base, base, length);
+    }
+
+    private static long mmap(long length, int flags) {
+        Pointer p = (Pointer) Mmap.MMAP.invoke(Pointer.class, new Object[] {
+            null, sizeT(length), PROT_READ_WRITE, flags, -1, Native.LONG_SIZE == 8 ? (Object) 0L : (Object) 0
+        });
+        return p == null ? MAP_FAILED : Pointer.nativeValue(p);
+    }
+
+    private static void unmap(long address, long length) {
+        if (length > 0) {
+            Mmap.MUNMAP.invokeInt(new Object[] { new Pointer(address), sizeT(length) });
+        }
+    }
+
+    /** Advise huge pages for the page-aligned part of the region. */
+    private static void adviseHugePages(long address, long size) {
+        long start = roundUp(address, PageSizes.PAGE_SIZE);
+        long end = (address + size) & ~(PageSizes.PAGE_SIZE - 1);
+        if (end > start) {
+            int result = Madvise.MADVISE.invokeInt(new Object[] { new Pointer(start), sizeT(end - start), MADV_HUGEPAGE });
+            if (result != 0) {
+                LOG.log(Level.FINE, "Transparent huge pages not available (errno {0})", Native.getLastError());
+            }
+        }
+    }
+
+    /** Bind the region to the given node with the mbind system call, which
+     * glibc does not wrap.
+     */
+    private static void bind(long address, long length, int node) {
+        long nr = mbindSyscallNumber();
+        if (nr < 0) {
+            LOG.log(Level.FINE, "mbind not supported on {0}, ignoring NUMA node", Platform.ARCH);
+            return;
+        }
+        // nodemask is an array of unsigned long
+        int bits = Native.LONG_SIZE * 8;
+        int words = node / bits + 1;
+        Object nodemask;
+        if (Native.LONG_SIZE == 8) {
+            long[] mask = new long[words];
+            mask[node / bits] = 1L << (node % bits);
+            nodemask = mask;
+        } else {
+            int[] mask = new int[words];
+            mask[node / bits] = 1 << (node % bits);
+            nodemask = mask;
+        }
+        NativeLong result = (NativeLong) Mbind.SYSCALL.invoke(NativeLong.class, new Object[] {
+            new NativeLong(nr), new Pointer(address), new NativeLong(length), new NativeLong(MPOL_BIND),
+            nodemask, new NativeLong((long) words * bits + 1), new NativeLong(0)
+        });
+        if (result.longValue() != 0) {
+            LOG.log(Level.FINE, "Binding to NUMA node {0} failed (errno {1})", new Object[] { node, Native.getLastError() });
+        }
+    }
+
+    private static long mbindSyscallNumber() {
+        switch (Platform.ARCH) {
+        case "x86-64": return 237;
+        case "x86": return 274;
+        case "aarch64":
+        case "riscv64":
+        case "loongarch64": return 235;
+        case "ppc64":
+        case "ppc64le": return 259;
+        case "s390x": return 268;
+        case "arm":
+        case "armel": return 319;
+        default: return -1;
+        }
+    }
+
+    private static long hugePageSize() {
+        try (BufferedReader r = Files.newBufferedReader(Paths.get("/proc/meminfo"), StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.startsWith("Hugepagesize:")) {
+                    String[] parts = line.substring("Hugepagesize:".length()).trim().split("\\s+");
+                    return Long.parseLong(parts[0]) * 1024;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.FINE, "Could not read huge page size", e);
+        }
+        return DEFAULT_HUGE_PAGE_SIZE;
+    }
+
+    private static long roundUp(long value, long alignment) {
+        return (value + alignment - 1) & ~(alignment - 1);
+    }
+
+    private static Object sizeT(long value) {
+        return Native.SIZE_T_SIZE == 8 ? (Object) value : (Object) (int) value;
+    }
+}
@@ -27,22 +27,25 @@ package com.sun.jna;
 
 import com.sun.jna.internal.Cleaner;
 import static com.sun.jna.Native.DEBUG_LOAD;
-import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -50,6 +53,9 @@ import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -63,7 +69,10 @@ import java.util.logging.Logger;
  * A search for a given library will scan the following locations:
  * <ol>
  * <li><code>jna.library.path</code> User-customizable path
- * <li><code>jna.platform.library.path</code> Platform-specific paths
+ * <li><code>jna.platform.library.path</code> Platform-specific paths.  If
+ * unset, this is computed the first time it is needed; on Linux it
+ * includes the directories known to the dynamic linker
+ * (<code>/etc/ld.so.cache</code> and <code>/etc/ld.so.conf</code>).
  * <li>On OSX, <code>~/Library/Frameworks</code>,
  * <code>/Library/Frameworks</code>, and
  * <code>/System/Library/Frameworks</code> will be searched for a framework
@@ -79,6 +88,16 @@ import java.util.logging.Logger;
  * resource will be extracted to <code>jna.tmpdir</code> for loading, and
  * later removed (but only if <code>jna.nounpack</code> is false or not set).
  * </ol>
+ * If a library is not found in the first location, it is loaded by name,
+ * leaving the search of the system directories to the dynamic linker; the
+ * platform paths are only computed if that fails.  On Linux and FreeBSD the
+ * directory listings of the first location (and of
+ * <code>LD_LIBRARY_PATH</code>) are cached, so that a library found there,
+ * including a versioned variant such as <code>libfoo.so.1</code>, can
+ * usually be loaded with a single attempt.  The path at which a library was
+ * found is remembered, so loading it again with different options opens
+ * the same file directly.
+ * <p>
  * You may set the system property <code>jna.debug_load=true</code> to make
  * JNA print the steps of its library search to the console.
  * @author Wayne Meissner, split library loading from Function.java
@@ -95,20 +114,38 @@ public class NativeLibrary implements Closeable {
         }
     };
 
-    private final Cleaner.Cleanable cleanable;
+    private Cleaner.Cleanable cleanable;
+    private volatile boolean suspended;
     private volatile long handle;
     private final String libraryName;
-    private final String libraryPath;
+    private volatile String libraryPath;
     private final Map<String, Function> functions = new HashMap<>();
     private final SymbolProvider symbolProvider;
     private final int callFlags;
     private final String encoding;
     private final Map<String, ?> options;
+    private volatile Executor asyncExecutor;
+    private final Map<String, Concurrency.Group> concurrencyGroups = new ConcurrentHashMap<>();
+    private final Map<String, LazyBinding.Stub> lazyStubs = new ConcurrentHashMap<>();
+    private volatile CachedDynamicInfo dynamicInfo;
+    // Loaded version, if reloadable
+    private final boolean reloadable;
+    private volatile Version version;
 
     private static final Map<String, Reference<NativeLibrary>> libraries = new HashMap<>();
 
     private static final Map<String, List<String>> searchPaths = new ConcurrentHashMap<>();
-    private static final LinkedHashSet<String> librarySearchPath = new LinkedHashSet<>();
+    /** Paths at which libraries were found, keyed by library name and
+     * search path.
+     */
+    private static final Map<String, String> resolvedPaths = new ConcurrentHashMap<>();
+
+    /** System library paths, computed on first use since they are only
+     * needed when a library cannot be loaded by name.
+     */
+    private static final class SystemSearchPath {
+        static final LinkedHashSet<String> PATHS = initLibrarySearchPath();
+    }
 
     static {
         // Force initialization of native library
@@ -130,6 +167,8 @@ public class NativeLibrary implements Closeable {
         int callingConvention = option instanceof Number ? ((Number)option).intValue() : Function.C_CONVENTION;
         this.callFlags = callingConvention;
         this.options = options;
+        this.reloadable = Boolean.TRUE.equals(options.get(Library.OPTION_RELOADABLE));
+        this.version = reloadable ? new Version(1, null) : null;
         SymbolProvider optionSymbolProvider = (SymbolProvider)options.get(Library.OPTION_SYMBOL_PROVIDER);
         if (optionSymbolProvider == null) {
             this.symbolProvider = NATIVE_SYMBOL_PROVIDER;
@@ -201,22 +240,61 @@ public class NativeLibrary implements Closeable {
         LOG.log(DEBUG_LOAD_LEVEL, "Adding paths from jna.library.path: " + System.getProperty("jna.library.path"));
 
         searchPath.addAll(initPaths("jna.library.path"));
-        String libraryPath = findLibraryPath(libraryName, searchPath);
+        String libraryPath = null;
         long handle = 0;
+
+        //
+        // Use the path this library was last found at for the same search
+        // path (e.g. when loading it with different options), or look up
+        // its mapped name in the index of the search path, so that it can
+        // be loaded with a single call.  Versioned names are left to the
+        // fallback search below, as dlopen by name would not find them.
+        //
+        String resolvedKey = libraryName + searchPath;
+        List<String> candidates = new ArrayList<>();
+        String resolved = resolvedPaths.get(resolvedKey);
+        if (resolved != null) {
+            candidates.add(resolved);
+        } else if (LibraryIndex.isSupported()
+                   && !isAbsolutePath && libraryName.indexOf(File.separatorChar) == -1) {
+            // System paths are left to dlopen, and only computed if loading
+            // by name fails
+            List<String> indexPath = new ArrayList<>(searchPath);
+            indexPath.addAll(LibraryIndex.getEnvironmentPath());
+            String found = LibraryIndex.find(libraryName, indexPath);
+            if (found != null) {
+                candidates.add(found);
+            }
+        }
+        for (String candidate : candidates) {
+            try {
+                LOG.log(DEBUG_LOAD_LEVEL, "Trying " + candidate);
+                handle = Native.open(candidate, openFlags);
+                libraryPath = candidate;
+                break;
+            } catch(UnsatisfiedLinkError e) {
+                LOG.log(DEBUG_LOAD_LEVEL, "Loading failed with message: " + e.getMessage());
+                resolvedPaths.remove(resolvedKey);
+            }
+        }
+
         //
         // Only search user specified paths first.  This will also fall back
         // to dlopen/LoadLibrary() since findLibraryPath returns the mapped
         // name if it cannot find the library.
         //
-        try {
-            LOG.log(DEBUG_LOAD_LEVEL, "Trying " + libraryPath);
-            handle = Native.open(libraryPath, openFlags);
-        } catch(UnsatisfiedLinkError e) {
-            // Add the system paths back for all fallback searching
-            LOG.log(DEBUG_LOAD_LEVEL, "Loading failed with message: " + e.getMessage());
-            LOG.log(DEBUG_LOAD_LEVEL, "Adding system paths: " + librarySearchPath);
-            exceptions.add(e);
-            searchPath.addAll(librarySearchPath);
+        if (handle == 0) {
+            libraryPath = findLibraryPath(libraryName, searchPath);
+            try {
+                LOG.log(DEBUG_LOAD_LEVEL, "Trying " + libraryPath);
+                handle = Native.open(libraryPath, openFlags);
+            } catch(UnsatisfiedLinkError e) {
+                // Add the system paths back for all fallback searching
+                LOG.log(DEBUG_LOAD_LEVEL, "Loading failed with message: " + e.getMessage());
+                LOG.log(DEBUG_LOAD_LEVEL, "Adding system paths: " + SystemSearchPath.PATHS);
+                exceptions.add(e);
+                searchPath.addAll(SystemSearchPath.PATHS);
+            }
         }
 
         try {
@@ -331,6 +409,11 @@ public class NativeLibrary implements Closeable {
         }
 
         LOG.log(DEBUG_LOAD_LEVEL, "Found library '" + libraryName + "' at " + libraryPath);
+        // Temporary copies extracted from the class path are not kept
+        File file = new File(libraryPath);
+        if (!file.isAbsolute() || file.exists()) {
+            resolvedPaths.put(resolvedKey, libraryPath);
+        }
         return new NativeLibrary(libraryName, libraryPath, handle, options);
     }
 
@@ -545,6 +628,49 @@ public class NativeLibrary implements Closeable {
         return getFunction(functionName, callFlags);
     }
 
+    /** Named groups used to restrict concurrent calls (see {@link Concurrency}). */
+    Map<String, Concurrency.Group> getConcurrencyGroups() {
+        return concurrencyGroups;
+    }
+
+    /** Stubs of lazily registered direct methods, by native signature
+     * (see {@link LazyBinding}).
+     */
+    Map<String, LazyBinding.Stub> getLazyStubs() {
+        return lazyStubs;
+    }
+
+    /**
+     * Returns the executor used for asynchronous calls into this library
+     * (see {@link Library#OPTION_ASYNC_EXECUTOR}), limited to
+     * {@link Library#OPTION_ASYNC_MAX_CONCURRENCY} simultaneous calls.
+     */
+    Executor getAsyncExecutor() {
+        Executor executor = asyncExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = asyncExecutor;
+                if (executor == null) {
+                    Object option = options.get(Library.OPTION_ASYNC_EXECUTOR);
+                    if (option != null && !(option instanceof Executor)) {
+                        throw new IllegalArgumentException("Option " + Library.OPTION_ASYNC_EXECUTOR
+                                                           + " must be a java.util.concurrent.Executor: " + option);
+                    }
+                    executor = option != null ? (Executor) option : VirtualThreadSupport.getDefaultExecutor();
+                    option = options.get(Library.OPTION_ASYNC_MAX_CONCURRENCY);
+                    if (option instanceof Number) {
+                        executor = new LimitedExecutor(executor, ((Number) option).intValue());
+                    } else if (option != null) {
+                        throw new IllegalArgumentException("Option " + Library.OPTION_ASYNC_MAX_CONCURRENCY
+                                                           + " must be an Integer: " + option);
+                    }
+                    asyncExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
     /**
      * Create a new {@link Function} that is linked with a native
      * function that follows the NativeLibrary's calling convention.
@@ -561,6 +687,11 @@ public class NativeLibrary implements Closeable {
      * @throws   UnsatisfiedLinkError if the function is not found
      */
     Function getFunction(String name, Method method) {
+        return getFunction(getFunctionName(name, method), getCallFlags(method));
+    }
+
+    /** Map the name of the given method to its native symbol name. */
+    private String getFunctionName(String name, Method method) {
         FunctionMapper mapper = (FunctionMapper) options.get(Library.OPTION_FUNCTION_MAPPER);
         if (mapper != null) {
             name = mapper.getFunctionName(this, method);
@@ -570,6 +701,10 @@ public class NativeLibrary implements Closeable {
         if (name.startsWith(prefix)) {
             name = name.substring(prefix.length());
         }
+        return name;
+    }
+
+    private int getCallFlags(Method method) {
         int flags = this.callFlags;
         Class<?>[] etypes = method.getExceptionTypes();
         for (int i=0;i < etypes.length;i++) {
@@ -577,7 +712,82 @@ public class NativeLibrary implements Closeable {
                 flags |= Function.THROW_LAST_ERROR;
             }
         }
-        return getFunction(name, flags);
+        return flags;
+    }
+
+    /**
+     * Create the {@link Function}s to which the given methods are mapped,
+     * as for {@link #getFunction(String, Method)}.  Symbols not yet looked
+     * up are resolved together with a single call to the
+     * {@link SymbolProvider}.
+     *
+     * @throws   UnsatisfiedLinkError if any of the functions is not found
+     */
+    Function[] getFunctions(Method[] methods) {
+        String[] names = new String[methods.length];
+        int[] flags = new int[methods.length];
+        for (int i=0;i < methods.length;i++) {
+            names[i] = getFunctionName(methods[i].getName(), methods[i]);
+            flags[i] = getCallFlags(methods[i]);
+        }
+        return getFunctions(names, flags);
+    }
+
+    /**
+     * Create {@link Function}s for several native functions at once, using
+     * this library's calling convention.  Symbols not yet looked up are
+     * resolved together with a single call to the {@link SymbolProvider}.
+     *
+     * @param    functionNames
+     *            Names of the native functions to be linked with
+     * @throws   UnsatisfiedLinkError if any of the functions is not found
+     */
+    public Function[] getFunctions(String[] functionNames) {
+        int[] flags = new int[functionNames.length];
+        Arrays.fill(flags, callFlags);
+        return getFunctions(functionNames, flags);
+    }
+
+    Function[] getFunctions(String[] names, int[] flags) {
+        Function[] result = new Function[names.length];
+        synchronized (functions) {
+            String[] keys = new String[names.length];
+            Map<String, Integer> missing = new LinkedHashMap<>();
+            for (int i=0;i < names.length;i++) {
+                if (names[i] == null) {
+                    throw new NullPointerException("Function name may not be null");
+                }
+                keys[i] = functionKey(names[i], flags[i], encoding);
+                result[i] = functions.get(keys[i]);
+                if (result[i] == null && !missing.containsKey(names[i])) {
+                    missing.put(names[i], missing.size());
+                }
+            }
+            if (missing.isEmpty()) {
+                return result;
+            }
+            if (handle == 0) {
+                throw new UnsatisfiedLinkError("Library has been unloaded");
+            }
+            String[] lookup = missing.keySet().toArray(new String[0]);
+            long[] addresses = new long[lookup.length];
+            symbolProvider.getSymbolAddresses(handle, lookup, addresses, NATIVE_SYMBOL_PROVIDER);
+            for (int i=0;i < names.length;i++) {
+                if (result[i] == null) {
+                    result[i] = functions.get(keys[i]);
+                }
+                if (result[i] == null) {
+                    long peer = addresses[missing.get(names[i])];
+                    // Look up a missing symbol again to report the
+                    // platform's error message
+                    result[i] = peer != 0
+                        ? new Function(this, names[i], peer, flags[i], encoding)
+                        : new Function(this, names[i], flags[i], encoding);
+                    functions.put(keys[i], result[i]);
+                }
+            }
+        }
+        return result;
     }
 
     /**
@@ -627,6 +837,16 @@ public class NativeLibrary implements Closeable {
         return options;
     }
 
+    /** @return the call flags used for this library's functions. */
+    int getCallFlags() {
+        return callFlags;
+    }
+
+    /** @return the encoding used for strings passed to this library's functions. */
+    String getEncoding() {
+        return encoding;
+    }
+
     /** Look up the given global variable within this library.
      * @param symbolName
      * @return Pointer representing the global variable address
@@ -669,6 +889,150 @@ public class NativeLibrary implements Closeable {
         return new File(libraryPath);
     }
 
+    /**
+     * Returns the names of the symbols exported by this library.  The names
+     * are read from the dynamic symbol table of the library file, without
+     * looking up each symbol; symbols provided by the library's dependencies
+     * are not included.
+     *
+     * @return the exported symbol names, or <code>null</code> if the symbol
+     * table cannot be read, e.g. on platforms not using ELF or if this
+     * NativeLibrary represents the current process.
+     */
+    public Set<String> getExportedSymbols() {
+        ELFAnalyser.DynamicInfo info = getDynamicInfo();
+        if (info == null) {
+            return null;
+        }
+        Set<String> names = new LinkedHashSet<>();
+        for (ELFAnalyser.ELFSymbol symbol : info.getSymbols()) {
+            names.add(symbol.getName());
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    /** @return whether the symbol of the given method is known to be
+     * defined by this library without looking it up, i.e. it is listed in
+     * the dynamic symbol table and symbols are resolved by the default
+     * provider.
+     * @param table the library's symbol table, from {@link #getSymbolTable}
+     */
+    boolean isDefined(ELFAnalyser.DynamicInfo table, Method method) {
+        return table != null && table.hasSymbol(getFunctionName(method.getName(), method));
+    }
+
+    /** @return the dynamic symbol table of this library, or
+     * <code>null</code> if it cannot be read or symbols are resolved by a
+     * custom {@link SymbolProvider}.
+     */
+    ELFAnalyser.DynamicInfo getSymbolTable() {
+        return symbolProvider == NATIVE_SYMBOL_PROVIDER ? getDynamicInfo() : null;
+    }
+
+    /** Dynamic section of the library file, kept while the file is
+     * unchanged so that registering several classes reads it once.
+     */
+    private static final class CachedDynamicInfo {
+        final File file;
+        final long modified;
+        final ELFAnalyser.DynamicInfo info;
+
+        CachedDynamicInfo(File file, long modified, ELFAnalyser.DynamicInfo info) {
+            this.file = file;
+            this.modified = modified;
+            this.info = info;
+        }
+    }
+
+    private ELFAnalyser.DynamicInfo getDynamicInfo() {
+        File file = getFile();
+        if (file == null || !file.isAbsolute() || !file.isFile()
+            || Platform.isWindows() || Platform.isMac()) {
+            return null;
+        }
+        long modified = file.lastModified();
+        CachedDynamicInfo cached = dynamicInfo;
+        if (cached != null && cached.file.equals(file) && cached.modified == modified) {
+            return cached.info;
+        }
+        ELFAnalyser.DynamicInfo info = null;
+        try {
+            info = ELFAnalyser.analyseDynamic(file.getPath());
+        } catch (IOException | RuntimeException e) {
+            // Fall back to looking up symbols
+            LOG.log(DEBUG_LOAD_LEVEL, "Unable to read symbol table of " + file + ": " + e);
+        }
+        dynamicInfo = new CachedDynamicInfo(file, modified, info);
+        return info;
+    }
+
+    /**
+     * Verify that the symbols of all given methods are available, so that
+     * a missing symbol is reported up front rather than on first call.
+     * Where possible symbols are checked against the library's dynamic
+     * symbol table, which also allows warning about libraries built for a
+     * different ABI.  The remaining symbols (e.g. those provided by
+     * dependencies or a custom {@link SymbolProvider}) are looked up with a
+     * single call to the symbol provider.
+     *
+     * @throws UnsatisfiedLinkError listing all missing symbols
+     */
+    void validateSymbols(Collection<Method> methods) {
+        Set<String> missing = new LinkedHashSet<>();
+        for (Method method : methods) {
+            missing.add(getFunctionName(method.getName(), method));
+        }
+        if (symbolProvider == NATIVE_SYMBOL_PROVIDER) {
+            ELFAnalyser.DynamicInfo info = getDynamicInfo();
+            if (info != null) {
+                checkABI(info);
+                for (Iterator<String> i = missing.iterator(); i.hasNext();) {
+                    if (info.hasSymbol(i.next())) {
+                        i.remove();
+                    }
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            if (handle == 0) {
+                throw new UnsatisfiedLinkError("Library has been unloaded");
+            }
+            String[] names = missing.toArray(new String[0]);
+            long[] addresses = new long[names.length];
+            symbolProvider.getSymbolAddresses(handle, names, addresses, NATIVE_SYMBOL_PROVIDER);
+            for (int i=0;i < names.length;i++) {
+                if (addresses[i] != 0) {
+                    missing.remove(names[i]);
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new UnsatisfiedLinkError("Library '" + libraryName + "' is missing symbols " + missing);
+        }
+    }
+
+    private void checkABI(ELFAnalyser.DynamicInfo info) {
+        if (info.is64Bit() != (Native.POINTER_SIZE == 8)) {
+            LOG.log(Level.WARNING, "Library " + libraryPath + " is " + (info.is64Bit() ? "64" : "32")
+                    + "-bit, but the VM uses " + (Native.POINTER_SIZE * 8) + "-bit pointers");
+        }
+        if (info.isBigEndian() != (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN)) {
+            LOG.log(Level.WARNING, "Library " + libraryPath + " is " + (info.isBigEndian() ? "big" : "little")
+                    + " endian, but the platform byte order is " + ByteOrder.nativeOrder());
+        }
+        if (info.isArm() && Platform.isARM()) {
+            try {
+                boolean hardFloat = ELFAnalyser.analyse(libraryPath).isArmHardFloat();
+                if (hardFloat == "armel".equals(Platform.ARCH)) {
+                    LOG.log(Level.WARNING, "Library " + libraryPath + " uses the "
+                            + (hardFloat ? "hard" : "soft") + "-float ABI, which does not match the VM");
+                }
+            } catch (IOException e) {
+                LOG.log(DEBUG_LOAD_LEVEL, "Unable to read ARM attributes of " + libraryPath + ": " + e.getMessage());
+            }
+        }
+    }
+
     /** Close all open native libraries. */
     static void disposeAll() {
         Set<Reference<NativeLibrary>> values;
@@ -700,6 +1064,7 @@ public class NativeLibrary implements Closeable {
         }
 
         synchronized(this) {
+            suspended = false;
             if (handle != 0) {
                 handle = 0;
                 cleanable.clean();
@@ -707,6 +1072,338 @@ public class NativeLibrary implements Closeable {
         }
     }
 
+    /** Close all open native libraries ahead of a checkpoint, keeping the
+     * instances so that they can be reopened with {@link #resumeAll}.
+     */
+    static void suspendAll() {
+        for (NativeLibrary lib : getInstances()) {
+            lib.suspend();
+        }
+    }
+
+    /** Reopen all native libraries closed by {@link #suspendAll}.  A
+     * library which can no longer be opened stays closed, and calls to its
+     * functions keep failing.
+     */
+    static void resumeAll() {
+        for (NativeLibrary lib : getInstances()) {
+            try {
+                lib.resume();
+            } catch (UnsatisfiedLinkError e) {
+                LOG.log(Level.WARNING, "Unable to reopen {0}: {1}", new Object[] { lib, e.getMessage() });
+            }
+        }
+    }
+
+    /** @return all live instances. */
+    static Set<NativeLibrary> getInstances() {
+        Set<NativeLibrary> instances = new LinkedHashSet<>();
+        synchronized(libraries) {
+            for (Reference<NativeLibrary> ref : libraries.values()) {
+                NativeLibrary lib = ref.get();
+                if (lib != null) {
+                    instances.add(lib);
+                }
+            }
+        }
+        return instances;
+    }
+
+    /** @return the names and call flags of the functions looked up so far,
+     * excluding those using a non-default encoding.
+     */
+    Map<String, Integer> getFunctionNames() {
+        Map<String, Integer> names = new LinkedHashMap<>();
+        synchronized(functions) {
+            for (Function f : functions.values()) {
+                if (encoding.equals(f.encoding)) {
+                    names.put(f.getName(), f.callFlags);
+                }
+            }
+        }
+        return names;
+    }
+
+    /** @return whether this library is closed for a checkpoint */
+    boolean isSuspended() {
+        return suspended;
+    }
+
+    /** Close the native handle, keeping this instance and its functions. */
+    synchronized void suspend() {
+        if (handle != 0) {
+            handle = 0;
+            suspended = true;
+            cleanable.clean();
+        }
+    }
+
+    /** Reopen the native handle closed by {@link #suspend} and update the
+     * address of every function looked up so far.  Functions which are no
+     * longer found are left without an address, so that calling them throws
+     * {@link UnsatisfiedLinkError}.
+     */
+    synchronized void resume() {
+        if (!suspended) {
+            return;
+        }
+        long h = Native.open(libraryPath, openFlags(options));
+        cleanable = Cleaner.getCleaner().register(this, new NativeLibraryDisposer(h));
+        handle = h;
+        synchronized(functions) {
+            Function[] list = functions.values().toArray(new Function[0]);
+            String[] names = new String[list.length];
+            long[] addresses = new long[list.length];
+            for (int i=0;i < list.length;i++) {
+                names[i] = list[i].getName();
+            }
+            symbolProvider.getSymbolAddresses(handle, names, addresses, NATIVE_SYMBOL_PROVIDER);
+            for (int i=0;i < list.length;i++) {
+                if (addresses[i] == 0) {
+                    LOG.log(Level.WARNING, "Function ''{0}'' no longer found in {1}", new Object[] { names[i], this });
+                }
+                list[i].peer = addresses[i];
+                list[i].target = getTarget(addresses[i]);
+            }
+        }
+        // Functions are only callable again once all addresses are updated
+        suspended = false;
+    }
+
+    /** @return the number of the loaded version of this library, starting
+     * at 1 and incremented by each {@link #reload}.
+     */
+    public int getVersion() {
+        Version v = version;
+        return v != null ? v.number : 1;
+    }
+
+    /** Load a new version of this library from the file it was last
+     * loaded from, typically after the file has been replaced.
+     * @see #reload(String)
+     */
+    public void reload() {
+        reload(libraryPath);
+    }
+
+    /**
+     * Load a new version of this library from the given file and switch
+     * all users of this instance over to it.  The library must have been
+     * loaded with {@link Library#OPTION_RELOADABLE}.
+     * <p>
+     * Every {@link Function} looked up so far, and with it every
+     * {@link Library} proxy, is re-pointed to the same symbol in the new
+     * version, and direct-mapped classes registered with this library are
+     * registered again.  If any of these symbols is missing from the new
+     * version, the new version is closed again and nothing changes.</p>
+     * <p>
+     * Calls made through {@link Function}s and proxies are counted against
+     * the version current when they start; the previous version is closed
+     * once the last such call has returned.  Calls to direct-mapped
+     * methods are not counted, and must not be in progress when the
+     * previous version is closed.</p>
+     * <p>
+     * A file that is currently loaded can not be loaded a second time, so
+     * when reloading from the same path the file is copied to a temporary
+     * file first.</p>
+     *
+     * @param path path of the new version
+     * @throws UnsatisfiedLinkError if the new version can not be loaded or
+     * lacks a symbol in use
+     * @throws IllegalStateException if the library is not reloadable
+     */
+    public void reload(String path) {
+        if (!reloadable || libraryPath == null) {
+            throw new IllegalStateException("Library '" + libraryName + "' was not loaded with option " + Library.OPTION_RELOADABLE);
+        }
+        Version previous;
+        Cleaner.Cleanable previousCleanable;
+        synchronized(this) {
+            if (handle == 0) {
+                throw new UnsatisfiedLinkError("Library has been unloaded");
+            }
+            File copy = path.equals(libraryPath) ? copyLibrary(path) : null;
+            long h = openVersion(path, copy);
+            if (h == handle && copy == null) {
+                // The same file under a different name
+                Native.close(h);
+                copy = copyLibrary(path);
+                h = openVersion(path, copy);
+            }
+            Cleaner.Cleanable c = Cleaner.getCleaner().register(this, new NativeLibraryDisposer(h));
+            if (copy != null && !Platform.isWindows()) {
+                // No longer needed once mapped
+                Native.deleteLibrary(copy);
+                copy = null;
+            }
+            synchronized(functions) {
+                Function[] list = functions.values().toArray(new Function[0]);
+                String[] names = new String[list.length];
+                long[] addresses = new long[list.length];
+                for (int i=0;i < list.length;i++) {
+                    names[i] = list[i].getName();
+                }
+                symbolProvider.getSymbolAddresses(h, names, addresses, NATIVE_SYMBOL_PROVIDER);
+                Set<String> missing = new LinkedHashSet<>();
+                for (int i=0;i < list.length;i++) {
+                    if (addresses[i] == 0) {
+                        missing.add(names[i]);
+                    }
+                }
+                if (!missing.isEmpty()) {
+                    c.clean();
+                    if (copy != null) {
+                        Native.deleteLibrary(copy);
+                    }
+                    throw new UnsatisfiedLinkError("Library '" + libraryName + "' at " + path + " is missing symbols " + missing);
+                }
+                // Calls entering the previous version from here on wait
+                // until the new version is published, since the address
+                // they would call now belongs to the new one
+                previous = version;
+                Version next = new Version(previous.number + 1, copy);
+                for (int i=0;i < list.length;i++) {
+                    list[i].peer = addresses[i];
+                    list[i].target = new Target(addresses[i], next);
+                }
+                handle = h;
+                libraryPath = path;
+                previousCleanable = cleanable;
+                cleanable = c;
+                version = next;
+            }
+        }
+        Native.reregister(this);
+        LOG.log(DEBUG_LOAD_LEVEL, "Loaded version " + (previous.number + 1) + " of library '" + libraryName + "' from " + path);
+        previous.retire(previousCleanable);
+    }
+
+    private long openVersion(String path, File copy) {
+        try {
+            return Native.open(copy != null ? copy.getAbsolutePath() : path, openFlags(options));
+        } catch (UnsatisfiedLinkError e) {
+            if (copy != null) {
+                Native.deleteLibrary(copy);
+            }
+            throw e;
+        }
+    }
+
+    private File copyLibrary(String path) {
+        File file = new File(path);
+        String name = file.getName();
+        int dot = name.indexOf('.');
+        try {
+            File copy = File.createTempFile(Native.JNA_TMPLIB_PREFIX, dot != -1 ? name.substring(dot) : null, Native.getTempDir());
+            Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return copy;
+        } catch (IOException e) {
+            throw new UnsatisfiedLinkError("Unable to copy library '" + libraryName + "' from " + path + ": " + e.getMessage());
+        }
+    }
+
+    /** @return whether this library was loaded with
+     * {@link Library#OPTION_RELOADABLE}.
+     */
+    boolean isReloadable() {
+        return reloadable;
+    }
+
+    /** @return the target for a function of this library at the given
+     * address, or <code>null</code> if the library is not reloadable.
+     * Called with the function table locked.
+     */
+    Target getTarget(long peer) {
+        return reloadable ? new Target(peer, version) : null;
+    }
+
+    /** Count a call to the given function against the current version of
+     * this library, so that the version is kept loaded until the call has
+     * returned.  The function must belong to this reloadable library.
+     * @return the address to call and the version, to be passed
+     * {@link Version#exit} when the call returns.
+     */
+    Target enter(Function f) {
+        while (true) {
+            Version v = version;
+            v.calls.incrementAndGet();
+            // A version retired in the meantime may already be closing;
+            // a function already re-pointed to a newer version must wait
+            // for that version to be published
+            Target t = f.target;
+            if (v == version && t.version == v) {
+                return t;
+            }
+            v.exit();
+            if (t.version != v) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /** The address of a function in a particular version of a library. */
+    static final class Target {
+        final long peer;
+        final Version version;
+
+        Target(long peer, Version version) {
+            this.peer = peer;
+            this.version = version;
+        }
+    }
+
+    /** @return the currently loaded version, or <code>null</code> if the
+     * library is not reloadable.
+     */
+    Version getLoadedVersion() {
+        return version;
+    }
+
+    /** A loaded version of a reloadable library.  Once a newer version has
+     * been loaded, its native handle is closed as soon as no more calls
+     * are counted against it.
+     */
+    static final class Version {
+        final int number;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final File copy;
+        private volatile Cleaner.Cleanable retired;
+
+        Version(int number, File copy) {
+            this.number = number;
+            this.copy = copy;
+        }
+
+        /** A call counted by {@link NativeLibrary#enter} has returned. */
+        void exit() {
+            if (calls.decrementAndGet() == 0 && retired != null) {
+                close();
+            }
+        }
+
+        void retire(Cleaner.Cleanable cleanable) {
+            retired = cleanable;
+            if (calls.get() == 0) {
+                close();
+            }
+        }
+
+        /** @return whether this version has been retired and closed. */
+        boolean isClosed() {
+            return closed.get();
+        }
+
+        private void close() {
+            if (closed.compareAndSet(false, true)) {
+                retired.clean();
+                if (copy != null) {
+                    Native.deleteLibrary(copy);
+                }
+            }
+        }
+    }
+
     @Deprecated
     public void dispose() {
         close();
@@ -814,7 +1511,7 @@ public class NativeLibrary implements Closeable {
         }
     }
 
-    private static boolean isVersionedName(String name) {
+    static boolean isVersionedName(String name) {
         if (name.startsWith("lib")) {
             int so = name.lastIndexOf(".so.");
             if (so != -1 && so + 4 < name.length()) {
@@ -902,7 +1599,8 @@ public class NativeLibrary implements Closeable {
         return v;
     }
 
-    static {
+    private static LinkedHashSet<String> initLibrarySearchPath() {
+        LinkedHashSet<String> librarySearchPath = new LinkedHashSet<>();
         String webstartPath = Native.getWebStartLibraryPath("jnidispatch");
         if (webstartPath != null) {
             librarySearchPath.add(webstartPath);
@@ -959,8 +1657,9 @@ public class NativeLibrary implements Closeable {
             // the Raspberry Pi flavor of Debian, for example, uses
             // uses arm-linux-gnuabihf since it's using the hard-float
             // ABI for armv6. Other distributions might use a different
-            // tuple for the same thing. Query ldconfig to get the additional
-            // library paths it knows about.
+            // tuple for the same thing. Read the dynamic linker cache and
+            // configuration to get the additional library paths it knows
+            // about.
             if (Platform.isLinux()) {
                 ArrayList<String> ldPaths = getLinuxLdPaths();
                 // prepend the paths we already have
@@ -986,6 +1685,7 @@ public class NativeLibrary implements Closeable {
             }
         }
         librarySearchPath.addAll(initPaths("jna.platform.library.path"));
+        return librarySearchPath;
     }
 
     private static String getMultiArchPath() {
@@ -1013,42 +1713,10 @@ public class NativeLibrary implements Closeable {
     }
 
     /**
-     * Get the library paths from ldconfig cache. Tested against ldconfig 2.13.
+     * Get the library paths from the dynamic linker cache and configuration.
      */
     private static ArrayList<String> getLinuxLdPaths() {
-        ArrayList<String> ldPaths = new ArrayList<>();
-        Process process = null;
-        BufferedReader reader = null;
-        try {
-            process = Runtime.getRuntime().exec("/sbin/ldconfig -p");
-            reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String buffer;
-            while ((buffer = reader.readLine()) != null) {
-                int startPath = buffer.indexOf(" => ");
-                int endPath = buffer.lastIndexOf('/');
-                if (startPath != -1 && endPath != -1 && startPath < endPath) {
-                    String path = buffer.substring(startPath + 4, endPath);
-                    if (!ldPaths.contains(path)) {
-                        ldPaths.add(path);
-                    }
-                }
-            }
-        } catch (Exception e) {
-        } finally {
-            if(reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                }
-            }
-            if(process != null) {
-                try {
-                    process.waitFor();
-                } catch (InterruptedException e) {
-                }
-            }
-        }
-        return ldPaths;
+        return new ArrayList<>(LdSoCache.getDirectories());
     }
 
     private static final class NativeLibraryDisposer implements Runnable {
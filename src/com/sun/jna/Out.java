@@ -0,0 +1,53 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a parameter which the native function only writes, so that its
+ * Java contents are not written to native memory before the call.  This
+ * skips {@link Structure#autoWrite()} of a {@link Structure} or
+ * <code>Structure[]</code> argument, the conversion of the elements of a
+ * <code>Pointer[]</code> or <code>NativeMapped[]</code> argument, and the
+ * copy of a primitive array argument to native memory (see
+ * {@link Critical}).  The native memory of a <code>Pointer[]</code> or
+ * <code>NativeMapped[]</code> argument is zero-filled instead; the memory
+ * of other arguments is not cleared and keeps whatever it held before the
+ * call, so the native function must write every field or element which is
+ * read back.
+ * <p>
+ * Honored by {@link Library} interface mappings only.</p>
+ *
+ * @see In
+ * @see InOut
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface Out {
+}
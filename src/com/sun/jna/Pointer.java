@@ -541,6 +541,9 @@ public class Pointer {
      * @return the <code>byte</code> value being pointed to
      */
     public byte getByte(long offset) {
+        if (MemoryAccess.isEnabled()) {
+            return MemoryAccess.getByte(peer + offset);
+        }
         return Native.getByte(this, this.peer, offset);
     }
 
@@ -565,6 +568,9 @@ public class Pointer {
      * @return the <code>short</code> value being pointed to
      */
     public short getShort(long offset) {
+        if (MemoryAccess.isEnabled()) {
+            return MemoryAccess.getShort(peer + offset);
+        }
         return Native.getShort(this, this.peer, offset);
     }
 
@@ -577,6 +583,9 @@ public class Pointer {
      * @return the <code>int</code> value being pointed to
      */
     public int getInt(long offset) {
+        if (MemoryAccess.isEnabled()) {
+            return MemoryAccess.getInt(peer + offset);
+        }
         return Native.getInt(this, this.peer, offset);
     }
 
@@ -589,6 +598,9 @@ public class Pointer {
      * @return the <code>long</code> value being pointed to
      */
     public long getLong(long offset) {
+        if (MemoryAccess.isEnabled()) {
+            return MemoryAccess.getLong(peer + offset);
+        }
         return Native.getLong(this, this.peer, offset);
     }
 
@@ -613,6 +625,9 @@ public class Pointer {
      * @return the <code>float</code> value being pointed to
      */
     public float getFloat(long offset) {
+        if (MemoryAccess.isEnabled()) {
+            return MemoryAccess.getFloat(peer + offset);
+        }
         return Native.getFloat(this, this.peer, offset);
     }
 
@@ -625,6 +640,9 @@ public class Pointer {
      * @return the <code>double</code> value being pointed to
      */
     public double getDouble(long offset) {
+        if (MemoryAccess.isEnabled()) {
+            return MemoryAccess.getDouble(peer + offset);
+        }
         return Native.getDouble(this, this.peer, offset);
     }
 
@@ -980,6 +998,211 @@ public class Pointer {
         Native.setMemory(this, this.peer, offset, length, value);
     }
 
+    //////////////////////////////////////////////////////////////////////////
+    // Bulk operations
+    //////////////////////////////////////////////////////////////////////////
+
+    /** Copy <code>length</code> bytes from this pointer to <code>dest</code>.
+     * The regions may overlap (<code>memmove</code> semantics).
+     * @param dest destination memory
+     * @param length number of bytes to copy
+     */
+    public void copyTo(Pointer dest, long length) {
+        copyTo(0, dest, 0, length);
+    }
+
+    /** Copy <code>length</code> bytes from this pointer to <code>dest</code>
+     * in a single native call.  The regions may overlap
+     * (<code>memmove</code> semantics).
+     * @param offset byte offset from this pointer of the source
+     * @param dest destination memory
+     * @param destOffset byte offset from <code>dest</code>
+     * @param length number of bytes to copy
+     */
+    public void copyTo(long offset, Pointer dest, long destOffset, long length) {
+        if (dest instanceof Memory) {
+            ((Memory) dest).writeCheck(destOffset, length);
+        }
+        BulkMemory.move(dest.peer + destOffset, peer + offset, length);
+    }
+
+    /** Compare <code>length</code> bytes of this memory with
+     * <code>other</code>.
+     * @param other memory to compare with
+     * @param length number of bytes to compare
+     * @return -1, 0 or 1 as the first differing byte, compared as unsigned,
+     * is smaller in this memory, there is no difference, or it is larger.
+     */
+    public int compare(Pointer other, long length) {
+        return compare(0, other, 0, length);
+    }
+
+    /** Compare <code>length</code> bytes of this memory with
+     * <code>other</code> in a single native call (<code>memcmp</code>).
+     * @param offset byte offset from this pointer
+     * @param other memory to compare with
+     * @param otherOffset byte offset from <code>other</code>
+     * @param length number of bytes to compare
+     * @return -1, 0 or 1 as the first differing byte, compared as unsigned,
+     * is smaller in this memory, there is no difference, or it is larger.
+     */
+    public int compare(long offset, Pointer other, long otherOffset, long length) {
+        if (other instanceof Memory) {
+            ((Memory) other).boundsCheck(otherOffset, length);
+        }
+        return BulkMemory.compare(peer + offset, other.peer + otherOffset, length);
+    }
+
+    /** Returns the offset of the first occurrence of <code>pattern</code>
+     * within <code>length</code> bytes from the given offset, or -1 if the
+     * pattern is not found.  Uses <code>memmem</code> where the C library
+     * provides it.
+     * @param offset byte offset from pointer at which to start searching
+     * @param length number of bytes to search
+     * @param pattern bytes to search for
+     * @return offset of the match relative to this pointer, or -1
+     */
+    public long indexOf(long offset, long length, byte[] pattern) {
+        long index = BulkMemory.indexOf(peer + offset, length, pattern);
+        return index < 0 ? -1 : offset + index;
+    }
+
+    /** Fill <code>length</code> bytes with repeated copies of
+     * <code>pattern</code>; a trailing partial copy is truncated.
+     * @param offset byte offset from pointer to start
+     * @param length number of bytes to write
+     * @param pattern non-empty bytes to repeat
+     */
+    public void fill(long offset, long length, byte[] pattern) {
+        if (pattern.length == 0) {
+            throw new IllegalArgumentException("Fill pattern must not be empty");
+        }
+        BulkMemory.fill(peer + offset, length, pattern);
+    }
+
+    /**
+     * Copy <code>short</code> values from memory in the given byte order,
+     * rather than native order, into the specified array.
+     *
+     * @param offset byte offset from pointer from which data is copied
+     * @param buf    array into which data is copied
+     * @param index  array index to which data is copied
+     * @param length number of elements that must be copied
+     * @param order  byte order of the data in memory
+     */
+    public void read(long offset, short[] buf, int index, int length, ByteOrder order) {
+        read(offset, buf, index, length);
+        if (order != ByteOrder.nativeOrder()) {
+            for (int i=index;i < index + length;i++) {
+                buf[i] = Short.reverseBytes(buf[i]);
+            }
+        }
+    }
+
+    /**
+     * Copy <code>int</code> values from memory in the given byte order,
+     * rather than native order, into the specified array.
+     *
+     * @param offset byte offset from pointer from which data is copied
+     * @param buf    array into which data is copied
+     * @param index  array index to which data is copied
+     * @param length number of elements that must be copied
+     * @param order  byte order of the data in memory
+     */
+    public void read(long offset, int[] buf, int index, int length, ByteOrder order) {
+        read(offset, buf, index, length);
+        if (order != ByteOrder.nativeOrder()) {
+            for (int i=index;i < index + length;i++) {
+                buf[i] = Integer.reverseBytes(buf[i]);
+            }
+        }
+    }
+
+    /**
+     * Copy <code>long</code> values from memory in the given byte order,
+     * rather than native order, into the specified array.
+     *
+     * @param offset byte offset from pointer from which data is copied
+     * @param buf    array into which data is copied
+     * @param index  array index to which data is copied
+     * @param length number of elements that must be copied
+     * @param order  byte order of the data in memory
+     */
+    public void read(long offset, long[] buf, int index, int length, ByteOrder order) {
+        read(offset, buf, index, length);
+        if (order != ByteOrder.nativeOrder()) {
+            for (int i=index;i < index + length;i++) {
+                buf[i] = Long.reverseBytes(buf[i]);
+            }
+        }
+    }
+
+    /**
+     * Copy <code>short</code> values into memory in the given byte order,
+     * rather than native order.  The array is not modified.
+     *
+     * @param offset byte offset from pointer into which data is copied
+     * @param buf    array from which to copy
+     * @param index  array index from which to start copying
+     * @param length number of elements that must be copied
+     * @param order  byte order of the data in memory
+     */
+    public void write(long offset, short[] buf, int index, int length, ByteOrder order) {
+        if (order == ByteOrder.nativeOrder()) {
+            write(offset, buf, index, length);
+            return;
+        }
+        short[] swapped = new short[length];
+        for (int i=0;i < length;i++) {
+            swapped[i] = Short.reverseBytes(buf[index + i]);
+        }
+        write(offset, swapped, 0, length);
+    }
+
+    /**
+     * Copy <code>int</code> values into memory in the given byte order,
+     * rather than native order.  The array is not modified.
+     *
+     * @param offset byte offset from pointer into which data is copied
+     * @param buf    array from which to copy
+     * @param index  array index from which to start copying
+     * @param length number of elements that must be copied
+     * @param order  byte order of the data in memory
+     */
+    public void write(long offset, int[] buf, int index, int length, ByteOrder order) {
+        if (order == ByteOrder.nativeOrder()) {
+            write(offset, buf, index, length);
+            return;
+        }
+        int[] swapped = new int[length];
+        for (int i=0;i < length;i++) {
+            swapped[i] = Integer.reverseBytes(buf[index + i]);
+        }
+        write(offset, swapped, 0, length);
+    }
+
+    /**
+     * Copy <code>long</code> values into memory in the given byte order,
+     * rather than native order.  The array is not modified.
+     *
+     * @param offset byte offset from pointer into which data is copied
+     * @param buf    array from which to copy
+     * @param index  array index from which to start copying
+     * @param length number of elements that must be copied
+     * @param order  byte order of the data in memory
+     */
+    public void write(long offset, long[] buf, int index, int length, ByteOrder order) {
+        if (order == ByteOrder.nativeOrder()) {
+            write(offset, buf, index, length);
+            return;
+        }
+        long[] swapped = new long[length];
+        for (int i=0;i < length;i++) {
+            swapped[i] = Long.reverseBytes(buf[index + i]);
+        }
+        write(offset, swapped, 0, length);
+    }
+
     /**
      * Set <code>value</code> at location being pointed to. This is equivalent
      * to the expression
@@ -990,6 +1213,10 @@ public class Pointer {
      * @param value <code>byte</code> value to set
      */
     public void setByte(long offset, byte value) {
+        if (MemoryAccess.isEnabled()) {
+            MemoryAccess.setByte(peer + offset, value);
+            return;
+        }
         Native.setByte(this, this.peer, offset, value);
     }
 
@@ -1003,6 +1230,10 @@ public class Pointer {
      * @param value <code>short</code> value to set
      */
     public void setShort(long offset, short value) {
+        if (MemoryAccess.isEnabled()) {
+            MemoryAccess.setShort(peer + offset, value);
+            return;
+        }
         Native.setShort(this, this.peer, offset, value);
     }
 
@@ -1029,6 +1260,10 @@ public class Pointer {
      * @param value <code>int</code> value to set
      */
     public void setInt(long offset, int value) {
+        if (MemoryAccess.isEnabled()) {
+            MemoryAccess.setInt(peer + offset, value);
+            return;
+        }
         Native.setInt(this, this.peer, offset, value);
     }
 
@@ -1042,6 +1277,10 @@ public class Pointer {
      * @param value <code>long</code> value to set
      */
     public void setLong(long offset, long value) {
+        if (MemoryAccess.isEnabled()) {
+            MemoryAccess.setLong(peer + offset, value);
+            return;
+        }
         Native.setLong(this, this.peer, offset, value);
     }
 
@@ -1072,6 +1311,10 @@ public class Pointer {
      * @param value <code>float</code> value to set
      */
     public void setFloat(long offset, float value) {
+        if (MemoryAccess.isEnabled()) {
+            MemoryAccess.setFloat(peer + offset, value);
+            return;
+        }
         Native.setFloat(this, this.peer, offset, value);
     }
 
@@ -1085,6 +1328,10 @@ public class Pointer {
      * @param value <code>double</code> value to set
      */
     public void setDouble(long offset, double value) {
+        if (MemoryAccess.isEnabled()) {
+            MemoryAccess.setDouble(peer + offset, value);
+            return;
+        }
         Native.setDouble(this, this.peer, offset, value);
     }
 
@@ -1100,6 +1347,10 @@ public class Pointer {
      * pointer.
      */
     public void setPointer(long offset, Pointer value) {
+        if (MemoryAccess.isEnabled()) {
+            MemoryAccess.setAddress(peer + offset, value != null ? value.peer : 0);
+            return;
+        }
         Native.setPointer(this, this.peer, offset, value != null ? value.peer : 0);
     }
 
@@ -1212,6 +1463,22 @@ public class Pointer {
             throw new UnsupportedOperationException(MSG);
         }
         @Override
+        public long indexOf(long offset, long length, byte[] pattern) {
+            throw new UnsupportedOperationException(MSG);
+        }
+        @Override
+        public void copyTo(long offset, Pointer dest, long destOffset, long length) {
+            throw new UnsupportedOperationException(MSG);
+        }
+        @Override
+        public int compare(long offset, Pointer other, long otherOffset, long length) {
+            throw new UnsupportedOperationException(MSG);
+        }
+        @Override
+        public void fill(long offset, long length, byte[] pattern) {
+            throw new UnsupportedOperationException(MSG);
+        }
+        @Override
         public void read(long bOff, byte[] buf, int index, int length) {
             throw new UnsupportedOperationException(MSG);
         }
@@ -0,0 +1,192 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A bounds-checked view of native memory whose address range has been
+ * validated against the process's memory mappings.  This is an alternative
+ * to {@link Native#setProtected protected mode} for code reading untrusted
+ * pointers (e.g. parsers of native data structures): validation uses no
+ * signal handlers or process-wide state, so it is safe on any number of
+ * threads, and its cost is a lock-free lookup when the view is created.
+ * All accesses through the view are then bounds-checked as for
+ * {@link Memory}.
+ * <pre>
+ *     SafeView header = SafeView.of(untrusted, HEADER_SIZE);
+ *     SafeView names = header.dereference(NAMES_OFFSET, count * 8);
+ * </pre>
+ * Validation reflects the mappings at the time the view is created; memory
+ * unmapped afterwards by native code can not be detected.  Views are only
+ * available where the mappings can be inspected (Linux and Android, see
+ * {@link #isSupported()}).
+ */
+public class SafeView extends Memory {
+
+    private final boolean writable;
+
+    private SafeView(long peer, long size, boolean writable) {
+        this.peer = peer;
+        this.size = size;
+        this.writable = writable;
+    }
+
+    /** @return whether views can be validated on this platform */
+    public static boolean isSupported() {
+        return MemoryMap.SUPPORTED;
+    }
+
+    /**
+     * Create a read-only view of <code>size</code> bytes at the given
+     * pointer.
+     *
+     * @param p start of the memory
+     * @param size number of bytes in the view
+     * @return a validated view
+     * @throws IllegalArgumentException if the range is not mapped readable
+     * @throws UnsupportedOperationException if not {@link #isSupported()}
+     */
+    public static SafeView of(Pointer p, long size) {
+        return of(p, size, false);
+    }
+
+    /**
+     * Create a view of <code>size</code> bytes at the given pointer.
+     *
+     * @param p start of the memory
+     * @param size number of bytes in the view
+     * @param writable whether the view permits writes
+     * @return a validated view
+     * @throws IllegalArgumentException if the range is not mapped with the
+     * requested access
+     * @throws UnsupportedOperationException if not {@link #isSupported()}
+     */
+    public static SafeView of(Pointer p, long size, boolean writable) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Invalid view size: " + size);
+        }
+        long address = Pointer.nativeValue(p);
+        if (!MemoryMap.isAccessible(address, size, writable)) {
+            throw new IllegalArgumentException("Memory at 0x" + Long.toHexString(address) + " (" + size
+                                               + " bytes) is not mapped " + (writable ? "writable" : "readable"));
+        }
+        return new SafeView(address, size, writable);
+    }
+
+    /**
+     * Read a pointer from this view and return a validated view of the
+     * memory it points to, with the same access.
+     *
+     * @param offset offset within this view of the pointer
+     * @param size number of bytes in the new view
+     * @return a validated view
+     * @throws IllegalArgumentException if the pointer is <code>NULL</code>
+     * or the range it points to is not mapped
+     */
+    public SafeView dereference(long offset, long size) {
+        return of(getPointer(offset), size, writable);
+    }
+
+    /** Provide a view of part of this view, with the same access. */
+    @Override
+    public Pointer share(long offset, long sz) {
+        boundsCheck(offset, sz);
+        return new SafeView(peer + offset, sz, writable);
+    }
+
+    /** @return whether this view permits writes */
+    public boolean isWritable() {
+        return writable;
+    }
+
+    /** Rejects all writes unless the view is writable. */
+    @Override
+    void writeCheck(long off, long sz) {
+        if (!writable) {
+            throw new UnsupportedOperationException("View is read-only: " + this);
+        }
+        super.writeCheck(off, sz);
+    }
+
+    @Override
+    public void setMemory(long offset, long length, byte value) {
+        writeCheck(offset, length);
+        super.setMemory(offset, length, value);
+    }
+
+    /** @return a buffer which is read-only unless the view is writable */
+    @Override
+    public ByteBuffer getByteBuffer(long offset, long length) {
+        ByteBuffer b = super.getByteBuffer(offset, length);
+        return writable ? b : b.asReadOnlyBuffer().order(b.order());
+    }
+
+    /** @return buffers which are read-only unless the view is writable */
+    @Override
+    public ByteBuffer[] getByteBuffers(long offset, long length, int count) {
+        ByteBuffer[] views = super.getByteBuffers(offset, length, count);
+        if (!writable) {
+            for (int i=0;i < views.length;i++) {
+                views[i] = views[i].asReadOnlyBuffer().order(views[i].order());
+            }
+        }
+        return views;
+    }
+
+    /** Reads the string only if it is terminated within the view.
+     * @throws IndexOutOfBoundsException if the string is not terminated
+     * within the view
+     */
+    @Override
+    public String getString(long offset, String encoding) {
+        boundsCheck(offset, 0);
+        if (indexOf(offset, size - offset, new byte[] { 0 }) < 0) {
+            throw new IndexOutOfBoundsException("String at offset " + offset + " is not terminated within " + this);
+        }
+        return super.getString(offset, encoding);
+    }
+
+    /** Reads the string only if it is terminated within the view.
+     * @throws IndexOutOfBoundsException if the string is not terminated
+     * within the view
+     */
+    @Override
+    public String getWideString(long offset) {
+        boundsCheck(offset, 0);
+        for (long off = offset;; off += Native.WCHAR_SIZE) {
+            if (off + Native.WCHAR_SIZE > size) {
+                throw new IndexOutOfBoundsException("String at offset " + offset + " is not terminated within " + this);
+            }
+            if ((Native.WCHAR_SIZE == 2 ? getShort(off) : getInt(off)) == 0) {
+                break;
+            }
+        }
+        return super.getWideString(offset);
+    }
+
+    @Override
+    public String toString() {
+        return "view@0x" + Long.toHexString(peer) + " (" + size + " bytes" + (writable ? ", writable)" : ")");
+    }
+}
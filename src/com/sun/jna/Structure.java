@@ -164,6 +164,9 @@ public abstract class Structure {
     static final Map<Class<?>, List<String>> fieldOrder = new WeakHashMap<>();
     static final Map<Class<?>, List<Field>> fieldList = new WeakHashMap<>();
     static final Map<Class<?>, Boolean> validationMap = new WeakHashMap<>();
+    /** Pointer constructor of each Structure class, <code>null</code> if
+     * the class has none. */
+    static final Map<Class<?>, Constructor<?>> pointerConstructors = new WeakHashMap<>();
 
     // This field is accessed by native code
     private Pointer memory;
@@ -1989,15 +1992,27 @@ public abstract class Structure {
      * @param <T> the type
      * @return a constructor with a single Pointer argument, null if none is found
      */
+    @SuppressWarnings("unchecked")
     private static <T> Constructor<T> getPointerConstructor(Class<T> type) {
+        // Looked up for every structure returned by value or passed to a
+        // callback, so avoid scanning the constructors each time
+        synchronized(pointerConstructors) {
+            if (pointerConstructors.containsKey(type)) {
+                return (Constructor<T>) pointerConstructors.get(type);
+            }
+        }
+        Constructor<T> result = null;
         for (Constructor constructor : type.getConstructors()) {
             Class[] parameterTypes = constructor.getParameterTypes();
             if (parameterTypes.length == 1 && parameterTypes[0].equals(Pointer.class)) {
-                return constructor;
+                result = constructor;
+                break;
             }
         }
-
-        return null;
+        synchronized(pointerConstructors) {
+            pointerConstructors.put(type, result);
+        }
+        return result;
     }
 
     protected static class StructField extends Object {
@@ -40,4 +40,25 @@ public interface SymbolProvider {
      * @return Address of the symbol, typically a function.
      */
     long getSymbolAddress(long handle, String name, SymbolProvider parent);
+
+    /**
+     * Gets the addresses of several symbols at once.  Used when binding all
+     * methods of a direct-mapped class; the default implementation looks up
+     * each symbol with {@link #getSymbolAddress}.
+     *
+     * @param handle Handle of the original library
+     * @param names Names of the symbols to load
+     * @param addresses Receives the address of each symbol, or zero if the
+     * symbol was not found
+     * @param parent Parent symbol provider
+     */
+    default void getSymbolAddresses(long handle, String[] names, long[] addresses, SymbolProvider parent) {
+        for (int i=0;i < names.length;i++) {
+            try {
+                addresses[i] = getSymbolAddress(handle, names[i], parent);
+            } catch(UnsatisfiedLinkError e) {
+                addresses[i] = 0;
+            }
+        }
+    }
 }
@@ -0,0 +1,272 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Support for running JNA on virtual threads (JDK 21+).
+ * <p>
+ * A virtual thread that enters native code stays mounted on its carrier
+ * thread until the native call returns ("pinning").  Library methods which
+ * are known to block for a long time may be listed in the
+ * {@link Library#OPTION_BLOCKING_METHODS} option; when such a method is
+ * called from a virtual thread, the native call is handed off to a platform
+ * thread (see {@link Library#OPTION_BLOCKING_EXECUTOR}) and the virtual
+ * thread parks, releasing its carrier until the call completes.  Calls from
+ * platform threads are never offloaded.</p>
+ * <p>
+ * Callbacks invoked from native threads may be dispatched onto a fresh
+ * virtual thread with {@link Library#OPTION_VIRTUAL_THREAD_CALLBACKS}.</p>
+ * <p>
+ * On VMs without virtual thread support all of the above is a no-op.  The
+ * counters provided by this class may be used to detect calls which pin
+ * carrier threads.</p>
+ */
+public final class VirtualThreadSupport {
+
+    private static final Logger LOG = Logger.getLogger(VirtualThreadSupport.class.getName());
+
+    private static final MethodHandle IS_VIRTUAL;
+    private static final MethodHandle START_VIRTUAL_THREAD;
+
+    static {
+        MethodHandle isVirtual = null;
+        MethodHandle startVirtualThread = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            isVirtual = lookup.findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+            // The started thread is not needed, only its result
+            startVirtualThread = lookup.findStatic(Thread.class, "startVirtualThread", MethodType.methodType(Thread.class, Runnable.class))
+                .asType(MethodType.methodType(void.class, Runnable.class));
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            LOG.log(Level.FINE, "Virtual threads are not supported by this VM");
+            isVirtual = null;
+            startVirtualThread = null;
+        }
+        IS_VIRTUAL = isVirtual;
+        START_VIRTUAL_THREAD = startVirtualThread;
+    }
+
+    private static final LongAdder pinnedCalls = new LongAdder();
+    private static final LongAdder offloadedCalls = new LongAdder();
+    private static final LongAdder virtualCallbacks = new LongAdder();
+
+    private static volatile ExecutorService defaultExecutor;
+
+    private VirtualThreadSupport() { }
+
+    /** @return whether the running VM supports virtual threads. */
+    public static boolean isSupported() {
+        return IS_VIRTUAL != null && START_VIRTUAL_THREAD != null;
+    }
+
+    /**
+     * @param thread the thread to check
+     * @return whether the given thread is a virtual thread; always
+     * <code>false</code> if the VM does not support virtual threads.
+     */
+    public static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(thread);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    /**
+     * @return the number of native calls made through a {@link Library}
+     * proxy directly from a virtual thread, each of which pinned the virtual
+     * thread's carrier for the duration of the call.
+     */
+    public static long getPinnedCallCount() {
+        return pinnedCalls.sum();
+    }
+
+    /**
+     * @return the number of native calls made from a virtual thread that
+     * were offloaded onto a platform thread because they were marked as
+     * blocking.
+     */
+    public static long getOffloadedCallCount() {
+        return offloadedCalls.sum();
+    }
+
+    /**
+     * @return the number of callback invocations dispatched from a native
+     * thread onto a virtual thread.
+     */
+    public static long getVirtualCallbackCount() {
+        return virtualCallbacks.sum();
+    }
+
+    /** Reset all counters to zero. */
+    public static void resetCounters() {
+        pinnedCalls.reset();
+        offloadedCalls.reset();
+        virtualCallbacks.reset();
+    }
+
+    /** @return whether the given method is to be treated as blocking,
+     * according to the value of {@link Library#OPTION_BLOCKING_METHODS}.
+     */
+    static boolean isBlocking(Method method, Map<String, ?> options) {
+        Object value = options.get(Library.OPTION_BLOCKING_METHODS);
+        if (value == null) {
+            return false;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Iterable) {
+            for (Object name : (Iterable<?>) value) {
+                if (method.getName().equals(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        throw new IllegalArgumentException("Option " + Library.OPTION_BLOCKING_METHODS
+                                           + " must be a Boolean or a Collection of method names: " + value);
+    }
+
+    /** @return the executor configured for blocking calls with
+     * {@link Library#OPTION_BLOCKING_EXECUTOR}, or <code>null</code> to use
+     * the shared default.
+     */
+    static Executor getExecutor(Map<String, ?> options) {
+        Object value = options.get(Library.OPTION_BLOCKING_EXECUTOR);
+        if (value != null && !(value instanceof Executor)) {
+            throw new IllegalArgumentException("Option " + Library.OPTION_BLOCKING_EXECUTOR
+                                               + " must be a java.util.concurrent.Executor: " + value);
+        }
+        return (Executor) value;
+    }
+
+    /** Shared pool of daemon platform threads used for blocking and
+     * asynchronous calls when no executor was configured.
+     */
+    static Executor getDefaultExecutor() {
+        ExecutorService executor = defaultExecutor;
+        if (executor == null) {
+            synchronized (VirtualThreadSupport.class) {
+                executor = defaultExecutor;
+                if (executor == null) {
+                    executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "JNA blocking call " + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+                    defaultExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /** Called by {@link Library.Handler} before a native call is made
+     * inline.  Records a pinning event if the current thread is virtual.
+     */
+    static void recordInlineCall() {
+        if (IS_VIRTUAL != null && isVirtual(Thread.currentThread())) {
+            pinnedCalls.increment();
+        }
+    }
+
+    /** Run the given native call on a platform thread, parking the calling
+     * virtual thread until it completes.  If the calling thread is
+     * interrupted while waiting, the native call is still awaited (it may
+     * be writing into argument memory) and the interrupt status is restored
+     * afterwards.
+     */
+    static Object offload(Executor executor, Callable<Object> call) throws Throwable {
+        FutureTask<Object> task = new FutureTask<>(call);
+        (executor != null ? executor : getDefaultExecutor()).execute(task);
+        offloadedCalls.increment();
+        return await(task);
+    }
+
+    /** Run the given callback body on a new virtual thread and wait for its
+     * result.  Runs inline if virtual threads are not supported or the
+     * current thread is already virtual.
+     */
+    static Object callOnVirtualThread(Callable<Object> call) throws Throwable {
+        if (!isSupported() || isVirtual(Thread.currentThread())) {
+            return call.call();
+        }
+        FutureTask<Object> task = new FutureTask<>(call);
+        try {
+            START_VIRTUAL_THREAD.invokeExact((Runnable) task);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+        virtualCallbacks.increment();
+        return await(task);
+    }
+
+    private static Object await(FutureTask<Object> task) throws Throwable {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw e.getCause();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -25,7 +25,8 @@ package com.sun.jna;
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
-import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Helper to hold a memory object based on the lifetime of another object.
@@ -36,18 +37,21 @@ import java.util.IdentityHashMap;
  * track GC of the ByteBuffer.
  *
  * The references to the memory objects are released on access of WeakMemoryHolder.
+ *
+ * The holder does not lock, so concurrent threads creating buffers do not
+ * contend with each other; references are compared by identity.
  */
 public class WeakMemoryHolder {
     ReferenceQueue<Object> referenceQueue = new ReferenceQueue<>();
-    IdentityHashMap<Reference<Object>, Memory> backingMap = new IdentityHashMap<>();
+    Map<Reference<Object>, Memory> backingMap = new ConcurrentHashMap<>();
 
-    public synchronized void put(Object o, Memory m) {
+    public void put(Object o, Memory m) {
         clean();
         Reference<Object> reference = new WeakReference<>(o, referenceQueue);
         backingMap.put(reference, m);
     }
 
-    public synchronized void clean() {
+    public void clean() {
         for(Reference ref = referenceQueue.poll(); ref != null; ref = referenceQueue.poll()) {
             backingMap.remove(ref);
         }
@@ -98,6 +98,24 @@ public class Cleaner {
         }
     }
 
+    /**
+     * Run the cleanup tasks of objects which have already been collected,
+     * on the calling thread, instead of waiting for the cleaner thread to
+     * get to them.
+     *
+     * @return the number of tasks run
+     */
+    public int drain() {
+        int count = 0;
+        for (Reference<? extends Object> ref = referenceQueue.poll(); ref != null; ref = referenceQueue.poll()) {
+            if (ref instanceof CleanerRef) {
+                ((CleanerRef) ref).clean();
+                count++;
+            }
+        }
+        return count;
+    }
+
     private static class CleanerRef extends PhantomReference<Object> implements Cleanable {
         private final Cleaner cleaner;
         private final Runnable cleanupTask;
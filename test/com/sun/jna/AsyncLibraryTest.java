@@ -0,0 +1,245 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class AsyncLibraryTest extends TestCase {
+
+    public interface TestLibrary extends Library {
+        CompletableFuture<Integer> returnInt32Argument(int arg);
+        Future<Long> returnInt64Argument(long arg);
+        CompletableFuture<Void> setLastError(int code) throws LastErrorException;
+    }
+
+    public interface InvalidLibrary extends Library {
+        <T> CompletableFuture<T> returnInt32Argument(int arg);
+    }
+
+    private static class CountingExecutor implements Executor {
+        final AtomicInteger count = new AtomicInteger();
+        @Override
+        public void execute(Runnable command) {
+            count.incrementAndGet();
+            new Thread(command).start();
+        }
+    }
+
+    public void testAsyncInvocation() throws Exception {
+        TestLibrary lib = Native.load("testlib", TestLibrary.class);
+        assertEquals("Wrong async result", Integer.valueOf(42), lib.returnInt32Argument(42).get(10, TimeUnit.SECONDS));
+        assertEquals("Wrong async result", Long.valueOf(-1L), lib.returnInt64Argument(-1L).get(10, TimeUnit.SECONDS));
+    }
+
+    public void testAsyncLastErrorException() throws Exception {
+        TestLibrary lib = Native.load("testlib", TestLibrary.class);
+        try {
+            lib.setLastError(-1).get(10, TimeUnit.SECONDS);
+            fail("Future should complete exceptionally");
+        } catch (ExecutionException e) {
+            assertTrue("Wrong cause: " + e.getCause(), e.getCause() instanceof LastErrorException);
+            assertEquals("Wrong error code", -1, ((LastErrorException) e.getCause()).getErrorCode());
+        }
+    }
+
+    public void testAsyncExecutorOption() throws Exception {
+        CountingExecutor executor = new CountingExecutor();
+        Map<String, Object> options = new HashMap<>();
+        options.put(Library.OPTION_ASYNC_EXECUTOR, executor);
+        TestLibrary lib = Native.load("testlib", TestLibrary.class, options);
+        for (int i=0;i < 5;i++) {
+            assertEquals("Wrong async result", Integer.valueOf(i), lib.returnInt32Argument(i).get(10, TimeUnit.SECONDS));
+        }
+        assertEquals("Configured executor not used", 5, executor.count.get());
+    }
+
+    public void testSingleThreadedMode() throws Exception {
+        Map<String, Object> options = new HashMap<>();
+        options.put(Library.OPTION_ASYNC_MAX_CONCURRENCY, 1);
+        TestLibrary lib = Native.load("testlib", TestLibrary.class, options);
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i=0;i < 100;i++) {
+            results.add(lib.returnInt32Argument(i));
+        }
+        for (int i=0;i < results.size();i++) {
+            assertEquals("Wrong async result", Integer.valueOf(i), results.get(i).get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    public void testUnresolvedResultType() {
+        try {
+            Native.load("testlib", InvalidLibrary.class).returnInt32Argument(0);
+            fail("Generic result type should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testLimitedExecutorBoundsConcurrency() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            final int LIMIT = 3;
+            final int NTASKS = 50;
+            LimitedExecutor executor = new LimitedExecutor(pool, LIMIT);
+            final AtomicInteger active = new AtomicInteger();
+            final AtomicInteger maxActive = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(NTASKS);
+            for (int i=0;i < NTASKS;i++) {
+                executor.execute(() -> {
+                    int n = active.incrementAndGet();
+                    maxActive.accumulateAndGet(n, Math::max);
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    active.decrementAndGet();
+                    done.countDown();
+                });
+            }
+            assertTrue("Tasks did not complete", done.await(30, TimeUnit.SECONDS));
+            assertTrue("Concurrency limit exceeded: " + maxActive.get(), maxActive.get() <= LIMIT);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testLimitedExecutorPreservesOrder() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            final int NTASKS = 200;
+            LimitedExecutor executor = new LimitedExecutor(pool, 1);
+            final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+            final CountDownLatch done = new CountDownLatch(NTASKS);
+            for (int i=0;i < NTASKS;i++) {
+                final int idx = i;
+                executor.execute(() -> {
+                    order.add(idx);
+                    done.countDown();
+                });
+            }
+            assertTrue("Tasks did not complete", done.await(30, TimeUnit.SECONDS));
+            for (int i=0;i < NTASKS;i++) {
+                assertEquals("Task run out of order", Integer.valueOf(i), order.get(i));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Runs each task on a new thread once the gate opens, rejecting
+     * tasks while requested.
+     */
+    private static class GatedExecutor implements Executor {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final AtomicInteger rejected = new AtomicInteger();
+        volatile boolean reject;
+        @Override
+        public void execute(final Runnable command) {
+            if (reject) {
+                rejected.incrementAndGet();
+                throw new RejectedExecutionException("rejected");
+            }
+            new Thread(() -> {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                command.run();
+            }).start();
+        }
+    }
+
+    public void testLimitedExecutorKeepsRejectedTask() throws Exception {
+        GatedExecutor delegate = new GatedExecutor();
+        LimitedExecutor executor = new LimitedExecutor(delegate, 1);
+        final CountDownLatch done = new CountDownLatch(3);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        executor.execute(() -> {
+            order.add(0);
+            done.countDown();
+        });
+        executor.execute(() -> {
+            order.add(1);
+            done.countDown();
+        });
+        delegate.reject = true;
+        delegate.gate.countDown();
+        // The first task tries to start the second one when it finishes
+        long end = System.currentTimeMillis() + 10000;
+        while ((delegate.rejected.get() == 0 || executor.getQueuedCount() == 0)
+               && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals("Queued task not rejected", 1, delegate.rejected.get());
+        assertEquals("Task rejected after being queued should be kept", 1, executor.getQueuedCount());
+        delegate.reject = false;
+        executor.execute(() -> {
+            order.add(2);
+            done.countDown();
+        });
+        assertTrue("Tasks did not complete", done.await(10, TimeUnit.SECONDS));
+        assertEquals("Wrong task order", Arrays.asList(0, 1, 2), order);
+    }
+
+    public void testRejectedQueuedCallFailsFuture() throws Exception {
+        GatedExecutor delegate = new GatedExecutor();
+        Map<String, Object> options = new HashMap<>();
+        options.put(Library.OPTION_ASYNC_EXECUTOR, delegate);
+        options.put(Library.OPTION_ASYNC_MAX_CONCURRENCY, 1);
+        TestLibrary lib = Native.load("testlib", TestLibrary.class, options);
+        CompletableFuture<Integer> first = lib.returnInt32Argument(1);
+        CompletableFuture<Integer> second = lib.returnInt32Argument(2);
+        delegate.reject = true;
+        delegate.gate.countDown();
+        assertEquals("Wrong async result", Integer.valueOf(1), first.get(10, TimeUnit.SECONDS));
+        try {
+            second.get(10, TimeUnit.SECONDS);
+            fail("Queued call rejected by the executor should fail");
+        } catch (ExecutionException e) {
+            assertTrue("Wrong failure: " + e.getCause(), e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(AsyncLibraryTest.class);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class BindingManifestTest extends TestCase {
+
+    @Structure.FieldOrder({ "value" })
+    public static class TestStructure extends Structure {
+        public int value;
+    }
+
+    /** Registered explicitly by the tests. */
+    public static class ManifestDirect {
+        public static native int returnInt32Argument(int arg);
+        public static native double returnDoubleArgument(double arg);
+        public static native String returnStringArgument(String arg);
+        public static native WString returnWStringArgument(WString arg);
+        public static native NativeLong returnLongArgument(NativeLong arg);
+        public static native Pointer returnPointerArgument(Pointer arg);
+        public static native Pointer testStructurePointerArgument(TestStructure s);
+        public static native int fillInt8Buffer(@In TestStructure s, int len, byte value);
+        public static native int returnInt32Argument(int arg, int ignored) throws LastErrorException;
+    }
+
+    public static class Handle extends PointerType { }
+
+    /** Methods with equal signatures whose bindings differ. */
+    public static class FingerprintDirect {
+        public static native int plain(int arg, int ignored);
+        public static native int throwing(int arg, int ignored) throws LastErrorException;
+        public static native void pointer(Pointer p);
+        public static native void structure(TestStructure s);
+        public static native void input(@In TestStructure s);
+        public static native void handle(Handle h);
+        public static native void handle2(Handle h);
+    }
+
+    private static byte[] write(Class<?> cls) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        assertEquals("Not all methods written", 9, BindingManifest.write(cls, bos));
+        return bos.toByteArray();
+    }
+
+    public void testManifestMatchesComputedBindings() throws Exception {
+        BindingManifest manifest = BindingManifest.read(ManifestDirect.class, new ByteArrayInputStream(write(ManifestDirect.class)));
+        assertNotNull("Manifest not readable", manifest);
+        for (Method m : ManifestDirect.class.getDeclaredMethods()) {
+            if ((m.getModifiers() & Modifier.NATIVE) == 0) {
+                continue;
+            }
+            Native.MethodBinding expected = Native.getBinding(ManifestDirect.class, m, null, false);
+            Native.MethodBinding actual = manifest.getBinding(m);
+            assertNotNull("Missing binding for " + m, actual);
+            assertEquals("Wrong signature", expected.signature, actual.signature);
+            assertTrue("Wrong conversions for " + m, Arrays.equals(expected.cvt, actual.cvt));
+            assertTrue("Wrong argument types for " + m, Arrays.equals(expected.atypes, actual.atypes));
+            assertTrue("Wrong closure argument types for " + m, Arrays.equals(expected.closureAtypes, actual.closureAtypes));
+            assertTrue("Wrong converters for " + m, Arrays.equals(expected.toNative, actual.toNative));
+            assertEquals("Wrong return conversion for " + m, expected.rcvt, actual.rcvt);
+            assertEquals("Wrong return type for " + m, expected.rtype, actual.rtype);
+            assertEquals("Wrong closure return type for " + m, expected.closureRtype, actual.closureRtype);
+            assertEquals("Wrong last error flag for " + m, expected.throwLastError, actual.throwLastError);
+        }
+    }
+
+    public void testIgnoreInvalidManifest() throws Exception {
+        byte[] data = write(ManifestDirect.class);
+        data[0] ^= 0xFF;
+        assertNull("Invalid manifest should be ignored",
+                   BindingManifest.read(ManifestDirect.class, new ByteArrayInputStream(data)));
+    }
+
+    private static long fingerprint(String name, Class<?>... types) throws Exception {
+        return BindingManifest.fingerprint(FingerprintDirect.class.getMethod(name, types));
+    }
+
+    public void testFingerprint() throws Exception {
+        assertEquals("Fingerprint should not depend on the method name",
+                     fingerprint("handle", Handle.class), fingerprint("handle2", Handle.class));
+        assertFalse("Exception types not included",
+                    fingerprint("plain", int.class, int.class) == fingerprint("throwing", int.class, int.class));
+        assertFalse("Parameter annotations not included",
+                    fingerprint("structure", TestStructure.class) == fingerprint("input", TestStructure.class));
+        String description = describe(Handle.class);
+        assertTrue("Superclass chain not included: " + description,
+                   description.contains(PointerType.class.getName()) && description.contains(Object.class.getName()));
+        assertTrue("Interfaces not included: " + description, description.contains(NativeMapped.class.getName()));
+    }
+
+    private static String describe(Class<?> cls) {
+        StringBuilder sb = new StringBuilder();
+        BindingManifest.describe(sb, cls);
+        return sb.toString();
+    }
+
+    public void testIgnoreOutdatedEntry() throws Exception {
+        byte[] data = write(ManifestDirect.class);
+        Method m = ManifestDirect.class.getMethod("returnInt32Argument", int.class);
+        long fingerprint = BindingManifest.fingerprint(m);
+        // Corrupt the recorded fingerprint of one method, as if its types
+        // had changed since the manifest was written
+        boolean found = false;
+        for (int i=0;i + 8 <= data.length;i++) {
+            long value = 0;
+            for (int b=0;b < 8;b++) {
+                value = (value << 8) | (data[i + b] & 0xFF);
+            }
+            if (value == fingerprint) {
+                data[i + 7] ^= 1;
+                found = true;
+                break;
+            }
+        }
+        assertTrue("Fingerprint not written", found);
+        BindingManifest manifest = BindingManifest.read(ManifestDirect.class, new ByteArrayInputStream(data));
+        assertNull("Outdated entry should be ignored", manifest.getBinding(m));
+        assertNotNull("Other entries should be used",
+                      manifest.getBinding(ManifestDirect.class.getMethod("returnDoubleArgument", double.class)));
+    }
+
+    public void testRegisterWithManifest() throws Exception {
+        File classFile = new File(ManifestDirect.class.getResource(ManifestDirect.class.getName().substring(ManifestDirect.class.getName().lastIndexOf('.') + 1) + ".class").toURI());
+        File manifestFile = new File(classFile.getParentFile(), BindingManifest.getResourceName(ManifestDirect.class));
+        try (OutputStream os = new FileOutputStream(manifestFile)) {
+            os.write(write(ManifestDirect.class));
+        }
+        try {
+            assertNotNull("Manifest not found", BindingManifest.load(ManifestDirect.class));
+            Native.register(ManifestDirect.class, "testlib");
+            assertEquals("Wrong int result", 42, ManifestDirect.returnInt32Argument(42));
+            assertEquals("Wrong double result", 1.5, ManifestDirect.returnDoubleArgument(1.5), 0);
+            assertEquals("Wrong String result", "text", ManifestDirect.returnStringArgument("text"));
+            assertEquals("Wrong WString result", new WString("wide"), ManifestDirect.returnWStringArgument(new WString("wide")));
+            assertEquals("Wrong NativeLong result", new NativeLong(7), ManifestDirect.returnLongArgument(new NativeLong(7)));
+            TestStructure s = new TestStructure();
+            assertEquals("Wrong structure pointer", s.getPointer(), ManifestDirect.testStructurePointerArgument(s));
+            s.value = 1;
+            ManifestDirect.fillInt8Buffer(s, s.size(), (byte)1);
+            assertEquals("Input-only structure should not be read back", 1, s.value);
+            assertEquals("Native memory not written", 0x01010101, s.getPointer().getInt(0));
+        } finally {
+            Native.unregister(ManifestDirect.class);
+            manifestFile.delete();
+        }
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(BindingManifestTest.class);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import junit.framework.TestCase;
+
+public class CallMetricsTest extends TestCase {
+
+    public interface TestLibrary extends Library {
+        int returnInt32Argument(int arg);
+        void setLastError(int code) throws LastErrorException;
+        int fillInt8Buffer(byte[] buf, int len, byte value);
+    }
+
+    private TestLibrary lib;
+    private Function function;
+
+    @Override
+    protected void setUp() {
+        lib = Native.load("testlib", TestLibrary.class);
+        function = NativeLibrary.getInstance("testlib").getFunction("returnInt32Argument");
+        CallMetrics.reset();
+        CallMetrics.setSampleInterval(1);
+        CallMetrics.setEnabled(true);
+    }
+
+    @Override
+    protected void tearDown() {
+        CallMetrics.setEnabled(false);
+        CallMetrics.setSampleInterval(1);
+    }
+
+    public void testDisabledByDefault() {
+        CallMetrics.setEnabled(false);
+        lib.returnInt32Argument(1);
+        CallMetrics.FunctionStatistics stats = CallMetrics.getStatistics(function);
+        assertTrue("Calls counted while disabled", stats == null || stats.getCallCount() == 0);
+    }
+
+    public void testCallCounts() {
+        for (int i=0;i < 10;i++) {
+            assertEquals("Wrong result", i, lib.returnInt32Argument(i));
+        }
+        CallMetrics.FunctionStatistics stats = CallMetrics.getStatistics(function);
+        assertNotNull("Missing statistics", stats);
+        assertEquals("Wrong call count", 10, stats.getCallCount());
+        assertEquals("Wrong sample count", 10, stats.getSampledCount());
+        assertEquals("Wrong byte count", 40, stats.getBytesMarshalled());
+        assertTrue("Native time not recorded", stats.getTotalNativeNanos() > 0);
+        assertTrue("P99 not recorded", stats.getP99NativeNanos() > 0);
+        assertEquals("No exceptions expected", 0, stats.getExceptionCount());
+        assertTrue("Statistics not listed", CallMetrics.getStatistics().toString().contains(stats.getName()));
+    }
+
+    public void testArrayBytesMarshalled() {
+        byte[] buf = new byte[128];
+        lib.fillInt8Buffer(buf, buf.length, (byte) 1);
+        Function f = NativeLibrary.getInstance("testlib").getFunction("fillInt8Buffer");
+        assertEquals("Wrong byte count", 128 + 4 + 1, CallMetrics.getStatistics(f).getBytesMarshalled());
+    }
+
+    public void testLastErrorCounted() {
+        try {
+            lib.setLastError(-1);
+            fail("Expected LastErrorException");
+        } catch (LastErrorException e) {
+            // expected
+        }
+        CallMetrics.FunctionStatistics stats = CallMetrics.getStatistics(NativeLibrary.getInstance("testlib").getFunction("setLastError"));
+        assertEquals("Wrong exception count", 1, stats.getExceptionCount());
+        assertEquals("Wrong last error count", 1, stats.getLastErrorCount());
+    }
+
+    public void testListener() {
+        final List<CallMetrics.CallEvent> events = Collections.synchronizedList(new ArrayList<CallMetrics.CallEvent>());
+        CallMetrics.Listener listener = new CallMetrics.Listener() {
+            @Override
+            public void callCompleted(CallMetrics.CallEvent event) {
+                events.add(event);
+            }
+        };
+        CallMetrics.addListener(listener);
+        try {
+            lib.returnInt32Argument(0);
+        } finally {
+            CallMetrics.removeListener(listener);
+        }
+        lib.returnInt32Argument(0);
+        assertEquals("Wrong number of events", 1, events.size());
+        CallMetrics.CallEvent event = events.get(0);
+        assertEquals("Wrong function", "returnInt32Argument", event.getFunction().getName());
+        assertEquals("Wrong method", "returnInt32Argument", event.getMethod().getName());
+        assertNull("Unexpected exception", event.getException());
+    }
+
+    public void testSampling() {
+        CallMetrics.setSampleInterval(1000);
+        for (int i=0;i < 100;i++) {
+            lib.returnInt32Argument(i);
+        }
+        CallMetrics.FunctionStatistics stats = CallMetrics.getStatistics(function);
+        assertEquals("All calls should be counted", 100, stats.getCallCount());
+        assertTrue("Too many sampled calls: " + stats.getSampledCount(), stats.getSampledCount() < 50);
+    }
+
+    public void testHistogramBuckets() {
+        for (long v : new long[] { 0, 1, 3, 4, 5, 7, 8, 100, 1000, 123456789, Long.MAX_VALUE / 2 }) {
+            int bucket = CallMetrics.Stats.bucket(v);
+            assertTrue("Bucket limit below value " + v, CallMetrics.Stats.bucketLimit(bucket) >= v);
+            assertTrue("Bucket limit too far above value " + v, CallMetrics.Stats.bucketLimit(bucket) <= v + v / 4 + 1);
+        }
+    }
+
+    public void testMBean() throws Exception {
+        assertTrue("MBean not registered", CallMetrics.registerMBean());
+        lib.returnInt32Argument(0);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(CallMetrics.MBEAN_NAME);
+        assertEquals("Wrong enabled state", Boolean.TRUE, server.getAttribute(name, "Enabled"));
+        CompositeData[] stats = (CompositeData[]) server.getAttribute(name, "FunctionStatistics");
+        boolean found = false;
+        for (CompositeData data : stats) {
+            if (((String) data.get("name")).endsWith(".returnInt32Argument")) {
+                found = true;
+                assertEquals("Wrong call count", 1L, data.get("callCount"));
+            }
+        }
+        assertTrue("Function missing from MBean", found);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(CallMetricsTest.class);
+    }
+}
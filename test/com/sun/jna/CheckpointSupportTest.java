@@ -0,0 +1,221 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sun.jna.Structure.FieldOrder;
+
+import junit.framework.TestCase;
+
+public class CheckpointSupportTest extends TestCase {
+
+    public interface TestLibrary extends Library {
+        int returnInt32Argument(int arg);
+        String returnStringArgument(String arg);
+    }
+
+    public static class DirectTestLibrary {
+        public static native int returnInt32Argument(int arg);
+        static {
+            Native.register("testlib");
+        }
+    }
+
+    @FieldOrder({ "value" })
+    public static class TestStructure extends Structure {
+        public int value;
+    }
+
+    public void testCheckpointAndRestore() {
+        TestLibrary lib = Native.load("testlib", TestLibrary.class);
+        assertEquals(1, lib.returnInt32Argument(1));
+        assertEquals(2, DirectTestLibrary.returnInt32Argument(2));
+        NativeLibrary nativeLibrary = Native.getNativeLibrary(lib);
+
+        CheckpointSupport.beforeCheckpoint();
+        try {
+            try {
+                DirectTestLibrary.returnInt32Argument(3);
+                fail("Direct mapping should be unregistered");
+            } catch(UnsatisfiedLinkError e) {
+                // expected
+            }
+            try {
+                nativeLibrary.getFunction("returnDoubleArgument");
+                fail("Library should be closed");
+            } catch(UnsatisfiedLinkError e) {
+                // expected
+            }
+            assertFalse(Native.registered(DirectTestLibrary.class));
+        } finally {
+            CheckpointSupport.afterRestore();
+        }
+
+        assertTrue(Native.registered(DirectTestLibrary.class));
+        assertSame("Library instance should be kept", nativeLibrary, Native.getNativeLibrary(lib));
+        assertEquals(4, lib.returnInt32Argument(4));
+        assertEquals("restored", lib.returnStringArgument("restored"));
+        assertEquals(5, DirectTestLibrary.returnInt32Argument(5));
+        assertNotNull(nativeLibrary.getFunction("returnDoubleArgument"));
+    }
+
+    public void testCallsFailWhileSuspended() {
+        TestLibrary lib = Native.load("testlib", TestLibrary.class);
+        Map<String, Object> options = new HashMap<>();
+        options.put(Library.OPTION_DIRECT_DISPATCH, Boolean.TRUE);
+        TestLibrary direct = Native.load("testlib", TestLibrary.class, options);
+        assertEquals(1, lib.returnInt32Argument(1));
+        assertEquals(1, direct.returnInt32Argument(1));
+
+        CheckpointSupport.beforeCheckpoint();
+        try {
+            try {
+                lib.returnInt32Argument(2);
+                fail("Call through a closed library should fail");
+            } catch(UnsatisfiedLinkError e) {
+                // expected
+            }
+            try {
+                direct.returnInt32Argument(2);
+                fail("Direct dispatch through a closed library should fail");
+            } catch(UnsatisfiedLinkError e) {
+                // expected
+            }
+        } finally {
+            CheckpointSupport.afterRestore();
+        }
+        assertEquals(3, lib.returnInt32Argument(3));
+        assertEquals(3, direct.returnInt32Argument(3));
+    }
+
+    public void testRestoreWithMissingFunction() {
+        final boolean[] hidden = { false };
+        Map<String, Object> options = new HashMap<>();
+        options.put(Library.OPTION_SYMBOL_PROVIDER, new SymbolProvider() {
+            @Override
+            public long getSymbolAddress(long handle, String name, SymbolProvider parent) {
+                return hidden[0] && "returnStringArgument".equals(name) ? 0 : parent.getSymbolAddress(handle, name, null);
+            }
+        });
+        TestLibrary lib = Native.load("testlib", TestLibrary.class, options);
+        assertEquals("before", lib.returnStringArgument("before"));
+
+        CheckpointSupport.beforeCheckpoint();
+        hidden[0] = true;
+        CheckpointSupport.afterRestore();
+
+        assertEquals(1, lib.returnInt32Argument(1));
+        try {
+            lib.returnStringArgument("after");
+            fail("Function no longer found should fail");
+        } catch(UnsatisfiedLinkError e) {
+            assertTrue("Missing function not reported: " + e.getMessage(),
+                       e.getMessage().contains("returnStringArgument"));
+        }
+    }
+
+    public void testRestoreSkipsMissingLibrary() throws IOException {
+        TestLibrary lib = Native.load("testlib", TestLibrary.class);
+        File original = Native.getNativeLibrary(lib).getFile();
+        File copy = File.createTempFile("testlib-checkpoint", ".so");
+        copy.deleteOnExit();
+        Files.copy(original.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        TestLibrary copied = Native.load(copy.getAbsolutePath(), TestLibrary.class);
+        assertEquals(1, copied.returnInt32Argument(1));
+
+        CheckpointSupport.beforeCheckpoint();
+        assertTrue("Unable to delete " + copy, copy.delete());
+        CheckpointSupport.afterRestore();
+
+        assertEquals("Other libraries should be reopened", 2, lib.returnInt32Argument(2));
+        try {
+            copied.returnInt32Argument(3);
+            fail("Library which could not be reopened should stay closed");
+        } catch(UnsatisfiedLinkError e) {
+            // expected
+        }
+        Native.getNativeLibrary(copied).close();
+    }
+
+    public void testSnapshotRestoresLibraries() throws IOException {
+        TestLibrary lib = Native.load("testlib", TestLibrary.class);
+        assertEquals(1, lib.returnInt32Argument(1));
+        assertEquals(4, new TestStructure().size());
+        NativeLibrary nativeLibrary = Native.getNativeLibrary(lib);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        CheckpointSupport.writeSnapshot(bos);
+        nativeLibrary.close();
+
+        assertTrue("Snapshot should be restored",
+                   CheckpointSupport.restoreSnapshot(new ByteArrayInputStream(bos.toByteArray()), getClass().getClassLoader()));
+        NativeLibrary restored = NativeLibrary.getInstance("testlib", nativeLibrary.getOptions());
+        assertNotSame("Library should have been reopened", nativeLibrary, restored);
+        assertTrue("Functions should have been looked up: " + restored.getFunctionNames(),
+                   restored.getFunctionNames().containsKey("returnInt32Argument"));
+        assertEquals(6, restored.getFunction("returnInt32Argument").invokeInt(new Object[] { 6 }));
+    }
+
+    public void testSnapshotFromOtherVersionIgnored() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(CheckpointSupport.MAGIC);
+        out.writeInt(CheckpointSupport.FORMAT);
+        out.writeUTF("0.0.0");
+        out.writeInt(1);
+        assertFalse(CheckpointSupport.restoreSnapshot(new ByteArrayInputStream(bos.toByteArray()), null));
+
+        try {
+            CheckpointSupport.restoreSnapshot(new ByteArrayInputStream(new byte[8]), null);
+            fail("Invalid snapshot should fail");
+        } catch(IOException e) {
+            // expected
+        }
+    }
+
+    public void testRegister() {
+        boolean available = false;
+        for (String name : new String[] { "org.crac.Core", "jdk.crac.Core" }) {
+            try {
+                Class.forName(name);
+                available = true;
+            } catch(ClassNotFoundException e) {
+                // not available
+            }
+        }
+        assertEquals(available, CheckpointSupport.register());
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(CheckpointSupportTest.class);
+    }
+}
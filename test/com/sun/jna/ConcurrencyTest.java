@@ -0,0 +1,239 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class ConcurrencyTest extends TestCase {
+
+    private static final Map<String, ?> OPTIONS =
+            Collections.singletonMap(Library.OPTION_FUNCTION_MAPPER, new FunctionMapper() {
+                @Override
+                public String getFunctionName(NativeLibrary library, Method m) {
+                    return m.getName().startsWith("call") ? "callInt32Callback" : m.getName();
+                }
+            });
+
+    public interface Int32Callback extends Callback {
+        int callback(int arg, int arg2);
+    }
+
+    @Concurrency.Exclusive("global")
+    public interface TestLibrary extends Library {
+        int callGlobal(Int32Callback cb, int arg1, int arg2);
+        @Concurrency.Read("rw")
+        int callReader(Int32Callback cb, int arg1, int arg2);
+        @Concurrency.Write("rw")
+        int callWriter(Int32Callback cb, int arg1, int arg2);
+        @Concurrency.Permits(value="pool", max=2)
+        int callPooled(Int32Callback cb, int arg1, int arg2);
+        @Concurrency.LockFree
+        int callUnrestricted(Int32Callback cb, int arg1, int arg2);
+        @Concurrency.Permits(value="global", max=2)
+        int callConflicting(Int32Callback cb, int arg1, int arg2);
+    }
+
+    public interface BaseLibrary extends Library {
+        int callInherited(Int32Callback cb, int arg1, int arg2);
+    }
+
+    @Concurrency.Exclusive("derived")
+    public interface DerivedLibrary extends BaseLibrary {
+    }
+
+    private static class ActiveCounter implements Int32Callback {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        @Override
+        public int callback(int arg, int arg2) {
+            int n = active.incrementAndGet();
+            maxActive.accumulateAndGet(n, Math::max);
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            active.decrementAndGet();
+            return arg + arg2;
+        }
+    }
+
+    private interface Call {
+        int call(Int32Callback cb);
+    }
+
+    private static void runConcurrently(final Call call, final Int32Callback cb, int nthreads, final int ncalls) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        for (int i=0;i < nthreads;i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    for (int j=0;j < ncalls;j++) {
+                        assertEquals("Wrong result", 3, call.call(cb));
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join(TimeUnit.SECONDS.toMillis(30));
+        }
+        assertEquals("Errors in calling threads: " + errors, 0, errors.size());
+    }
+
+    private TestLibrary lib;
+
+    @Override
+    protected void setUp() {
+        lib = Native.load("testlib", TestLibrary.class, OPTIONS);
+    }
+
+    private Concurrency.Statistics getStatistics(String group) {
+        NativeLibrary nl = ((Library.Handler) java.lang.reflect.Proxy.getInvocationHandler(lib)).getNativeLibrary();
+        return Concurrency.getStatistics(nl).get(group);
+    }
+
+    // Groups are shared by all tests loading the same library
+    private long getAcquisitions(String group) {
+        Concurrency.Statistics stats = getStatistics(group);
+        return stats == null ? 0 : stats.getAcquisitions();
+    }
+
+    public void testInterfaceLevelExclusiveGroup() throws Exception {
+        ActiveCounter cb = new ActiveCounter();
+        long before = getAcquisitions("global");
+        runConcurrently((c) -> lib.callGlobal(c, 1, 2), cb, 8, 20);
+        assertEquals("Exclusive group allowed concurrent calls", 1, cb.maxActive.get());
+        Concurrency.Statistics stats = getStatistics("global");
+        assertEquals("Wrong acquisition count", 160, stats.getAcquisitions() - before);
+        assertTrue("Wait time without contention", stats.getContendedAcquisitions() > 0 || stats.getWaitNanos() == 0);
+    }
+
+    public void testReadersRunConcurrently() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        final AtomicInteger overlapped = new AtomicInteger();
+        Int32Callback cb = (arg, arg2) -> {
+            latch.countDown();
+            try {
+                if (latch.await(10, TimeUnit.SECONDS)) {
+                    overlapped.incrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return arg + arg2;
+        };
+        runConcurrently((c) -> lib.callReader(c, 1, 2), cb, 2, 1);
+        assertEquals("Readers should overlap", 2, overlapped.get());
+    }
+
+    public void testWritersExcludeReaders() throws Exception {
+        final ActiveCounter cb = new ActiveCounter();
+        final AtomicInteger writing = new AtomicInteger();
+        final AtomicInteger conflicts = new AtomicInteger();
+        Int32Callback reader = (arg, arg2) -> {
+            if (writing.get() != 0) {
+                conflicts.incrementAndGet();
+            }
+            return cb.callback(arg, arg2);
+        };
+        Int32Callback writer = (arg, arg2) -> {
+            writing.incrementAndGet();
+            int result = cb.callback(arg, arg2);
+            writing.decrementAndGet();
+            return result;
+        };
+        runConcurrently((c) -> (Thread.currentThread().getId() % 2 == 0)
+                        ? lib.callReader(reader, 1, 2) : lib.callWriter(writer, 1, 2),
+                        null, 8, 20);
+        assertEquals("Readers ran during a write", 0, conflicts.get());
+    }
+
+    public void testPermits() throws Exception {
+        ActiveCounter cb = new ActiveCounter();
+        long before = getAcquisitions("pool");
+        runConcurrently((c) -> lib.callPooled(c, 1, 2), cb, 8, 20);
+        assertTrue("Permit limit exceeded: " + cb.maxActive.get(), cb.maxActive.get() <= 2);
+        assertEquals("Wrong acquisition count", 160, getAcquisitions("pool") - before);
+    }
+
+    public void testLockFree() throws Exception {
+        long before = getAcquisitions("global");
+        assertEquals("Wrong result", 3, lib.callUnrestricted(new ActiveCounter(), 1, 2));
+        assertEquals("Lock-free method should not enter a group", before, getAcquisitions("global"));
+    }
+
+    public void testConflictingGroupDefinition() {
+        assertEquals("Wrong result", 3, lib.callGlobal(new ActiveCounter(), 1, 2));
+        try {
+            lib.callConflicting(new ActiveCounter(), 1, 2);
+            fail("Group redefined with permits should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testReaderCannotUpgrade() {
+        final AtomicInteger rejected = new AtomicInteger();
+        Int32Callback writer = (arg, arg2) -> arg + arg2;
+        Int32Callback reader = (arg, arg2) -> {
+            try {
+                lib.callWriter(writer, arg, arg2);
+            } catch (IllegalStateException e) {
+                rejected.incrementAndGet();
+            }
+            return arg + arg2;
+        };
+        assertEquals("Wrong result", 3, lib.callReader(reader, 1, 2));
+        assertEquals("Upgrade from reader to writer should be rejected", 1, rejected.get());
+        // Writers may still call readers of the same group
+        Int32Callback nestedReader = (arg, arg2) -> lib.callReader(writer, arg, arg2);
+        assertEquals("Wrong result", 3, lib.callWriter(nestedReader, 1, 2));
+    }
+
+    public void testInheritedMethodUsesMappedInterface() {
+        DerivedLibrary derived = Native.load("testlib", DerivedLibrary.class, OPTIONS);
+        NativeLibrary nl = ((Library.Handler) java.lang.reflect.Proxy.getInvocationHandler(derived)).getNativeLibrary();
+        Concurrency.Statistics stats = Concurrency.getStatistics(nl).get("derived");
+        long before = stats == null ? 0 : stats.getAcquisitions();
+        assertEquals("Wrong result", 3, derived.callInherited(new ActiveCounter(), 1, 2));
+        assertEquals("Inherited method should use the mapped interface's group",
+                     before + 1, Concurrency.getStatistics(nl).get("derived").getAcquisitions());
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(ConcurrencyTest.class);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class CriticalTest extends TestCase {
+
+    public interface TestLibrary extends Library {
+        int fillInt8Buffer(@Critical(Critical.Direction.OUT) byte[] buf, int len, byte value);
+        int fillInt32Buffer(@Critical(Critical.Direction.OUT) int[] buf, int len, int value);
+        int fillDoubleBuffer(@Critical double[] buf, int len, double value);
+        @Critical(Critical.Direction.IN)
+        int fillInt16Buffer(short[] buf, int len, short value);
+        int fillInt64Buffer(long[] buf, int len, long value);
+    }
+
+    public interface CLibrary extends Library {
+        int strlen(@Critical(Critical.Direction.IN) byte[] s);
+        int memcmp(@Critical(Critical.Direction.IN) byte[] a, @Critical(Critical.Direction.IN) byte[] b, int n);
+    }
+
+    private TestLibrary lib;
+    private CLibrary libc;
+
+    @Override
+    protected void setUp() {
+        lib = Native.load("testlib", TestLibrary.class);
+        libc = Native.load(Platform.C_LIBRARY_NAME, CLibrary.class);
+    }
+
+    public void testOutArray() {
+        byte[] buf = new byte[1024];
+        assertEquals("Wrong return", buf.length, lib.fillInt8Buffer(buf, buf.length, (byte)0x7f));
+        for (int i=0;i < buf.length;i++) {
+            assertEquals("Element " + i + " not copied back", 0x7f, buf[i]);
+        }
+        int[] ibuf = new int[1024];
+        lib.fillInt32Buffer(ibuf, ibuf.length, 0x12345678);
+        assertEquals("Element not copied back", 0x12345678, ibuf[1023]);
+    }
+
+    public void testInOutArray() {
+        double[] buf = new double[16];
+        lib.fillDoubleBuffer(buf, buf.length, 1.5);
+        assertEquals("Element not copied back", 1.5, buf[15], 0);
+    }
+
+    public void testInArrayNotCopiedBack() {
+        short[] buf = new short[32];
+        lib.fillInt16Buffer(buf, buf.length, (short)7);
+        for (int i=0;i < buf.length;i++) {
+            assertEquals("IN array should not be copied back", 0, buf[i]);
+        }
+        // Unannotated arrays are unaffected
+        long[] lbuf = new long[4];
+        lib.fillInt64Buffer(lbuf, lbuf.length, 9L);
+        assertEquals("Array not copied back", 9L, lbuf[3]);
+    }
+
+    public void testInArrays() {
+        byte[] s = "hello\0".getBytes();
+        assertEquals("Array not copied in", 5, libc.strlen(s));
+        byte[] a = { 1, 2, 3, 4 };
+        byte[] b = { 1, 2, 3, 5 };
+        assertTrue("Arrays not copied in", libc.memcmp(a, b, 4) < 0);
+        assertEquals("Arrays not copied in separately", 0, libc.memcmp(a, a.clone(), 4));
+    }
+
+    public void testLargeArray() {
+        byte[] buf = new byte[20 * 1024 * 1024];
+        lib.fillInt8Buffer(buf, buf.length, (byte)1);
+        assertEquals("Element not copied back", 1, buf[buf.length - 1]);
+        byte[] s = new byte[buf.length];
+        Arrays.fill(s, 0, s.length - 1, (byte)'x');
+        assertEquals("Array not copied in", s.length - 1, libc.strlen(s));
+    }
+
+    public void testConcurrentCalls() throws Exception {
+        final Throwable[] errors = new Throwable[4];
+        Thread[] threads = new Thread[errors.length];
+        for (int t=0;t < threads.length;t++) {
+            final byte value = (byte)(t + 1);
+            final int index = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        byte[] buf = new byte[4096];
+                        for (int i=0;i < 100;i++) {
+                            lib.fillInt8Buffer(buf, buf.length, value);
+                            assertEquals(value, buf[i]);
+                        }
+                    } catch (Throwable e) {
+                        errors[index] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t=0;t < threads.length;t++) {
+            threads[t].join();
+            if (errors[t] != null) {
+                throw new AssertionError("Call failed on thread " + t, errors[t]);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(CriticalTest.class);
+    }
+}
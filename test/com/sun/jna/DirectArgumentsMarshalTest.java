@@ -58,15 +58,15 @@ public class DirectArgumentsMarshalTest extends ArgumentsMarshalTest {
         @Override
         public native Pointer returnPointerArgument(Pointer p);
         @Override
-        public String returnStringArrayElement(String[] args, int which) {throw new UnsupportedOperationException();}
+        public native String returnStringArrayElement(String[] args, int which);
         @Override
-        public WString returnWideStringArrayElement(WString[] args, int which) {throw new UnsupportedOperationException();}
+        public native WString returnWideStringArrayElement(WString[] args, int which);
         @Override
-        public Pointer returnPointerArrayElement(Pointer[] args, int which) {throw new UnsupportedOperationException();}
+        public native Pointer returnPointerArrayElement(@In Pointer[] args, int which);
         @Override
-        public TestPointerType returnPointerArrayElement(TestPointerType[] args, int which) {throw new UnsupportedOperationException();}
+        public native TestPointerType returnPointerArrayElement(@In TestPointerType[] args, int which);
         @Override
-        public CheckFieldAlignment returnPointerArrayElement(CheckFieldAlignment.ByReference[] args, int which) {throw new UnsupportedOperationException();}
+        public native CheckFieldAlignment returnPointerArrayElement(@In CheckFieldAlignment.ByReference[] args, int which);
         @Override
         public int returnRotatedArgumentCount(String[] args) {throw new UnsupportedOperationException();}
 
@@ -79,13 +79,9 @@ public class DirectArgumentsMarshalTest extends ArgumentsMarshalTest {
         @Override
         public native int testStructureByValueArgument(CheckFieldAlignment.ByValue p);
         @Override
-        public int testStructureArrayInitialization(CheckFieldAlignment[] p, int len) {
-            throw new UnsupportedOperationException();
-        }
+        public native int testStructureArrayInitialization(@In CheckFieldAlignment[] p, int len);
         @Override
-        public int testStructureByReferenceArrayInitialization(CheckFieldAlignment.ByReference[] p, int len) {
-            throw new UnsupportedOperationException();
-        }
+        public native int testStructureByReferenceArrayInitialization(@In CheckFieldAlignment.ByReference[] p, int len);
         @Override
         public void modifyStructureArray(CheckFieldAlignment[] p, int length) {
             throw new UnsupportedOperationException();
@@ -178,11 +174,8 @@ public class DirectArgumentsMarshalTest extends ArgumentsMarshalTest {
         super.testWStringArgumentReturn();
     }
 
-    // Override tests not yet supported in direct mode
-    @Override
-    public void testStringArrayArgument() { }
-    @Override
-    public void testWriteStructureArrayArgumentMemory() { }
+    // Override tests not yet supported in direct mode; arrays are not
+    // read back after a direct call
     @Override
     public void testUninitializedStructureArrayArgument() { }
     @Override
@@ -190,16 +183,6 @@ public class DirectArgumentsMarshalTest extends ArgumentsMarshalTest {
     @Override
     public void testRejectIncompatibleStructureArrayArgument() { }
     @Override
-    public void testWideStringArrayArgument() { }
-    @Override
-    public void testPointerArrayArgument() { }
-    @Override
-    public void testNativeMappedArrayArgument() { }
-    @Override
-    public void testStructureByReferenceArrayArgument() { }
-    @Override
-    public void testWriteStructureByReferenceArrayArgumentMemory() { }
-    @Override
     public void testReadStructureByReferenceArrayArgumentMemory() { }
     @Override
     public void testModifiedCharArrayArgument() { }
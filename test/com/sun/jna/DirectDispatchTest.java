@@ -0,0 +1,234 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class DirectDispatchTest extends TestCase {
+
+    public static class Handle extends PointerType {
+        public Handle() { }
+        public Handle(Pointer p) { super(p); }
+    }
+
+    public static class Counter extends IntegerType {
+        private static final long serialVersionUID = 1L;
+        public Counter() { this(0); }
+        public Counter(long value) { super(4, value); }
+    }
+
+    public static class Flag {
+        final boolean value;
+        public Flag(boolean value) { this.value = value; }
+    }
+
+    public static class Text {
+        final String value;
+        public Text(String value) { this.value = value; }
+    }
+
+    public interface PointerCallback extends Callback {
+        Pointer callback(Pointer arg, Pointer arg2);
+    }
+
+    public interface TextLibrary extends Library {
+        Pointer callStringCallback(Pointer cb, Text arg, Text arg2);
+    }
+
+    public interface TestLibrary extends Library {
+        int returnInt32Argument(int arg);
+        long returnInt64Argument(long arg);
+        byte returnInt8Argument(byte arg);
+        short returnInt16Argument(short arg);
+        float returnFloatArgument(float arg);
+        double returnDoubleArgument(double arg);
+        boolean returnBooleanArgument(boolean arg);
+        NativeLong returnLongArgument(NativeLong arg);
+        Pointer returnPointerArgument(Pointer arg);
+        Handle returnPointerArgument(Handle arg);
+        Counter returnInt32Argument(Counter arg);
+        Flag returnBooleanArgument(Flag arg);
+        void setLastError(int code) throws LastErrorException;
+        int returnInt32Argument(String s);
+    }
+
+    private static final TypeMapper FLAG_MAPPER;
+    static {
+        DefaultTypeMapper mapper = new DefaultTypeMapper();
+        mapper.addTypeConverter(Flag.class, new TypeConverter() {
+            @Override
+            public Object toNative(Object value, ToNativeContext context) {
+                return ((Flag) value).value ? 1 : 0;
+            }
+            @Override
+            public Object fromNative(Object value, FromNativeContext context) {
+                return new Flag(((Integer) value).intValue() != 0);
+            }
+            @Override
+            public Class<?> nativeType() {
+                return Integer.class;
+            }
+        });
+        FLAG_MAPPER = mapper;
+    }
+
+    private TestLibrary lib;
+
+    @Override
+    protected void setUp() {
+        Map<String, Object> options = new HashMap<>();
+        options.put(Library.OPTION_DIRECT_DISPATCH, Boolean.TRUE);
+        options.put(Library.OPTION_TYPE_MAPPER, FLAG_MAPPER);
+        lib = Native.load("testlib", TestLibrary.class, options);
+    }
+
+    @Override
+    protected void tearDown() {
+        lib = null;
+    }
+
+    private static DirectWrapper createWrapper(String name, Class<?>... types) throws Exception {
+        Method method = TestLibrary.class.getMethod(name, types);
+        Function f = NativeLibrary.getInstance("testlib").getFunction(name);
+        return DirectWrapper.create(f, method, method.getReturnType(),
+                                    Collections.singletonMap(Library.OPTION_TYPE_MAPPER, FLAG_MAPPER));
+    }
+
+    public void testPrimitiveArguments() {
+        assertEquals(0x12345678, lib.returnInt32Argument(0x12345678));
+        assertEquals(0x123456789ABCDEFL, lib.returnInt64Argument(0x123456789ABCDEFL));
+        assertEquals((byte) -2, lib.returnInt8Argument((byte) -2));
+        assertEquals((short) 0x7BCD, lib.returnInt16Argument((short) 0x7BCD));
+        assertEquals(1.5f, lib.returnFloatArgument(1.5f), 0f);
+        assertEquals(-2.25, lib.returnDoubleArgument(-2.25), 0d);
+        assertTrue(lib.returnBooleanArgument(true));
+        assertFalse(lib.returnBooleanArgument(false));
+    }
+
+    public void testPointerArguments() {
+        Pointer p = new Pointer(0x12345678);
+        assertEquals(p, lib.returnPointerArgument(p));
+        assertNull(lib.returnPointerArgument((Pointer) null));
+    }
+
+    public void testNativeMappedArguments() {
+        NativeLong value = new NativeLong(Native.LONG_SIZE == 8 ? 0x123456789ABCDEFL : 0x1234567);
+        assertEquals(value, lib.returnLongArgument(value));
+        assertEquals(new Counter(42), lib.returnInt32Argument(new Counter(42)));
+        Handle h = new Handle(new Pointer(0xABCDEF));
+        assertEquals(h.getPointer(), lib.returnPointerArgument(h).getPointer());
+    }
+
+    public void testTypeMapperArguments() {
+        assertTrue(lib.returnBooleanArgument(new Flag(true)).value);
+        assertFalse(lib.returnBooleanArgument(new Flag(false)).value);
+    }
+
+    public void testLastError() {
+        try {
+            lib.setLastError(-1);
+            fail("Expected LastErrorException");
+        } catch (LastErrorException e) {
+            assertEquals(-1, e.getErrorCode());
+        }
+    }
+
+    public void testUnsupportedMethodsUseFunction() throws Exception {
+        assertNull("String arguments are not converted by the stub",
+                   createWrapper("returnInt32Argument", String.class));
+        Map<String, Object> options = new HashMap<>();
+        options.put(Library.OPTION_DIRECT_DISPATCH, Boolean.TRUE);
+        options.put(Library.OPTION_TYPE_MAPPER, new DefaultTypeMapper() {{
+            addToNativeConverter(String.class, new ToNativeConverter() {
+                @Override
+                public Object toNative(Object value, ToNativeContext context) {
+                    return Integer.valueOf((String) value, 16);
+                }
+                @Override
+                public Class<?> nativeType() {
+                    return Integer.class;
+                }
+            });
+        }});
+        TestLibrary mapped = Native.load("testlib", TestLibrary.class, options);
+        assertEquals(0x7BCD, mapped.returnInt32Argument("7bcd"));
+    }
+
+    public void testWrapperCallsStub() throws Exception {
+        DirectWrapper wrapper = createWrapper("returnInt32Argument", Counter.class);
+        assertNotNull("Wrapper not created", wrapper);
+        assertEquals(new Counter(7), wrapper.invoke(new Object[] { new Counter(7) }));
+        wrapper = createWrapper("returnPointerArgument", Pointer.class);
+        assertNotNull("Wrapper not created", wrapper);
+        assertEquals(new Pointer(0x1000), wrapper.invoke(new Object[] { new Pointer(0x1000) }));
+    }
+
+    public void testConvertedArgumentsReachableDuringCall() {
+        final WeakReference<?>[] converted = { null };
+        DefaultTypeMapper mapper = new DefaultTypeMapper();
+        mapper.addToNativeConverter(Text.class, new ToNativeConverter() {
+            @Override
+            public Object toNative(Object value, ToNativeContext context) {
+                Memory m = new Memory(64);
+                m.setString(0, ((Text) value).value);
+                converted[0] = new WeakReference<>(m);
+                return m;
+            }
+            @Override
+            public Class<?> nativeType() {
+                return Pointer.class;
+            }
+        });
+        Map<String, Object> options = new HashMap<>();
+        options.put(Library.OPTION_DIRECT_DISPATCH, Boolean.TRUE);
+        options.put(Library.OPTION_TYPE_MAPPER, mapper);
+        TextLibrary textLib = Native.load("testlib", TextLibrary.class, options);
+        final boolean[] collected = { false };
+        final String[] seen = { null };
+        PointerCallback cb = new PointerCallback() {
+            @Override
+            public Pointer callback(Pointer arg, Pointer arg2) {
+                for (int i=0;i < 10 && !collected[0];i++) {
+                    System.gc();
+                    collected[0] = converted[0].get() == null;
+                }
+                seen[0] = arg2.getString(0);
+                return null;
+            }
+        };
+        textLib.callStringCallback(CallbackReference.getFunctionPointer(cb),
+                                   new Text("first"), new Text("converted argument"));
+        assertFalse("Converted argument collected during the call", collected[0]);
+        assertEquals("converted argument", seen[0]);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(DirectDispatchTest.class);
+    }
+}
@@ -301,6 +301,51 @@ public class DirectTest extends TestCase implements Paths {
         }
     }
 
+    static class VarArgsLibrary {
+        static native int printf(String format, Object... args);
+    }
+    public void testRejectVarArgs() {
+        try {
+            Native.register(VarArgsLibrary.class, NativeLibrary.getInstance(Platform.C_LIBRARY_NAME));
+            fail("Varargs can not be mapped directly");
+        } catch(IllegalArgumentException e) {
+            assertTrue("Reason not reported: " + e.getMessage(), e.getMessage().contains("varargs"));
+        }
+    }
+
+    static class PointerArrayLibrary {
+        static native Pointer returnPointerArrayElement(Pointer[] args, int which);
+    }
+    public void testRejectArrayNotMarkedIn() {
+        try {
+            Native.register(PointerArrayLibrary.class, NativeLibrary.getInstance("testlib"));
+            fail("Pointer[] must be marked @In to be mapped directly");
+        } catch(IllegalArgumentException e) {
+            assertTrue("Reason not reported: " + e.getMessage(), e.getMessage().contains("@In"));
+        }
+    }
+
+    static class StringArrayLibrary {
+        static native String returnStringArrayElement(String[] args, int which);
+        static native Pointer returnPointerArrayElement(@In Pointer[] args, int which);
+    }
+    public void testArrayConvertersSurviveGC() throws Exception {
+        Native.register(StringArrayLibrary.class, NativeLibrary.getInstance("testlib"));
+        try {
+            for (int i=0;i < 3;i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertEquals("Wrong String[] element", "y",
+                         StringArrayLibrary.returnStringArrayElement(new String[] { "x", "y" }, 1));
+            Pointer p = new Pointer(0x1234);
+            assertEquals("Wrong Pointer[] element", p,
+                         StringArrayLibrary.returnPointerArrayElement(new Pointer[] { null, p }, 1));
+        } finally {
+            Native.unregister(StringArrayLibrary.class);
+        }
+    }
+
     public static class PointerNativeMapped implements NativeMapped {
         String nativeMethodName;
         @Override
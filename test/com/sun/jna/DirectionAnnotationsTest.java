@@ -0,0 +1,128 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import junit.framework.TestCase;
+
+public class DirectionAnnotationsTest extends TestCase {
+
+    @Structure.FieldOrder({ "a", "b" })
+    public static class TestStructure extends Structure {
+        public int a;
+        public int b;
+    }
+
+    public static class Handle extends PointerType {
+        public Handle() { }
+        public Handle(Pointer p) { super(p); }
+    }
+
+    public interface TestLibrary extends Library {
+        int fillInt8Buffer(@In TestStructure s, int len, byte value);
+        int fillInt8Buffer(@InOut TestStructure[] s, int len, byte value);
+        int fillInt32Buffer(@In int[] buf, int len, int value);
+        int fillInt16Buffer(@Out short[] buf, int len, short value);
+        Pointer testStructurePointerArgument(@Out TestStructure s);
+        Pointer returnPointerArrayElement(@Out Pointer[] args, int which);
+        Pointer returnPointerArrayElement(@Out Handle[] args, int which);
+    }
+
+    public static class DirectTestLibrary {
+        public static native int fillInt8Buffer(@In TestStructure s, int len, byte value);
+        public static native int fillInt32Buffer(TestStructure s, int len, int value);
+        static {
+            Native.register("testlib");
+        }
+    }
+
+    private TestLibrary lib;
+
+    @Override
+    protected void setUp() {
+        lib = Native.load("testlib", TestLibrary.class);
+    }
+
+    public void testInStructureNotReadBack() {
+        TestStructure s = new TestStructure();
+        s.a = 1;
+        lib.fillInt8Buffer(s, s.size(), (byte)0x11);
+        assertEquals("IN structure should be written", 1, s.a);
+        assertEquals("IN structure should not be read back", 0, s.b);
+        assertEquals("Native memory not modified", 0x11111111, s.getPointer().getInt(4));
+    }
+
+    public void testInOutStructureArrayReadBack() {
+        TestStructure[] ss = (TestStructure[]) new TestStructure().toArray(2);
+        lib.fillInt8Buffer(ss, ss[0].size() * 2, (byte)0x22);
+        assertEquals("Structure array not read back", 0x22222222, ss[1].b);
+    }
+
+    public void testOutStructureNotWritten() {
+        TestStructure s = new TestStructure();
+        s.a = 42;
+        lib.testStructurePointerArgument(s);
+        assertEquals("OUT structure should not be written", 0, s.getPointer().getInt(0));
+        assertEquals("OUT structure should be read back", 0, s.a);
+    }
+
+    public void testInPrimitiveArrayNotCopiedBack() {
+        int[] buf = new int[8];
+        lib.fillInt32Buffer(buf, buf.length, 5);
+        for (int i=0;i < buf.length;i++) {
+            assertEquals("IN array should not be copied back", 0, buf[i]);
+        }
+    }
+
+    public void testOutPrimitiveArrayCopiedBack() {
+        short[] buf = new short[8];
+        lib.fillInt16Buffer(buf, buf.length, (short)3);
+        assertEquals("OUT array not copied back", 3, buf[7]);
+    }
+
+    public void testOutPointerArrayNotWritten() {
+        Pointer[] args = { new Pointer(1), new Pointer(2) };
+        assertNull("OUT pointer array should be zero-filled", lib.returnPointerArrayElement(args, 1));
+        assertNull("OUT pointer array should be read back", args[0]);
+    }
+
+    public void testOutNativeMappedArrayZeroFilled() {
+        Handle[] args = { new Handle(new Pointer(1)), new Handle(new Pointer(2)) };
+        assertNull("OUT array should be zero-filled", lib.returnPointerArrayElement(args, 1));
+        assertNull("OUT array should be read back", args[0]);
+    }
+
+    public void testDirectInStructureNotReadBack() {
+        TestStructure s = new TestStructure();
+        s.a = 1;
+        DirectTestLibrary.fillInt8Buffer(s, s.size(), (byte)0x33);
+        assertEquals("IN structure should be written", 1, s.a);
+        assertEquals("IN structure should not be read back", 0, s.b);
+        assertEquals("Native memory not modified", 0x33333333, s.getPointer().getInt(4));
+        DirectTestLibrary.fillInt32Buffer(s, 2, 7);
+        assertEquals("Unannotated structure not read back", 7, s.b);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(DirectionAnnotationsTest.class);
+    }
+}
@@ -24,9 +24,18 @@
 package com.sun.jna;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import org.junit.AfterClass;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Assume;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -115,6 +124,144 @@ public class ELFAnalyserTest {
         assertTrue(ahfd.isArmHardFloat());
     }
 
+    @Test
+    public void testDynamicSymbols() throws IOException {
+        ELFAnalyser.DynamicInfo info = ELFAnalyser.analyseDynamic(LINUX_AMD64_LIB.getAbsolutePath());
+        assertTrue(info.is64Bit());
+        assertFalse(info.isBigEndian());
+        assertFalse(info.isArm());
+        assertEquals("/jnabuild/jnalib/build/native-linux-x86-64/libjnidispatch.so", info.getSoname());
+        assertEquals(Arrays.asList("libc.so.6"), info.getNeeded());
+        // readelf --dyn-syms: defined GLOBAL/WEAK symbols with default visibility
+        List<ELFAnalyser.ELFSymbol> symbols = info.getSymbols();
+        assertEquals(142, symbols.size());
+
+        ELFAnalyser.ELFSymbol function = info.lookup("Java_com_sun_jna_Native_indexOf");
+        assertNotNull(function);
+        assertTrue(function.isFunction());
+        ELFAnalyser.ELFSymbol object = info.lookup("ffi_type_uint8");
+        assertNotNull(object);
+        assertEquals(ELFAnalyser.ELFSymbol.STT_OBJECT, object.getType());
+        // Imported symbols are not exported
+        assertNull(info.lookup("memcpy"));
+        assertNull(info.lookup("Java_com_sun_jna_Native_indexO"));
+        for (ELFAnalyser.ELFSymbol symbol : symbols) {
+            assertTrue(symbol.getName(), info.hasSymbol(symbol.getName()));
+        }
+    }
+
+    @Test
+    public void testDynamicSymbols32Bit() throws IOException {
+        ELFAnalyser.DynamicInfo info = ELFAnalyser.analyseDynamic(LINUX_ARMHF_LIB.getAbsolutePath());
+        assertFalse(info.is64Bit());
+        assertTrue(info.isArm());
+        assertEquals(Arrays.asList("libc.so.6"), info.getNeeded());
+        assertEquals(147, info.getSymbols().size());
+        assertTrue(info.hasSymbol("Java_com_sun_jna_Native_indexOf"));
+        assertFalse(info.hasSymbol("printf"));
+        for (ELFAnalyser.ELFSymbol symbol : info.getSymbols()) {
+            assertTrue(symbol.getName(), info.hasSymbol(symbol.getName()));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testDynamicSymbolsNonELF() throws IOException {
+        ELFAnalyser.analyseDynamic(WIN32_LIB.getAbsolutePath());
+    }
+
+    @Test
+    public void testSymbolVersions() throws IOException {
+        File libc = new File("/lib/x86_64-linux-gnu/libc.so.6");
+        Assume.assumeTrue(libc.isFile());
+        ELFAnalyser.DynamicInfo info = ELFAnalyser.analyseDynamic(libc.getPath());
+        assertEquals("libc.so.6", info.getSoname());
+        ELFAnalyser.ELFSymbol memcpy = info.lookup("memcpy");
+        assertNotNull(memcpy);
+        assertEquals("GLIBC_2.14", memcpy.getVersion());
+        assertFalse(memcpy.isHidden());
+        boolean oldVersion = false;
+        for (ELFAnalyser.ELFSymbol symbol : info.getSymbols()) {
+            if ("memcpy".equals(symbol.getName()) && symbol.isHidden()) {
+                oldVersion = "GLIBC_2.2.5".equals(symbol.getVersion());
+            }
+        }
+        assertTrue("Non-default memcpy@GLIBC_2.2.5 not listed", oldVersion);
+    }
+
+    @Test
+    public void testDynamicSymbolsTruncated() throws IOException {
+        byte[] data = readFile(LINUX_AMD64_LIB);
+        File truncated = new File(TEST_RESOURCES, "linux-amd64-truncated.so");
+        try {
+            for (int length = 0; length < data.length; length += 997) {
+                writeFile(truncated, Arrays.copyOf(data, length));
+                ELFAnalyser.DynamicInfo info;
+                try {
+                    info = ELFAnalyser.analyseDynamic(truncated.getAbsolutePath());
+                } catch (IOException e) {
+                    continue;
+                }
+                // Only sections not needed for symbol lookup are missing
+                assertEquals(142, info.getSymbols().size());
+                assertTrue(info.hasSymbol("Java_com_sun_jna_Native_indexOf"));
+            }
+        } finally {
+            truncated.delete();
+        }
+    }
+
+    @Test
+    public void testDynamicSymbolsMalformedHashTable() throws IOException {
+        byte[] data = readFile(LINUX_AMD64_LIB);
+        int gnuHash = findSection(data, 0x6ffffff6);
+        assertTrue("No .gnu.hash section", gnuHash > 0);
+        File malformed = new File(TEST_RESOURCES, "linux-amd64-malformed.so");
+        // Bloom filter, buckets and symbol offset beyond the table
+        for (int field : new int[] { 8, 0, 4 }) {
+            byte[] copy = data.clone();
+            ByteBuffer.wrap(copy).order(ByteOrder.LITTLE_ENDIAN).putInt(gnuHash + field, 0x7FFFFFF0);
+            writeFile(malformed, copy);
+            try {
+                ELFAnalyser.analyseDynamic(malformed.getAbsolutePath());
+                fail("Malformed hash table should be rejected (field " + field + ")");
+            } catch (IOException e) {
+                // expected
+            } finally {
+                malformed.delete();
+            }
+        }
+    }
+
+    /** @return the file offset of the first section of the given type in a
+     * 64-bit little-endian ELF file */
+    private static int findSection(byte[] data, int type) {
+        ByteBuffer b = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        int shoff = (int) b.getLong(0x28);
+        int shentsize = b.getShort(0x3A) & 0xFFFF;
+        int shnum = b.getShort(0x3C) & 0xFFFF;
+        for (int i = 0; i < shnum; i++) {
+            int entry = shoff + i * shentsize;
+            if (b.getInt(entry + 4) == type) {
+                return (int) b.getLong(entry + 0x18);
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (InputStream is = new FileInputStream(file)) {
+            copyStream(is, bos);
+        }
+        return bos.toByteArray();
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(data);
+        }
+    }
+
     @AfterClass
     public static void afterClass() throws IOException {
         LINUX_AMD64_LIB.delete();
@@ -124,8 +124,21 @@ public class JNALoadTest extends TestCase implements Paths {
             return;
         }
 
-        ClassLoader loader = new TestLoader(true);
-        Class<?> cls = Class.forName("com.sun.jna.Native", true, loader);
+        // Cached libraries are shared and never deleted; check the
+        // temporary copy is cleaned up
+        String nocache = System.setProperty("jna.nocache", "true");
+        ClassLoader loader;
+        Class<?> cls;
+        try {
+            loader = new TestLoader(true);
+            cls = Class.forName("com.sun.jna.Native", true, loader);
+        } finally {
+            if (nocache == null) {
+                System.clearProperty("jna.nocache");
+            } else {
+                System.setProperty("jna.nocache", nocache);
+            }
+        }
         assertEquals("Wrong class loader", loader, cls.getClassLoader());
         assertTrue("System property jna.loaded not set", Boolean.getBoolean("jna.loaded"));
 
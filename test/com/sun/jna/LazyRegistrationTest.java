@@ -0,0 +1,204 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class LazyRegistrationTest extends TestCase {
+
+    static class CountingSymbolProvider implements SymbolProvider {
+        final List<String> lookups = Collections.synchronizedList(new ArrayList<String>());
+        volatile int bulkLookups;
+        @Override
+        public long getSymbolAddress(long handle, String name, SymbolProvider parent) {
+            lookups.add(name);
+            return parent.getSymbolAddress(handle, name, null);
+        }
+        @Override
+        public void getSymbolAddresses(long handle, String[] names, long[] addresses, SymbolProvider parent) {
+            ++bulkLookups;
+            SymbolProvider.super.getSymbolAddresses(handle, names, addresses, parent);
+        }
+    }
+
+    static Map<String, Object> getOptions(SymbolProvider provider, boolean lazy) {
+        Map<String, Object> options = new HashMap<>();
+        options.put(Library.OPTION_SYMBOL_PROVIDER, provider);
+        options.put(Library.OPTION_LAZY_REGISTRATION, lazy);
+        return options;
+    }
+
+    static final CountingSymbolProvider EAGER = new CountingSymbolProvider();
+    static class EagerTestLibrary {
+        public static native int returnInt32Argument(int arg);
+        public static native double returnDoubleArgument(double arg);
+        public static native String returnStringArgument(String arg);
+        static {
+            Native.register(EagerTestLibrary.class, NativeLibrary.getInstance("testlib", getOptions(EAGER, false)));
+        }
+    }
+
+    static final NativeLibrary LAZY = NativeLibrary.getInstance("testlib", Collections.singletonMap(Library.OPTION_LAZY_REGISTRATION, Boolean.TRUE));
+    static class LazyTestLibrary {
+        public static native int returnInt32Argument(int arg);
+        public static native boolean returnBooleanArgument(boolean arg);
+        public static native double returnDoubleArgument(double arg);
+        public static native String returnStringArgument(String arg);
+        public static native NativeLong returnLongArgument(NativeLong arg);
+        public static native void setLastError(int err) throws LastErrorException;
+        static {
+            Native.register(LazyTestLibrary.class, LAZY);
+        }
+    }
+
+    static final NativeLibrary SHARED = NativeLibrary.getInstance("testlib", getSharedOptions());
+    static Map<String, Object> getSharedOptions() {
+        // Distinct options for a library instance of its own
+        Map<String, Object> options = new HashMap<>();
+        options.put(Library.OPTION_LAZY_REGISTRATION, Boolean.TRUE);
+        options.put(Library.OPTION_STRING_ENCODING, "UTF-8");
+        return options;
+    }
+    static class SharedStubLibrary {
+        public static native int returnInt32Zero();
+        public static native int returnInt32Magic();
+        public static native long returnInt64Zero();
+        public static native long returnInt64Magic();
+        static {
+            Native.register(SharedStubLibrary.class, SHARED);
+        }
+    }
+
+    static class MissingSymbolLibrary {
+        public static native int returnInt32Argument(int arg);
+        public static native void missingFunction();
+    }
+
+    static final CountingSymbolProvider UNCONFIRMED = new CountingSymbolProvider();
+    static class UnconfirmedTestLibrary {
+        public static native int returnInt32Argument(int arg);
+        public static native double returnDoubleArgument(double arg);
+        static {
+            Native.register(UnconfirmedTestLibrary.class, NativeLibrary.getInstance("testlib", getOptions(UNCONFIRMED, true)));
+        }
+    }
+
+    public void testEagerRegistrationResolvesInBulk() throws Exception {
+        Class.forName(EagerTestLibrary.class.getName());
+        assertEquals("Symbols should be looked up with a single call", 1, EAGER.bulkLookups);
+        assertEquals("Wrong number of symbols looked up", 3, EAGER.lookups.size());
+        assertEquals(42, EagerTestLibrary.returnInt32Argument(42));
+        assertEquals(1.5, EagerTestLibrary.returnDoubleArgument(1.5), 0);
+        assertEquals("eager", EagerTestLibrary.returnStringArgument("eager"));
+        assertEquals("No further lookups expected", 3, EAGER.lookups.size());
+    }
+
+    public void testLazyRegistrationDefersLookup() throws Exception {
+        if (LAZY.getSymbolTable() == null) {
+            // Symbols can only be confirmed in an ELF symbol table
+            return;
+        }
+        Class.forName(LazyTestLibrary.class.getName());
+        assertEquals("Only methods which cannot be deferred should be looked up",
+                     Collections.singleton("setLastError"), LAZY.getFunctionNames().keySet());
+
+        assertEquals(42, LazyTestLibrary.returnInt32Argument(42));
+        assertEquals(2, LAZY.getFunctionNames().size());
+        assertTrue(LAZY.getFunctionNames().containsKey("returnInt32Argument"));
+        assertEquals(-1, LazyTestLibrary.returnInt32Argument(-1));
+
+        assertTrue(LazyTestLibrary.returnBooleanArgument(true));
+        assertFalse(LazyTestLibrary.returnBooleanArgument(false));
+        assertEquals(-2.25, LazyTestLibrary.returnDoubleArgument(-2.25), 0);
+        assertEquals("lazy", LazyTestLibrary.returnStringArgument("lazy"));
+        assertNull(LazyTestLibrary.returnStringArgument(null));
+        assertEquals(new NativeLong(1234), LazyTestLibrary.returnLongArgument(new NativeLong(1234)));
+        assertEquals(6, LAZY.getFunctionNames().size());
+    }
+
+    public void testLazyMethodsShareStubs() throws Exception {
+        if (SHARED.getSymbolTable() == null) {
+            return;
+        }
+        Class.forName(SharedStubLibrary.class.getName());
+        assertEquals("Methods with the same signature should share a stub", 2, SHARED.getLazyStubs().size());
+        assertTrue("No function should be looked up yet", SHARED.getFunctionNames().isEmpty());
+        // Each call through a shared stub must reach its own function
+        assertEquals(0x12345678, SharedStubLibrary.returnInt32Magic());
+        assertEquals(0, SharedStubLibrary.returnInt32Zero());
+        assertEquals(0x123456789ABCDEF0L, SharedStubLibrary.returnInt64Magic());
+        assertEquals(0, SharedStubLibrary.returnInt64Zero());
+        assertEquals(0x12345678, SharedStubLibrary.returnInt32Magic());
+        assertEquals(4, SHARED.getFunctionNames().size());
+    }
+
+    public void testLazyRegistrationRejectsMissingSymbol() {
+        try {
+            Native.register(MissingSymbolLibrary.class, LAZY);
+            fail("Registration should fail if a symbol is missing");
+        } catch (UnsatisfiedLinkError e) {
+            assertTrue("Error should name the function: " + e.getMessage(), e.getMessage().contains("missingFunction"));
+        }
+        assertFalse("Class should not be registered", Native.registered(MissingSymbolLibrary.class));
+        try {
+            MissingSymbolLibrary.missingFunction();
+            fail("Calling an unregistered method should fail");
+        } catch (UnsatisfiedLinkError e) {
+            // expected
+        }
+    }
+
+    public void testLazyRegistrationBindsUnconfirmedSymbols() throws Exception {
+        Class.forName(UnconfirmedTestLibrary.class.getName());
+        assertEquals("Symbols resolved by a custom provider should be looked up at registration",
+                     1, UNCONFIRMED.bulkLookups);
+        assertEquals(2, UNCONFIRMED.lookups.size());
+        assertEquals(42, UnconfirmedTestLibrary.returnInt32Argument(42));
+        assertEquals(2, UNCONFIRMED.lookups.size());
+    }
+
+    public void testGetFunctions() {
+        NativeLibrary lib = NativeLibrary.getInstance("testlib");
+        Function f = lib.getFunction("returnInt32Argument");
+        Function[] functions = lib.getFunctions(new String[] { "returnInt32Argument", "returnDoubleArgument" });
+        assertSame("Existing function should be reused", f, functions[0]);
+        assertSame(functions[1], lib.getFunction("returnDoubleArgument"));
+        assertEquals(7, functions[0].invokeInt(new Object[] { 7 }));
+        try {
+            lib.getFunctions(new String[] { "returnInt32Argument", "missingFunction" });
+            fail("Missing function should fail");
+        } catch(UnsatisfiedLinkError e) {
+            assertTrue("Error should name the function: " + e.getMessage(), e.getMessage().contains("missingFunction"));
+        }
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(LazyRegistrationTest.class);
+    }
+}
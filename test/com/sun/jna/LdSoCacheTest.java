@@ -0,0 +1,210 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class LdSoCacheTest extends TestCase {
+
+    private static final String[][] LIBS = {
+        { "libfoo.so.1", "/opt/foo/lib/libfoo.so.1" },
+        { "libbar.so.2", "/usr/lib/bar/libbar.so.2" },
+        { "libbaz.so", "/opt/foo/lib/libbaz.so" },
+    };
+
+    /** Write the strings, returning their offsets from <code>base</code>. */
+    private static int[][] writeStrings(ByteBuffer buf, int base) {
+        int[][] offsets = new int[LIBS.length][2];
+        for (int i=0;i < LIBS.length;i++) {
+            for (int j=0;j < 2;j++) {
+                offsets[i][j] = buf.position() - base;
+                buf.put(LIBS[i][j].getBytes(StandardCharsets.UTF_8)).put((byte)0);
+            }
+        }
+        return offsets;
+    }
+
+    private static void writeOld(ByteBuffer buf) {
+        buf.put(LdSoCache.MAGIC_OLD.getBytes(StandardCharsets.US_ASCII)).put((byte)0);
+        buf.putInt(LIBS.length);
+        int strings = LdSoCache.HEADER_OLD + LIBS.length * LdSoCache.ENTRY_OLD;
+        buf.position(strings);
+        int[][] offsets = writeStrings(buf, strings);
+        for (int i=0;i < LIBS.length;i++) {
+            int off = LdSoCache.HEADER_OLD + i * LdSoCache.ENTRY_OLD;
+            buf.putInt(off, 0x0303);
+            buf.putInt(off + 4, offsets[i][0]);
+            buf.putInt(off + 8, offsets[i][1]);
+        }
+    }
+
+    private static void writeNew(ByteBuffer buf, int base) {
+        buf.position(base);
+        buf.put((LdSoCache.MAGIC_NEW + LdSoCache.VERSION_NEW).getBytes(StandardCharsets.US_ASCII));
+        buf.putInt(LIBS.length);
+        buf.position(base + LdSoCache.HEADER_NEW + LIBS.length * LdSoCache.ENTRY_NEW);
+        int[][] offsets = writeStrings(buf, base);
+        buf.put(base + 28, (byte)(buf.order() == ByteOrder.LITTLE_ENDIAN ? 2 : 3));
+        for (int i=0;i < LIBS.length;i++) {
+            int off = base + LdSoCache.HEADER_NEW + i * LdSoCache.ENTRY_NEW;
+            buf.putInt(off, 0x0303);
+            buf.putInt(off + 4, offsets[i][0]);
+            buf.putInt(off + 8, offsets[i][1]);
+        }
+    }
+
+    private static void assertEntries(List<LdSoCache.Entry> entries) {
+        assertEquals("Wrong number of entries", LIBS.length, entries.size());
+        for (int i=0;i < LIBS.length;i++) {
+            assertEquals("Wrong name", LIBS[i][0], entries.get(i).name);
+            assertEquals("Wrong path", LIBS[i][1], entries.get(i).path);
+            assertEquals("Wrong flags", 0x0303, entries.get(i).flags);
+        }
+    }
+
+    public void testParseOldFormat() {
+        ByteBuffer buf = ByteBuffer.allocate(512).order(ByteOrder.nativeOrder());
+        writeOld(buf);
+        buf.flip();
+        assertEntries(LdSoCache.parse(buf));
+    }
+
+    public void testParseNewFormat() {
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN }) {
+            ByteBuffer buf = ByteBuffer.allocate(512).order(order);
+            writeNew(buf, 0);
+            buf.flip();
+            assertEntries(LdSoCache.parse(buf));
+        }
+    }
+
+    public void testParseCombinedFormat() {
+        ByteBuffer buf = ByteBuffer.allocate(1024).order(ByteOrder.nativeOrder());
+        // Old entries with an odd count end on a 4-byte boundary; the new
+        // format cache starts at the next 8-byte boundary
+        buf.put(LdSoCache.MAGIC_OLD.getBytes(StandardCharsets.US_ASCII)).put((byte)0);
+        buf.putInt(LIBS.length);
+        int base = (LdSoCache.HEADER_OLD + LIBS.length * LdSoCache.ENTRY_OLD + 7) & ~7;
+        writeNew(buf, base);
+        buf.flip();
+        assertEntries(LdSoCache.parse(buf));
+    }
+
+    public void testParseInvalid() {
+        try {
+            LdSoCache.parse(ByteBuffer.wrap("not a cache".getBytes(StandardCharsets.US_ASCII)));
+            fail("Invalid cache should be rejected");
+        } catch (IllegalArgumentException e) {
+        }
+        ByteBuffer buf = ByteBuffer.allocate(64).order(ByteOrder.nativeOrder());
+        buf.put(LdSoCache.MAGIC_OLD.getBytes(StandardCharsets.US_ASCII)).put((byte)0);
+        buf.putInt(1000);
+        try {
+            LdSoCache.parse(buf);
+            fail("Truncated cache should be rejected");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testParseConf() throws IOException {
+        Path dir = Files.createTempDirectory("ldconf");
+        try {
+            Path confd = Files.createDirectory(dir.resolve("ld.so.conf.d"));
+            Path conf = dir.resolve("ld.so.conf");
+            Files.write(conf, Arrays.asList(
+                "# comment",
+                "/opt/first/lib/  # trailing comment",
+                "include ld.so.conf.d/*.conf",
+                "hwcap 1 nosegneg",
+                "/opt/second/lib:/opt/third/lib=libc6"), StandardCharsets.UTF_8);
+            Files.write(confd.resolve("b.conf"), Arrays.asList("/opt/b/lib"), StandardCharsets.UTF_8);
+            Files.write(confd.resolve("a.conf"), Arrays.asList("/opt/a/lib", "include " + conf), StandardCharsets.UTF_8);
+            Files.write(confd.resolve("ignored.txt"), Arrays.asList("/opt/ignored"), StandardCharsets.UTF_8);
+
+            assertEquals("Wrong directories",
+                         Arrays.asList("/opt/first/lib", "/opt/a/lib", "/opt/b/lib",
+                                       "/opt/second/lib", "/opt/third/lib"),
+                         LdSoCache.parseConf(conf));
+            assertTrue("Missing file should yield no directories",
+                       LdSoCache.parseConf(dir.resolve("missing")).isEmpty());
+        } finally {
+            File confd = dir.resolve("ld.so.conf.d").toFile();
+            File[] files = confd.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            confd.delete();
+            dir.resolve("ld.so.conf").toFile().delete();
+            dir.toFile().delete();
+        }
+    }
+
+    public void testSystemCacheMatchesLdconfig() throws Exception {
+        File ldconfig = new File("/sbin/ldconfig");
+        if (!Platform.isLinux() || !Files.isReadable(LdSoCache.CACHE) || !ldconfig.canExecute()) {
+            return;
+        }
+        List<LdSoCache.Entry> entries = LdSoCache.parse(ByteBuffer.wrap(Files.readAllBytes(LdSoCache.CACHE)));
+        Set<String> expected = new LinkedHashSet<>();
+        Process process = Runtime.getRuntime().exec(ldconfig + " -p");
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int arrow = line.indexOf(" => ");
+                if (arrow != -1) {
+                    expected.add(line.substring(arrow + 4));
+                }
+            }
+        }
+        process.waitFor();
+        Set<String> actual = new LinkedHashSet<>();
+        for (LdSoCache.Entry e : entries) {
+            actual.add(e.path);
+        }
+        assertEquals("Cache entries differ from ldconfig", expected, actual);
+        for (String path : expected) {
+            String parent = path.substring(0, path.lastIndexOf('/'));
+            assertTrue("Missing directory " + parent, LdSoCache.getDirectories().contains(parent));
+        }
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(LdSoCacheTest.class);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import junit.framework.TestCase;
+
+public class LibraryCacheTest extends TestCase {
+
+    private static final String RESOURCE = "/cachetest/libcachetest.so";
+
+    private Properties props;
+    private File tmpdir;
+    private File jar;
+    private byte[] content;
+
+    @Override
+    protected void setUp() throws IOException {
+        props = (Properties) System.getProperties().clone();
+        tmpdir = Files.createTempDirectory("jnacache").toFile();
+        System.setProperty("jna.tmpdir", tmpdir.getAbsolutePath());
+        content = new byte[100000];
+        for (int i=0;i < content.length;i++) {
+            content[i] = (byte) (i * 31);
+        }
+        jar = new File(tmpdir, "cachetest.jar");
+        try (JarOutputStream os = new JarOutputStream(new FileOutputStream(jar))) {
+            os.putNextEntry(new JarEntry(RESOURCE.substring(1)));
+            os.write(content);
+            os.closeEntry();
+        }
+    }
+
+    @Override
+    protected void tearDown() {
+        System.setProperties(props);
+        delete(tmpdir);
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                delete(c);
+            }
+        }
+        f.delete();
+    }
+
+    private File extract() throws IOException {
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { jar.toURI().toURL() }, null)) {
+            return Native.extractFromResourcePath(RESOURCE, loader);
+        }
+    }
+
+    public void testExtractOnceAndReuse() throws Exception {
+        File first = extract();
+        assertTrue("Library not cached: " + first, LibraryCache.isCached(first));
+        assertFalse("Cached library should not be deleted after use", Native.isUnpacked(first));
+        assertEquals("Original file name not preserved", "libcachetest.so", first.getName());
+        assertTrue("Wrong content", Arrays.equals(content, Files.readAllBytes(first.toPath())));
+
+        long modified = first.lastModified();
+        File second = extract();
+        assertEquals("Cached library not reused", first, second);
+        assertEquals("Cached library rewritten", modified, second.lastModified());
+        assertEquals("Temporary files left in cache", 1, first.getParentFile().list().length);
+    }
+
+    public void testCorruptEntryReplaced() throws Exception {
+        File lib = extract();
+        try (RandomAccessFile f = new RandomAccessFile(lib, "rw")) {
+            f.seek(1000);
+            f.write(~content[1000]);
+        }
+        File again = extract();
+        assertEquals("Wrong cache entry", lib, again);
+        assertTrue("Corrupt entry not replaced", Arrays.equals(content, Files.readAllBytes(again.toPath())));
+    }
+
+    public void testConcurrentExtraction() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Callable<File> task = new Callable<File>() {
+                @Override
+                public File call() throws IOException {
+                    return extract();
+                }
+            };
+            Future<?>[] results = new Future<?>[16];
+            for (int i=0;i < results.length;i++) {
+                results[i] = executor.submit(task);
+            }
+            File expected = (File) results[0].get();
+            for (Future<?> f : results) {
+                assertEquals("Different cache entries", expected, f.get());
+            }
+            assertTrue("Wrong content", Arrays.equals(content, Files.readAllBytes(expected.toPath())));
+            assertEquals("Temporary files left in cache", 1, expected.getParentFile().list().length);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testCacheDisabled() throws Exception {
+        System.setProperty("jna.nocache", "true");
+        File lib = extract();
+        try {
+            assertFalse("Library should not be cached", LibraryCache.isCached(lib));
+            assertTrue("Library should be a temporary copy", Native.isUnpacked(lib));
+            assertTrue("Wrong content", Arrays.equals(content, Files.readAllBytes(lib.toPath())));
+        } finally {
+            lib.delete();
+        }
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(LibraryCacheTest.class);
+    }
+}
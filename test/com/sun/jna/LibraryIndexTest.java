@@ -0,0 +1,134 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class LibraryIndexTest extends TestCase implements Paths {
+
+    private File dir1;
+    private File dir2;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir1 = Files.createTempDirectory("jna-index").toFile();
+        dir2 = Files.createTempDirectory("jna-index").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+        for (File dir : new File[] { dir1, dir2 }) {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            dir.delete();
+        }
+        LibraryIndex.clear();
+    }
+
+    private static File touch(File dir, String name) throws IOException {
+        File f = new File(dir, name);
+        f.createNewFile();
+        return f;
+    }
+
+    private List<String> path() {
+        return Arrays.asList(dir1.getPath(), dir2.getPath());
+    }
+
+    public void testExactMatch() throws IOException {
+        if (!LibraryIndex.isSupported()) {
+            return;
+        }
+        touch(dir1, "libfoo.so.2");
+        File exact = touch(dir2, "libfoo.so");
+        File shadowed = touch(dir1, "libbar.so");
+        touch(dir2, "libbar.so");
+        assertEquals(exact.getAbsolutePath(), LibraryIndex.find("foo", path()));
+        assertEquals(exact.getAbsolutePath(), LibraryIndex.find("libfoo.so", path()));
+        assertEquals("First directory should win", shadowed.getAbsolutePath(), LibraryIndex.find("bar", path()));
+    }
+
+    public void testVersionedNameIgnored() throws IOException {
+        if (!LibraryIndex.isSupported()) {
+            return;
+        }
+        // Loading by name would not find these, so they are left to the
+        // fallback search
+        touch(dir1, "libbaz.so.1");
+        touch(dir2, "libbaz.so.2");
+        assertNull(LibraryIndex.find("baz", path()));
+    }
+
+    public void testMissingLibrary() {
+        if (!LibraryIndex.isSupported()) {
+            return;
+        }
+        assertNull(LibraryIndex.find("missing", path()));
+        assertNull(LibraryIndex.find("missing", Collections.singletonList(new File(dir1, "nonexistent").getPath())));
+    }
+
+    public void testListingRefreshedWhenDirectoryChanges() throws IOException {
+        if (!LibraryIndex.isSupported()) {
+            return;
+        }
+        assertNull(LibraryIndex.find("qux", path()));
+        File added = touch(dir1, "libqux.so");
+        dir1.setLastModified(dir1.lastModified() + 2000);
+        assertEquals(added.getAbsolutePath(), LibraryIndex.find("qux", path()));
+    }
+
+    public void testLoadVersionedLibrary() throws IOException {
+        if (!LibraryIndex.isSupported()) {
+            return;
+        }
+        File lib = new File(dir1, "libindexed.so.1");
+        Files.copy(new File(TESTPATH, NativeLibrary.mapSharedLibraryName("testlib")).toPath(), lib.toPath());
+        NativeLibrary.addSearchPath("indexed", dir1.getPath());
+
+        NativeLibrary nl = NativeLibrary.getInstance("indexed");
+        assertEquals(lib.getAbsoluteFile(), nl.getFile());
+        assertEquals(42, nl.getFunction("returnInt32Argument").invokeInt(new Object[] { 42 }));
+
+        NativeLibrary variant = NativeLibrary.getInstance("indexed",
+            Collections.singletonMap(Library.OPTION_STRING_ENCODING, "UTF-8"));
+        assertNotSame("Options variant should be a separate instance", nl, variant);
+        assertEquals("Options variant should open the same file", nl.getFile(), variant.getFile());
+        variant.close();
+        nl.close();
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(LibraryIndexTest.class);
+    }
+}
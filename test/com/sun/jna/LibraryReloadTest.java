@@ -0,0 +1,230 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+public class LibraryReloadTest extends TestCase {
+
+    public interface TestLibrary extends Library {
+        interface VoidCallback extends Callback {
+            void callback();
+        }
+        int callCount();
+        int returnInt32Argument(int arg);
+        void callVoidCallback(VoidCallback callback);
+    }
+
+    public static class DirectLibrary {
+        public static native int callCount();
+    }
+
+    private static Map<String, Object> reloadable(boolean directDispatch) {
+        Map<String, Object> options = new HashMap<>();
+        options.put(Library.OPTION_RELOADABLE, Boolean.TRUE);
+        if (directDispatch) {
+            options.put(Library.OPTION_DIRECT_DISPATCH, Boolean.TRUE);
+        }
+        return options;
+    }
+
+    private static NativeLibrary getNativeLibrary(Object proxy) {
+        return ((Library.Handler) Proxy.getInvocationHandler(proxy)).getNativeLibrary();
+    }
+
+    private static String getPath(NativeLibrary lib, String name) {
+        return new File(lib.getFile().getParentFile(), System.mapLibraryName(name)).getPath();
+    }
+
+    public void testReloadLoadsNewVersion() {
+        TestLibrary lib = Native.load("testlib", TestLibrary.class, reloadable(false));
+        NativeLibrary nl = getNativeLibrary(lib);
+        int version = nl.getVersion();
+        int count = lib.callCount();
+        assertEquals(count + 1, lib.callCount());
+        nl.reload();
+        assertEquals("Version not incremented", version + 1, nl.getVersion());
+        assertEquals("Call not made to the new version", 1, lib.callCount());
+        assertEquals(2, lib.callCount());
+    }
+
+    public void testReloadFromDifferentPath() {
+        TestLibrary lib = Native.load("testlib", TestLibrary.class, reloadable(false));
+        NativeLibrary nl = getNativeLibrary(lib);
+        String path = nl.getFile().getPath();
+        lib.callCount();
+        nl.reload(getPath(nl, "testlib-path"));
+        try {
+            assertEquals("Wrong library file", new File(getPath(nl, "testlib-path")), nl.getFile());
+            assertEquals("Call not made to the new version", 1, lib.callCount());
+        } finally {
+            nl.reload(path);
+        }
+    }
+
+    public void testReloadDirectDispatch() {
+        TestLibrary lib = Native.load("testlib", TestLibrary.class, reloadable(true));
+        NativeLibrary nl = getNativeLibrary(lib);
+        lib.callCount();
+        lib.callCount();
+        nl.reload();
+        assertEquals("Stub not bound to the new version", 1, lib.callCount());
+    }
+
+    public void testReloadDirectMapping() {
+        NativeLibrary nl = NativeLibrary.getInstance("testlib", reloadable(false));
+        Native.register(DirectLibrary.class, nl);
+        try {
+            DirectLibrary.callCount();
+            nl.reload();
+            assertEquals("Direct mapping not registered with the new version", 1, DirectLibrary.callCount());
+        } finally {
+            Native.unregister(DirectLibrary.class);
+        }
+    }
+
+    public void testCloseRetiredVersionAfterCallsReturn() {
+        final TestLibrary lib = Native.load("testlib", TestLibrary.class, reloadable(false));
+        final NativeLibrary nl = getNativeLibrary(lib);
+        final NativeLibrary.Version previous = nl.getLoadedVersion();
+        final boolean[] closedDuringCall = { true };
+        final int[] count = { 0 };
+        lib.callVoidCallback(new TestLibrary.VoidCallback() {
+            @Override
+            public void callback() {
+                nl.reload();
+                closedDuringCall[0] = previous.isClosed();
+                count[0] = lib.callCount();
+            }
+        });
+        assertFalse("Previous version closed while a call was in progress", closedDuringCall[0]);
+        assertEquals("Call not made to the new version", 1, count[0]);
+        assertTrue("Previous version not closed after the call returned", previous.isClosed());
+        assertNotSame(previous, nl.getLoadedVersion());
+        assertFalse(nl.getLoadedVersion().isClosed());
+    }
+
+    public void testReloadTwiceDuringCall() {
+        final TestLibrary lib = Native.load("testlib", TestLibrary.class, reloadable(false));
+        final NativeLibrary nl = getNativeLibrary(lib);
+        final NativeLibrary.Version first = nl.getLoadedVersion();
+        final NativeLibrary.Version[] second = { null };
+        final boolean[] closed = { true, false };
+        lib.callVoidCallback(new TestLibrary.VoidCallback() {
+            @Override
+            public void callback() {
+                nl.reload();
+                second[0] = nl.getLoadedVersion();
+                nl.reload();
+                closed[0] = first.isClosed();
+                closed[1] = second[0].isClosed();
+            }
+        });
+        assertFalse("Version in use by a call was closed", closed[0]);
+        assertTrue("Unused intermediate version not closed", closed[1]);
+        assertTrue("Previous version not closed after the call returned", first.isClosed());
+    }
+
+    public void testReloadDuringConcurrentCalls() throws Exception {
+        final TestLibrary lib = Native.load("testlib", TestLibrary.class, reloadable(false));
+        final TestLibrary direct = Native.load("testlib", TestLibrary.class, reloadable(true));
+        final AtomicBoolean done = new AtomicBoolean();
+        final Throwable[] failure = { null };
+        Thread[] threads = new Thread[4];
+        for (int i=0;i < threads.length;i++) {
+            final TestLibrary target = i % 2 == 0 ? lib : direct;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int n=0;!done.get();n++) {
+                            assertEquals(n, target.returnInt32Argument(n));
+                        }
+                    } catch (Throwable t) {
+                        failure[0] = t;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        try {
+            for (int i=0;i < 20;i++) {
+                getNativeLibrary(lib).reload();
+                getNativeLibrary(direct).reload();
+            }
+        } finally {
+            done.set(true);
+            for (Thread t : threads) {
+                t.join();
+            }
+        }
+        if (failure[0] != null) {
+            throw new AssertionError("Call failed during reload", failure[0]);
+        }
+    }
+
+    public void testReloadRejectsMissingSymbols() {
+        final boolean[] hidden = { false };
+        Map<String, Object> options = reloadable(false);
+        options.put(Library.OPTION_SYMBOL_PROVIDER, new SymbolProvider() {
+            @Override
+            public long getSymbolAddress(long handle, String name, SymbolProvider parent) {
+                return hidden[0] && "callCount".equals(name) ? 0 : parent.getSymbolAddress(handle, name, null);
+            }
+        });
+        TestLibrary lib = Native.load("testlib", TestLibrary.class, options);
+        NativeLibrary nl = getNativeLibrary(lib);
+        int version = nl.getVersion();
+        int count = lib.callCount();
+        hidden[0] = true;
+        try {
+            nl.reload();
+            fail("Reload should fail if a symbol in use is missing");
+        } catch (UnsatisfiedLinkError e) {
+            assertTrue("Missing symbol not reported: " + e.getMessage(), e.getMessage().contains("callCount"));
+        }
+        assertEquals("Version changed", version, nl.getVersion());
+        assertEquals("Previous version no longer in use", count + 1, lib.callCount());
+    }
+
+    public void testReloadRequiresOption() {
+        NativeLibrary nl = NativeLibrary.getInstance("testlib", Collections.<String, Object>emptyMap());
+        try {
+            nl.reload();
+            fail("Reload should require " + Library.OPTION_RELOADABLE);
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(LibraryReloadTest.class);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+public class MappedMemoryTest extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws IOException {
+        file = File.createTempFile("mapped", ".bin");
+        byte[] data = new byte[10000];
+        for (int i=0;i < data.length;i++) {
+            data[i] = (byte)i;
+        }
+        Files.write(file.toPath(), data);
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    public static class Header extends Structure {
+        public byte first;
+        public byte second;
+        @Override
+        protected java.util.List<String> getFieldOrder() {
+            return java.util.Arrays.asList("first", "second");
+        }
+    }
+
+    public void testMapReadOnly() throws IOException {
+        if (Platform.isWindows()) return;
+
+        try (MappedMemory m = new MappedMemory(file, MappedMemory.Mode.READ_ONLY)) {
+            assertEquals("Wrong size", 10000, m.size());
+            assertEquals("Wrong content", (byte)123, m.getByte(123));
+            Header h = new Header();
+            h.useMemory(m.share(200));
+            h.read();
+            assertEquals("Wrong structure field", (byte)200, h.first);
+            assertEquals("Wrong structure field", (byte)201, h.second);
+            ByteBuffer b = m.getByteBuffer(9990, 10);
+            assertEquals("Wrong buffer content", (byte)9995, b.get(5));
+            try {
+                m.getByte(10000);
+                fail("Access past the mapping should fail");
+            } catch (IndexOutOfBoundsException e) {
+            }
+        }
+    }
+
+    public void testReadOnlyRejectsWrites() throws IOException {
+        if (Platform.isWindows()) return;
+
+        try (MappedMemory m = new MappedMemory(file, MappedMemory.Mode.READ_ONLY)) {
+            try {
+                m.setByte(0, (byte)1);
+                fail("Write to a read-only mapping should fail");
+            } catch (UnsupportedOperationException e) {
+            }
+            try {
+                m.write(0, new int[] { 1 }, 0, 1);
+                fail("Array write to a read-only mapping should fail");
+            } catch (UnsupportedOperationException e) {
+            }
+            try {
+                m.clear();
+                fail("Clearing a read-only mapping should fail");
+            } catch (UnsupportedOperationException e) {
+            }
+            try {
+                m.share(100).setInt(0, 1);
+                fail("Write to a view of a read-only mapping should fail");
+            } catch (UnsupportedOperationException e) {
+            }
+            assertTrue("Buffer should be read-only", m.getByteBuffer(0, 10).isReadOnly());
+            assertTrue("Buffer should be read-only", m.getByteBuffers(0, 10, 2)[1].isReadOnly());
+            assertEquals("Content should be unchanged", (byte)0, m.getByte(0));
+            assertEquals("Content should be unchanged", (byte)100, m.getByte(100));
+        }
+    }
+
+    public void testMapUnalignedOffset() throws IOException {
+        if (Platform.isWindows()) return;
+
+        try (MappedMemory m = new MappedMemory(file, MappedMemory.Mode.READ_ONLY, 5000, 100)) {
+            assertEquals("Wrong file offset", 5000, m.getFileOffset());
+            assertEquals("Wrong content at start", (byte)5000, m.getByte(0));
+            assertEquals("Wrong content at end", (byte)5099, m.getByte(99));
+        }
+    }
+
+    public void testMapReadWrite() throws IOException {
+        if (Platform.isWindows()) return;
+
+        try (MappedMemory m = new MappedMemory(file, MappedMemory.Mode.READ_WRITE)) {
+            m.setByte(10, (byte)-1);
+            m.sync();
+        }
+        assertEquals("Change not written to file", (byte)-1, Files.readAllBytes(file.toPath())[10]);
+    }
+
+    public void testMapPrivate() throws IOException {
+        if (Platform.isWindows()) return;
+
+        try (MappedMemory m = new MappedMemory(file, MappedMemory.Mode.PRIVATE)) {
+            m.setByte(10, (byte)-1);
+            assertEquals("Change not visible", (byte)-1, m.getByte(10));
+        }
+        assertEquals("Private change written to file", (byte)10, Files.readAllBytes(file.toPath())[10]);
+    }
+
+    public void testRemapExtendsFile() throws IOException {
+        if (Platform.isWindows()) return;
+
+        try (MappedMemory m = new MappedMemory(file, MappedMemory.Mode.READ_WRITE, 0, 100)) {
+            m.remap(20000);
+            assertEquals("Wrong size", 20000, m.size());
+            assertEquals("Content not preserved", (byte)99, m.getByte(99));
+            m.setByte(19999, (byte)7);
+            m.sync(19999, 1, false);
+        }
+        byte[] data = Files.readAllBytes(file.toPath());
+        assertEquals("File not extended", 20000, data.length);
+        assertEquals("Change not written to file", 7, data[19999]);
+    }
+
+    public void testMapPastEndOfFile() throws IOException {
+        if (Platform.isWindows()) return;
+
+        for (MappedMemory.Mode mode : new MappedMemory.Mode[] { MappedMemory.Mode.READ_ONLY, MappedMemory.Mode.PRIVATE }) {
+            try {
+                new MappedMemory(file, mode, 5000, 5001);
+                fail("Mapping past the end of the file should fail in mode " + mode);
+            } catch (IllegalArgumentException e) {
+            }
+            try (MappedMemory m = new MappedMemory(file, mode, 5000, 100)) {
+                try {
+                    m.remap(5001);
+                    fail("Remapping past the end of the file should fail in mode " + mode);
+                } catch (IllegalArgumentException e) {
+                }
+                assertEquals("Size changed by failed remap", 100, m.size());
+                m.remap(5000);
+                assertEquals("Wrong value at end of file", (byte)9999, m.getByte(4999));
+            }
+        }
+        assertEquals("File length changed", 10000, file.length());
+    }
+
+    public void testAdvise() throws IOException {
+        if (Platform.isWindows()) return;
+
+        try (MappedMemory m = new MappedMemory(file, MappedMemory.Mode.READ_ONLY)) {
+            assertTrue("Sequential advice rejected", m.advise(MappedMemory.Advice.SEQUENTIAL));
+            assertTrue("Willneed advice rejected", m.advise(100, 1000, MappedMemory.Advice.WILLNEED));
+            // Huge page support depends on the kernel; must not fail
+            m.advise(MappedMemory.Advice.HUGEPAGE);
+        }
+    }
+
+    public void testClose() throws IOException {
+        if (Platform.isWindows()) return;
+
+        MappedMemory m = new MappedMemory(file, MappedMemory.Mode.READ_ONLY);
+        m.close();
+        assertFalse("Mapping should be invalid after close", m.valid());
+        m.close();
+        try {
+            m.remap(10);
+            fail("Remapping a closed mapping should fail");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    public void testMapMissingFile() throws IOException {
+        if (Platform.isWindows()) return;
+
+        try {
+            new MappedMemory(new File(file.getPath() + ".missing"), MappedMemory.Mode.READ_ONLY, 0, 10);
+            fail("Mapping a missing file should fail");
+        } catch (IOException e) {
+        }
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(MappedMemoryTest.class);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Exercises the Unsafe-based accessors selected by
+ * <code>-Djna.memaccess=unsafe</code>.  If the current VM was not started
+ * with that setting, the tests are run in a child VM which was.
+ */
+public class MemoryAccessTest extends TestCase {
+
+    public void testInChildVM() throws Exception {
+        if (!Platform.isIntel() && !(Platform.isARM() && Platform.is64Bit())) {
+            return;
+        }
+        String mode = System.getProperty("jna.memaccess");
+        if (mode != null) {
+            // Already running in the child VM (or with an explicit mode);
+            // don't spawn another one
+            assertTrue("jna.memaccess=unsafe was not enabled",
+                       MemoryAccess.ENABLED || !"unsafe".equals(mode));
+            return;
+        }
+        List<String> cmd = new ArrayList<>();
+        cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        cmd.add("-Djna.memaccess=unsafe");
+        cmd.add("-Djna.nosys=true");
+        if (System.getProperty("jna.library.path") != null) {
+            cmd.add("-Djna.library.path=" + System.getProperty("jna.library.path"));
+        }
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(MemoryAccessTest.class.getName());
+        Process p = new ProcessBuilder(cmd).inheritIO().start();
+        assertTrue("Child VM timed out", p.waitFor(5, TimeUnit.MINUTES));
+        assertEquals("Child VM tests failed", 0, p.exitValue());
+    }
+
+    public void testPrimitiveRoundTrip() throws Exception {
+        if (!MemoryAccess.ENABLED) {
+            return;
+        }
+        try (Memory m = new Memory(64)) {
+            m.clear();
+            m.setByte(1, (byte) 0x7f);
+            m.setShort(3, (short) 0x1234);
+            m.setInt(5, 0xcafebabe);
+            m.setLong(9, 0x0123456789abcdefL);
+            m.setFloat(17, 3.25f);
+            m.setDouble(21, -1.5e300);
+            assertEquals("Wrong byte", (byte) 0x7f, m.getByte(1));
+            assertEquals("Wrong short", (short) 0x1234, m.getShort(3));
+            assertEquals("Wrong int", 0xcafebabe, m.getInt(5));
+            assertEquals("Wrong long", 0x0123456789abcdefL, m.getLong(9));
+            assertEquals("Wrong float", 3.25f, m.getFloat(17), 0f);
+            assertEquals("Wrong double", -1.5e300, m.getDouble(21), 0d);
+            // Agree with the JNI implementation
+            assertEquals("JNI int mismatch", m.getInt(5), Native.getInt(m, Pointer.nativeValue(m), 5));
+            assertEquals("JNI long mismatch", m.getLong(9), Native.getLong(m, Pointer.nativeValue(m), 9));
+        }
+    }
+
+    public void testPointerRoundTrip() throws Exception {
+        if (!MemoryAccess.ENABLED) {
+            return;
+        }
+        try (Memory m = new Memory(Native.POINTER_SIZE * 2)) {
+            m.setPointer(0, m);
+            m.setPointer(Native.POINTER_SIZE, null);
+            assertEquals("Wrong pointer", m, m.getPointer(0));
+            assertNull("Expected NULL pointer", m.getPointer(Native.POINTER_SIZE));
+        }
+    }
+
+    public void testBoundsCheckPreserved() throws Exception {
+        if (!MemoryAccess.ENABLED) {
+            return;
+        }
+        try (Memory m = new Memory(8)) {
+            try {
+                m.getLong(4);
+                fail("Out of bounds read should fail");
+            } catch (IndexOutOfBoundsException e) {
+                // expected
+            }
+            try {
+                m.setInt(-1, 0);
+                fail("Out of bounds write should fail");
+            } catch (IndexOutOfBoundsException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testProtectedModeAtRuntime() throws Exception {
+        if (!MemoryAccess.ENABLED || Platform.ARCH.equals("s390x")) {
+            return;
+        }
+        Native.setProtected(true);
+        try {
+            if (!Native.isProtected()) {
+                return;
+            }
+            assertFalse("Fast path should be bypassed in protected mode", MemoryAccess.isEnabled());
+            Pointer p = new Pointer(1);
+            try {
+                p.setInt(0, 0);
+                fail("Invalid access should be trapped");
+            } catch (Error e) {
+                // expected
+            }
+        } finally {
+            Native.setProtected(false);
+        }
+        assertTrue("Fast path should be used again", MemoryAccess.isEnabled());
+    }
+
+    public static void main(String[] args) {
+        junit.framework.TestResult result = junit.textui.TestRunner.run(new junit.framework.TestSuite(MemoryAccessTest.class));
+        System.exit(result.wasSuccessful() ? 0 : 1);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.util.List;
+
+import com.sun.jna.internal.Cleaner;
+
+import junit.framework.TestCase;
+
+public class MemoryDiagnosticsTest extends TestCase {
+
+    @Override
+    protected void tearDown() {
+        MemoryDiagnostics.setSoftLimit(0);
+        MemoryDiagnostics.setSoftLimitWait(2000);
+        MemoryDiagnostics.setSampleInterval(0);
+    }
+
+    public void testAccounting() {
+        long allocations = MemoryDiagnostics.getAllocationCount();
+        long frees = MemoryDiagnostics.getFreeCount();
+        long bucket = MemoryDiagnostics.getSizeHistogram()[9];
+
+        Memory m = new Memory(1000);
+        assertTrue("Allocation not counted", MemoryDiagnostics.getAllocationCount() > allocations);
+        assertTrue("Allocation not counted by size", MemoryDiagnostics.getSizeHistogram()[9] > bucket);
+        assertTrue("Current bytes not updated", MemoryDiagnostics.getCurrentBytes() >= 1000);
+        assertTrue("Peak below current", MemoryDiagnostics.getPeakBytes() >= MemoryDiagnostics.getCurrentBytes());
+
+        m.close();
+        assertTrue("Free not counted", MemoryDiagnostics.getFreeCount() > frees);
+        MemoryDiagnostics.resetPeak();
+        assertTrue("Peak not reset", MemoryDiagnostics.getPeakBytes() <= MemoryDiagnostics.getCurrentBytes() + 1000);
+    }
+
+    private static MemoryDiagnostics.AllocationSite find(List<MemoryDiagnostics.AllocationSite> sites, long size) {
+        for (MemoryDiagnostics.AllocationSite site : sites) {
+            if (site.getSize() == size) {
+                return site;
+            }
+        }
+        return null;
+    }
+
+    public void testAllocationSites() {
+        MemoryDiagnostics.setSampleInterval(1);
+        Memory m = new Memory(12345);
+        MemoryDiagnostics.AllocationSite site = find(MemoryDiagnostics.getLiveAllocationSites(0), 12345);
+        assertNotNull("Allocation site not captured", site);
+        StackTraceElement top = site.getStackTrace()[0];
+        assertEquals("Wrong allocation site", getClass().getName(), top.getClassName());
+        assertEquals("Wrong allocation site", "testAllocationSites", top.getMethodName());
+
+        System.gc();
+        if (MemoryDiagnostics.gcCount() > 0) {
+            assertNotNull("Allocation should survive GC",
+                          find(MemoryDiagnostics.getLiveAllocationSites(1), 12345));
+        }
+        m.close();
+        assertNull("Freed allocation still reported", find(MemoryDiagnostics.getLiveAllocationSites(0), 12345));
+    }
+
+    /** Free memory left unreachable by earlier tests, so that it does not
+     * count against a limit computed from the current usage.
+     */
+    private static void releaseGarbage() throws InterruptedException {
+        // Repeat for as long as memory is being freed
+        long frees;
+        do {
+            frees = MemoryDiagnostics.getFreeCount();
+            System.gc();
+            Thread.sleep(20);
+            Cleaner.getCleaner().drain();
+        } while (MemoryDiagnostics.getFreeCount() != frees);
+    }
+
+    public void testSoftLimitReclaimsUnreachableMemory() throws Exception {
+        releaseGarbage();
+        MemoryDiagnostics.setSoftLimit(MemoryDiagnostics.getCurrentBytes() + 4 * 1024 * 1024);
+        for (int i=0;i < 50;i++) {
+            // Garbage is reclaimed when the limit is reached
+            new Memory(1024 * 1024).clear();
+        }
+        Memory held = new Memory(3 * 1024 * 1024);
+        try {
+            new Memory(2 * 1024 * 1024);
+            fail("Allocation beyond the soft limit should fail");
+        } catch (OutOfMemoryError e) {
+        }
+        held.close();
+    }
+
+    public void testSoftLimitWithoutWait() throws Exception {
+        releaseGarbage();
+        MemoryDiagnostics.setSoftLimit(MemoryDiagnostics.getCurrentBytes() + 1024 * 1024);
+        MemoryDiagnostics.setSoftLimitWait(0);
+        long collections = MemoryDiagnostics.getLimitCollectionCount();
+        Memory held = new Memory(1024 * 1024);
+        try {
+            new Memory(1024);
+            fail("Allocation beyond the soft limit should fail");
+        } catch (OutOfMemoryError e) {
+        }
+        assertEquals("No GC should be requested without a wait",
+                     collections, MemoryDiagnostics.getLimitCollectionCount());
+        held.close();
+        try {
+            MemoryDiagnostics.setSoftLimitWait(-1);
+            fail("Negative wait should be rejected");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testSoftLimitUnderConcurrentAllocation() throws Exception {
+        releaseGarbage();
+        final long limit = MemoryDiagnostics.getCurrentBytes() + 8 * 1024 * 1024;
+        MemoryDiagnostics.setSoftLimit(limit);
+        MemoryDiagnostics.resetPeak();
+        long collections = MemoryDiagnostics.getLimitCollectionCount();
+        final Throwable[] errors = new Throwable[4];
+        Thread[] threads = new Thread[errors.length];
+        for (int t=0;t < threads.length;t++) {
+            final int index = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i=0;i < 50;i++) {
+                            new Memory(512 * 1024).clear();
+                        }
+                    } catch (Throwable e) {
+                        errors[index] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t=0;t < threads.length;t++) {
+            threads[t].join();
+            if (errors[t] != null) {
+                throw new AssertionError("Allocation failed on thread " + t, errors[t]);
+            }
+        }
+        assertTrue("Soft limit exceeded: " + MemoryDiagnostics.getPeakBytes(), MemoryDiagnostics.getPeakBytes() <= limit);
+        assertTrue("Reaching the limit should request GC", MemoryDiagnostics.getLimitCollectionCount() > collections);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(MemoryDiagnosticsTest.class);
+    }
+}
@@ -126,6 +126,45 @@ public class MemoryTest extends TestCase {
         }
     }
 
+    public void testAllocateAligned() {
+        for (long alignment : new long[] { 8, 64, 4096, 65536 }) {
+            Memory m = new Memory(100, new AllocationOptions().alignment(alignment));
+            assertEquals("Memory not aligned to " + alignment, 0, Pointer.nativeValue(m) % alignment);
+            assertEquals("Wrong size", 100, m.size());
+            m.setLong(92, -1L);
+            assertEquals("Memory not usable", -1L, m.getLong(92));
+            m.close();
+            assertFalse("Memory not freed", m.valid());
+        }
+        try {
+            new AllocationOptions().alignment(12);
+            fail("Alignment must be a power of two");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testAllocateWithHugePagesAndNumaNode() {
+        // Must degrade to regular pages where huge pages or NUMA are not
+        // available
+        AllocationOptions[] options = {
+            new AllocationOptions().transparentHugePages(true),
+            new AllocationOptions().hugeTLB(true),
+            new AllocationOptions().numaNode(0),
+            new AllocationOptions().hugeTLB(true).numaNode(0).alignment(1 << 16),
+            new AllocationOptions().numaNode(0).alignment(1 << 16),
+        };
+        for (AllocationOptions option : options) {
+            Memory m = new Memory(3 * 1024 * 1024 + 1, option);
+            if (option.getAlignment() != 0) {
+                assertEquals("Memory not aligned with " + option, 0, Pointer.nativeValue(m) % option.getAlignment());
+            }
+            m.clear();
+            m.setByte(m.size() - 1, (byte)1);
+            assertEquals("Memory not usable with " + option, 1, m.getByte(m.size() - 1));
+            m.close();
+        }
+    }
+
     public void testAvoidGCWithExtantBuffer() throws Exception {
         if (!Platform.HAS_BUFFERS) return;
 
@@ -162,6 +201,100 @@ public class MemoryTest extends TestCase {
         assertNull("Memory not GC'd after buffer GC'd\n", ref.get());
     }
 
+    public void testAvoidGCWithExtantSmallBuffer() throws Exception {
+        if (!Platform.HAS_BUFFERS) return;
+
+        Memory m = new Memory(1024);
+        m.clear();
+
+        ByteBuffer b = m.getByteBuffer(512, 16);
+        Reference<Memory> ref = new WeakReference<>(m);
+
+        m = null;
+        System.gc();
+        Memory.purge();
+        for (int i=0;i < GCWaits.GC_WAITS && ref.get() != null;i++) {
+            GCWaits.gcRun();
+        }
+        assertNotNull("Memory GC'd while NIO Buffer still exists", ref.get());
+        b.put((byte)0);
+    }
+
+    public void testByteBuffersShareMemory() {
+        if (!Platform.HAS_BUFFERS) return;
+
+        Memory m = new Memory(64);
+        m.clear();
+        ByteBuffer b1 = m.getByteBuffer(8, 8);
+        ByteBuffer b2 = m.getByteBuffer(8, 8);
+        assertEquals("Wrong capacity", 8, b1.capacity());
+        assertEquals("Wrong byte order", java.nio.ByteOrder.nativeOrder(), b1.order());
+        b1.putInt(0, 0x01020304);
+        assertEquals("Buffers do not share memory", 0x01020304, b2.getInt(0));
+        assertEquals("Buffer does not access memory", 0x01020304, m.getInt(8));
+        try {
+            m.getByteBuffer(60, 8);
+            fail("Expected bounds check failure");
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    public void testGetByteBuffers() {
+        if (!Platform.HAS_BUFFERS) return;
+
+        Memory m = new Memory(64);
+        m.clear();
+        ByteBuffer[] views = m.getByteBuffers(16, 8, 4);
+        assertEquals("Wrong number of views", 4, views.length);
+        for (int i=0;i < views.length;i++) {
+            assertEquals("Wrong capacity", 8, views[i].capacity());
+            views[i].putLong(0, i + 1);
+        }
+        for (int i=0;i < views.length;i++) {
+            assertEquals("View " + i + " at wrong offset", i + 1, m.getLong(16 + 8 * i));
+        }
+        assertEquals("Expected no views", 0, m.getByteBuffers(0, 8, 0).length);
+        try {
+            m.getByteBuffers(16, 8, 7);
+            fail("Expected bounds check failure");
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    public void testConcurrentGetByteBuffer() throws Exception {
+        if (!Platform.HAS_BUFFERS) return;
+
+        final Memory m = new Memory(4096);
+        m.clear();
+        Thread[] threads = new Thread[8];
+        final Throwable[] errors = new Throwable[threads.length];
+        for (int t=0;t < threads.length;t++) {
+            final int index = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i=0;i < 1000;i++) {
+                            int offset = (index * 512 + i % 512) & ~7;
+                            ByteBuffer b = m.getByteBuffer(offset, 8);
+                            b.putLong(0, i);
+                            assertEquals(i, b.getLong(0));
+                        }
+                    } catch (Throwable e) {
+                        errors[index] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t=0;t < threads.length;t++) {
+            threads[t].join();
+            if (errors[t] != null) {
+                throw new AssertionError("Thread " + t + " failed", errors[t]);
+            }
+        }
+    }
+
     public void testDump() {
         // test with 15 bytes so last line has less than 4 bytes
         int n = 15;
@@ -335,6 +335,44 @@ public class NativeLibraryTest extends TestCase {
         Native.load("testlib", TestLibrary.class, Collections.singletonMap(Library.OPTION_OPEN_FLAGS, Integer.valueOf(-1)));
     }
 
+    public interface ValidatedLibrary extends Library {
+        int callCount();
+        // provided by a dependency of the test library
+        Pointer memset(Pointer p, int value, int size);
+    }
+    public void testValidateSymbols() {
+        ValidatedLibrary lib = Native.load("testlib", ValidatedLibrary.class,
+                                           Collections.singletonMap(Library.OPTION_VALIDATE_SYMBOLS, Boolean.TRUE));
+        assertNotNull("Library not loaded", lib);
+    }
+
+    public interface IncompleteLibrary extends Library {
+        int callCount();
+        void missingFunctionOne();
+        void missingFunctionTwo();
+    }
+    public void testValidateSymbolsReportsAllMissingSymbols() {
+        try {
+            Native.load("testlib", IncompleteLibrary.class,
+                        Collections.singletonMap(Library.OPTION_VALIDATE_SYMBOLS, Boolean.TRUE));
+            fail("Missing symbols should fail validation");
+        } catch(UnsatisfiedLinkError e) {
+            assertTrue("Missing symbol not reported: " + e.getMessage(), e.getMessage().contains("missingFunctionOne"));
+            assertTrue("Missing symbol not reported: " + e.getMessage(), e.getMessage().contains("missingFunctionTwo"));
+            assertFalse("Existing symbol reported: " + e.getMessage(), e.getMessage().contains("callCount"));
+        }
+    }
+
+    public void testGetExportedSymbols() {
+        if (!Platform.isLinux() || Platform.isAndroid()) {
+            return;
+        }
+        NativeLibrary lib = NativeLibrary.getInstance("testlib");
+        assertTrue("Function not exported", lib.getExportedSymbols().contains("callCount"));
+        assertTrue("Variable not exported", lib.getExportedSymbols().contains("test_global"));
+        assertFalse("Dependency symbol listed", lib.getExportedSymbols().contains("memset"));
+    }
+
     public interface Kernel32 {
         int GetLastError();
         void SetLastError(int code);
@@ -28,6 +28,7 @@ package com.sun.jna;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 import junit.framework.TestCase;
@@ -192,6 +193,124 @@ public class PointerTest extends TestCase {
         assertNull("Array element should be null", arr[0]);
     }
 
+    public void testCopyTo() {
+        Memory src = new Memory(16);
+        Memory dst = new Memory(16);
+        dst.clear();
+        for (int i=0;i < 16;i++) {
+            src.setByte(i, (byte)i);
+        }
+        src.copyTo(4, dst, 2, 8);
+        assertEquals("Byte before copy modified", 0, dst.getByte(1));
+        for (int i=0;i < 8;i++) {
+            assertEquals("Wrong byte copied at " + i, i + 4, dst.getByte(2 + i));
+        }
+        assertEquals("Byte after copy modified", 0, dst.getByte(10));
+
+        // Overlapping copy
+        src.copyTo(0, src, 1, 15);
+        for (int i=1;i < 16;i++) {
+            assertEquals("Wrong byte after overlapping copy at " + i, i - 1, src.getByte(i));
+        }
+        try {
+            src.copyTo(0, dst, 10, 8);
+            fail("Copy past the end of the destination should fail");
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    public void testCompare() {
+        Memory a = new Memory(8);
+        Memory b = new Memory(8);
+        a.clear();
+        b.clear();
+        assertEquals("Equal memory should compare equal", 0, a.compare(b, 8));
+        b.setByte(5, (byte)0x80);
+        assertEquals("Bytes should compare unsigned", -1, a.compare(b, 8));
+        assertEquals("Bytes should compare unsigned", 1, b.compare(a, 8));
+        assertEquals("Only the given length should be compared", 0, a.compare(b, 5));
+        assertEquals("Offsets not applied", 0, a.compare(0, b, 6, 2));
+    }
+
+    public void testIndexOfPattern() {
+        Memory m = new Memory(64);
+        m.clear();
+        byte[] pattern = { 1, 2, 3 };
+        assertEquals("Pattern should not be found", -1, m.indexOf(0, 64, pattern));
+        m.write(40, pattern, 0, pattern.length);
+        assertEquals("Pattern not found", 40, m.indexOf(0, 64, pattern));
+        assertEquals("Pattern not found from offset", 40, m.indexOf(10, 54, pattern));
+        assertEquals("Pattern found beyond given length", -1, m.indexOf(0, 42, pattern));
+        assertEquals("Empty pattern should match at offset", 7, m.indexOf(7, 10, new byte[0]));
+    }
+
+    public void testFill() {
+        Memory m = new Memory(40);
+        m.clear();
+        byte[] pattern = { 1, 2, 3 };
+        m.fill(1, 38, pattern);
+        assertEquals("Byte before fill modified", 0, m.getByte(0));
+        for (int i=0;i < 38;i++) {
+            assertEquals("Wrong byte at " + i, pattern[i % 3], m.getByte(1 + i));
+        }
+        assertEquals("Byte after fill modified", 0, m.getByte(39));
+        m.fill(0, 40, new byte[] { 7 });
+        assertEquals("Wrong single byte fill", 7, m.getByte(39));
+        try {
+            m.fill(0, 4, new byte[0]);
+            fail("Empty pattern should be rejected");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testBulkOperationsNotRecordedByCallMetrics() {
+        Memory m = new Memory(32);
+        m.clear();
+        boolean enabled = CallMetrics.isEnabled();
+        CallMetrics.reset();
+        CallMetrics.setEnabled(true);
+        try {
+            m.copyTo(0, m, 8, 16);
+            m.compare(0, m, 16, 16);
+            m.indexOf(0, 32, new byte[] { 1, 2 });
+            m.fill(0, 32, new byte[] { 1, 2 });
+        } finally {
+            CallMetrics.setEnabled(enabled);
+        }
+        for (CallMetrics.FunctionStatistics s : CallMetrics.getStatistics()) {
+            assertEquals("Bulk operation recorded: " + s.getName(), 0, s.getCallCount());
+        }
+    }
+
+    public void testByteOrderTransfers() {
+        Memory m = new Memory(16);
+        ByteOrder swapped = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN
+            ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        int[] ints = { 0x01020304, 0x05060708 };
+        m.write(0, ints, 0, 2, swapped);
+        assertEquals("Array should not be modified", 0x01020304, ints[0]);
+        assertEquals("Value not swapped", 0x04030201, m.getInt(0));
+        int[] iresult = new int[2];
+        m.read(0, iresult, 0, 2, swapped);
+        assertTrue("Round trip failed", Arrays.equals(ints, iresult));
+        m.read(0, iresult, 0, 2, ByteOrder.nativeOrder());
+        assertEquals("Native order should not swap", 0x08070605, iresult[1]);
+
+        short[] shorts = { 0x0102 };
+        m.write(0, shorts, 0, 1, swapped);
+        assertEquals("Short not swapped", 0x0201, m.getShort(0));
+        short[] sresult = new short[1];
+        m.read(0, sresult, 0, 1, swapped);
+        assertEquals("Short round trip failed", 0x0102, sresult[0]);
+
+        long[] longs = { 0x0102030405060708L };
+        m.write(8, longs, 0, 1, swapped);
+        assertEquals("Long not swapped", 0x0807060504030201L, m.getLong(8));
+        long[] lresult = new long[1];
+        m.read(8, lresult, 0, 1, swapped);
+        assertEquals("Long round trip failed", longs[0], lresult[0]);
+    }
+
     private Object defaultArg(Class<?> type) {
         if (type == boolean.class || type == Boolean.class) return Boolean.FALSE;
         if (type == byte.class || type == Byte.class) return Byte.valueOf((byte)0);
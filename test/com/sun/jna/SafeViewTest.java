@@ -0,0 +1,182 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+public class SafeViewTest extends TestCase {
+
+    public void testValidView() {
+        if (!SafeView.isSupported()) return;
+
+        Memory m = new Memory(64);
+        m.clear();
+        m.setInt(8, 42);
+        SafeView view = SafeView.of(m, m.size());
+        assertEquals("Wrong value", 42, view.getInt(8));
+        try {
+            view.getInt(62);
+            fail("Access past the end of the view should fail");
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    public void testInvalidAddress() {
+        if (!SafeView.isSupported()) return;
+
+        try {
+            SafeView.of(Pointer.NULL, 4);
+            fail("NULL should not be accepted");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            SafeView.of(new Pointer(16), 4);
+            fail("Unmapped low address should not be accepted");
+        } catch (IllegalArgumentException e) {
+        }
+        Memory m = new Memory(64);
+        try {
+            SafeView.of(m, Long.MAX_VALUE / 2);
+            fail("Range extending past the mapping should not be accepted");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testReadOnlyView() {
+        if (!SafeView.isSupported()) return;
+
+        Memory m = new Memory(16);
+        m.clear();
+        SafeView view = SafeView.of(m, m.size());
+        assertFalse("View should be read-only", view.isWritable());
+        try {
+            view.setInt(0, 1);
+            fail("Write to read-only view should fail");
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            view.share(4).setByte(0, (byte)1);
+            fail("Write to shared read-only view should fail");
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            view.clear();
+            fail("Clearing a read-only view should fail");
+        } catch (UnsupportedOperationException e) {
+        }
+        ByteBuffer b = view.getByteBuffer(0, 16);
+        try {
+            b.put(0, (byte)1);
+            fail("Buffer from read-only view should be read-only");
+        } catch (ReadOnlyBufferException e) {
+        }
+        ByteBuffer[] buffers = view.getByteBuffers(0, 8, 2);
+        for (ByteBuffer buffer : buffers) {
+            assertTrue("Buffers from read-only view should be read-only", buffer.isReadOnly());
+        }
+        try {
+            buffers[0].put(0, (byte)42);
+            fail("Buffers from read-only view should be read-only");
+        } catch (ReadOnlyBufferException e) {
+        }
+        assertEquals("Memory modified", 0, m.getInt(0));
+
+        SafeView writable = SafeView.of(m, m.size(), true);
+        writable.setInt(0, 1);
+        assertEquals("Write through writable view failed", 1, m.getInt(0));
+    }
+
+    public void testDereference() {
+        if (!SafeView.isSupported()) return;
+
+        Memory target = new Memory(8);
+        target.setString(0, "abc", "ASCII");
+        Memory m = new Memory(Native.POINTER_SIZE * 2);
+        m.setPointer(0, target);
+        m.setPointer(Native.POINTER_SIZE, null);
+        SafeView view = SafeView.of(m, m.size());
+        assertEquals("Wrong string", "abc", view.dereference(0, target.size()).getString(0, "ASCII"));
+        try {
+            view.dereference(Native.POINTER_SIZE, 1);
+            fail("NULL pointer should not be dereferenced");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testUnterminatedString() {
+        if (!SafeView.isSupported()) return;
+
+        Memory m = new Memory(8);
+        m.setString(0, "abcdefg", "ASCII");
+        SafeView view = SafeView.of(m, 4);
+        try {
+            view.getString(0, "ASCII");
+            fail("Unterminated string should not be read");
+        } catch (IndexOutOfBoundsException e) {
+        }
+        assertEquals("Wrong string", "abcdefg", SafeView.of(m, 8).getString(0, "ASCII"));
+    }
+
+    public void testConcurrentValidation() throws Exception {
+        if (!SafeView.isSupported()) return;
+
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] threads = new Thread[8];
+        for (int t=0;t < threads.length;t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i=0;i < 200;i++) {
+                            Memory m = new Memory(1024);
+                            m.setLong(0, i);
+                            assertEquals(i, SafeView.of(m, m.size()).getLong(0));
+                            try {
+                                SafeView.of(new Pointer(8), 8);
+                                fail("Invalid address accepted");
+                            } catch (IllegalArgumentException e) {
+                            }
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (error.get() != null) {
+            throw new AssertionError("Concurrent validation failed", error.get());
+        }
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(SafeViewTest.class);
+    }
+}
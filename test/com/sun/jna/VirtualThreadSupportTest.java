@@ -0,0 +1,171 @@
+/*
+ * The contents of this file is dual-licensed under 2
+ * alternative Open Source/Free licenses: LGPL 2.1 or later and
+ * Apache License 2.0. (starting with JNA version 4.0.0).
+ *
+ * You can freely decide which license you want to apply to
+ * the project.
+ *
+ * You may obtain a copy of the LGPL License at:
+ *
+ * http://www.gnu.org/licenses/licenses.html
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "LGPL2.1".
+ *
+ * You may obtain a copy of the Apache License at:
+ *
+ * http://www.apache.org/licenses/
+ *
+ * A copy is also included in the downloadable source code package
+ * containing JNA, in file "AL2.0".
+ */
+package com.sun.jna;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import junit.framework.TestCase;
+
+public class VirtualThreadSupportTest extends TestCase {
+
+    public interface TestLibrary extends Library {
+        int returnInt32Argument(int arg);
+        interface Int32Callback extends Callback {
+            int callback(int arg, int arg2);
+        }
+        int callInt32Callback(Int32Callback cb, int arg1, int arg2);
+    }
+
+    private static boolean hasVirtualThreads() {
+        try {
+            Thread.class.getMethod("isVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @Override
+    protected void setUp() {
+        VirtualThreadSupport.resetCounters();
+    }
+
+    public void testSupportMatchesVM() {
+        assertEquals("Wrong virtual thread support detected",
+                     hasVirtualThreads(), VirtualThreadSupport.isSupported());
+        assertFalse("Current thread should not be virtual",
+                    VirtualThreadSupport.isVirtual(Thread.currentThread()));
+    }
+
+    public void testBlockingMethodOption() {
+        Map<String, Object> options = new HashMap<>();
+        assertFalse("No methods should be blocking by default",
+                    VirtualThreadSupport.isBlocking(Object.class.getMethods()[0], options));
+        options.put(Library.OPTION_BLOCKING_METHODS, Boolean.TRUE);
+        assertTrue("All methods should be blocking",
+                   VirtualThreadSupport.isBlocking(Object.class.getMethods()[0], options));
+        options.put(Library.OPTION_BLOCKING_METHODS, Arrays.asList("returnInt32Argument"));
+        for (java.lang.reflect.Method m : TestLibrary.class.getMethods()) {
+            assertEquals("Wrong blocking status for " + m.getName(),
+                         m.getName().equals("returnInt32Argument"),
+                         VirtualThreadSupport.isBlocking(m, options));
+        }
+        options.put(Library.OPTION_BLOCKING_METHODS, "returnInt32Argument");
+        try {
+            VirtualThreadSupport.isBlocking(Object.class.getMethods()[0], options);
+            fail("Invalid option value should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testOffloadRunsOnExecutor() throws Throwable {
+        final Thread[] executed = new Thread[1];
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                Thread t = new Thread(command, "offload");
+                t.start();
+            }
+        };
+        Object result = VirtualThreadSupport.offload(executor, new Callable<Object>() {
+            @Override
+            public Object call() {
+                executed[0] = Thread.currentThread();
+                return "result";
+            }
+        });
+        assertEquals("Wrong result", "result", result);
+        assertNotSame("Call should not run on the calling thread", Thread.currentThread(), executed[0]);
+        assertEquals("Wrong thread", "offload", executed[0].getName());
+        assertEquals("Offloaded call not counted", 1, VirtualThreadSupport.getOffloadedCallCount());
+    }
+
+    public void testOffloadPropagatesException() throws Throwable {
+        final LastErrorException error = new LastErrorException(42);
+        try {
+            VirtualThreadSupport.offload(null, new Callable<Object>() {
+                @Override
+                public Object call() {
+                    throw error;
+                }
+            });
+            fail("Exception should propagate");
+        } catch (LastErrorException e) {
+            assertSame("Wrong exception", error, e);
+        }
+    }
+
+    public void testOffloadPreservesInterrupt() throws Throwable {
+        Thread.currentThread().interrupt();
+        try {
+            Object result = VirtualThreadSupport.offload(null, new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    Thread.sleep(50);
+                    return Boolean.TRUE;
+                }
+            });
+            assertEquals("Call should complete despite interrupt", Boolean.TRUE, result);
+            assertTrue("Interrupt status should be restored", Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    public void testBlockingLibraryFromPlatformThread() {
+        Map<String, Object> options = new HashMap<>();
+        options.put(Library.OPTION_BLOCKING_METHODS, Boolean.TRUE);
+        TestLibrary lib = Native.load("testlib", TestLibrary.class, options);
+        assertEquals("Wrong result", 42, lib.returnInt32Argument(42));
+        assertEquals("Platform thread calls should not be offloaded", 0, VirtualThreadSupport.getOffloadedCallCount());
+        assertEquals("Platform thread calls should not pin", 0, VirtualThreadSupport.getPinnedCallCount());
+    }
+
+    public void testVirtualThreadCallbackOption() {
+        Map<String, Object> options = new HashMap<>();
+        options.put(Library.OPTION_VIRTUAL_THREAD_CALLBACKS, Boolean.TRUE);
+        TestLibrary lib = Native.load("testlib", TestLibrary.class, options);
+        final Thread[] called = new Thread[1];
+        TestLibrary.Int32Callback cb = new TestLibrary.Int32Callback() {
+            @Override
+            public int callback(int arg, int arg2) {
+                called[0] = Thread.currentThread();
+                return arg + arg2;
+            }
+        };
+        assertEquals("Wrong callback result", 3, lib.callInt32Callback(cb, 1, 2));
+        assertEquals("Callback dispatch to virtual thread",
+                     VirtualThreadSupport.isSupported(), VirtualThreadSupport.isVirtual(called[0]));
+        assertEquals("Virtual callback count",
+                     VirtualThreadSupport.isSupported() ? 1 : 0, VirtualThreadSupport.getVirtualCallbackCount());
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(VirtualThreadSupportTest.class);
+    }
+}